@@ -0,0 +1,362 @@
+package org.cdlib.util.marc;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * An input stream decompressing block gzip (BGZF) data, the series of
+ * independent gzip members, each recording its own compressed size in a
+ * "BC" extra field, written by bgzip and similar tools.
+ *
+ * Because each member's size is known from its header, members are read
+ * ahead on the caller's thread and inflated in parallel by a pool of
+ * threads, while their output is returned in order. Each member's CRC and
+ * size are checked. The pool is shut down when the stream is closed.
+ *
+ * @see CompressedInput
+ */
+final class BlockGzipInputStream extends InputStream
+{
+    /**
+     * The length of the fixed part of a gzip member header.
+     */
+    static final int HEADER_LENGTH = 12;
+
+    private static final byte[] EMPTY = new byte[0];
+
+    /**
+     * An inflater for each pool thread, reset for each member.
+     */
+    private static final ThreadLocal<Inflater> INFLATER = new ThreadLocal<Inflater>()
+    {
+        protected Inflater initialValue()
+        {
+            return new Inflater(true);
+        }
+    };
+
+    //====================================================
+    //       PRIVATE VARIABLES
+    //====================================================
+    private final InputStream                in;
+    private final ExecutorService            pool;
+    private final int                        depth;
+    private final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+    private byte[]                           block   = EMPTY;
+    private int                              pos     = 0;
+    private boolean                          eof     = false;
+
+
+    //====================================================
+    //       CONSTRUCTORS
+    //====================================================
+
+    /**
+     * Create a stream decompressing the supplied block gzip data.
+     *
+     * @param in the compressed data
+     * @param threads the number of threads inflating members
+     */
+    BlockGzipInputStream(InputStream in, int threads)
+    {
+        this.in = in;
+        this.depth = Math.max(2, threads * 2);
+        this.pool = Executors.newFixedThreadPool(Math.max(1, threads), new ThreadFactory()
+        {
+            public Thread newThread(Runnable r)
+            {
+                Thread t = new Thread(r, "BlockGzipInputStream inflater");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+
+    //====================================================
+    //       PUBLIC METHODS
+    //====================================================
+
+    public int read()
+        throws IOException
+    {
+        return (fill() ? block[pos++] & 0xFF : -1);
+    }
+
+    public int read(byte[] b, int off, int len)
+        throws IOException
+    {
+        if ( len == 0 )
+        {
+            return 0;
+        }
+        if ( !fill() )
+        {
+            return -1;
+        }
+        int n = Math.min(len, block.length - pos);
+        System.arraycopy(block, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    public int available()
+    {
+        return block.length - pos;
+    }
+
+    public void close()
+        throws IOException
+    {
+        pool.shutdownNow();
+        pending.clear();
+        block = EMPTY;
+        pos = 0;
+        eof = true;
+        in.close();
+    }
+
+
+    //====================================================
+    //       PACKAGE METHODS
+    //====================================================
+
+    /**
+     * Return the block size recorded in the "BC" subfield of a gzip extra
+     * field, or -1 if there is none.
+     *
+     * @param extra the buffer holding the extra field
+     * @param off the offset of the extra field
+     * @param xlen the length of the extra field
+     */
+    static int blockSize(byte[] extra, int off, int xlen)
+    {
+        int i = off;
+        int end = off + xlen;
+        while ( i + 4 <= end )
+        {
+            int slen = u16(extra, i + 2);
+            if ( extra[i] == 'B' && extra[i + 1] == 'C' && slen == 2 && i + 6 <= end )
+            {
+                return u16(extra, i + 4) + 1;
+            }
+            i += 4 + slen;
+        }
+        return -1;
+    }
+
+
+    //====================================================
+    //       PRIVATE METHODS
+    //====================================================
+
+    /**
+     * Make sure the current block has bytes left, taking the next inflated
+     * member and keeping the pool busy with those following it.
+     *
+     * @return false at the end of the data
+     */
+    private boolean fill()
+        throws IOException
+    {
+        while ( pos == block.length )
+        {
+            while ( !eof && pending.size() < depth )
+            {
+                byte[] member = readMember();
+                if ( member == null )
+                {
+                    eof = true;
+                }
+                else
+                {
+                    pending.add(pool.submit(new Inflate(member)));
+                }
+            }
+
+            Future<byte[]> next = pending.poll();
+            if ( next == null )
+            {
+                return false;
+            }
+            block = result(next);
+            pos = 0;
+        }
+        return true;
+    }
+
+    /**
+     * Read the next compressed member.
+     *
+     * @return the member, or null at the end of the data
+     */
+    private byte[] readMember()
+        throws IOException
+    {
+        byte[] head = new byte[HEADER_LENGTH];
+        int n = readFully(head, 0, HEADER_LENGTH);
+        if ( n == 0 )
+        {
+            return null;
+        }
+        if ( n < HEADER_LENGTH || (head[0] & 0xFF) != 0x1F || (head[1] & 0xFF) != 0x8B
+             || head[2] != 8 || (head[3] & 0x04) == 0 )
+        {
+            throw new IOException("Not a block gzip member");
+        }
+
+        int xlen = u16(head, 10);
+        byte[] extra = new byte[xlen];
+        if ( readFully(extra, 0, xlen) < xlen )
+        {
+            throw new EOFException("Truncated block gzip header");
+        }
+
+        int size = blockSize(extra, 0, xlen);
+        if ( size < HEADER_LENGTH + xlen + 8 )
+        {
+            throw new IOException("Block gzip member without block size");
+        }
+
+        byte[] member = new byte[size];
+        System.arraycopy(head, 0, member, 0, HEADER_LENGTH);
+        System.arraycopy(extra, 0, member, HEADER_LENGTH, xlen);
+        int rest = size - HEADER_LENGTH - xlen;
+        if ( readFully(member, HEADER_LENGTH + xlen, rest) < rest )
+        {
+            throw new EOFException("Truncated block gzip member");
+        }
+        return member;
+    }
+
+    /**
+     * Read until the buffer is full or the data ends.
+     *
+     * @return the number of bytes read
+     */
+    private int readFully(byte[] b, int off, int len)
+        throws IOException
+    {
+        int got = 0;
+        while ( got < len )
+        {
+            int n = in.read(b, off + got, len - got);
+            if ( n < 0 )
+            {
+                break;
+            }
+            got += n;
+        }
+        return got;
+    }
+
+    /**
+     * Wait for an inflated member.
+     */
+    private static byte[] result(Future<byte[]> f)
+        throws IOException
+    {
+        try
+        {
+            return f.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted inflating block gzip member");
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            if ( cause instanceof IOException )
+            {
+                throw (IOException)cause;
+            }
+            throw new IOException(cause.getMessage(), cause);
+        }
+    }
+
+    private static int u16(byte[] b, int off)
+    {
+        return (b[off] & 0xFF) | ((b[off + 1] & 0xFF) << 8);
+    }
+
+    private static int u32(byte[] b, int off)
+    {
+        return u16(b, off) | (u16(b, off + 2) << 16);
+    }
+
+
+    //====================================================
+    //       NESTED CLASSES
+    //====================================================
+
+    /**
+     * Inflates one member, checking its size and CRC.
+     */
+    private static final class Inflate implements Callable<byte[]>
+    {
+        private final byte[] member;
+
+        Inflate(byte[] member)
+        {
+            this.member = member;
+        }
+
+        public byte[] call()
+            throws IOException
+        {
+            int off = HEADER_LENGTH + u16(member, 10);
+            int end = member.length - 8;
+            int size = u32(member, end + 4);
+            byte[] out = new byte[size];
+
+            Inflater inflater = INFLATER.get();
+            inflater.reset();
+            inflater.setInput(member, off, end - off);
+            int n = 0;
+            try
+            {
+                while ( !inflater.finished() )
+                {
+                    int k = inflater.inflate(out, n, size - n);
+                    if ( k == 0 && (n == size || inflater.needsInput() || inflater.needsDictionary()) )
+                    {
+                        break;
+                    }
+                    n += k;
+                }
+            }
+            catch (DataFormatException e)
+            {
+                throw new IOException("Invalid block gzip data: " + e.getMessage(), e);
+            }
+
+            if ( !inflater.finished() || n != size )
+            {
+                throw new IOException("Block gzip member size mismatch");
+            }
+
+            CRC32 crc = new CRC32();
+            crc.update(out, 0, size);
+            if ( (int)crc.getValue() != u32(member, end) )
+            {
+                throw new IOException("Block gzip member CRC mismatch");
+            }
+            return out;
+        }
+    }
+
+}
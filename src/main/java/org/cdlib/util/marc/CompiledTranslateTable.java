@@ -0,0 +1,456 @@
+package org.cdlib.util.marc;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.apache.regexp.RE;
+
+/**
+ * A <code>TranslateTable</code> that compiles its rules for speed, and
+ * applies them in table order.
+ *
+ * Rules are applied one after another, in the order given, each to the
+ * result of the rules before it, which is what <code>TranslateTable</code>
+ * does in whatever order its <code>HashMap</code> yields the rules. The
+ * results agree whenever the rules do not interact, as in the usual table
+ * of single character substitutions; where they do interact, the results of
+ * this class follow the table order.
+ *
+ * A rule whose expression is only a literal is not run as a regular
+ * expression. Consecutive rules that each replace a single character are
+ * combined into one character keyed lookup, applied in a single pass over
+ * the string, provided no rule matches a character produced by an earlier
+ * rule of the group, in which case a new group is started. Longer literals
+ * are replaced by a plain string search. Only true patterns are run as
+ * regular expressions, using <code>java.util.regex</code>, or jakarta-regexp
+ * for the few expressions <code>java.util.regex</code> does not accept or
+ * reads differently, such as POSIX character classes like
+ * <code>[:alpha:]</code>.
+ * Substitution strings are always taken literally, as by
+ * <code>RE.subst</code> with <code>REPLACE_ALL</code>.
+ *
+ * Once built, a table may be shared by several threads.
+ *
+ * @see TranslateTable
+ */
+public class CompiledTranslateTable extends TranslateTable
+{
+	/**
+	 * log4j Logger for this class.
+	 */
+    private static Logger log = LoggerFactory.getLogger(CompiledTranslateTable.class);
+
+    /**
+     * Characters that make a jakarta-regexp expression more than a literal.
+     */
+    private static final String META = "^$.[]()|*+?{}";
+
+    //====================================================
+    //       PRIVATE VARIABLES
+    //====================================================
+    private Stage[] stages = new Stage[0];
+
+
+    //====================================================
+    //       CONSTRUCTORS
+    //====================================================
+
+    /**
+     * Create a new <code>CompiledTranslateTable</code> object without
+     * any rules.
+     */
+    public CompiledTranslateTable()
+    {
+    }
+
+    /**
+     * Create a new <code>CompiledTranslateTable</code> object and compile
+     * the supplied rules.
+     *
+     * @param xlatTbl the array of expression and substitution string pairs
+     */
+    public CompiledTranslateTable(String[][] xlatTbl)
+    {
+        makeMap(xlatTbl);
+    }
+
+
+    //====================================================
+    //       PUBLIC METHODS
+    //====================================================
+
+    /**
+     * Compile a set of translation rules, each a pair of a jakarta-regexp
+     * regular expression and a substitution string, to be applied in the
+     * order given. The rules are also stored as by
+     * <code>TranslateTable.makeMap</code>.
+     *
+     * @param xlatTbl the array of string pairs (<code>String[][]</code>)
+     * @return true unless an exception occurs, false if an exception occurs
+     */
+    public boolean makeMap(String[][] xlatTbl)
+    {
+        if ( !super.makeMap(xlatTbl) )
+        {
+            return false;
+        }
+
+        try
+        {
+            ArrayList<Stage> list = new ArrayList<Stage>();
+            CharStage chars = null;
+            int max = xlatTbl.length;
+            for ( int i = 0; i < max; i++ )
+            {
+                String sub = xlatTbl[i][1];
+                String literal = literal(xlatTbl[i][0]);
+
+                if ( literal != null && literal.length() == 1 )
+                {
+                    if ( chars == null || !chars.add(literal.charAt(0), sub) )
+                    {
+                        chars = new CharStage();
+                        chars.add(literal.charAt(0), sub);
+                        list.add(chars);
+                    }
+                    continue;
+                }
+
+                chars = null;
+                if ( literal != null && literal.length() > 1 )
+                {
+                    list.add(new LiteralStage(literal, sub));
+                }
+                else
+                {
+                    list.add(regexStage(xlatTbl[i][0], sub));
+                }
+            }
+            stages = list.toArray(new Stage[list.size()]);
+        }
+        catch (Exception e)
+        {
+            log.error("Exception: " + e.getMessage(), e);
+            stages = new Stage[0];
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Apply each rule, in table order, to the result of the rules before
+     * it. This method traps and logs all exceptions.
+     *
+     * @param str the string to translate
+     * @return the translated string
+     */
+    public String applyAll(String str)
+    {
+        String sRet = str;
+        try
+        {
+            Stage[] s = stages;
+            int max = s.length;
+            for ( int i = 0; i < max; i++ )
+            {
+                sRet = s[i].apply(sRet);
+            }
+        }
+        catch (Exception e)
+        {
+            log.error("Exception: " + e.getMessage(), e);
+        }
+        return sRet;
+    }
+
+
+    //====================================================
+    //       PRIVATE METHODS
+    //====================================================
+
+    /**
+     * Return the text matched by a jakarta-regexp expression that can only
+     * match a literal string, or null if the expression is a true pattern.
+     */
+    static String literal(String regex)
+    {
+        if ( regex == null || regex.length() == 0 )
+        {
+            return null;
+        }
+
+        StringBuilder sb = new StringBuilder(regex.length());
+        int n = regex.length();
+        for ( int i = 0; i < n; i++ )
+        {
+            char c = regex.charAt(i);
+            if ( META.indexOf(c) >= 0 )
+            {
+                return null;
+            }
+            if ( c != '\\' )
+            {
+                sb.append(c);
+                continue;
+            }
+
+            if ( ++i >= n )
+            {
+                return null;
+            }
+            c = regex.charAt(i);
+            if ( c == '\\' || META.indexOf(c) >= 0 )
+            {
+                sb.append(c);
+            }
+            else if ( c == 't' )
+            {
+                sb.append('\t');
+            }
+            else if ( c == 'n' )
+            {
+                sb.append('\n');
+            }
+            else if ( c == 'r' )
+            {
+                sb.append('\r');
+            }
+            else if ( c == 'f' )
+            {
+                sb.append('\f');
+            }
+            else if ( (c == 'x' && hex(regex, i + 1, 2) >= 0)
+                      || (c == 'u' && hex(regex, i + 1, 4) >= 0) )
+            {
+                int digits = (c == 'x' ? 2 : 4);
+                sb.append((char)hex(regex, i + 1, digits));
+                i += digits;
+            }
+            else
+            {
+                // a character class or other escape
+                return null;
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Parse a run of hex digits, returning -1 if any is not a hex digit.
+     */
+    private static int hex(String s, int off, int len)
+    {
+        if ( off + len > s.length() )
+        {
+            return -1;
+        }
+        int v = 0;
+        for ( int i = off; i < off + len; i++ )
+        {
+            int d = Character.digit(s.charAt(i), 16);
+            if ( d < 0 )
+            {
+                return -1;
+            }
+            v = v * 16 + d;
+        }
+        return v;
+    }
+
+    /**
+     * Build the stage for a true pattern.
+     */
+    private static Stage regexStage(String regex, String sub)
+        throws Exception
+    {
+        if ( PatternCache.hasPosixClass(regex) )
+        {
+            return new REStage(new RE(regex), sub);
+        }
+        try
+        {
+            return new PatternStage(Pattern.compile(regex), sub);
+        }
+        catch (PatternSyntaxException e)
+        {
+            log.debug("using jakarta-regexp for '" + regex + "' - " + e.getDescription());
+            return new REStage(new RE(regex), sub);
+        }
+    }
+
+
+    /**
+     * One step in applying the table.
+     */
+    private interface Stage
+    {
+        String apply(String s);
+    }
+
+    /**
+     * Replaces single characters, looked up by character.
+     */
+    private static final class CharStage implements Stage
+    {
+        private final String[]                    latin = new String[256];
+        private final HashMap<Character, String>  other = new HashMap<Character, String>();
+        private final StringBuilder               produced = new StringBuilder();
+        private char                              min = Character.MAX_VALUE;
+        private char                              max = 0;
+
+        /**
+         * Add a rule to the stage, unless an earlier rule of the stage
+         * produces its character, which a single pass would not see.
+         *
+         * @return true if the rule was added
+         */
+        boolean add(char c, String sub)
+        {
+            if ( produced.indexOf(String.valueOf(c)) >= 0 )
+            {
+                return false;
+            }
+            produced.append(sub);
+
+            // an earlier rule for the same character has already replaced it
+            if ( get(c) != null )
+            {
+                return true;
+            }
+            if ( c < 256 )
+            {
+                latin[c] = sub;
+            }
+            else
+            {
+                other.put(Character.valueOf(c), sub);
+            }
+            min = (char)Math.min(min, c);
+            max = (char)Math.max(max, c);
+            return true;
+        }
+
+        private String get(char c)
+        {
+            if ( c < min || c > max )
+            {
+                return null;
+            }
+            return (c < 256 ? latin[c] : other.get(Character.valueOf(c)));
+        }
+
+        public String apply(String s)
+        {
+            int n = s.length();
+            int i = 0;
+            while ( i < n && get(s.charAt(i)) == null )
+            {
+                i++;
+            }
+            if ( i == n )
+            {
+                return s;
+            }
+
+            StringBuilder sb = new StringBuilder(n + 16);
+            sb.append(s, 0, i);
+            for ( ; i < n; i++ )
+            {
+                char c = s.charAt(i);
+                String sub = get(c);
+                if ( sub == null )
+                {
+                    sb.append(c);
+                }
+                else
+                {
+                    sb.append(sub);
+                }
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Replaces every occurrence of a literal string.
+     */
+    private static final class LiteralStage implements Stage
+    {
+        private final String literal;
+        private final String sub;
+
+        LiteralStage(String literal, String sub)
+        {
+            this.literal = literal;
+            this.sub = sub;
+        }
+
+        public String apply(String s)
+        {
+            int at = s.indexOf(literal);
+            if ( at < 0 )
+            {
+                return s;
+            }
+
+            StringBuilder sb = new StringBuilder(s.length() + 16);
+            int from = 0;
+            while ( at >= 0 )
+            {
+                sb.append(s, from, at).append(sub);
+                from = at + literal.length();
+                at = s.indexOf(literal, from);
+            }
+            sb.append(s, from, s.length());
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Replaces every match of a <code>java.util.regex</code> pattern.
+     */
+    private static final class PatternStage implements Stage
+    {
+        private final Pattern pattern;
+        private final String  sub;
+
+        PatternStage(Pattern pattern, String sub)
+        {
+            this.pattern = pattern;
+            this.sub = Matcher.quoteReplacement(sub);
+        }
+
+        public String apply(String s)
+        {
+            Matcher m = pattern.matcher(s);
+            return (m.find() ? m.replaceAll(sub) : s);
+        }
+    }
+
+    /**
+     * Replaces every match of a jakarta-regexp expression. An
+     * <code>RE</code> is not thread safe, so each use is synchronized.
+     */
+    private static final class REStage implements Stage
+    {
+        private final RE     regex;
+        private final String sub;
+
+        REStage(RE regex, String sub)
+        {
+            this.regex = regex;
+            this.sub = sub;
+        }
+
+        public synchronized String apply(String s)
+        {
+            return regex.subst(s, sub, RE.REPLACE_ALL);
+        }
+    }
+
+}
@@ -0,0 +1,194 @@
+package org.cdlib.util.marc;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Opens marc input that may be gzip compressed, so the readers accept
+ * <code>.mrc.gz</code> files without any setting.
+ *
+ * Compression is detected from the gzip magic number, not the file name.
+ * Block gzip (BGZF) input, whose members record their own size, is
+ * inflated in parallel by a <code>BlockGzipInputStream</code>; any other
+ * gzip input, including the concatenated members written by
+ * <code>cat a.gz b.gz</code>, is read by a <code>GZIPInputStream</code>.
+ * Input that is not compressed is returned unchanged where possible.
+ *
+ * Compressed input can only be read sequentially, so readers opened on it
+ * do not position by record offset index.
+ *
+ * @see BlockGzipInputStream
+ */
+final class CompressedInput
+{
+    /**
+     * The number of leading bytes examined to detect compression.
+     */
+    private static final int PEEK_SIZE = 64;
+
+    /**
+     * The buffer size used to read compressed input.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final int PLAIN      = 0;
+    private static final int GZIP       = 1;
+    private static final int BLOCK_GZIP = 2;
+
+
+    //====================================================
+    //       CONSTRUCTORS
+    //====================================================
+
+    private CompressedInput()
+    {
+    }
+
+
+    //====================================================
+    //       PACKAGE METHODS
+    //====================================================
+
+    /**
+     * Tests if a file starts with the gzip magic number.
+     *
+     * @exception IOException if the file cannot be read
+     */
+    static boolean isGzip(File file)
+        throws IOException
+    {
+        FileInputStream in = new FileInputStream(file);
+        try
+        {
+            return (kind(in) != PLAIN);
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Tests if a stream returned by <code>open</code> decompresses its input.
+     */
+    static boolean isCompressed(InputStream in)
+    {
+        return (in instanceof GZIPInputStream || in instanceof BlockGzipInputStream);
+    }
+
+    /**
+     * Return a stream reading the decompressed content of a file stream,
+     * or the file stream itself if its content is not compressed. The
+     * content is examined from the stream's current position without
+     * moving it.
+     *
+     * @exception IOException if the stream cannot be read
+     */
+    static InputStream open(FileInputStream fin)
+        throws IOException
+    {
+        int kind = kind(fin);
+        return (kind == PLAIN ? fin : decompress(new BufferedInputStream(fin, BUFFER_SIZE), kind));
+    }
+
+    /**
+     * Return a stream reading the decompressed content of any stream, or a
+     * buffered stream over it if its content is not compressed.
+     *
+     * @exception IOException if the stream cannot be read
+     */
+    static InputStream open(InputStream in)
+        throws IOException
+    {
+        if ( in instanceof FileInputStream )
+        {
+            return open((FileInputStream)in);
+        }
+
+        InputStream bin = (in.markSupported() ? in : new BufferedInputStream(in, BUFFER_SIZE));
+        byte[] head = new byte[PEEK_SIZE];
+        bin.mark(PEEK_SIZE);
+        int n = 0;
+        while ( n < PEEK_SIZE )
+        {
+            int k = bin.read(head, n, PEEK_SIZE - n);
+            if ( k < 0 )
+            {
+                break;
+            }
+            n += k;
+        }
+        bin.reset();
+        return decompress(bin, kind(head, n));
+    }
+
+
+    //====================================================
+    //       PRIVATE METHODS
+    //====================================================
+
+    /**
+     * Wrap a stream in the decompressor for its kind of content.
+     */
+    private static InputStream decompress(InputStream in, int kind)
+        throws IOException
+    {
+        switch ( kind )
+        {
+            case BLOCK_GZIP:
+                return new BlockGzipInputStream(in, Runtime.getRuntime().availableProcessors());
+            case GZIP:
+                return new GZIPInputStream(in, BUFFER_SIZE);
+            default:
+                return in;
+        }
+    }
+
+    /**
+     * Determine the kind of content of a file stream from its current
+     * position, reading through its channel without moving it.
+     */
+    private static int kind(FileInputStream fin)
+        throws IOException
+    {
+        FileChannel ch = fin.getChannel();
+        long pos = ch.position();
+        ByteBuffer head = ByteBuffer.allocate(PEEK_SIZE);
+        while ( head.hasRemaining() )
+        {
+            if ( ch.read(head, pos + head.position()) < 0 )
+            {
+                break;
+            }
+        }
+        return kind(head.array(), head.position());
+    }
+
+    /**
+     * Determine the kind of content from its leading bytes.
+     */
+    private static int kind(byte[] head, int n)
+    {
+        if ( n < 2 || (head[0] & 0xFF) != 0x1F || (head[1] & 0xFF) != 0x8B )
+        {
+            return PLAIN;
+        }
+        if ( n >= BlockGzipInputStream.HEADER_LENGTH && (head[3] & 0x04) != 0 )
+        {
+            int xlen = (head[10] & 0xFF) | ((head[11] & 0xFF) << 8);
+            xlen = Math.min(xlen, n - BlockGzipInputStream.HEADER_LENGTH);
+            if ( BlockGzipInputStream.blockSize(head, BlockGzipInputStream.HEADER_LENGTH, xlen) > 0 )
+            {
+                return BLOCK_GZIP;
+            }
+        }
+        return GZIP;
+    }
+
+}
@@ -71,6 +71,12 @@ public abstract class Field implements Comparable
      */
     int id = -1;
 
+    /**
+     * The tag index of the record holding this field, told when the tag
+     * changes, or null if the field has not been indexed.
+     */
+    FieldTagIndex index = null;
+
 
     /**
      * Create an initialized Field.
@@ -214,6 +220,11 @@ public abstract class Field implements Comparable
                 tagint = -1;
             }
         }
+
+        if ( index != null )
+        {
+            index.retagged(this);
+        }
     }
 
 
@@ -378,6 +389,19 @@ public abstract class Field implements Comparable
     public abstract String marcDump();
 
 
+    /**
+     * Append the ascii formatted form of this field, as returned by
+     * <code>marcDump()</code>, to a buffer. Subclasses append it without
+     * first building it as a <code>String</code>.
+     *
+     * @param sb the buffer to append to
+     */
+    void appendMarc(StringBuilder sb)
+    {
+        sb.append(marcDump());
+    }
+
+
     /**
      * Stub for method that sets  field
      */
@@ -1,8 +1,10 @@
 package org.cdlib.util.marc;
 
 import java.util.Enumeration;
+import java.util.Iterator;
 import java.util.NoSuchElementException;
 import java.util.Vector;
+import java.util.stream.Stream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -12,13 +14,21 @@ import org.slf4j.LoggerFactory;
  * and provide an <code>Enumeration</code> over that collection.
  * The underlying data store is a <code>Vector</code>.
  *
- * Note: this class is not thread safe.
+ * The list is an <code>Enumeration</code> over itself: <code>elements()</code>
+ * rewinds that enumeration and returns the list. Since there is only one such
+ * enumeration per list, it must not be used by nested loops or by more than
+ * one thread. <code>iterator()</code> and <code>stream()</code> each walk the
+ * list with their own position instead, so any number of them may be used at
+ * once, by several threads provided no thread changes the list.
+ *
+ * Note: this class is not thread safe. A list that is changed by one
+ * thread must not be read by another without external synchronization.
  *
  * @author <a href="mailto:david.loy@ucop.edu">David Loy</a>
  * @author <a href="mailto:shawnm@splorkin.com">Shawn McGovern</a>
  * @version $Id: FieldList.java,v 1.5 2003/01/03 18:06:32 smcgovrn Exp $
  */
-public class FieldList implements Enumeration
+public class FieldList implements Enumeration, Iterable<Field>
 {
 	/**
 	 * log4j Logger for this class.
@@ -56,7 +66,7 @@ public class FieldList implements Enumeration
 	/**
 	 * The collection of fields.
 	 */
-    private Vector fields;
+    private Vector<Field> fields;
 
 	/**
 	 * The index used by the enumeration to iterate over the elements
@@ -70,7 +80,7 @@ public class FieldList implements Enumeration
      */
     public FieldList()
     {
-        fields = new Vector(10, 10);
+        fields = new Vector<Field>(10, 10);
     }
 
 
@@ -121,6 +131,30 @@ public class FieldList implements Enumeration
     }
 
 
+    /**
+     * Return a new iterator over the fields of this list, independent of
+     * any other iterator or enumeration over it.
+	 *
+     * @return an iterator over the fields of this list
+     */
+    public Iterator<Field> iterator()
+    {
+        return fields.iterator();
+    }
+
+
+    /**
+     * Return a new sequential stream over the fields of this list, independent
+     * of any other stream, iterator or enumeration over it.
+	 *
+     * @return a stream over the fields of this list
+     */
+    public Stream<Field> stream()
+    {
+        return fields.stream();
+    }
+
+
     //====================================================
     //       IMPLEMENTS ENUMERATION
     //====================================================
@@ -145,14 +179,14 @@ public class FieldList implements Enumeration
      */
     public Field elementAt(int index)
     {
-        return (Field)fields.elementAt(index);
+        return fields.elementAt(index);
     }
 
 
     /**
-     * Initiate an enumeration and return a reference to this object.
+     * Rewind the enumeration this list provides over itself and return it.
 	 *
-	 * @return a reference to this object
+	 * @return this list, positioned at its first field
      */
     public Enumeration elements()
     {
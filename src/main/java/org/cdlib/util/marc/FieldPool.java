@@ -0,0 +1,91 @@
+package org.cdlib.util.marc;
+
+import java.util.ArrayList;
+import java.util.Vector;
+
+/**
+ * A pool of field and subfield objects, used by a record rebuilt in place
+ * to recycle the objects of its previous fields rather than discard them.
+ *
+ * A pool belongs to a single record, and is not thread safe.
+ *
+ * @see MarcBaseRecord#rebuild(char[], int, int, int)
+ */
+final class FieldPool
+{
+    //====================================================
+    //       PRIVATE VARIABLES
+    //====================================================
+    private final ArrayList<MarcVblLengthField>   vblFields   = new ArrayList<MarcVblLengthField>();
+    private final ArrayList<MarcFixedLengthField> fixedFields = new ArrayList<MarcFixedLengthField>();
+    private final ArrayList<MarcSubfield>         subfields   = new ArrayList<MarcSubfield>();
+
+
+    //====================================================
+    //       PACKAGE METHODS
+    //====================================================
+
+    /**
+     * Return a field, and any subfields it holds, to the pool. Fields of
+     * other types are ignored.
+     */
+    void release(Field f)
+    {
+        if ( f instanceof MarcVblLengthField )
+        {
+            releaseSubfields((MarcVblLengthField)f);
+            vblFields.add((MarcVblLengthField)f);
+        }
+        else if ( f instanceof MarcFixedLengthField )
+        {
+            fixedFields.add((MarcFixedLengthField)f);
+        }
+    }
+
+    /**
+     * Return the subfields of a variable length field to the pool, leaving
+     * the field with none.
+     */
+    void releaseSubfields(MarcVblLengthField f)
+    {
+        Vector v = (Vector)f.data;
+        int max = (v == null ? 0 : v.size());
+        for ( int i = 0; i < max; i++ )
+        {
+            Object o = v.elementAt(i);
+            if ( o instanceof MarcSubfield )
+            {
+                subfields.add((MarcSubfield)o);
+            }
+        }
+        f.clearSubfields();
+    }
+
+    /**
+     * Take a variable length field from the pool, or create one.
+     */
+    MarcVblLengthField vblField()
+    {
+        int n = vblFields.size();
+        return (n > 0 ? vblFields.remove(n - 1) : new MarcVblLengthField());
+    }
+
+    /**
+     * Take a fixed length field from the pool, or create one.
+     */
+    MarcFixedLengthField fixedField()
+    {
+        int n = fixedFields.size();
+        return (n > 0 ? fixedFields.remove(n - 1) : new MarcFixedLengthField("", 0));
+    }
+
+    /**
+     * Take a subfield from the pool, or create one.
+     */
+    MarcSubfield subfield()
+    {
+        int n = subfields.size();
+        return (n > 0 ? subfields.remove(n - 1) : new MarcSubfield(' '));
+    }
+
+}
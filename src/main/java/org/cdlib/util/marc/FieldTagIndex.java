@@ -0,0 +1,431 @@
+package org.cdlib.util.marc;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Vector;
+
+/**
+ * An index of the fields of a marc record by tag.
+ *
+ * Fields with numeric tags are kept in one of 1000 slots, by tag value.
+ * Each slot lists its fields in record order, so the first field with a
+ * tag, or all of them, are found without scanning the record. Fields with
+ * any other tag are only counted; they are rare enough that lookups which
+ * might match them fall back to scanning the record.
+ *
+ * The index also notes whether the numeric tags of the record are in
+ * ascending order, as they are in nearly every record. When they are, the
+ * fields within a range of tags are found, in record order, by visiting just
+ * the occupied slots in that range.
+ *
+ * The index is built from the fields of the record when first used, and is
+ * then kept up to date as fields are added, removed, and replaced. A change
+ * it cannot follow cheaply, such as a field inserted among fields with the
+ * same tag, simply discards it, to be rebuilt when next used. An index
+ * belongs to one fields <code>Vector</code>, and is shared by the records
+ * sharing that <code>Vector</code>.
+ *
+ * Each indexed field refers back to its index, so changing the tag of a
+ * field in a record discards the index. A field indexed by more than one
+ * record refers instead to a marker standing for all of them, and changing
+ * its tag discards every index.
+ *
+ * @see MarcBaseRecord#getFirstField(int)
+ * @see MarcBaseRecord#getFields(int, int)
+ */
+final class FieldTagIndex
+{
+    /**
+     * Stands for the indexes of a field indexed by more than one record.
+     */
+    private static final FieldTagIndex SEVERAL = new FieldTagIndex();
+
+    /**
+     * The number of tag changes of fields indexed by more than one record.
+     * An index built before the latest such change is discarded.
+     */
+    private static volatile int severalRetagged = 0;
+
+    //====================================================
+    //       PRIVATE VARIABLES
+    //====================================================
+    private boolean   built   = false;
+    private boolean   ordered = true;
+    private boolean   shared  = false;
+    private Field[][] slots   = null;
+    private int[]     counts  = null;
+    private BitSet    used    = null;
+    private int       alpha   = 0;
+    private int       retagged = 0;
+
+
+    //====================================================
+    //       PACKAGE METHODS
+    //====================================================
+
+    /**
+     * Tests if the index is built and current.
+     */
+    boolean isBuilt()
+    {
+        return built;
+    }
+
+    /**
+     * Tests if the numeric tags of the indexed fields are in ascending
+     * order, so ranges may be collected from the index in record order.
+     */
+    boolean isOrdered()
+    {
+        return ordered;
+    }
+
+    /**
+     * Tests if any indexed field has a tag that is not numeric.
+     */
+    boolean hasAlphaTags()
+    {
+        return alpha > 0;
+    }
+
+    /**
+     * Tests if the index is shared by more than one record.
+     */
+    boolean isShared()
+    {
+        return shared;
+    }
+
+    /**
+     * Note that the index is shared by more than one record.
+     */
+    void setShared()
+    {
+        shared = true;
+    }
+
+    /**
+     * Discard the contents of the index, which will be rebuilt when next
+     * used. The slot arrays are kept for reuse.
+     */
+    void invalidate()
+    {
+        built = false;
+    }
+
+    /**
+     * Build the index from the supplied fields, if it is not already built.
+     *
+     * @param fields the fields of the record, in record order
+     */
+    void build(Vector fields)
+    {
+        if ( built && retagged == severalRetagged )
+        {
+            return;
+        }
+
+        retagged = severalRetagged;
+        reset();
+        int lastTagint = -1;
+        int max = fields.size();
+        for ( int i = 0; i < max; i++ )
+        {
+            Field f = (Field)fields.elementAt(i);
+            append(f);
+            if ( f.tagint >= 0 )
+            {
+                if ( f.tagint < lastTagint )
+                {
+                    ordered = false;
+                }
+                lastTagint = f.tagint;
+            }
+        }
+        built = true;
+    }
+
+    /**
+     * Index a field just placed in the record at the supplied position.
+     *
+     * @param fields the fields of the record, in record order
+     * @param pos the position of the new field
+     */
+    void added(Vector fields, int pos)
+    {
+        if ( !built )
+        {
+            return;
+        }
+
+        Field f = (Field)fields.elementAt(pos);
+        boolean last = (pos == fields.size() - 1);
+
+        if ( f.tagint < 0 )
+        {
+            own(f);
+            alpha++;
+            return;
+        }
+
+        Field prev = numericBefore(fields, pos);
+        Field next = (last ? null : numericAfter(fields, pos));
+
+        // fields inserted before another with the same or a lower tag, or
+        // into a record already out of order, may belong anywhere in their slot
+        if ( next != null && (!ordered || next.tagint <= f.tagint) )
+        {
+            built = false;
+            return;
+        }
+
+        if ( prev != null && prev.tagint > f.tagint )
+        {
+            ordered = false;
+        }
+        append(f);
+    }
+
+    /**
+     * Note that the tag of an indexed field has changed.
+     */
+    void retagged(Field f)
+    {
+        if ( this == SEVERAL )
+        {
+            severalRetagged++;
+        }
+        else
+        {
+            built = false;
+        }
+    }
+
+    /**
+     * Remove a field taken from the record.
+     */
+    void removed(Field f)
+    {
+        disown(f);
+        if ( !built )
+        {
+            return;
+        }
+
+        if ( f.tagint >= 0 )
+        {
+            int t = f.tagint;
+            Field[] slot = slots[t];
+            int n = counts[t];
+            int i = indexOf(slot, n, f);
+            if ( i < 0 )
+            {
+                built = false;
+                return;
+            }
+            System.arraycopy(slot, i + 1, slot, i, n - i - 1);
+            slot[--n] = null;
+            counts[t] = n;
+            if ( n == 0 )
+            {
+                used.clear(t);
+            }
+        }
+        else
+        {
+            alpha--;
+        }
+    }
+
+    /**
+     * Replace a field in the record with another at the same position.
+     */
+    void replaced(Field old, Field f)
+    {
+        if ( !built )
+        {
+            return;
+        }
+
+        disown(old);
+        if ( old.tagint >= 0 && old.tagint == f.tagint )
+        {
+            int i = indexOf(slots[f.tagint], counts[f.tagint], old);
+            if ( i >= 0 )
+            {
+                own(f);
+                slots[f.tagint][i] = f;
+                return;
+            }
+        }
+        else if ( old.tagint < 0 && f.tagint < 0 )
+        {
+            own(f);
+            return;
+        }
+        built = false;
+    }
+
+    /**
+     * Return the first field with a numeric tag, or null if there is none.
+     */
+    Field first(int tagint)
+    {
+        return (counts[tagint] > 0 ? slots[tagint][0] : null);
+    }
+
+    /**
+     * Add the fields whose numeric tags fall within a range to a list, in
+     * record order. The index must be ordered.
+     *
+     * @param start the first tag in the range
+     * @param end the last tag in the range
+     * @param result the list to which to add the fields
+     */
+    void collect(int start, int end, MarcFieldList result)
+    {
+        int lo = Math.max(start, 0);
+        int hi = Math.min(end, 999);
+        if ( lo > hi )
+        {
+            return;
+        }
+
+        for ( int t = used.nextSetBit(lo); t >= 0 && t <= hi; t = used.nextSetBit(t + 1) )
+        {
+            Field[] slot = slots[t];
+            int n = counts[t];
+            for ( int i = 0; i < n; i++ )
+            {
+                result.addElement(slot[i]);
+            }
+        }
+    }
+
+
+    //====================================================
+    //       PRIVATE METHODS
+    //====================================================
+
+    /**
+     * Empty the index, keeping the slot arrays.
+     */
+    private void reset()
+    {
+        if ( slots == null )
+        {
+            slots = new Field[1000][];
+            counts = new int[1000];
+            used = new BitSet(1000);
+        }
+        else
+        {
+            for ( int t = used.nextSetBit(0); t >= 0; t = used.nextSetBit(t + 1) )
+            {
+                Arrays.fill(slots[t], 0, counts[t], null);
+                counts[t] = 0;
+            }
+            used.clear();
+        }
+        alpha = 0;
+        ordered = true;
+    }
+
+    /**
+     * Add a field after any others with the same tag.
+     */
+    private void append(Field f)
+    {
+        own(f);
+        if ( f.tagint >= 0 )
+        {
+            int t = f.tagint;
+            Field[] slot = slots[t];
+            int n = counts[t];
+            if ( slot == null )
+            {
+                slot = new Field[2];
+                slots[t] = slot;
+            }
+            else if ( n == slot.length )
+            {
+                slot = Arrays.copyOf(slot, n * 2);
+                slots[t] = slot;
+            }
+            slot[n] = f;
+            counts[t] = n + 1;
+            used.set(t);
+        }
+        else
+        {
+            alpha++;
+        }
+    }
+
+    /**
+     * Note that a field is indexed here, or by several records if it is
+     * already indexed by another.
+     */
+    private void own(Field f)
+    {
+        if ( f.index == null )
+        {
+            f.index = this;
+        }
+        else if ( f.index != this )
+        {
+            f.index = SEVERAL;
+        }
+    }
+
+    /**
+     * Note that a field taken from the record is no longer indexed here.
+     */
+    private void disown(Field f)
+    {
+        if ( f.index == this )
+        {
+            f.index = null;
+        }
+    }
+
+    private static Field numericBefore(Vector fields, int pos)
+    {
+        for ( int i = pos - 1; i >= 0; i-- )
+        {
+            Field f = (Field)fields.elementAt(i);
+            if ( f.tagint >= 0 )
+            {
+                return f;
+            }
+        }
+        return null;
+    }
+
+    private static Field numericAfter(Vector fields, int pos)
+    {
+        int max = fields.size();
+        for ( int i = pos + 1; i < max; i++ )
+        {
+            Field f = (Field)fields.elementAt(i);
+            if ( f.tagint >= 0 )
+            {
+                return f;
+            }
+        }
+        return null;
+    }
+
+    private static int indexOf(Field[] slot, int n, Field f)
+    {
+        for ( int i = 0; i < n; i++ )
+        {
+            if ( slot[i] == f )
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+}
@@ -157,6 +157,20 @@ public class FixedLengthData implements Comparable
         System.arraycopy(buf, 0, data, start, buf.length);
     }
 
+    /**
+     * Set values of one or more positions from a character array.
+     * @param start Starting position. (Positions numbered from 0.)
+     * @param src The characters to copy
+     * @param off The offset of the first character to copy
+     * @param len The number of characters to copy
+     * @exception java.lang.ArrayIndexOutOfBoundsException if the copy
+     *            would result in an array underflow or overflow.
+     */
+    protected void setPos(int start, char[] src, int off, int len)
+    {
+        System.arraycopy(src, off, data, start, len);
+    }
+
     /**
      * Return character at the specified position.
      * @exception java.lang.ArrayIndexOutOfBoundsException
@@ -0,0 +1,385 @@
+package org.cdlib.util.marc;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.cdlib.util.HexUtils;
+import org.cdlib.util.string.StringUtil;
+
+/**
+ * The parsed directory and raw data of a lazily built marc record.
+ *
+ * Holds, for each directory entry, the tag and the location of the field
+ * data within the raw record, and creates the <code>Field</code> for an
+ * entry the first time it is asked for. Created fields are cached, so the
+ * same object is returned on every request, and is the one placed in the
+ * record when all fields are finally materialized.
+ *
+ * Entries are numbered in directory order. The order in which they appear
+ * in the record, which depends on the insertion order used to build it, is
+ * given by <code>slotAt</code>.
+ *
+ * @see MarcBaseRecord#buildLazy(String, int)
+ * @see MarcBaseRecord#buildLazy(byte[], int, int, Charset, int)
+ */
+final class LazyFieldTable
+{
+    //====================================================
+    //       PRIVATE VARIABLES
+    //====================================================
+    private byte[]  raw     = null;
+    private Charset charset = null;
+    private String  rawStr  = null;
+
+    private int      count   = 0;
+    private String[] tags    = null;
+    private int[]    tagints = null;
+    private int[]    starts  = null;
+    private int[]    lengths = null;
+    private int[]    order   = null;
+    private Field[]  slots   = null;
+    private boolean  alphaTags = false;
+
+
+    //====================================================
+    //       CONSTRUCTORS
+    //====================================================
+
+    private LazyFieldTable(int entries)
+    {
+        tags = new String[entries];
+        tagints = new int[entries];
+        starts = new int[entries];
+        lengths = new int[entries];
+        slots = new Field[entries];
+    }
+
+
+    //====================================================
+    //       FACTORY METHODS
+    //====================================================
+
+    /**
+     * Parse the directory of a record held in a <code>String</code>.
+     *
+     * @param rawMarc string of marc data
+     * @param baseAddress the base address of data from the leader
+     * @param recordLen the record length from the leader
+     * @param insertOrder field insertion order to use
+     *
+     * @exception MarcFormatException if any parse error occurs
+     */
+    static LazyFieldTable parse(String rawMarc, int baseAddress, int recordLen, int insertOrder)
+    {
+        int max = checkBase(baseAddress, recordLen);
+        LazyFieldTable t = new LazyFieldTable((max - 24) / 12);
+        t.rawStr = rawMarc;
+
+        char[] dir = new char[12];
+        for ( int pos = 24; pos < max; pos += 12 )
+        {
+            rawMarc.getChars(pos, pos + 12, dir, 0);
+            int fieldLength = 0;
+            int fieldStart = 0;
+            try
+            {
+                fieldLength = StringUtil.ascii2int(dir, 3, 4);
+                fieldStart = StringUtil.ascii2int(dir, 7, 5);
+            }
+            catch (RuntimeException e)
+            {
+                throw new MarcFormatException(t, "invalid directory entry: " + new String(dir));
+            }
+
+            String tag = t.addEntry(new String(dir, 0, 3), baseAddress + fieldStart, fieldLength, recordLen);
+            int fieldEnd = baseAddress + fieldStart + fieldLength - 1;
+            if ( fieldEnd < recordLen - 1 && Marc.EOF != rawMarc.charAt(fieldEnd) )
+            {
+                throw new MarcFormatException(t, "Field terminator not found: tag = "
+                                              + tag + "  dir offset = " + fieldStart
+                                              + "  dir length = " + fieldLength
+                                              + "  field end = " + fieldEnd
+                                              + " char found = '"
+                                              + HexUtils.hexPrint(rawMarc.charAt(fieldEnd))
+                                              + "'");
+            }
+        }
+
+        t.sort(insertOrder);
+        return t;
+    }
+
+    /**
+     * Parse the directory of a record held in a byte array. The record bytes
+     * are copied, so the caller may reuse the supplied buffer.
+     *
+     * @param buf the buffer containing the marc record
+     * @param off the offset of the record in the buffer
+     * @param baseAddress the base address of data from the leader
+     * @param recordLen the record length from the leader
+     * @param cs the character set used to decode field data
+     * @param insertOrder field insertion order to use
+     *
+     * @exception MarcFormatException if any parse error occurs
+     */
+    static LazyFieldTable parse(byte[] buf, int off, int baseAddress, int recordLen,
+                                Charset cs, int insertOrder)
+    {
+        int max = checkBase(baseAddress, recordLen);
+        LazyFieldTable t = new LazyFieldTable((max - 24) / 12);
+        t.raw = Arrays.copyOfRange(buf, off, off + recordLen);
+        t.charset = cs;
+
+        byte[] rec = t.raw;
+        for ( int pos = 24; pos < max; pos += 12 )
+        {
+            int fieldLength = 0;
+            int fieldStart = 0;
+            try
+            {
+                fieldLength = StringUtil.ascii2int(rec, pos + 3, 4);
+                fieldStart = StringUtil.ascii2int(rec, pos + 7, 5);
+            }
+            catch (RuntimeException e)
+            {
+                throw new MarcFormatException(t, "invalid directory entry: "
+                                              + new String(rec, pos, 12, StandardCharsets.ISO_8859_1));
+            }
+
+            String tag = t.addEntry(new String(rec, pos, 3, StandardCharsets.ISO_8859_1),
+                                    baseAddress + fieldStart, fieldLength, recordLen);
+            int fieldEnd = baseAddress + fieldStart + fieldLength - 1;
+            if ( fieldEnd < recordLen - 1 && Marc.EOF != rec[fieldEnd] )
+            {
+                throw new MarcFormatException(t, "Field terminator not found: tag = "
+                                              + tag + "  dir offset = " + fieldStart
+                                              + "  dir length = " + fieldLength
+                                              + "  field end = " + fieldEnd
+                                              + " byte found = '"
+                                              + HexUtils.hexPrint((char)(rec[fieldEnd] & 0xFF))
+                                              + "'");
+            }
+        }
+
+        t.sort(insertOrder);
+        return t;
+    }
+
+
+    //====================================================
+    //       PACKAGE METHODS
+    //====================================================
+
+    /**
+     * Return the number of entries in the directory.
+     */
+    int size()
+    {
+        return count;
+    }
+
+    /**
+     * Return the entry number of the field at the supplied position in
+     * record order.
+     */
+    int slotAt(int position)
+    {
+        return (order == null ? position : order[position]);
+    }
+
+    /**
+     * Return the tag of an entry, trimmed as <code>Field</code> trims it.
+     */
+    String tag(int slot)
+    {
+        return tags[slot];
+    }
+
+    /**
+     * Return the numeric value of the tag of an entry, or -1 if the tag is
+     * not numeric.
+     */
+    int tagint(int slot)
+    {
+        return tagints[slot];
+    }
+
+    /**
+     * Tests if any entry has a non-numeric tag.
+     */
+    boolean hasAlphaTags()
+    {
+        return alphaTags;
+    }
+
+    /**
+     * Return the field for an entry, creating it on first use. The field id
+     * is the entry number, which is the id the field would be assigned by an
+     * eager build.
+     */
+    Field field(int slot)
+    {
+        Field f = slots[slot];
+        if ( f == null )
+        {
+            String data = null;
+            if ( raw != null )
+            {
+                data = new String(raw, starts[slot], lengths[slot], charset);
+            }
+            else
+            {
+                data = rawStr.substring(starts[slot], starts[slot] + lengths[slot]);
+            }
+
+            String tag = tags[slot];
+            if ( tag.compareTo("010") < 0 )
+            {
+                f = new MarcFixedLengthField(tag, data.length(), data);
+            }
+            else
+            {
+                f = new MarcVblLengthField(tag, data);
+            }
+            f.setId(slot);
+            slots[slot] = f;
+        }
+        return f;
+    }
+
+
+    //====================================================
+    //       PRIVATE METHODS
+    //====================================================
+
+    /**
+     * Validate the base address and return the end of the directory.
+     */
+    private static int checkBase(int baseAddress, int recordLen)
+    {
+        int max = baseAddress - 1;
+        if ( max < 24 || max > recordLen - 1 || (max - 24) % 12 != 0 )
+        {
+            throw new MarcFormatException("base address is invalid: " + baseAddress
+                                          + " record length: " + recordLen);
+        }
+        return max;
+    }
+
+    /**
+     * Record a directory entry after checking its bounds.
+     *
+     * @return the tag of the entry
+     */
+    private String addEntry(String rawTag, int start, int fieldLength, int recordLen)
+    {
+        String tag = rawTag.trim();
+        int tagint = -1;
+        if ( tag.length() == 3 )
+        {
+            try
+            {
+                tagint = StringUtil.ascii2int(tag);
+                tag = MarcDirectory.numericTag(tagint);
+            }
+            catch (RuntimeException e)
+            {
+                tagint = -1;
+            }
+        }
+
+        if ( tagint < 0 )
+        {
+            alphaTags = true;
+        }
+
+        if ( fieldLength < 1 || start + fieldLength - 1 > recordLen - 1 )
+        {
+            throw new MarcFormatException(this, "record length exceeded by field - tag:" + tag
+                                          + " - fieldEnd:" + (start + fieldLength - 1)
+                                          + " record length:" + recordLen);
+        }
+
+        tags[count] = tag;
+        tagints[count] = tagint;
+        starts[count] = start;
+        lengths[count] = fieldLength - 1;
+        count++;
+        return tag;
+    }
+
+    /**
+     * Compute the record order of the entries for the supplied insertion
+     * order. Inserting each field before the first field with a greater key
+     * is a stable sort on that key. The usual, already sorted, directory is
+     * recognized in linear time and needs no order at all; any other is
+     * merge sorted.
+     */
+    private void sort(int insertOrder)
+    {
+        if ( insertOrder != MarcBaseRecord.TAG_ORDER
+             && insertOrder != MarcBaseRecord.MARC_TAG_ORDER )
+        {
+            return;
+        }
+
+        boolean byGroup = (insertOrder == MarcBaseRecord.MARC_TAG_ORDER);
+        int i = 1;
+        while ( i < count && compare(i - 1, i, byGroup) <= 0 )
+        {
+            i++;
+        }
+        if ( i >= count )
+        {
+            return;
+        }
+
+        int[] o = new int[count];
+        for ( i = 0; i < count; i++ )
+        {
+            o[i] = i;
+        }
+        int[] work = new int[count];
+        for ( int width = 1; width < count; width *= 2 )
+        {
+            for ( int lo = 0; lo < count - width; lo += 2 * width )
+            {
+                merge(o, work, lo, lo + width, Math.min(lo + 2 * width, count), byGroup);
+            }
+        }
+        order = o;
+    }
+
+    /**
+     * Merge the sorted runs <code>o[lo..mid)</code> and
+     * <code>o[mid..hi)</code>, taking from the first run on ties.
+     */
+    private void merge(int[] o, int[] work, int lo, int mid, int hi, boolean byGroup)
+    {
+        System.arraycopy(o, lo, work, lo, hi - lo);
+        int a = lo;
+        int b = mid;
+        for ( int k = lo; k < hi; k++ )
+        {
+            if ( b >= hi || (a < mid && compare(work[a], work[b], byGroup) <= 0) )
+            {
+                o[k] = work[a++];
+            }
+            else
+            {
+                o[k] = work[b++];
+            }
+        }
+    }
+
+    private int compare(int a, int b, boolean byGroup)
+    {
+        if ( byGroup )
+        {
+            return tags[a].substring(0, 1).compareTo(tags[b].substring(0, 1));
+        }
+        return tags[a].compareTo(tags[b]);
+    }
+
+}
@@ -1,11 +1,18 @@
 package org.cdlib.util.marc;
 
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Enumeration;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.Vector;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.apache.regexp.RE;
@@ -91,6 +98,50 @@ public class MarcBaseRecord implements MarcConstants {
    */
   private int status = MARC_REC_NOT_BUILT;
 
+  /**
+   * The parsed directory and raw data of a lazily built record, or null when the fields Vector holds
+   * every field of the record.
+   *
+   * @see #buildLazy(String, int)
+   */
+  private LazyFieldTable lazy = null;
+
+  /**
+   * The field and subfield objects available for reuse by <code>rebuild</code>, created on first use.
+   *
+   * @see #rebuild(char[], int, int, int)
+   */
+  private FieldPool pool = null;
+
+  /**
+   * The index of the fields by tag. It accompanies the fields Vector, and is shared with any record
+   * that shares that Vector.
+   */
+  private FieldTagIndex tagIndex = null;
+
+  /**
+   * The number of fields below which lookups by tag scan the fields rather than use the tag index.
+   */
+  private static final int INDEX_THRESHOLD = 32;
+
+  /**
+   * Orders fields by tag, as <code>TAG_ORDER</code> inserts them.
+   */
+  private static final Comparator<Field> TAG_COMPARATOR = new Comparator<Field>() {
+    public int compare(Field a, Field b) {
+      return a.tag().compareTo(b.tag());
+    }
+  };
+
+  /**
+   * Orders fields by the first character of their tags, as <code>MARC_TAG_ORDER</code> inserts them.
+   */
+  private static final Comparator<Field> GROUP_COMPARATOR = new Comparator<Field>() {
+    public int compare(Field a, Field b) {
+      return a.tag().charAt(0) - b.tag().charAt(0);
+    }
+  };
+
   // ====================================================
   // Tag order enumeration constants
   // ====================================================
@@ -118,6 +169,7 @@ public class MarcBaseRecord implements MarcConstants {
   public MarcBaseRecord() {
     leader = new MarcLeader();
     fields = new Vector(30, 10);
+    tagIndex = new FieldTagIndex();
     seq = 0;
     status = MARC_REC_NOT_BUILT;
   }
@@ -189,8 +241,34 @@ public class MarcBaseRecord implements MarcConstants {
    * @param rec the <code>MarcBaseRecord</code> to use
    */
   public void build(MarcBaseRecord rec) {
+    rec.materialize();
+    this.lazy = null;
+    this.leader = rec.leader;
+    this.fields = rec.fields;
+    rec.tagIndex.setShared();
+    this.tagIndex = rec.tagIndex;
+    this.seq = rec.seq;
+    this.status = rec.status;
+  }
+
+
+  /**
+   * Set the instance variables for this object from a record that is not used again. Unlike
+   * <code>build(MarcBaseRecord)</code>, the fields of a lazily built record are not created, but
+   * are left to be created by this object as they are requested.
+   *
+   * @param rec the <code>MarcBaseRecord</code> to take over
+   *
+   * @see #build(MarcBaseRecord)
+   * @see #buildLazy(String, int)
+   */
+  void takeOver(MarcBaseRecord rec) {
+    this.lazy = rec.lazy;
+    rec.lazy = null;
     this.leader = rec.leader;
     this.fields = rec.fields;
+    rec.tagIndex.setShared();
+    this.tagIndex = rec.tagIndex;
     this.seq = rec.seq;
     this.status = rec.status;
   }
@@ -252,7 +330,7 @@ public class MarcBaseRecord implements MarcConstants {
     int rc = MARC_REC_NOT_BUILT;
 
     // remove any previous fields
-    if (fields.size() > 0) {
+    if (fields.size() > 0 || lazy != null) {
       clear();
     }
 
@@ -288,33 +366,30 @@ public class MarcBaseRecord implements MarcConstants {
     // Parse the directory
     int baseAddress = leader.getBaseAddress();
     int max = baseAddress - 1;
-    MarcDirectory directory = new MarcDirectory();
+    MarcDirectory directory = new MarcDirectory(Math.max((max - 24) / 12, 1));
 
     if (log.isDebugEnabled()) {
       log.debug("Building directory");
     }
 
-    for (int pos = 24; pos < max; pos += 12) {
-      directory.addEntry(new MarcDirectoryEntry(rawMarc.substring(pos, pos + 12)));
-    }
+    directory.parse(rawMarc, 24, max);
 
     // Use the direcory entries to parse the rest of the string into fields.
-    Enumeration dirEnum = directory.elements();
     int fieldEnd = 0;
+    int entries = directory.size();
+    fields.ensureCapacity(entries);
 
-    while (dirEnum.hasMoreElements()) {
-      MarcDirectoryEntry entry = (MarcDirectoryEntry) (dirEnum.nextElement());
-
-      String tag = entry.fieldTag();
+    for (int i = 0; i < entries; i++) {
+      String tag = directory.tagAt(i);
+      int fieldStart = directory.startAt(i);
+      int fieldLength = directory.lengthAt(i);
 
       // Check for non-numeric tags.
-      try {
-        Integer.parseInt(tag);
-      } catch (NumberFormatException e) {
+      if (!StringUtil.isNumeric(tag)) {
         rc = MARC_REC_ALHPA_TAGS;
       }
 
-      fieldEnd = baseAddress + entry.fieldStart() + entry.fieldLength() - 1;
+      fieldEnd = baseAddress + fieldStart + fieldLength - 1;
 
 
 
@@ -339,28 +414,423 @@ public class MarcBaseRecord implements MarcConstants {
 
       else if (Marc.EOF != rawMarc.charAt(fieldEnd)) {
         throw new MarcFormatException(this, "Field terminator not found: tag = "
-            + tag + "  dir offset = " + entry.fieldStart()
-            + "  dir length = " + entry.fieldLength()
+            + tag + "  dir offset = " + fieldStart
+            + "  dir length = " + fieldLength
             + "  field end = " + fieldEnd
             + " char found = '"
             + HexUtils.hexPrint(rawMarc.charAt(fieldEnd))
             + "'");
       }
 
-      String data = rawMarc.substring(baseAddress + entry.fieldStart(), fieldEnd);
+      String data = rawMarc.substring(baseAddress + fieldStart, fieldEnd);
+
+      if (tag.compareTo("010") < 0) {
+        appendField(new MarcFixedLengthField(tag, fieldLength - 1, data));
+      } else {
+        appendField(new MarcVblLengthField(tag, data));
+      }
+    }
+    orderFields(0, order);
+
+    status = Math.max(rc, MARC_REC_CLEAN);
+    return status;
+  }
+
+
+  /**
+   * Parse a raw binary marc record held in a byte array. Unlike <code>build(String, int)</code>,
+   * which expects the record to have already been decoded, the record and directory lengths and
+   * offsets are applied to the raw bytes, as the standard defines them, and only the field payloads
+   * are decoded. This makes the parse correct for multi-byte encodings such as UTF-8, where the
+   * byte and character counts of a field differ.
+   *
+   * @param raw the buffer containing the marc record
+   * @param off the offset of the first byte of the record in the buffer
+   * @param len the number of bytes available for the record
+   * @param cs the character set used to decode field data, or null to select UTF-8 when leader
+   *        position 09 is 'a', and ISO-8859-1 otherwise
+   * @param order field insertion order to use
+   *
+   * @exception MarcFormatException if any parse error occurs
+   *
+   * @see #build(String rawMarc, int order)
+   * @see #END_LIST
+   * @see #TAG_ORDER
+   * @see #MARC_TAG_ORDER
+   */
+  public int build(byte[] raw, int off, int len, Charset cs, int order)
+      throws MarcFormatException {
+    int rc = MARC_REC_NOT_BUILT;
+
+    // remove any previous fields
+    if (fields.size() > 0 || lazy != null) {
+      clear();
+    }
+
+    if (len < 24) {
+      throw new MarcFormatException("Length of marc data is less than 24: " + len);
+    }
+
+    // Validate record length and end-of-record terminator.
+    int recordLen = 0;
+    try {
+      recordLen = StringUtil.ascii2int(raw, off, 5);
+    } catch (NumberFormatException e) {
+      throw new MarcFormatException("Leader record length is not numeric: "
+          + new String(raw, off, 5, StandardCharsets.ISO_8859_1));
+    }
+
+    if (recordLen > len) {
+      throw new MarcFormatException("Record length from leader exceeds length of marc data: "
+          + recordLen + " > " + len);
+    }
+
+    if (recordLen < 24 || Marc.EOR != raw[off + recordLen - 1]) {
+      throw new MarcFormatException("End of record character missing");
+    }
+
+    if (cs == null) {
+      cs = (raw[off + 9] == 'a' ? StandardCharsets.UTF_8 : StandardCharsets.ISO_8859_1);
+    }
+
+    // Extract the leader
+    setLeader(new MarcLeader(new String(raw, off, 24, StandardCharsets.ISO_8859_1)));
+
+    // Walk the directory, applying the lengths and offsets to the raw bytes.
+    int baseAddress = leader.getBaseAddress();
+    int max = baseAddress - 1;
+    int recordEnd = recordLen - 1;
+
+    if (max > recordEnd) {
+      throw new MarcFormatException(this, "base address exceeds record length: "
+          + baseAddress + " > " + recordLen);
+    }
+
+    for (int pos = 24; pos < max; pos += 12) {
+      String tag = MarcDirectory.entryTag(raw, off + pos);
+      int fieldLength = 0;
+      int fieldStart = 0;
+
+      try {
+        fieldLength = StringUtil.ascii2int(raw, off + pos + 3, 4);
+        fieldStart = StringUtil.ascii2int(raw, off + pos + 7, 5);
+      } catch (RuntimeException e) {
+        throw new MarcFormatException(this, "invalid directory entry - tag:" + tag
+            + " - entry:" + new String(raw, off + pos, 12, StandardCharsets.ISO_8859_1));
+      }
+
+      // Check for non-numeric tags.
+      if (!StringUtil.isNumeric(tag)) {
+        rc = MARC_REC_ALHPA_TAGS;
+      }
+
+      int fieldEnd = baseAddress + fieldStart + fieldLength - 1;
+
+      // Validate field terminator
+      if (fieldLength < 1 || fieldEnd > recordEnd) {
+        throw new MarcFormatException(this, "record length exceeded by field - tag:" + tag
+            + " - fieldEnd:" + fieldEnd
+            + " record length:" + recordLen);
+      }
+
+      // a valid pre Marc-21 format record
+      else if (fieldEnd == recordEnd) {
+      }
+
+      else if (Marc.EOF != raw[off + fieldEnd]) {
+        throw new MarcFormatException(this, "Field terminator not found: tag = "
+            + tag + "  dir offset = " + fieldStart
+            + "  dir length = " + fieldLength
+            + "  field end = " + fieldEnd
+            + " byte found = '"
+            + HexUtils.hexPrint((char) (raw[off + fieldEnd] & 0xFF))
+            + "'");
+      }
+
+      String data = new String(raw, off + baseAddress + fieldStart, fieldLength - 1, cs);
 
       if (tag.compareTo("010") < 0) {
-        setField(new MarcFixedLengthField(tag, entry.fieldLength() - 1, data), order);
+        appendField(new MarcFixedLengthField(tag, data.length(), data));
       } else {
-        setField(new MarcVblLengthField(tag, data), order);
+        appendField(new MarcVblLengthField(tag, data));
       }
     }
+    orderFields(0, order);
 
     status = Math.max(rc, MARC_REC_CLEAN);
     return status;
   }
 
 
+  /**
+   * Parse the directory of the raw marc data in the supplied <code>String</code>, but defer creating
+   * the fields of the record until they are requested. The record and directory are validated as
+   * they are by <code>build(String, int)</code>, so a record that builds lazily also builds eagerly.
+   *
+   * <code>getFirstField</code> and <code>getFields</code>, and the <code>MarcRecord</code> methods
+   * built on them such as <code>allFields</code> and <code>getFirstValue</code>, create only the
+   * fields they return. Any other use of the fields, including adding a field, creates all of them,
+   * after which the record behaves exactly as one built by <code>build(String, int)</code>.
+   *
+   * @param rawMarc string of marc data
+   * @param order field insertion order to use
+   *
+   * @exception MarcFormatException if any parse error occurs
+   *
+   * @see #build(String rawMarc, int order)
+   * @see #isLazy()
+   */
+  public int buildLazy(String rawMarc, int order)
+      throws MarcFormatException {
+    clear();
+
+    int rmLen = rawMarc.length();
+    if (rmLen < 24) {
+      throw new MarcFormatException("Length of marc data is less than 24: " + rmLen);
+    }
+
+    char[] rlBuff = new char[5];
+    rawMarc.getChars(0, 5, rlBuff, 0);
+    int recordLen = 0;
+    try {
+      recordLen = StringUtil.ascii2int(rlBuff);
+    } catch (NumberFormatException e) {
+      throw new MarcFormatException("Leader record length is not numeric: " + new String(rlBuff));
+    }
+
+    if (recordLen > rmLen) {
+      throw new MarcFormatException("Record length from leader exceeds length of marc data: "
+          + recordLen + " > " + rmLen);
+    }
+
+    if (recordLen < 24 || Marc.EOR != rawMarc.charAt(recordLen - 1)) {
+      throw new MarcFormatException("End of record character missing");
+    }
+
+    setLeader(new MarcLeader(rawMarc.substring(0, 24)));
+    lazy = LazyFieldTable.parse(rawMarc, leader.getBaseAddress(), recordLen, order);
+
+    status = (lazy.hasAlphaTags() ? MARC_REC_ALHPA_TAGS : MARC_REC_CLEAN);
+    return status;
+  }
+
+
+  /**
+   * Parse the directory of a raw binary marc record held in a byte array, but defer creating the
+   * fields of the record until they are requested. The record bytes are copied, so the caller may
+   * reuse the buffer.
+   *
+   * @param raw the buffer containing the marc record
+   * @param off the offset of the first byte of the record in the buffer
+   * @param len the number of bytes available for the record
+   * @param cs the character set used to decode field data, or null to select it from leader position
+   *        09
+   * @param order field insertion order to use
+   *
+   * @exception MarcFormatException if any parse error occurs
+   *
+   * @see #build(byte[], int, int, Charset, int)
+   * @see #buildLazy(String, int)
+   */
+  public int buildLazy(byte[] raw, int off, int len, Charset cs, int order)
+      throws MarcFormatException {
+    clear();
+
+    if (len < 24) {
+      throw new MarcFormatException("Length of marc data is less than 24: " + len);
+    }
+
+    int recordLen = 0;
+    try {
+      recordLen = StringUtil.ascii2int(raw, off, 5);
+    } catch (NumberFormatException e) {
+      throw new MarcFormatException("Leader record length is not numeric: "
+          + new String(raw, off, 5, StandardCharsets.ISO_8859_1));
+    }
+
+    if (recordLen > len) {
+      throw new MarcFormatException("Record length from leader exceeds length of marc data: "
+          + recordLen + " > " + len);
+    }
+
+    if (recordLen < 24 || Marc.EOR != raw[off + recordLen - 1]) {
+      throw new MarcFormatException("End of record character missing");
+    }
+
+    if (cs == null) {
+      cs = (raw[off + 9] == 'a' ? StandardCharsets.UTF_8 : StandardCharsets.ISO_8859_1);
+    }
+
+    setLeader(new MarcLeader(new String(raw, off, 24, StandardCharsets.ISO_8859_1)));
+    lazy = LazyFieldTable.parse(raw, off, leader.getBaseAddress(), recordLen, cs, order);
+
+    status = (lazy.hasAlphaTags() ? MARC_REC_ALHPA_TAGS : MARC_REC_CLEAN);
+    return status;
+  }
+
+
+  /**
+   * Parse a raw marc record held in a character array, recycling the objects of this record's current
+   * fields. The record is parsed and validated as <code>build(String, int)</code> parses it, and yields
+   * the same fields, but the field, subfield, indicator, and leader objects this record already holds
+   * are reset in place, or kept for a later rebuild, rather than discarded, and the data is read
+   * directly from the array without first copying it into a <code>String</code>. Reading a file into
+   * the same record with this method therefore creates little more than the field value strings.
+   * <p>
+   * Because the objects are reused, any field, subfield, field list, or leader obtained from this record
+   * before the call, or shared with another record through <code>build(MarcBaseRecord)</code>, is
+   * overwritten, and must not be used afterwards. Copy anything that must outlive the next rebuild.
+   * The array may be reused by the caller as soon as the method returns.
+   *
+   * @param raw the buffer containing the marc record
+   * @param off the offset of the first character of the record in the buffer
+   * @param len the number of characters available for the record
+   * @param order field insertion order to use
+   *
+   * @exception MarcFormatException if any parse error occurs
+   *
+   * @see #build(String, int)
+   * @see #END_LIST
+   * @see #TAG_ORDER
+   * @see #MARC_TAG_ORDER
+   */
+  public int rebuild(char[] raw, int off, int len, int order)
+      throws MarcFormatException {
+    // return the previous fields to the pool
+    if (pool == null) {
+      pool = new FieldPool();
+    }
+    lazy = null;
+    int fmax = fields.size();
+    for (int i = 0; i < fmax; i++) {
+      pool.release((Field) fields.elementAt(i));
+    }
+    fields.removeAllElements();
+    tagIndex.invalidate();
+    seq = 0;
+    status = MARC_REC_NOT_BUILT;
+
+    if (len < 24) {
+      throw new MarcFormatException("Length of marc data is less than 24: " + len);
+    }
+
+    int recordLen = 0;
+    try {
+      recordLen = StringUtil.ascii2int(raw, off, 5);
+    } catch (NumberFormatException e) {
+      throw new MarcFormatException("Leader record length is not numeric: " + new String(raw, off, 5));
+    }
+
+    if (recordLen > len) {
+      throw new MarcFormatException("Record length from leader exceeds length of marc data: "
+          + recordLen + " > " + len);
+    }
+
+    if (recordLen < 24 || Marc.EOR != raw[off + recordLen - 1]) {
+      throw new MarcFormatException("End of record character missing");
+    }
+
+    // Reuse the leader
+    if (leader == null || leader.length() != 24) {
+      leader = new MarcLeader();
+    }
+    leader.setPos(0, raw, off, 24);
+
+    int baseAddress = 0;
+    try {
+      baseAddress = StringUtil.ascii2int(raw, off + 12, 5);
+    } catch (NumberFormatException e) {
+      throw new MarcFormatException(leader, "non-numeric base address");
+    }
+
+    int max = baseAddress - 1;
+    if (max > len) {
+      throw new MarcFormatException("base address is invalid: " + baseAddress
+          + " record length: " + recordLen);
+    }
+
+    // Parse the directory and the fields it locates
+    for (int pos = 24; pos < max; pos += 12) {
+      int entry = off + pos;
+      String tag = MarcDirectory.tag(raw, entry);
+
+      int fieldLength = 0;
+      int fieldStart = 0;
+      try {
+        fieldLength = StringUtil.ascii2int(raw, entry + 3, 4);
+        fieldStart = StringUtil.ascii2int(raw, entry + 7, 5);
+      } catch (RuntimeException e) {
+        throw new MarcFormatException(this, "invalid directory entry string: '"
+            + new String(raw, entry, Math.min(12, off + len - entry)) + "'");
+      }
+
+      int fieldEnd = baseAddress + fieldStart + fieldLength - 1;
+
+      // Validate field terminator
+
+      if (fieldEnd > (len - 1)) {
+        throw new MarcFormatException(this, "record length exceeded by field - tag:" + tag
+            + " - fieldEnd:" + fieldEnd
+            + " record length:" + len);
+      }
+
+      // a valid pre Marc-21 format record
+      else if ((fieldEnd == (len - 1))
+          && (Marc.EOR == raw[off + fieldEnd])) {
+      }
+
+      else if (fieldEnd + 2 > len) {
+        throw new MarcFormatException(this, "field termination is invalid - tag:" + tag
+            + " - fieldEnd:" + fieldEnd
+            + " record length:" + len);
+      }
+
+      else if (Marc.EOF != raw[off + fieldEnd]) {
+        throw new MarcFormatException(this, "Field terminator not found: tag = "
+            + tag + "  dir offset = " + fieldStart
+            + "  dir length = " + fieldLength
+            + "  field end = " + fieldEnd
+            + " char found = '"
+            + HexUtils.hexPrint(raw[off + fieldEnd])
+            + "'");
+      }
+
+      int dataStart = off + baseAddress + fieldStart;
+      int dataLen = fieldEnd - baseAddress - fieldStart;
+
+      if (tag.compareTo("010") < 0) {
+        appendField(pool.fixedField().reset(tag, raw, dataStart, dataLen));
+      } else {
+        MarcVblLengthField vbl = pool.vblField();
+        try {
+          vbl.reset(tag, raw, dataStart, dataLen, pool);
+        } catch (MarcFormatException e) {
+          pool.release(vbl);
+          throw e;
+        }
+        appendField(vbl);
+      }
+    }
+    orderFields(0, order);
+
+    // appendField has already noted any non-numeric tags
+    status = Math.max(status, MARC_REC_CLEAN);
+    return status;
+  }
+
+
+  /**
+   * Tests if this record was built lazily and still has fields that have not been created.
+   *
+   * @return true if some fields have not yet been created
+   *
+   * @see #buildLazy(String, int)
+   */
+  public boolean isLazy() {
+    return lazy != null;
+  }
+
+
   /**
    * Get the status code for this record object. This should not be confused with marc status in the
    * leader record. The object status is used to indicate whether the record has been built, and if it
@@ -495,11 +965,13 @@ public class MarcBaseRecord implements MarcConstants {
 
   /**
    * Creates an xml encoded string version of this marc record object. This feature has never been
-   * fleshed out and should be considered experimental.
+   * fleshed out and should be considered experimental. To write records as standard MARCXML, use
+   * <code>MarcXmlWriter</code>.
    *
    * @return the xml encoding of this marc record
    *
    * @see org.cdlib.util.marc.MarcToXML
+   * @see org.cdlib.util.marc.MarcXmlWriter
    */
   public String buildMarcXML() {
     MarcToXML xml = new MarcToXML();
@@ -526,6 +998,7 @@ public class MarcBaseRecord implements MarcConstants {
    * @return the number of fields deleted
    */
   public int deleteFields(String startTag, String endTag) {
+    materialize();
     int count = 0;
 
     Iterator iter = fields.iterator();
@@ -535,6 +1008,7 @@ public class MarcBaseRecord implements MarcConstants {
       if ((tag.compareToIgnoreCase(startTag) >= 0)
           && (tag.compareToIgnoreCase(endTag) <= 0)) {
         iter.remove();
+        tagIndex.removed(ele);
         count++;
       }
     }
@@ -590,6 +1064,7 @@ public class MarcBaseRecord implements MarcConstants {
    * @return the number of fields deleted
    */
   public int deleteFields(MarcFieldList list) {
+    materialize();
     int count = 0;
     Field ele = null;
     int iLoc = -1;
@@ -600,6 +1075,7 @@ public class MarcBaseRecord implements MarcConstants {
       iLoc = findId(ele.getId());
       if (iLoc >= 0) // field found
       {
+        tagIndex.removed((Field) fields.elementAt(iLoc));
         fields.removeElementAt(iLoc);
         count++;
       }
@@ -637,6 +1113,7 @@ public class MarcBaseRecord implements MarcConstants {
    * @return string containing formatted output
    */
   public String formatHexDump(String header) {
+    materialize();
     StringBuffer sb = new StringBuffer(5000);
     sb.append(StringDisplay.EOL);
     sb.append("Hex Dump: ");
@@ -693,6 +1170,7 @@ public class MarcBaseRecord implements MarcConstants {
    * @see #buildFieldList(Vector)
    */
   public MarcFieldList getFields() {
+    materialize();
     return buildFieldList(fields);
   }
 
@@ -708,6 +1186,31 @@ public class MarcBaseRecord implements MarcConstants {
    */
   public MarcFieldList getFields(String startTag, String endTag) {
     MarcFieldList result = new MarcFieldList();
+
+    if (lazy != null) {
+      int max = lazy.size();
+      for (int i = 0; i < max; i++) {
+        int slot = lazy.slotAt(i);
+        String ftag = lazy.tag(slot);
+        if ((ftag.compareToIgnoreCase(startTag) >= 0)
+            && (ftag.compareToIgnoreCase(endTag) <= 0)) {
+          result.addElement(lazy.field(slot));
+        }
+      }
+      return result;
+    }
+
+    // ranges of numeric tags are read from the index when every tag is numeric
+    FieldTagIndex index = tagIndex();
+    if (index != null && index.isOrdered() && !index.hasAlphaTags()) {
+      int start = numericTag(startTag);
+      int end = numericTag(endTag);
+      if (start >= 0 && end >= 0) {
+        index.collect(start, end, result);
+        return result;
+      }
+    }
+
     int max = this.fields.size();
 
     if (log.isDebugEnabled()) {
@@ -749,6 +1252,25 @@ public class MarcBaseRecord implements MarcConstants {
   public MarcFieldList getFields(int startTag, int endTag) {
     MarcFieldList result = new MarcFieldList();
     int tagint = 0;
+
+    if (lazy != null) {
+      int max = lazy.size();
+      for (int i = 0; i < max; i++) {
+        int slot = lazy.slotAt(i);
+        tagint = lazy.tagint(slot);
+        if ((tagint >= startTag) && (tagint <= endTag)) {
+          result.addElement(lazy.field(slot));
+        }
+      }
+      return result;
+    }
+
+    FieldTagIndex index = tagIndex();
+    if (index != null && index.isOrdered() && startTag >= 0) {
+      index.collect(startTag, endTag, result);
+      return result;
+    }
+
     int max = this.fields.size();
 
     if (log.isDebugEnabled()) {
@@ -782,6 +1304,25 @@ public class MarcBaseRecord implements MarcConstants {
    */
   public Field getFirstField(String inTag) {
     Field result = null;
+
+    if (lazy != null) {
+      int max = lazy.size();
+      for (int i = 0; i < max; i++) {
+        int slot = lazy.slotAt(i);
+        if (lazy.tag(slot).equalsIgnoreCase(inTag)) {
+          return lazy.field(slot);
+        }
+      }
+      return null;
+    }
+
+    // only a numeric tag can match when every field has one
+    FieldTagIndex index = tagIndex();
+    if (index != null && !index.hasAlphaTags()) {
+      int tag = numericTag(inTag);
+      return (tag >= 0 ? index.first(tag) : null);
+    }
+
     int max = this.fields.size();
 
     for (int i = 0; i < max; i++) {
@@ -807,6 +1348,23 @@ public class MarcBaseRecord implements MarcConstants {
   public Field getFirstField(int tag) {
     Field result = null;
     Field ele = null;
+
+    if (lazy != null) {
+      int max = lazy.size();
+      for (int i = 0; i < max; i++) {
+        int slot = lazy.slotAt(i);
+        if (lazy.tagint(slot) == tag) {
+          return lazy.field(slot);
+        }
+      }
+      return null;
+    }
+
+    FieldTagIndex index = tagIndex();
+    if (index != null && tag >= 0 && tag <= 999) {
+      return index.first(tag);
+    }
+
     int max = fields.size();
 
     for (int i = 0; i < fields.size(); i++) {
@@ -895,7 +1453,12 @@ public class MarcBaseRecord implements MarcConstants {
 
 
   /**
-   * Find all instances of a field whose tag and data match the supplied regular expressions.
+   * Find all instances of a field whose tag and data match the supplied regular expressions. The
+   * expressions are compiled by <code>java.util.regex</code>, whose syntax agrees with
+   * jakarta-regexp for the usual expressions, and the matching flags are translated to their
+   * <code>Pattern</code> equivalents. Expressions that <code>java.util.regex</code> rejects, or
+   * that use POSIX character classes such as <code>[:alpha:]</code>, which it reads differently,
+   * are matched by jakarta-regexp.
    *
    * @param tag a regular expression to match the tag, e.g. "3\d5" finds 305, 315; null or "" matches
    *        all tags
@@ -909,37 +1472,118 @@ public class MarcBaseRecord implements MarcConstants {
    * @return MarcFieldList of fields with mathcing tag and data elements or null if there are no
    *         matching fields.
    *
+   * @exception MarcParmException if jakarta-regexp rejects either expression
+   *
    * @see org.apache.regexp.RE
+   * @see #selectFields(String, String, int)
    */
   public MarcFieldList getRegExp(String tag, String data, int matchFlags) {
+    if (PatternCache.hasPosixClass(tag) || PatternCache.hasPosixClass(data)) {
+      return selectFieldsRE(tag, data, matchFlags);
+    }
+    Pattern tagExp;
+    Pattern dataExp;
+    try {
+      tagExp = (StringUtil.isEmpty(tag) ? null : PatternCache.compile(tag, 0));
+      dataExp = (StringUtil.isEmpty(data) ? null
+          : PatternCache.compile(data, PatternCache.patternFlags(matchFlags)));
+    } catch (MarcParmException e) {
+      return selectFieldsRE(tag, data, matchFlags);
+    }
+    return selectFields(tagExp, dataExp);
+  }
+
+
+  /**
+   * Find all instances of a field whose tag and data match the supplied jakarta-regexp
+   * expressions, for the expressions <code>java.util.regex</code> cannot compile or cannot match
+   * the same way.
+   */
+  private MarcFieldList selectFieldsRE(String tag, String data, int matchFlags) {
+    materialize();
     MarcFieldList result = new MarcFieldList();
 
     try {
-      // if RE field is null then treat as true for selection
-      RE tagExp = null;
-      RE dataExp = null;
-      if (!StringUtil.isEmpty(tag)) {
-        tagExp = new RE(tag);
-      }
-      if (!StringUtil.isEmpty(data)) {
-        dataExp = new RE(data, matchFlags);
-      }
+      RE tagExp = (StringUtil.isEmpty(tag) ? null : new RE(tag));
+      RE dataExp = (StringUtil.isEmpty(data) ? null : new RE(data, matchFlags));
 
-      // Build the return value
-
-      Field ele = null;
       int max = fields.size();
-
       for (int i = 0; i < max; i++) {
-        ele = (Field) fields.elementAt(i);
-        if ((tagExp == null) || tagExp.match(ele.tag())) {
-          if ((dataExp == null) || dataExp.match(ele.marcDump())) {
-            result.addElement(ele);
-          }
+        Field ele = (Field) fields.elementAt(i);
+        if ((tagExp == null || tagExp.match(ele.tag()))
+            && (dataExp == null || dataExp.match(ele.marcDump()))) {
+          result.addElement(ele);
         }
       }
     } catch (RESyntaxException e) {
-      throw new MarcParmException();
+      throw new MarcParmException("invalid regular expression: " + e.getMessage());
+    }
+    return result;
+  }
+
+
+  /**
+   * Find all instances of a field whose tag and data match the supplied regular expressions. The
+   * expressions are compiled once and kept in a bounded cache shared by all records, so calling this
+   * repeatedly with the same few expressions compiles each of them only once.
+   *
+   * @param tag a <code>java.util.regex</code> expression to be found in the tag, e.g. "3\d5" finds
+   *        305, 315; null or "" matches all tags
+   *
+   * @param data a <code>java.util.regex</code> expression to be found in the field content, as it
+   *        appears in a raw marc record; null or "" matches all content
+   *
+   * @param flags <code>java.util.regex.Pattern</code> match flags applied to the data expression,
+   *        e.g. <code>Pattern.CASE_INSENSITIVE</code>
+   *
+   * @return MarcFieldList of fields with matching tag and data elements, which is empty if there are
+   *         no matching fields
+   *
+   * @exception MarcParmException if either expression is not valid
+   *
+   * @see #selectFields(Pattern, Pattern)
+   */
+  public MarcFieldList selectFields(String tag, String data, int flags) {
+    Pattern tagExp = (StringUtil.isEmpty(tag) ? null : PatternCache.compile(tag, 0));
+    Pattern dataExp = (StringUtil.isEmpty(data) ? null : PatternCache.compile(data, flags));
+    return selectFields(tagExp, dataExp);
+  }
+
+
+  /**
+   * Find all instances of a field whose tag and data match the supplied compiled regular
+   * expressions. An expression matches if it is found anywhere in the tag, or in the field content
+   * as it appears in a raw marc record: the indicators and the subfields, each preceded by the
+   * subfield delimiter and code, followed by the field terminator. The content is matched without
+   * building a new <code>String</code> for each field.
+   *
+   * @param tag the expression to be found in the tag, or null to match all tags
+   * @param data the expression to be found in the field content, or null to match all content
+   *
+   * @return MarcFieldList of fields with matching tag and data elements, which is empty if there are
+   *         no matching fields
+   */
+  public MarcFieldList selectFields(Pattern tag, Pattern data) {
+    materialize();
+    MarcFieldList result = new MarcFieldList();
+    Matcher tagMatcher = (tag == null ? null : tag.matcher(""));
+    Matcher dataMatcher = (data == null ? null : data.matcher(""));
+    StringBuilder content = (data == null ? null : new StringBuilder(256));
+
+    int max = fields.size();
+    for (int i = 0; i < max; i++) {
+      Field ele = (Field) fields.elementAt(i);
+      if (tagMatcher != null && !tagMatcher.reset(ele.tag()).find()) {
+        continue;
+      }
+      if (dataMatcher != null) {
+        content.setLength(0);
+        ele.appendMarc(content);
+        if (!dataMatcher.reset(content).find()) {
+          continue;
+        }
+      }
+      result.addElement(ele);
     }
     return result;
   }
@@ -973,9 +1617,10 @@ public class MarcBaseRecord implements MarcConstants {
    * @return the marc record string
    */
   public String marcDump() {
+    materialize();
     Enumeration e = fields.elements();
-    StringBuffer sb = new StringBuffer(2500);
-    MarcDirectory dir = new MarcDirectory();
+    StringBuilder sb = new StringBuilder(2500);
+    MarcDirectory dir = new MarcDirectory(fields.size());
 
     int relativeAddress = 0;
     while (e.hasMoreElements()) {
@@ -994,7 +1639,11 @@ public class MarcBaseRecord implements MarcConstants {
 
     setBaseAddress();
     setNominalLength(baseAddress() + relativeAddress + 1);
-    String outDump = leader.marcDump() + dir.marcDump() + sb.toString();
+    StringBuilder out = new StringBuilder(baseAddress() + sb.length());
+    out.append(leader.marcDump());
+    dir.appendTo(out);
+    out.append(sb);
+    String outDump = out.toString();
     if (outDump.length() > 99999) {
       throw new MarcSizeException("Record length exceeds maximum:" + sb.length());
     }
@@ -1014,15 +1663,16 @@ public class MarcBaseRecord implements MarcConstants {
    * @see #MARC_TAG_ORDER
    */
   public void replaceFields(MarcFieldList list, int order) {
-    Vector vlist = list.toVector();
+    materialize();
     Field ele = null;
     int iLoc = -1;
-    int max = vlist.size();
+    int max = list.size();
 
     for (int i = 0; i < max; i++) {
-      ele = (Field) vlist.elementAt(i);
+      ele = list.elementAt(i);
       iLoc = findId(ele.getId());
       if (iLoc >= 0) { // field found
+        tagIndex.replaced((Field) fields.elementAt(iLoc), ele);
         fields.setElementAt(ele, iLoc);
       } else { // field not found so add field using order
         setCopyField(ele, order);
@@ -1083,6 +1733,7 @@ public class MarcBaseRecord implements MarcConstants {
    * @see #MARC_TAG_ORDER
    */
   public Field setField(Field field, int order) {
+    materialize();
     // set id in field as sequence
     field.setId(seq);
     seq++;
@@ -1091,7 +1742,16 @@ public class MarcBaseRecord implements MarcConstants {
       status = Math.max(status, MARC_REC_ALHPA_TAGS);
     }
 
+    tagIndex.added(fields, insertField(field, order));
+    return field;
+  }
 
+
+  /**
+   * Insert a field among the fields of this record using the given insertion order, and return its
+   * position.
+   */
+  private int insertField(Field field, int order) {
     // This code contains an evil bug, whereby if the user specifies
     // an unknown value for order the field is not added, but the method
     // returns successfully.
@@ -1149,6 +1809,7 @@ public class MarcBaseRecord implements MarcConstants {
     switch (order) {
       case END_LIST:
         fields.addElement(field);
+        i = fields.size() - 1;
         break;
 
       case TAG_ORDER:
@@ -1177,10 +1838,83 @@ public class MarcBaseRecord implements MarcConstants {
 
       default:
         fields.addElement(field);
+        i = fields.size() - 1;
         break;
     }
 
-    return field;
+    return i;
+  }
+
+
+  /**
+   * Add a field after all existing fields, numbering it as <code>setField</code> does, but leave
+   * placing it in its insertion order to <code>orderFields</code>, once all the fields being added
+   * together are present.
+   */
+  private void appendField(Field field) {
+    field.setId(seq);
+    seq++;
+
+    if (field.getTagint() == -1) {
+      status = Math.max(status, MARC_REC_ALHPA_TAGS);
+    }
+    fields.addElement(field);
+  }
+
+
+  /**
+   * Place the fields added by <code>appendField</code> from the supplied position onwards in the
+   * given insertion order, with the same result as adding each of them with <code>setField</code>.
+   *
+   * Inserting each field before the first field with a greater key keeps fields that are already in
+   * key order in that order, and so amounts to a stable sort on the key. One sort therefore replaces
+   * the search and insert for each field, which would take quadratic time. When the existing fields
+   * are not in key order the fields are inserted one at a time instead, as only that reproduces
+   * where each lands.
+   *
+   * @param from the position of the first field added
+   * @param order the insertion order to use
+   */
+  private void orderFields(int from, int order) {
+    int max = fields.size();
+    Comparator<Field> cmp = null;
+    if (order == TAG_ORDER) {
+      cmp = TAG_COMPARATOR;
+    } else if (order == MARC_TAG_ORDER) {
+      cmp = GROUP_COMPARATOR;
+    }
+
+    if (cmp == null) {
+      for (int i = from; i < max; i++) {
+        tagIndex.added(fields, i);
+      }
+      return;
+    }
+
+    // the fields vector holds only Fields
+    @SuppressWarnings("unchecked")
+    List<Field> list = fields;
+    boolean sorted = true;
+    for (int i = 1; i < from; i++) {
+      if (cmp.compare(list.get(i - 1), list.get(i)) > 0) {
+        sorted = false;
+        break;
+      }
+    }
+
+    if (sorted) {
+      Collections.sort(list, cmp);
+    } else {
+      Field[] added = new Field[max - from];
+      for (int i = from; i < max; i++) {
+        added[i - from] = list.get(i);
+      }
+      fields.setSize(from);
+      for (int i = 0; i < added.length; i++) {
+        insertField(added[i], order);
+      }
+    }
+    tagIndex.invalidate();
   }
 
 
@@ -1226,14 +1960,15 @@ public class MarcBaseRecord implements MarcConstants {
    * @see #MARC_TAG_ORDER
    */
   public void setFields(MarcFieldList list, int order) {
-    Vector vlist = list.toVector();
-    Field ele = null;
-    int max = vlist.size();
+    materialize();
+    int from = fields.size();
+    int max = list.size();
+    fields.ensureCapacity(from + max);
 
     for (int i = 0; i < max; i++) {
-      ele = (Field) vlist.elementAt(i);
-      setCopyField(ele, order);
+      appendField(list.elementAt(i).copy());
     }
+    orderFields(from, order);
   }
 
 
@@ -1264,6 +1999,7 @@ public class MarcBaseRecord implements MarcConstants {
    * @return string containing formatted output
    */
   public String toString() {
+    materialize();
     StringBuffer sb = new StringBuffer(1500);
     sb.append(StringDisplay.EOL);
 
@@ -1301,6 +2037,7 @@ public class MarcBaseRecord implements MarcConstants {
    * @param tt the TranslateTable object to use
    */
   public void translateVblFields(TranslateTable tt) {
+    materialize();
     int max = fields.size();
     for (int i = 0; i < max; i++) {
       Field fld = (Field) fields.elementAt(i);
@@ -1317,10 +2054,27 @@ public class MarcBaseRecord implements MarcConstants {
    * @return the field count
    */
   public int getFieldCount() {
+    if (lazy != null) {
+      return lazy.size();
+    }
     return (fields == null ? 0 : fields.size());
   }
 
 
+  /**
+   * Return the field at the supplied position in record order, without copying the list of fields.
+   * The fields of a lazily built record are all created first.
+   *
+   * @param i the position of the field
+   *
+   * @return the field at that position
+   */
+  Field fieldAt(int i) {
+    materialize();
+    return (Field) fields.elementAt(i);
+  }
+
+
   /**
    * Build a map keyed by field tag with the number of occurrences of that tag within this record and
    * return that map. Because the map is <code>TreeMap</code> the entires may be retrieved in tag
@@ -1330,9 +2084,9 @@ public class MarcBaseRecord implements MarcConstants {
    */
   public TreeMap getFieldCountMap() {
     TreeMap fieldCountMap = new TreeMap();
-    int max = fields.size();
+    int max = getFieldCount();
     for (int i = 0; i < max; i++) {
-      String ftag = ((Field) (fields.elementAt(i))).getTag();
+      String ftag = (lazy != null ? lazy.tag(i) : ((Field) (fields.elementAt(i))).getTag());
       Integer fcnt = (Integer) fieldCountMap.get(ftag);
       int newCount = (fcnt == null ? 1 : fcnt.intValue() + 1);
       fieldCountMap.put(ftag, new Integer(newCount));
@@ -1348,6 +2102,7 @@ public class MarcBaseRecord implements MarcConstants {
    * @return the map of subfield occurrence counts
    */
   public TreeMap getSubFieldCountMap() {
+    materialize();
     TreeMap sfCountMap = new TreeMap();
     TreeMap totalMap = new TreeMap();
 
@@ -1372,6 +2127,7 @@ public class MarcBaseRecord implements MarcConstants {
    * @return the map of subfield occurrence counts
    */
   public TreeMap getSubFieldCountMap(String tag) {
+    materialize();
     TreeMap sfCountMap = new TreeMap();
     TreeMap totalMap = new TreeMap();
 
@@ -1402,6 +2158,7 @@ public class MarcBaseRecord implements MarcConstants {
    *         x Integer)
    */
   public TreeMap getSubFieldCountMap(String[] tags) {
+    materialize();
     TreeMap sfMutliTagMap = new TreeMap(); // tag x countMap
 
     if (tags != null && tags.length > 0) {
@@ -1445,6 +2202,7 @@ public class MarcBaseRecord implements MarcConstants {
    *         x Integer)
    */
   public TreeMap getSubFieldCountMapByField() {
+    materialize();
     TreeMap sfSummaryMap = new TreeMap(); // tag x countMap
 
     int max = fields.size();
@@ -1592,17 +2350,76 @@ public class MarcBaseRecord implements MarcConstants {
    * Reset this object to the uninitialized state.
    */
   protected void clear() {
+    lazy = null;
     leader = new MarcLeader();
     fields = new Vector(30, 10);
+    if (tagIndex == null || tagIndex.isShared()) {
+      tagIndex = new FieldTagIndex();
+    } else {
+      tagIndex.invalidate();
+    }
     seq = 0;
     status = MARC_REC_NOT_BUILT;
   }
 
 
+  /**
+   * Return the tag index, built and current, or null if the record has so few fields that scanning
+   * them is as quick.
+   */
+  private FieldTagIndex tagIndex() {
+    if (fields.size() < INDEX_THRESHOLD) {
+      return null;
+    }
+    tagIndex.build(fields);
+    return tagIndex;
+  }
+
+
+  /**
+   * Return the value of a tag of three ascii digits, or -1 for any other tag.
+   */
+  private static int numericTag(String tag) {
+    if (tag == null || tag.length() != 3) {
+      return -1;
+    }
+    int n = 0;
+    for (int i = 0; i < 3; i++) {
+      char c = tag.charAt(i);
+      if (c < '0' || c > '9') {
+        return -1;
+      }
+      n = n * 10 + (c - '0');
+    }
+    return n;
+  }
+
+
+  /**
+   * Create any fields of a lazily built record that have not yet been created, and place all the
+   * fields in the fields Vector in record order.
+   */
+  private void materialize() {
+    if (lazy != null) {
+      LazyFieldTable table = lazy;
+      lazy = null;
+
+      int max = table.size();
+      fields.ensureCapacity(max);
+      for (int i = 0; i < max; i++) {
+        fields.addElement(table.field(table.slotAt(i)));
+      }
+      tagIndex.invalidate();
+      seq = max;
+    }
+  }
+
+
   /**
    * Return current base address of data.
    */
   private final int baseAddress() {
+    materialize();
     return 24 + fields.size() * 12 + 1;
   }
 
@@ -1619,6 +2436,7 @@ public class MarcBaseRecord implements MarcConstants {
    * Return actual record length, i.e., sum of lengths of leader, directory, and fields
    */
   private final int length() {
+    materialize();
     int len = baseAddress(); // MarcLeader
     Enumeration e = fields.elements();
 
@@ -1642,6 +2460,7 @@ public class MarcBaseRecord implements MarcConstants {
    * @return the matching field's index, or -1 if no match is found
    */
   private int findId(int id) {
+    materialize();
     int iRet = -1;
     int max = fields.size();
     for (int i = 0; i < max; i++) {
@@ -0,0 +1,588 @@
+package org.cdlib.util.marc;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.cdlib.util.string.StringUtil;
+
+/**
+ * An IO class used to read a file of binary marc records through a
+ * <code>ReadableByteChannel</code>.
+ *
+ * Records are framed on the raw bytes: the five digit record length in
+ * the leader is taken as a byte count, as the standard defines it, and
+ * the last byte of each record must be the end of record terminator
+ * (0x1D). The framed bytes are handed to
+ * <code>MarcBaseRecord.build(byte[], int, int, Charset, int)</code>, so
+ * only the field payloads are ever decoded. This avoids the per character
+ * decoding done by <code>MarcStream</code>, and reads UTF-8 records, whose
+ * byte and character lengths differ, correctly.
+ *
+ * When a record cannot be framed, <code>next()</code> throws a
+ * <code>MarcFormatException</code> after skipping past the next end of
+ * record terminator, so the caller may log the failure and continue.
+ *
+ * @see MarcStream
+ * @see MarcBaseRecord#build(byte[], int, int, Charset, int)
+ */
+public class MarcChannelReader implements MarcConstants, Closeable
+{
+	/**
+	 * log4j Logger for this class.
+	 */
+    private static Logger log = LoggerFactory.getLogger(MarcChannelReader.class);
+
+    /**
+     * The initial size of the read buffer.
+     */
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The largest record length that can be expressed in a marc leader.
+     */
+    private static final int MAX_RECORD_LENGTH = 99999;
+
+    //====================================================
+    //       PRIVATE VARIABLES
+    //====================================================
+    private static int STARTINCNT = -1;
+
+    private ReadableByteChannel channel       = null;
+    private String              name          = null;
+    private Charset             charset       = null;
+    private byte[]              buf           = null;
+    private ByteBuffer          byteBuf       = null;
+    private int                 pos           = 0;
+    private int                 lim           = 0;
+    private long                bufOffset     = 0;
+    private long                recordOffset  = -1;
+    private boolean             eof           = false;
+    private boolean             lazy          = false;
+    private int                 currentCnt    = STARTINCNT;
+    private MarcRecord          currentRecord = null;
+
+
+    //====================================================
+    //       CONSTRUCTORS
+    //====================================================
+
+    /**
+     * Instantiate a new MarcChannelReader object.
+     *
+     * @param infile - string containing name of marc file to be input
+     */
+    public MarcChannelReader(String infile)
+        throws MarcIOException
+    {
+        if ( StringUtil.isEmpty(infile) )
+        {
+            throw new MarcIOException(this, "No file name provided");
+        }
+        open(new File(infile));
+    }
+
+    /**
+     * Instantiate a new MarcChannelReader object.
+     *
+     * @param fileObj - File object defining marc file to be input
+     */
+    public MarcChannelReader(File fileObj)
+        throws MarcIOException
+    {
+        if ( fileObj == null )
+        {
+            throw new MarcIOException("MarcChannelReader - no File object provided on constructor");
+        }
+        open(fileObj);
+    }
+
+    /**
+     * Instantiate a new MarcChannelReader object reading from the supplied
+     * channel. Reading starts at the channel's current position, and the
+     * channel is closed when this reader is closed.
+     *
+     * @param channel - the channel to read marc records from
+     */
+    public MarcChannelReader(ReadableByteChannel channel)
+        throws MarcIOException
+    {
+        if ( channel == null )
+        {
+            throw new MarcIOException("MarcChannelReader - no channel provided on constructor");
+        }
+        this.name = channel.toString();
+        init(channel, position(channel));
+    }
+
+    /**
+     * Instantiate a new MarcChannelReader object reading from the supplied
+     * channel, whose next byte is at the supplied offset. Used when reading
+     * a region of a shared file channel.
+     *
+     * @param channel - the channel to read marc records from
+     * @param offset - the offset of the first byte the channel will return
+     */
+    MarcChannelReader(ReadableByteChannel channel, long offset)
+    {
+        this.name = channel.toString();
+        init(channel, offset);
+    }
+
+
+    //====================================================
+    //       PUBLIC METHODS
+    //====================================================
+
+    /**
+     * The record count for the last returned record.
+     *
+     * @return int containing record count
+     */
+    public int getCurrentCnt()
+    {
+        return currentCnt;
+    }
+
+    /**
+     * Return the offset in the channel of the first byte of the last record
+     * framed, whether or not that record could be parsed, or -1 if no record
+     * has been read.
+     *
+     * @return the byte offset of the last record
+     */
+    public long getRecordOffset()
+    {
+        return recordOffset;
+    }
+
+    /**
+     * Return the character set used to decode field data, or null if the
+     * character set is chosen from leader position 09 of each record.
+     */
+    public Charset getCharset()
+    {
+        return charset;
+    }
+
+    /**
+     * Set the character set used to decode field data. When null, which is
+     * the default, UTF-8 is used for records with an 'a' in leader position 09,
+     * and ISO-8859-1 for all others.
+     *
+     * @param charset the character set to use, or null
+     */
+    public void setCharset(Charset charset)
+    {
+        this.charset = charset;
+    }
+
+    /**
+     * Tests if records are built lazily.
+     */
+    public boolean isLazy()
+    {
+        return lazy;
+    }
+
+    /**
+     * Set whether records are built lazily, creating their fields only as
+     * they are requested. The default is false.
+     *
+     * @param lazy true to build records lazily
+     * @see MarcBaseRecord#buildLazy(byte[], int, int, Charset, int)
+     */
+    public void setLazy(boolean lazy)
+    {
+        this.lazy = lazy;
+    }
+
+    /**
+     * Return next MarcRecord built from the channel.
+     *
+     * @return MarcRecord object
+     *
+     * @exception MarcEndOfFileException if no more Marc records
+     * @exception MarcFormatException if the next record is malformed
+     * @exception MarcInvalidStateException if the channel is not open
+     */
+    public MarcRecord next()
+    {
+        MarcRecord marc = new MarcRecord();
+        next(marc);
+        return marc;
+    }
+
+    /**
+     * Populate the referenced MarcRecord with the next record from the channel.
+     *
+     * @param marcRec A reference to a marc record to populate
+     * @return the status code for this operation
+     *
+     * @exception MarcEndOfFileException if no more Marc records
+     * @exception MarcFormatException if the next record is malformed
+     * @exception MarcInvalidStateException if the channel is not open
+     */
+    public int next(MarcRecord marcRec)
+    {
+        if ( channel == null )
+        {
+            throw new MarcInvalidStateException();
+        }
+
+        try
+        {
+            return build(marcRec, frame());
+        }
+        catch (IOException e)
+        {
+            if ( log.isDebugEnabled() )
+            {
+                log.error("IOException - " + e.getMessage(), e);
+            }
+            else
+            {
+                log.error("IOException - " + e.getMessage());
+            }
+            throw new MarcIOException(this, e.getMessage());
+        }
+    }
+
+    /**
+     * Frame the next record without building it.
+     *
+     * @return the length in bytes of the record skipped
+     *
+     * @exception MarcEndOfFileException if no more Marc records
+     * @exception MarcFormatException if the next record cannot be framed
+     */
+    int skip()
+    {
+        if ( channel == null )
+        {
+            throw new MarcInvalidStateException();
+        }
+
+        try
+        {
+            return frame();
+        }
+        catch (IOException e)
+        {
+            log.error("IOException - " + e.getMessage());
+            throw new MarcIOException(this, e.getMessage());
+        }
+    }
+
+    /**
+     * Populate the referenced MarcRecord with the record last framed.
+     *
+     * @param marcRec A reference to a marc record to populate
+     * @param reclen the length returned by the framing
+     * @return the status code for this operation
+     *
+     * @exception MarcFormatException if the record is malformed
+     */
+    int build(MarcRecord marcRec, int reclen)
+    {
+        try
+        {
+            int start = pos - reclen;
+            if ( lazy )
+            {
+                marcRec.buildLazy(buf, start, reclen, charset, MarcBaseRecord.END_LIST);
+            }
+            else
+            {
+                marcRec.build(buf, start, reclen, charset, MarcBaseRecord.END_LIST);
+            }
+            currentRecord = marcRec;
+            return MARC_READ_SUCCESS;
+        }
+        catch (MarcFormatException e)
+        {
+            if ( log.isDebugEnabled() )
+            {
+                log.error("MarcFormatException - " + e.getMessage(), e);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Return the buffer holding the record last framed. The record occupies
+     * the bytes ending at <code>bufferPosition()</code>.
+     */
+    byte[] buffer()
+    {
+        return buf;
+    }
+
+    /**
+     * Return the position in the buffer following the record last framed.
+     */
+    int bufferPosition()
+    {
+        return pos;
+    }
+
+    /**
+     * Return the last record successfully returned by this reader.
+     */
+    public MarcRecord getCurrentRecord()
+    {
+        return currentRecord;
+    }
+
+    /**
+     * Close the channel.
+     */
+    public void close()
+    {
+        if ( channel != null )
+        {
+            try
+            {
+                channel.close();
+            }
+            catch (IOException e)
+            {
+                log.debug("error closing " + name + " - " + e.getMessage());
+            }
+        }
+        channel = null;
+    }
+
+
+    //====================================================
+    //       PRIVATE METHODS
+    //====================================================
+
+    /**
+     * Open a file channel on the supplied file, or a channel reading its
+     * decompressed content if it is gzip compressed. Record offsets of a
+     * compressed file are offsets in the decompressed content.
+     */
+    private void open(File fileObj)
+    {
+        name = fileObj.getPath();
+        try
+        {
+            FileInputStream fin = new FileInputStream(fileObj);
+            InputStream in = CompressedInput.open(fin);
+            if ( CompressedInput.isCompressed(in) )
+            {
+                init(Channels.newChannel(in), 0);
+            }
+            else
+            {
+                init(fin.getChannel(), 0);
+            }
+        }
+        catch (IOException e)
+        {
+            String msg = "Error processing file: " + fileObj;
+            log.error(msg, e);
+            throw new MarcIOException(this, msg);
+        }
+    }
+
+    /**
+     * Return the current position of a file channel, or zero for any other
+     * channel.
+     */
+    private static long position(ReadableByteChannel ch)
+    {
+        if ( ch instanceof FileChannel )
+        {
+            try
+            {
+                return ((FileChannel)ch).position();
+            }
+            catch (IOException e)
+            {
+                log.debug("unable to determine channel position - " + e.getMessage());
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Initialize the buffer and counters for a newly opened channel.
+     */
+    private void init(ReadableByteChannel ch, long offset)
+    {
+        channel = ch;
+        buf = new byte[INITIAL_BUFFER_SIZE];
+        byteBuf = ByteBuffer.wrap(buf);
+        pos = 0;
+        lim = 0;
+        eof = false;
+        currentCnt = STARTINCNT;
+        recordOffset = -1;
+        bufOffset = offset;
+    }
+
+    /**
+     * Locate the next record in the buffer. On return the record occupies the
+     * <code>reclen</code> bytes ending at <code>pos</code>.
+     *
+     * @return the length in bytes of the record
+     */
+    private int frame()
+        throws IOException
+    {
+        // tolerate line ends and padding written between records
+        while ( fill(1) && isFiller(buf[pos]) )
+        {
+            pos++;
+        }
+
+        if ( !fill(5) )
+        {
+            if ( lim > pos )
+            {
+                log.debug("failed to find length field - buf len = " + (lim - pos));
+            }
+            pos = lim;
+            throw new MarcEndOfFileException();
+        }
+
+        currentCnt++;
+        recordOffset = bufOffset + pos;
+
+        int reclen = 0;
+        try
+        {
+            reclen = StringUtil.ascii2int(buf, pos, 5);
+        }
+        catch (NumberFormatException e)
+        {
+            String lenStr = new String(buf, pos, 5, StandardCharsets.ISO_8859_1);
+            resync();
+            throw new MarcFormatException(this, "Leader record length is not numeric: '"
+                                          + lenStr + "' at offset " + recordOffset);
+        }
+
+        if ( reclen < 24 )
+        {
+            resync();
+            throw new MarcFormatException(this, "Leader record length is less than 24: "
+                                          + reclen + " at offset " + recordOffset);
+        }
+
+        if ( !fill(reclen) )
+        {
+            int found = lim - pos;
+            resync();
+            throw new MarcFormatException(this, "Leader record length runs past the end of file: "
+                                          + reclen + " at offset " + recordOffset
+                                          + ", found " + found + " bytes");
+        }
+
+        if ( buf[pos + reclen - 1] != Marc.EOR )
+        {
+            resync();
+            throw new MarcFormatException(this, "End of record character missing: record length = "
+                                          + reclen + " at offset " + recordOffset);
+        }
+
+        pos += reclen;
+        return reclen;
+    }
+
+    /**
+     * Skip past the next end of record terminator following the current
+     * position, or to the end of the channel if there is none.
+     */
+    private void resync()
+        throws IOException
+    {
+        pos++;
+        while ( fill(1) )
+        {
+            while ( pos < lim )
+            {
+                if ( buf[pos++] == Marc.EOR )
+                {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Make sure at least <code>need</code> unread bytes are in the buffer,
+     * reading from the channel as required.
+     *
+     * @return false when the end of the channel is reached first
+     */
+    private boolean fill(int need)
+        throws IOException
+    {
+        if ( lim - pos >= need )
+        {
+            return true;
+        }
+
+        if ( eof )
+        {
+            return false;
+        }
+
+        // shift the unread bytes to the front of the buffer, growing it if needed
+        if ( pos + need > buf.length )
+        {
+            int unread = lim - pos;
+            byte[] target = buf;
+            if ( need > buf.length )
+            {
+                target = new byte[Math.max(need, Math.min(buf.length * 2, MAX_RECORD_LENGTH))];
+            }
+            System.arraycopy(buf, pos, target, 0, unread);
+            if ( target != buf )
+            {
+                buf = target;
+                byteBuf = ByteBuffer.wrap(buf);
+            }
+            bufOffset += pos;
+            pos = 0;
+            lim = unread;
+        }
+
+        while ( lim - pos < need )
+        {
+            byteBuf.limit(buf.length);
+            byteBuf.position(lim);
+            int n = channel.read(byteBuf);
+            if ( n < 0 )
+            {
+                eof = true;
+                return false;
+            }
+            lim += n;
+        }
+
+        return true;
+    }
+
+    /**
+     * Tests if a byte is one of the characters some writers place between
+     * records: carriage return, line feed, or blank.
+     */
+    private static boolean isFiller(byte b)
+    {
+        return b == '\r' || b == '\n' || b == ' ';
+    }
+
+}
@@ -0,0 +1,301 @@
+package org.cdlib.util.marc;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One column of a <code>MarcColumnStore</code>, read from a memory mapped
+ * file, so only the parts of the file that are used are read from disk.
+ *
+ * A column holds a sequence of values, each with the number of the record it
+ * was taken from, in record order. A record may have any number of values in
+ * a column, including none. Dictionary encoded columns hold each distinct
+ * value once, and a code for each value.
+ *
+ * The file is written by <code>MarcColumnExporter</code>. All numbers are
+ * big-endian four byte ints:
+ * <pre>
+ * magic, version, encoding, record count, value count, dictionary size
+ * record number of each value
+ * encoding 0 (plain):      value count + 1 offsets, value bytes
+ * encoding 1 (dictionary): code of each value,
+ *                          dictionary size + 1 offsets, dictionary bytes
+ * </pre>
+ * Offsets are relative to the start of the bytes. Values are held as
+ * UTF-8 bytes, so they are read back as the same strings the records
+ * returned, whatever characters they hold.
+ *
+ * Columns may be read by several threads at once.
+ *
+ * @see MarcColumnStore
+ */
+public final class MarcColumn
+{
+    static final int MAGIC       = 0x4D434F4C; // "MCOL"
+    static final int VERSION     = 2;
+    static final int PLAIN       = 0;
+    static final int DICTIONARY  = 1;
+    static final int HEADER_INTS = 6;
+
+    //====================================================
+    //       PRIVATE VARIABLES
+    //====================================================
+    private final String     name;
+    private final int        recordCount;
+    private final int        valueCount;
+    private final int        dictionarySize;
+    private final IntBuffer  records;
+    private final IntBuffer  codes;
+    private final IntBuffer  offsets;
+    private final ByteBuffer bytes;
+    private final String[]   dictionary;
+
+
+    //====================================================
+    //       CONSTRUCTORS
+    //====================================================
+
+    /**
+     * Map a column file.
+     *
+     * @exception MarcIOException if the file cannot be read
+     * @exception MarcFormatException if the file is not a column file
+     */
+    MarcColumn(String name, File file)
+    {
+        this.name = name;
+        MappedByteBuffer map = null;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            if ( channel.size() > Integer.MAX_VALUE )
+            {
+                throw new MarcFormatException(this, "column file too large: " + file);
+            }
+            map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        catch (IOException e)
+        {
+            throw new MarcIOException(this, "Error processing file: " + file + " - " + e.getMessage());
+        }
+
+        if ( map.capacity() < HEADER_INTS * 4 || map.getInt(0) != MAGIC )
+        {
+            throw new MarcFormatException(this, "not a column file: " + file);
+        }
+        if ( map.getInt(4) != VERSION )
+        {
+            throw new MarcFormatException(this, "unsupported column file version " + map.getInt(4) + ": " + file);
+        }
+        int encoding   = map.getInt(8);
+        recordCount    = map.getInt(12);
+        valueCount     = map.getInt(16);
+        dictionarySize = map.getInt(20);
+
+        int pos = HEADER_INTS * 4;
+        records = ints(map, pos, valueCount, file);
+        pos += valueCount * 4;
+        int entries = valueCount;
+        if ( encoding == DICTIONARY )
+        {
+            codes = ints(map, pos, valueCount, file);
+            pos += valueCount * 4;
+            entries = dictionarySize;
+            dictionary = new String[dictionarySize];
+        }
+        else
+        {
+            codes = null;
+            dictionary = null;
+        }
+        offsets = ints(map, pos, entries + 1, file);
+        pos += (entries + 1) * 4;
+        if ( pos > map.capacity() || map.capacity() - pos < offsets.get(entries) )
+        {
+            throw new MarcFormatException(this, "truncated column file: " + file);
+        }
+        map.position(pos);
+        bytes = map.slice();
+    }
+
+
+    //====================================================
+    //       PUBLIC METHODS
+    //====================================================
+
+    /**
+     * Return the name of the column.
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * Return the number of records in the store the column belongs to.
+     */
+    public int getRecordCount()
+    {
+        return recordCount;
+    }
+
+    /**
+     * Return the number of values in the column.
+     */
+    public int getValueCount()
+    {
+        return valueCount;
+    }
+
+    /**
+     * Tests if the column is dictionary encoded.
+     */
+    public boolean isDictionaryEncoded()
+    {
+        return codes != null;
+    }
+
+    /**
+     * Return the number of distinct values of a dictionary encoded column,
+     * or zero.
+     */
+    public int getDictionarySize()
+    {
+        return dictionarySize;
+    }
+
+    /**
+     * Return the number of the record a value was taken from.
+     *
+     * @param index the index of the value
+     */
+    public int getRecord(int index)
+    {
+        return records.get(index);
+    }
+
+    /**
+     * Return the index of the first value taken from a record, or of the
+     * first value of a later record if it has none.
+     */
+    public int firstIndex(int record)
+    {
+        int lo = 0;
+        int hi = valueCount;
+        while ( lo < hi )
+        {
+            int mid = (lo + hi) >>> 1;
+            if ( records.get(mid) < record )
+            {
+                lo = mid + 1;
+            }
+            else
+            {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Return the dictionary code of a value.
+     *
+     * @param index the index of the value
+     *
+     * @exception MarcInvalidStateException if the column is not dictionary encoded
+     */
+    public int getCode(int index)
+    {
+        if ( codes == null )
+        {
+            throw new MarcInvalidStateException(this, "column " + name + " is not dictionary encoded");
+        }
+        return codes.get(index);
+    }
+
+    /**
+     * Return the value a dictionary code stands for.
+     *
+     * @exception MarcInvalidStateException if the column is not dictionary encoded
+     */
+    public String getDictionaryValue(int code)
+    {
+        if ( dictionary == null )
+        {
+            throw new MarcInvalidStateException(this, "column " + name + " is not dictionary encoded");
+        }
+        String value = dictionary[code];
+        if ( value == null )
+        {
+            value = decode(code);
+            dictionary[code] = value;
+        }
+        return value;
+    }
+
+    /**
+     * Return a value.
+     *
+     * @param index the index of the value
+     */
+    public String getValue(int index)
+    {
+        if ( codes != null )
+        {
+            return getDictionaryValue(codes.get(index));
+        }
+        return decode(index);
+    }
+
+    /**
+     * Return the values taken from a record.
+     */
+    public List<String> getValues(int record)
+    {
+        List<String> values = new ArrayList<String>();
+        for ( int i = firstIndex(record); i < valueCount && records.get(i) == record; i++ )
+        {
+            values.add(getValue(i));
+        }
+        return values;
+    }
+
+
+    //====================================================
+    //       PRIVATE METHODS
+    //====================================================
+
+    /**
+     * Decode the bytes of an entry of the offsets.
+     */
+    private String decode(int entry)
+    {
+        int start = offsets.get(entry);
+        byte[] b = new byte[offsets.get(entry + 1) - start];
+        for ( int i = 0; i < b.length; i++ )
+        {
+            b[i] = bytes.get(start + i);
+        }
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    private IntBuffer ints(MappedByteBuffer map, int pos, int count, File file)
+    {
+        if ( count < 0 || pos + (long)count * 4 > map.capacity() )
+        {
+            throw new MarcFormatException(this, "truncated column file: " + file);
+        }
+        ByteBuffer b = map.duplicate();
+        b.position(pos);
+        b.limit(pos + count * 4);
+        return b.slice().asIntBuffer();
+    }
+
+}
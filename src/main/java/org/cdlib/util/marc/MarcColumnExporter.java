@@ -0,0 +1,613 @@
+package org.cdlib.util.marc;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Exports binary marc records read by <code>MarcStream</code> to a
+ * <code>MarcColumnStore</code>: a directory holding a file per column, so
+ * a later scan of a few tags reads only their columns.
+ *
+ * The columns to export are named as described by <code>MarcColumnStore</code>,
+ * for example <code>008/07-10</code>, <code>035$a</code> or <code>852$b</code>.
+ * If none are named, every tag is exported: a column per control field tag,
+ * and a column per subfield code of each data field tag, plus the leader.
+ *
+ * Records are numbered from zero in the order they are read. Malformed
+ * records are logged and skipped, and are not numbered.
+ *
+ * Values are buffered in a temporary file per column while the records are
+ * read, so memory use does not grow with the input. A column with few
+ * distinct values is dictionary encoded, if that makes it smaller.
+ *
+ * <pre>
+ * java org.cdlib.util.marc.MarcColumnExporter [-columns 008/07-10,035$a,852$b] directory file...
+ * </pre>
+ *
+ * @see MarcColumnStore
+ * @see MarcColumn
+ */
+public class MarcColumnExporter
+{
+	/**
+	 * log4j Logger for this class.
+	 */
+    private static Logger log = LoggerFactory.getLogger(MarcColumnExporter.class);
+
+    /**
+     * The default number of distinct values above which a column is not
+     * dictionary encoded.
+     */
+    public static final int DEFAULT_MAX_DICTIONARY_SIZE = 16 * 1024;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The sections of a column file copied from its temporary file.
+     */
+    private static final int RECORDS = 0;
+    private static final int CODES   = 1;
+    private static final int OFFSETS = 2;
+    private static final int BYTES   = 3;
+
+    //====================================================
+    //       PRIVATE VARIABLES
+    //====================================================
+    private final File directory;
+    private final Map<String, MarcColumnSpec> specs = new LinkedHashMap<String, MarcColumnSpec>();
+    private int maxDictionarySize = DEFAULT_MAX_DICTIONARY_SIZE;
+    private long maxColumnSize = Integer.MAX_VALUE;
+
+    private Map<String, Column> columns;
+    private Map<String, List<Column>> byTag;
+    private int recordCount;
+    private int malformedCount;
+    private final List<String> values = new ArrayList<String>();
+
+
+    //====================================================
+    //       CONSTRUCTORS
+    //====================================================
+
+    /**
+     * Create an exporter writing to a directory, which is created if needed.
+     * Column files already in the directory are replaced.
+     */
+    public MarcColumnExporter(File directory)
+    {
+        this.directory = directory;
+    }
+
+
+    //====================================================
+    //       PUBLIC METHODS
+    //====================================================
+
+    /**
+     * Add a column to export.
+     *
+     * @exception MarcParmException if the column name is malformed
+     */
+    public void addColumn(String name)
+    {
+        MarcColumnSpec spec = MarcColumnSpec.parse(name);
+        specs.put(spec.getName(), spec);
+    }
+
+    /**
+     * Set the number of distinct values above which a column is not
+     * dictionary encoded.
+     */
+    public void setMaxDictionarySize(int maxDictionarySize)
+    {
+        this.maxDictionarySize = Math.max(0, maxDictionarySize);
+    }
+
+    /**
+     * Return the number of malformed records skipped by the last export.
+     */
+    public int getMalformedCount()
+    {
+        return malformedCount;
+    }
+
+    /**
+     * Export the records of the supplied files, numbered in the order of the
+     * files. Gzip compressed files are decompressed as they are read.
+     *
+     * @return the number of records exported
+     *
+     * @exception MarcIOException if a file cannot be read or written
+     */
+    public int export(File... files)
+    {
+        MarcStream[] streams = new MarcStream[files.length];
+        for ( int i = 0; i < files.length; i++ )
+        {
+            streams[i] = new MarcStream(files[i]);
+            streams[i].setRecycle(true);
+        }
+        try
+        {
+            return export(streams);
+        }
+        finally
+        {
+            for ( int i = 0; i < streams.length; i++ )
+            {
+                streams[i].close();
+            }
+        }
+    }
+
+    /**
+     * Export the remaining records of the supplied open streams, numbered in
+     * the order of the streams. The streams are read to the end but not closed.
+     *
+     * @return the number of records exported
+     *
+     * @exception MarcIOException if a stream cannot be read or a column written
+     */
+    public int export(MarcStream... streams)
+    {
+        if ( !directory.isDirectory() && !directory.mkdirs() )
+        {
+            throw new MarcIOException(this, "Error creating directory: " + directory);
+        }
+
+        MarcColumnStore.deleteManifest(directory);
+        columns = new LinkedHashMap<String, Column>();
+        byTag = new HashMap<String, List<Column>>();
+        recordCount = 0;
+        malformedCount = 0;
+        boolean done = false;
+        try
+        {
+            for ( MarcColumnSpec spec : specs.values() )
+            {
+                column(spec);
+            }
+
+            MarcRecord rec = new MarcRecord();
+            for ( int i = 0; i < streams.length; i++ )
+            {
+                while ( read(streams[i], rec) )
+                {
+                    add(rec);
+                    recordCount++;
+                }
+            }
+
+            List<String> names = new ArrayList<String>(columns.keySet());
+            if ( specs.isEmpty() )
+            {
+                names = new ArrayList<String>(new TreeMap<String, Column>(columns).keySet());
+            }
+            for ( String name : names )
+            {
+                columns.get(name).finish();
+            }
+            MarcColumnStore.writeManifest(directory, recordCount, names);
+            done = true;
+            log.info("exported " + recordCount + " records to " + columns.size() + " columns in "
+                     + directory + ", skipped " + malformedCount + " malformed");
+            return recordCount;
+        }
+        finally
+        {
+            if ( !done )
+            {
+                for ( Column column : columns.values() )
+                {
+                    column.discard();
+                }
+            }
+            columns = null;
+            byTag = null;
+        }
+    }
+
+    /**
+     * Export the files named on the command line.
+     */
+    public static void main(String[] args)
+    {
+        List<String> names = new ArrayList<String>();
+        List<File> files = new ArrayList<File>();
+        for ( int i = 0; i < args.length; i++ )
+        {
+            if ( "-columns".equals(args[i]) && i + 1 < args.length )
+            {
+                for ( String name : args[++i].split(",") )
+                {
+                    names.add(name.trim());
+                }
+            }
+            else
+            {
+                files.add(new File(args[i]));
+            }
+        }
+
+        if ( files.size() < 2 )
+        {
+            System.out.println("Usage: MarcColumnExporter [-columns column,...] directory file...");
+            System.exit(4);
+        }
+
+        MarcColumnExporter exporter = new MarcColumnExporter(files.remove(0));
+        for ( String name : names )
+        {
+            exporter.addColumn(name);
+        }
+        int count = exporter.export(files.toArray(new File[files.size()]));
+        System.out.println(count + " records exported, " + exporter.getMalformedCount() + " malformed");
+    }
+
+
+    //====================================================
+    //       PACKAGE METHODS
+    //====================================================
+
+    /**
+     * Set the size in bytes above which a column file cannot be written,
+     * which is otherwise the largest file <code>MarcColumn</code> can map.
+     */
+    void setMaxColumnSize(long maxColumnSize)
+    {
+        this.maxColumnSize = maxColumnSize;
+    }
+
+
+    //====================================================
+    //       PRIVATE METHODS
+    //====================================================
+
+    /**
+     * Read the next record of a stream, skipping malformed records.
+     *
+     * @return false at the end of the stream
+     */
+    private boolean read(MarcStream stream, MarcRecord rec)
+    {
+        while ( true )
+        {
+            try
+            {
+                stream.next(rec);
+                return true;
+            }
+            catch (MarcEndOfFileException e)
+            {
+                return false;
+            }
+            catch (MarcFormatException e)
+            {
+                log.warn("skipping malformed record #" + stream.getCurrentCnt() + " - " + e.getMessage());
+                malformedCount++;
+            }
+        }
+    }
+
+    /**
+     * Add the values of a record to its columns.
+     */
+    private void add(MarcRecord rec)
+    {
+        MarcFieldList fields = rec.getFields();
+        int max = fields.size();
+        if ( specs.isEmpty() )
+        {
+            column(MarcColumnSpec.parse(MarcColumnSpec.LEADER)).add(recordCount, rec.getLeaderValue());
+            for ( int i = 0; i < max; i++ )
+            {
+                addAll(fields.elementAt(i));
+            }
+            return;
+        }
+
+        List<Column> list = byTag.get(MarcColumnSpec.LEADER);
+        if ( list != null )
+        {
+            for ( Column column : list )
+            {
+                values.clear();
+                column.spec.addPositions(rec.getLeaderValue(), values);
+                column.addAll(recordCount, values);
+            }
+        }
+        for ( int i = 0; i < max; i++ )
+        {
+            Field field = fields.elementAt(i);
+            list = byTag.get(field.getTag());
+            if ( list == null )
+            {
+                continue;
+            }
+            for ( Column column : list )
+            {
+                values.clear();
+                column.spec.extract(field, values);
+                column.addAll(recordCount, values);
+            }
+        }
+    }
+
+    /**
+     * Add a field to the columns of an export of every tag.
+     */
+    private void addAll(Field field)
+    {
+        if ( field instanceof MarcVblLengthField )
+        {
+            MarcVblLengthField vbl = (MarcVblLengthField)field;
+            int count = vbl.subfieldCount();
+            for ( int i = 0; i < count; i++ )
+            {
+                String name = field.getTag() + '$' + vbl.subfieldCode(i);
+                Column column = columns.get(name);
+                if ( column == null )
+                {
+                    column = column(MarcColumnSpec.parse(name));
+                }
+                column.add(recordCount, vbl.subfieldValue(i));
+            }
+        }
+        else
+        {
+            Column column = columns.get(field.getTag());
+            if ( column == null )
+            {
+                column = column(MarcColumnSpec.parse(field.getTag()));
+            }
+            column.add(recordCount, field.value());
+        }
+    }
+
+    /**
+     * Return the column for a spec, creating it if needed.
+     */
+    private Column column(MarcColumnSpec spec)
+    {
+        Column column = columns.get(spec.getName());
+        if ( column == null )
+        {
+            column = new Column(spec, new File(directory, spec.getFileName()));
+            columns.put(spec.getName(), column);
+            List<Column> list = byTag.get(spec.getTag());
+            if ( list == null )
+            {
+                list = new ArrayList<Column>(1);
+                byTag.put(spec.getTag(), list);
+            }
+            list.add(column);
+        }
+        return column;
+    }
+
+
+    //====================================================
+    //       NESTED CLASSES
+    //====================================================
+
+    /**
+     * Builds the file of one column. Each value is written with its record
+     * number to a temporary file as it is added, and the distinct values are
+     * counted until there are too many to dictionary encode.
+     */
+    private final class Column
+    {
+        final MarcColumnSpec spec;
+        private final File file;
+        private final File tmp;
+        private DataOutputStream out;
+        private Map<String, Integer> dictionary = new HashMap<String, Integer>();
+        private List<byte[]> entries = new ArrayList<byte[]>();
+        private long dictionaryBytes;
+        private long valueBytes;
+        private int valueCount;
+
+        Column(MarcColumnSpec spec, File file)
+        {
+            this.spec = spec;
+            this.file = file;
+            this.tmp = new File(file.getPath() + ".tmp");
+            try
+            {
+                out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), BUFFER_SIZE));
+            }
+            catch (IOException e)
+            {
+                throw new MarcIOException(this, "Error processing file: " + tmp + " - " + e.getMessage());
+            }
+        }
+
+        void addAll(int record, List<String> list)
+        {
+            for ( int i = 0; i < list.size(); i++ )
+            {
+                add(record, list.get(i));
+            }
+        }
+
+        void add(int record, String value)
+        {
+            byte[] b = value.getBytes(StandardCharsets.UTF_8);
+            if ( dictionary != null && !dictionary.containsKey(value) )
+            {
+                if ( dictionary.size() >= maxDictionarySize )
+                {
+                    dictionary = null;
+                    entries = null;
+                }
+                else
+                {
+                    dictionary.put(value, Integer.valueOf(entries.size()));
+                    entries.add(b);
+                    dictionaryBytes += b.length;
+                }
+            }
+            valueBytes += b.length;
+            valueCount++;
+            try
+            {
+                out.writeInt(record);
+                out.writeInt(b.length);
+                out.write(b);
+            }
+            catch (IOException e)
+            {
+                throw new MarcIOException(this, "Error processing file: " + tmp + " - " + e.getMessage());
+            }
+        }
+
+        /**
+         * Write the column file from the temporary file, with dictionary
+         * encoding if that is smaller.
+         *
+         * @exception MarcSizeException if the column is too large to map
+         */
+        void finish()
+        {
+            boolean encode = dictionary != null
+                && 4L * (valueCount + entries.size() + 1) + dictionaryBytes < 4L * (valueCount + 1) + valueBytes;
+            long size = 4L * (MarcColumn.HEADER_INTS + valueCount)
+                + (encode ? 4L * (valueCount + entries.size() + 1) + dictionaryBytes
+                          : 4L * (valueCount + 1) + valueBytes);
+            try
+            {
+                out.close();
+                if ( size > maxColumnSize )
+                {
+                    throw new MarcSizeException(this, "column " + spec + " is too large: " + size + " bytes");
+                }
+
+                DataOutputStream col = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+                try
+                {
+                    col.writeInt(MarcColumn.MAGIC);
+                    col.writeInt(MarcColumn.VERSION);
+                    col.writeInt(encode ? MarcColumn.DICTIONARY : MarcColumn.PLAIN);
+                    col.writeInt(recordCount);
+                    col.writeInt(valueCount);
+                    col.writeInt(encode ? entries.size() : 0);
+                    copy(col, RECORDS);
+                    if ( encode )
+                    {
+                        copy(col, CODES);
+                        int offset = 0;
+                        col.writeInt(offset);
+                        for ( byte[] b : entries )
+                        {
+                            offset += b.length;
+                            col.writeInt(offset);
+                        }
+                        for ( byte[] b : entries )
+                        {
+                            col.write(b);
+                        }
+                    }
+                    else
+                    {
+                        copy(col, OFFSETS);
+                        copy(col, BYTES);
+                    }
+                }
+                finally
+                {
+                    col.close();
+                }
+            }
+            catch (IOException e)
+            {
+                throw new MarcIOException(this, "Error processing file: " + file + " - " + e.getMessage());
+            }
+            finally
+            {
+                tmp.delete();
+            }
+        }
+
+        /**
+         * Delete the temporary file after a failed export.
+         */
+        void discard()
+        {
+            try
+            {
+                out.close();
+            }
+            catch (IOException e)
+            {
+                log.debug("error closing " + tmp + " - " + e.getMessage());
+            }
+            tmp.delete();
+        }
+
+        /**
+         * Copy one section of the column from the temporary file.
+         */
+        private void copy(DataOutputStream col, int section) throws IOException
+        {
+            DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(tmp), BUFFER_SIZE));
+            try
+            {
+                int offset = 0;
+                byte[] b = new byte[256];
+                if ( section == OFFSETS )
+                {
+                    col.writeInt(offset);
+                }
+                for ( int i = 0; i < valueCount; i++ )
+                {
+                    int record = in.readInt();
+                    int len = in.readInt();
+                    if ( section == RECORDS || section == OFFSETS )
+                    {
+                        in.skipBytes(len);
+                        offset += len;
+                        col.writeInt(section == RECORDS ? record : offset);
+                        continue;
+                    }
+                    if ( b.length < len )
+                    {
+                        b = new byte[len];
+                    }
+                    in.readFully(b, 0, len);
+                    if ( section == CODES )
+                    {
+                        String value = new String(b, 0, len, StandardCharsets.UTF_8);
+                        col.writeInt(dictionary.get(value).intValue());
+                    }
+                    else
+                    {
+                        col.write(b, 0, len);
+                    }
+                }
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+    }
+
+}
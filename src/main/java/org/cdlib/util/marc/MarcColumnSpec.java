@@ -0,0 +1,239 @@
+package org.cdlib.util.marc;
+
+import java.util.List;
+
+/**
+ * The name of a column of a <code>MarcColumnStore</code>, parsed.
+ *
+ * A column holds, for each record, the values of one of:
+ * <ul>
+ * <li><code>001</code> - the fields with a tag, the value of each field</li>
+ * <li><code>852$b</code> - the subfields with a code in the fields with a tag</li>
+ * <li><code>008/07-10</code> or <code>008/06</code> - character positions,
+ *     counted from zero, of the fields with a tag</li>
+ * <li><code>LDR</code> or <code>LDR/06</code> - the leader, or positions of it</li>
+ * </ul>
+ *
+ * Names are held in a canonical form, with positions written as two digits,
+ * so <code>008/7-10</code> and <code>008/07-10</code> name the same column.
+ */
+final class MarcColumnSpec
+{
+    /**
+     * The tag naming the leader.
+     */
+    static final String LEADER = "LDR";
+
+    private final String name;
+    private final String tag;
+    private final char   code;
+    private final int    start;
+    private final int    end;
+
+
+    //====================================================
+    //       CONSTRUCTORS
+    //====================================================
+
+    private MarcColumnSpec(String tag, char code, int start, int end)
+    {
+        this.tag = tag;
+        this.code = code;
+        this.start = start;
+        this.end = end;
+
+        StringBuilder sb = new StringBuilder(tag);
+        if ( code != 0 )
+        {
+            sb.append('$').append(code);
+        }
+        if ( start >= 0 )
+        {
+            sb.append('/').append(twoDigits(start));
+            if ( end > start )
+            {
+                sb.append('-').append(twoDigits(end));
+            }
+        }
+        this.name = sb.toString();
+    }
+
+
+    //====================================================
+    //       PACKAGE METHODS
+    //====================================================
+
+    /**
+     * Parse a column name.
+     *
+     * @exception MarcParmException if the name is malformed
+     */
+    static MarcColumnSpec parse(String spec)
+    {
+        if ( spec == null || spec.length() < 3 )
+        {
+            throw new MarcParmException("invalid column: " + spec);
+        }
+        String tag = spec.substring(0, 3);
+        if ( !LEADER.equals(tag) && !isTag(tag) )
+        {
+            throw new MarcParmException("invalid column tag: " + spec);
+        }
+
+        String rest = spec.substring(3);
+        if ( rest.isEmpty() )
+        {
+            return new MarcColumnSpec(tag, (char)0, -1, -1);
+        }
+        if ( rest.length() == 2 && rest.charAt(0) == '$' && !LEADER.equals(tag)
+             && Character.isLetterOrDigit(rest.charAt(1)) )
+        {
+            return new MarcColumnSpec(tag, rest.charAt(1), -1, -1);
+        }
+        if ( rest.charAt(0) == '/' )
+        {
+            int dash = rest.indexOf('-');
+            try
+            {
+                int start = Integer.parseInt(rest.substring(1, dash < 0 ? rest.length() : dash));
+                int end = dash < 0 ? start : Integer.parseInt(rest.substring(dash + 1));
+                if ( start >= 0 && end >= start )
+                {
+                    return new MarcColumnSpec(tag, (char)0, start, end);
+                }
+            }
+            catch (NumberFormatException e)
+            {
+                // reported below
+            }
+        }
+        throw new MarcParmException("invalid column: " + spec);
+    }
+
+    /**
+     * Return the canonical name of the column.
+     */
+    String getName()
+    {
+        return name;
+    }
+
+    /**
+     * Return the tag of the fields the column is drawn from.
+     */
+    String getTag()
+    {
+        return tag;
+    }
+
+    /**
+     * Return the name of the file holding the column.
+     */
+    String getFileName()
+    {
+        return name.replace('$', '_').replace('/', '.') + ".col";
+    }
+
+    /**
+     * Tests if the column selects character positions.
+     */
+    boolean hasPositions()
+    {
+        return start >= 0;
+    }
+
+    /**
+     * Return the column holding whole values this column's positions are
+     * taken from, or null if it does not select positions.
+     */
+    MarcColumnSpec getBase()
+    {
+        return hasPositions() ? new MarcColumnSpec(tag, (char)0, -1, -1) : null;
+    }
+
+    /**
+     * Add the values this column takes from a field to a list.
+     */
+    void extract(Field field, List<String> values)
+    {
+        if ( code != 0 )
+        {
+            if ( field instanceof MarcVblLengthField )
+            {
+                MarcVblLengthField vbl = (MarcVblLengthField)field;
+                int count = vbl.subfieldCount();
+                for ( int i = 0; i < count; i++ )
+                {
+                    if ( vbl.subfieldCode(i) == code )
+                    {
+                        values.add(vbl.subfieldValue(i));
+                    }
+                }
+            }
+            return;
+        }
+        addPositions(field.value(), values);
+    }
+
+    /**
+     * Add the positions this column selects from a whole value to a list.
+     * A value too short for the first position adds nothing, and one too
+     * short for the last adds the positions it has.
+     */
+    void addPositions(String value, List<String> values)
+    {
+        if ( value == null )
+        {
+            return;
+        }
+        if ( start < 0 )
+        {
+            values.add(value);
+        }
+        else if ( start < value.length() )
+        {
+            values.add(value.substring(start, Math.min(end + 1, value.length())));
+        }
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        return o instanceof MarcColumnSpec && name.equals(((MarcColumnSpec)o).name);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return name.hashCode();
+    }
+
+    @Override
+    public String toString()
+    {
+        return name;
+    }
+
+
+    //====================================================
+    //       PRIVATE METHODS
+    //====================================================
+
+    private static boolean isTag(String tag)
+    {
+        for ( int i = 0; i < tag.length(); i++ )
+        {
+            if ( !Character.isLetterOrDigit(tag.charAt(i)) )
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String twoDigits(int n)
+    {
+        return n < 10 ? "0" + n : Integer.toString(n);
+    }
+
+}
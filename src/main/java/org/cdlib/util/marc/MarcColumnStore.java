@@ -0,0 +1,381 @@
+package org.cdlib.util.marc;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Reads marc records exported by <code>MarcColumnExporter</code> as columns,
+ * each column holding the values of one tag, subfield or set of character
+ * positions for every record. A scan of a few columns reads only their
+ * files, which are memory mapped as they are first used.
+ *
+ * Columns are named:
+ * <ul>
+ * <li><code>001</code> - the value of each field with a tag</li>
+ * <li><code>852$b</code> - the subfields with a code in the fields with a tag</li>
+ * <li><code>008/07-10</code> or <code>008/06</code> - character positions,
+ *     counted from zero, of the fields with a tag</li>
+ * <li><code>LDR</code> or <code>LDR/06</code> - the leader, or positions of it</li>
+ * </ul>
+ * A column of positions that was not exported is taken from the column of
+ * the whole values, if that was exported.
+ *
+ * <pre>
+ * MarcColumnStore store = MarcColumnStore.open(directory);
+ * MarcColumnStore.Scan scan = store.scan("008/35-37", "852$b");
+ * while ( scan.next() )
+ * {
+ *     List&lt;String&gt; languages = scan.getValues(0);
+ *     ...
+ * }
+ * </pre>
+ *
+ * A store may be read by several threads at once, each with its own scans.
+ *
+ * @see MarcColumnExporter
+ * @see MarcColumn
+ */
+public class MarcColumnStore
+{
+    /**
+     * The name of the file listing the columns of a store.
+     */
+    public static final String MANIFEST = "columns.properties";
+
+    //====================================================
+    //       PRIVATE VARIABLES
+    //====================================================
+    private final File directory;
+    private final int recordCount;
+    private final List<String> names;
+    private final Map<String, MarcColumn> columns = new HashMap<String, MarcColumn>();
+
+
+    //====================================================
+    //       CONSTRUCTORS
+    //====================================================
+
+    private MarcColumnStore(File directory, int recordCount, List<String> names)
+    {
+        this.directory = directory;
+        this.recordCount = recordCount;
+        this.names = Collections.unmodifiableList(names);
+    }
+
+
+    //====================================================
+    //       PUBLIC METHODS
+    //====================================================
+
+    /**
+     * Open the store in a directory.
+     *
+     * @exception MarcIOException if the store cannot be read
+     * @exception MarcFormatException if the directory does not hold a complete store
+     */
+    public static MarcColumnStore open(File directory)
+    {
+        File file = new File(directory, MANIFEST);
+        Properties manifest = new Properties();
+        try
+        {
+            InputStream in = new FileInputStream(file);
+            try
+            {
+                manifest.load(in);
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        catch (IOException e)
+        {
+            throw new MarcIOException("Error processing file: " + file + " - " + e.getMessage());
+        }
+
+        try
+        {
+            int recordCount = Integer.parseInt(manifest.getProperty("records"));
+            List<String> names = new ArrayList<String>();
+            String list = manifest.getProperty("columns");
+            if ( list != null && !list.isEmpty() )
+            {
+                for ( String name : list.split(",") )
+                {
+                    names.add(name);
+                }
+            }
+            return new MarcColumnStore(directory, recordCount, names);
+        }
+        catch (NumberFormatException e)
+        {
+            throw new MarcFormatException("invalid column store manifest: " + file);
+        }
+    }
+
+    /**
+     * Return the number of records in the store.
+     */
+    public int getRecordCount()
+    {
+        return recordCount;
+    }
+
+    /**
+     * Return the names of the columns in the store, in the order they were
+     * exported.
+     */
+    public List<String> getColumnNames()
+    {
+        return names;
+    }
+
+    /**
+     * Tests if a column, or the column of whole values its positions are
+     * taken from, is in the store.
+     */
+    public boolean hasColumn(String name)
+    {
+        MarcColumnSpec spec = MarcColumnSpec.parse(name);
+        return names.contains(spec.getName())
+            || (spec.hasPositions() && names.contains(spec.getBase().getName()));
+    }
+
+    /**
+     * Return an exported column.
+     *
+     * @exception MarcParmException if the column is not in the store
+     */
+    public synchronized MarcColumn getColumn(String name)
+    {
+        MarcColumnSpec spec = MarcColumnSpec.parse(name);
+        MarcColumn column = columns.get(spec.getName());
+        if ( column == null )
+        {
+            if ( !names.contains(spec.getName()) )
+            {
+                throw new MarcParmException(this, "column " + spec + " is not in " + directory);
+            }
+            column = new MarcColumn(spec.getName(), new File(directory, spec.getFileName()));
+            columns.put(spec.getName(), column);
+        }
+        return column;
+    }
+
+    /**
+     * Start a scan of every record, reading the values of the supplied
+     * columns.
+     *
+     * @exception MarcParmException if a column is not in the store
+     */
+    public Scan scan(String... names)
+    {
+        return new Scan(names);
+    }
+
+
+    //====================================================
+    //       PACKAGE METHODS
+    //====================================================
+
+    /**
+     * Write the manifest of a store, which marks it complete.
+     */
+    static void writeManifest(File directory, int recordCount, List<String> names)
+    {
+        StringBuilder list = new StringBuilder();
+        for ( String name : names )
+        {
+            if ( list.length() > 0 )
+            {
+                list.append(',');
+            }
+            list.append(name);
+        }
+        Properties manifest = new Properties();
+        manifest.setProperty("records", Integer.toString(recordCount));
+        manifest.setProperty("columns", list.toString());
+
+        File file = new File(directory, MANIFEST);
+        try
+        {
+            OutputStream out = new FileOutputStream(file);
+            try
+            {
+                manifest.store(out, "marc column store");
+            }
+            finally
+            {
+                out.close();
+            }
+        }
+        catch (IOException e)
+        {
+            throw new MarcIOException("Error processing file: " + file + " - " + e.getMessage());
+        }
+    }
+
+    /**
+     * Delete the manifest of a store, so it is not read while it is replaced.
+     */
+    static void deleteManifest(File directory)
+    {
+        File file = new File(directory, MANIFEST);
+        if ( file.exists() && !file.delete() )
+        {
+            throw new MarcIOException("Error deleting file: " + file);
+        }
+    }
+
+
+    //====================================================
+    //       NESTED CLASSES
+    //====================================================
+
+    /**
+     * Steps through the records of a store in order, reading the values of
+     * some columns. Each column is read forward from its current position, so
+     * a scan reads every value of its columns once.
+     */
+    public final class Scan
+    {
+        private final MarcColumnSpec[] specs;
+        private final MarcColumn[] scanned;
+        private final int[] starts;
+        private final int[] ends;
+        private final List<List<String>> values;
+        private final boolean[] decoded;
+        private int record = -1;
+
+        Scan(String... names)
+        {
+            specs = new MarcColumnSpec[names.length];
+            scanned = new MarcColumn[names.length];
+            starts = new int[names.length];
+            ends = new int[names.length];
+            values = new ArrayList<List<String>>(names.length);
+            decoded = new boolean[names.length];
+            for ( int i = 0; i < names.length; i++ )
+            {
+                MarcColumnSpec spec = MarcColumnSpec.parse(names[i]);
+                if ( !MarcColumnStore.this.names.contains(spec.getName()) && spec.hasPositions() )
+                {
+                    scanned[i] = MarcColumnStore.this.getColumn(spec.getBase().getName());
+                    specs[i] = spec;
+                }
+                else
+                {
+                    scanned[i] = MarcColumnStore.this.getColumn(spec.getName());
+                }
+                values.add(new ArrayList<String>());
+            }
+        }
+
+        /**
+         * Move to the next record.
+         *
+         * @return false after the last record
+         */
+        public boolean next()
+        {
+            if ( record >= recordCount )
+            {
+                return false;
+            }
+            record++;
+            for ( int i = 0; i < scanned.length; i++ )
+            {
+                int end = ends[i];
+                starts[i] = end;
+                int count = scanned[i].getValueCount();
+                while ( end < count && scanned[i].getRecord(end) == record )
+                {
+                    end++;
+                }
+                ends[i] = end;
+                decoded[i] = false;
+            }
+            return record < recordCount;
+        }
+
+        /**
+         * Return the number of the current record.
+         */
+        public int getRecord()
+        {
+            return record;
+        }
+
+        /**
+         * Return the number of values the current record has in a column,
+         * without decoding them.
+         *
+         * @param column the index of the column in the scan
+         */
+        public int getValueCount(int column)
+        {
+            return ends[column] - starts[column];
+        }
+
+        /**
+         * Return the index in the column of the first value of the current
+         * record, to read codes from a dictionary encoded column.
+         *
+         * @param column the index of the column in the scan
+         */
+        public int getFirstIndex(int column)
+        {
+            return starts[column];
+        }
+
+        /**
+         * Return the column a column of the scan is read from.
+         *
+         * @param column the index of the column in the scan
+         */
+        public MarcColumn getColumn(int column)
+        {
+            return scanned[column];
+        }
+
+        /**
+         * Return the values of the current record in a column. The list is
+         * reused by the scan, and is valid until the next record.
+         *
+         * @param column the index of the column in the scan
+         */
+        public List<String> getValues(int column)
+        {
+            List<String> list = values.get(column);
+            if ( !decoded[column] )
+            {
+                list.clear();
+                for ( int i = starts[column]; i < ends[column]; i++ )
+                {
+                    if ( specs[column] == null )
+                    {
+                        list.add(scanned[column].getValue(i));
+                    }
+                    else
+                    {
+                        specs[column].addPositions(scanned[column].getValue(i), list);
+                    }
+                }
+                decoded[column] = true;
+            }
+            return list;
+        }
+    }
+
+}
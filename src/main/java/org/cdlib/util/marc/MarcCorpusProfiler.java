@@ -0,0 +1,324 @@
+package org.cdlib.util.marc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Profiles one or more files of binary marc records in parallel, producing
+ * a <code>MarcProfile</code>.
+ *
+ * Each file is divided at record boundaries into regions, and the regions
+ * are profiled by a pool of threads, each region into its own profile, from
+ * the raw record bytes. The region profiles are merged once all are done.
+ * Records that cannot be framed are counted as malformed and skipped.
+ *
+ * <pre>
+ * java org.cdlib.util.marc.MarcCorpusProfiler [-threads n] file... &gt; profile.json
+ * </pre>
+ *
+ * @see MarcProfile
+ * @see MarcRecordSpliterator
+ */
+public class MarcCorpusProfiler
+{
+	/**
+	 * log4j Logger for this class.
+	 */
+    private static Logger log = LoggerFactory.getLogger(MarcCorpusProfiler.class);
+
+    /**
+     * The default size, in bytes, below which a file is not divided further.
+     */
+    public static final long DEFAULT_MIN_REGION_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * The number of regions per thread a large file is divided into, so
+     * threads finishing early find more work.
+     */
+    private static final int REGIONS_PER_THREAD = 4;
+
+    //====================================================
+    //       PRIVATE VARIABLES
+    //====================================================
+    private int  threads       = Runtime.getRuntime().availableProcessors();
+    private long minRegionSize = DEFAULT_MIN_REGION_SIZE;
+
+
+    //====================================================
+    //       CONSTRUCTORS
+    //====================================================
+
+    /**
+     * Create a profiler using a thread per available processor.
+     */
+    public MarcCorpusProfiler()
+    {
+    }
+
+
+    //====================================================
+    //       PUBLIC METHODS
+    //====================================================
+
+    /**
+     * Return the number of threads used to profile.
+     */
+    public int getThreads()
+    {
+        return threads;
+    }
+
+    /**
+     * Set the number of threads used to profile.
+     */
+    public void setThreads(int threads)
+    {
+        if ( threads < 1 )
+        {
+            throw new MarcParmException(this, "invalid thread count: " + threads);
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * Set the size, in bytes, below which a file is not divided further.
+     */
+    public void setMinRegionSize(long minRegionSize)
+    {
+        this.minRegionSize = Math.max(1, minRegionSize);
+    }
+
+    /**
+     * Profile the records of the supplied files.
+     *
+     * @param files the marc files to profile
+     *
+     * @return the combined profile of all the files
+     *
+     * @exception MarcIOException if a file cannot be read
+     */
+    public MarcProfile profile(File... files)
+    {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<FileChannel> channels = new ArrayList<FileChannel>();
+        List<Future<MarcProfile>> results = new ArrayList<Future<MarcProfile>>();
+        try
+        {
+            for ( int i = 0; i < files.length; i++ )
+            {
+                FileChannel channel = open(files[i]);
+                channels.add(channel);
+                long[] bounds = regions(channel);
+                for ( int r = 0; r + 1 < bounds.length; r++ )
+                {
+                    results.add(pool.submit(new Region(channel, bounds[r], bounds[r + 1])));
+                }
+            }
+
+            MarcProfile profile = new MarcProfile();
+            for ( Future<MarcProfile> result : results )
+            {
+                profile.merge(result.get());
+            }
+            return profile;
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new MarcIOException(this, "profile interrupted");
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            if ( cause instanceof RuntimeException )
+            {
+                throw (RuntimeException)cause;
+            }
+            log.error("Exception: " + cause.getMessage(), cause);
+            throw new MarcIOException(this, cause.getMessage());
+        }
+        finally
+        {
+            pool.shutdownNow();
+            for ( FileChannel channel : channels )
+            {
+                closeQuietly(channel);
+            }
+        }
+    }
+
+    /**
+     * Profile the files named on the command line, and write the JSON report
+     * to standard output.
+     */
+    public static void main(String[] args)
+        throws IOException
+    {
+        MarcCorpusProfiler profiler = new MarcCorpusProfiler();
+        List<File> files = new ArrayList<File>();
+        for ( int i = 0; i < args.length; i++ )
+        {
+            if ( "-threads".equals(args[i]) && i + 1 < args.length )
+            {
+                profiler.setThreads(Integer.parseInt(args[++i]));
+            }
+            else
+            {
+                files.add(new File(args[i]));
+            }
+        }
+
+        if ( files.isEmpty() )
+        {
+            System.out.println("Usage: MarcCorpusProfiler [-threads n] file...");
+            System.exit(4);
+        }
+
+        MarcProfile profile = profiler.profile(files.toArray(new File[files.size()]));
+        Writer out = new OutputStreamWriter(System.out, StandardCharsets.UTF_8);
+        profile.writeJson(out);
+        out.write(System.lineSeparator());
+        out.flush();
+    }
+
+
+    //====================================================
+    //       PRIVATE METHODS
+    //====================================================
+
+    /**
+     * Open a file for reading by position.
+     */
+    private FileChannel open(File file)
+    {
+        try
+        {
+            return FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        }
+        catch (IOException e)
+        {
+            String msg = "Error processing file: " + file;
+            log.error(msg, e);
+            throw new MarcIOException(this, msg);
+        }
+    }
+
+    /**
+     * Divide a file into regions at record boundaries.
+     *
+     * @return the offsets of the region bounds, from zero to the file size
+     */
+    private long[] regions(FileChannel channel)
+    {
+        long size = 0;
+        try
+        {
+            size = channel.size();
+        }
+        catch (IOException e)
+        {
+            throw new MarcIOException(this, e.getMessage());
+        }
+
+        long n = Math.max(1, Math.min((long)threads * REGIONS_PER_THREAD, size / minRegionSize));
+        long[] bounds = new long[(int)n + 1];
+        int count = 1;
+        for ( int i = 1; i < n; i++ )
+        {
+            long b = MarcRecordSpliterator.findBoundary(channel, size * i / n, size);
+            if ( b > bounds[count - 1] )
+            {
+                bounds[count++] = b;
+            }
+        }
+        bounds[count++] = size;
+
+        long[] result = new long[count];
+        System.arraycopy(bounds, 0, result, 0, count);
+        return result;
+    }
+
+    private static void closeQuietly(FileChannel channel)
+    {
+        try
+        {
+            channel.close();
+        }
+        catch (IOException e)
+        {
+            log.debug("error closing channel - " + e.getMessage());
+        }
+    }
+
+
+    //====================================================
+    //       NESTED CLASSES
+    //====================================================
+
+    /**
+     * Profiles the records starting within one region of a file.
+     */
+    private static final class Region implements Callable<MarcProfile>
+    {
+        private final FileChannel channel;
+        private final long        start;
+        private final long        end;
+
+        Region(FileChannel channel, long start, long end)
+        {
+            this.channel = channel;
+            this.start = start;
+            this.end = end;
+        }
+
+        public MarcProfile call()
+        {
+            MarcProfile profile = new MarcProfile();
+            MarcChannelReader reader = new MarcChannelReader(
+                new MarcRecordSpliterator.PositionalChannel(channel, start), start);
+            while ( true )
+            {
+                try
+                {
+                    int len = reader.skip();
+                    if ( reader.getRecordOffset() >= end )
+                    {
+                        break;
+                    }
+                    profile.add(reader.buffer(), reader.bufferPosition() - len, len);
+                }
+                catch (MarcEndOfFileException e)
+                {
+                    break;
+                }
+                catch (MarcFormatException e)
+                {
+                    if ( reader.getRecordOffset() >= end )
+                    {
+                        break;
+                    }
+                    log.warn("skipping malformed record at offset " + reader.getRecordOffset()
+                             + " - " + e.getMessage());
+                    profile.addMalformed();
+                }
+            }
+            return profile;
+        }
+    }
+
+}
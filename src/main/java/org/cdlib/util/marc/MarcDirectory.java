@@ -1,13 +1,20 @@
 package org.cdlib.util.marc;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Enumeration;
-import java.util.Vector;
+import java.util.NoSuchElementException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.cdlib.util.string.StringUtil;
 
 /**
   * Class that implements a MARC record directory.
   *
+  * The entries are held in parallel arrays of tags, field lengths, and
+  * field starts, rather than as an object per entry, and are decoded
+  * straight from the characters of a raw record.
+  *
  * @author <a href="mailto:rmoon@library.berkeley.edu">Ralph Moon</a>
  * @author <a href="mailto:shawnm@splorkin.com">Shawn McGovern</a>
  * @version $Id: MarcDirectory.java,v 1.5 2002/11/12 21:41:54 smcgovrn Exp $
@@ -46,17 +53,46 @@ public class MarcDirectory
         }
     }
 
-	/**
-	 * A <code>Vector</code> to hold the directory entries.
-	 */
-    private Vector data;
+    /**
+     * Shared tag strings for the numeric tags 000 through 999, so parsing
+     * a directory need not create a new String for each numeric tag.
+     */
+    private static final String[] NUMERIC_TAGS = new String[1000];
+
+    static
+    {
+        for ( int i = 0; i < NUMERIC_TAGS.length; i++ )
+        {
+            NUMERIC_TAGS[i] = StringUtil.pad(i, 3, '0');
+        }
+    }
+
+    /**
+     * The directory entries, packed into parallel arrays: the tag, the
+     * field length, and the field start of each entry.
+     */
+    private String[] tags;
+    private int[]    lengths;
+    private int[]    starts;
+    private int      count = 0;
 
     /**
      * Create a new directory
      */
     MarcDirectory()
     {
-        data = new Vector(300, 100);
+        this(32);
+    }
+
+    /**
+     * Create a new directory with room for the supplied number of entries.
+     */
+    MarcDirectory(int capacity)
+    {
+        capacity = Math.max(capacity, 1);
+        tags = new String[capacity];
+        lengths = new int[capacity];
+        starts = new int[capacity];
     }
 
     /**
@@ -64,7 +100,7 @@ public class MarcDirectory
      */
     void addEntry(MarcDirectoryEntry e)
     {
-        data.addElement(e);
+        addEntry(e.fieldTag(), e.fieldLength(), e.fieldStart());
     }
 
     /**
@@ -73,19 +109,185 @@ public class MarcDirectory
      * @param tag Field tag
      * @param length Field length, including terminator
      * @param start Starting character position, relative to base address
+     *
+     * @exception MarcFormatException if the tag is not three characters, or
+     *            the length or start cannot be expressed in a directory entry
      */
     void addEntry(String tag, int length, int start)
+        throws MarcFormatException
     {
-        addEntry( new MarcDirectoryEntry(tag, length, start));
+        if ( tag == null || tag.length() != 3 )
+        {
+            throw new MarcFormatException(this, "invalid directory entry tag: '" + tag + "'");
+        }
+
+        if ( length < 0 || length > 9999 )
+        {
+            throw new MarcFormatException(this, "invalid directory entry length: " + length);
+        }
+
+        if ( start < 0 || start > 99999 )
+        {
+            throw new MarcFormatException(this, "invalid directory entry start: " + start);
+        }
+
+        append(tag, length, start);
     }
 
     /**
-     * Return an enumeration of the directory entries.
+     * Add the entries of a raw directory, decoding each tag, length, and
+     * start directly from the characters of the record.
+     *
+     * @param raw the raw marc record
+     * @param off the offset of the first directory entry
+     * @param end the offset of the directory terminator
+     *
+     * @exception MarcFormatException if an entry is not valid
+     */
+    void parse(String raw, int off, int end)
+        throws MarcFormatException
+    {
+        for ( int pos = off; pos < end; pos += 12 )
+        {
+            if ( pos + 12 > raw.length() )
+            {
+                throw new MarcFormatException(this, "invalid directory entry string: '"
+                                              + raw.substring(pos) + "'");
+            }
+
+            int length = digits(raw, pos + 3, 4);
+            int start = digits(raw, pos + 7, 5);
+            if ( length < 0 || start < 0 )
+            {
+                throw new MarcFormatException(this, "invalid directory entry string: '"
+                                              + raw.substring(pos, pos + 12) + "'");
+            }
+
+            char c0 = raw.charAt(pos);
+            char c1 = raw.charAt(pos + 1);
+            char c2 = raw.charAt(pos + 2);
+            String tag = null;
+            if ( c0 >= '0' && c0 <= '9' && c1 >= '0' && c1 <= '9' && c2 >= '0' && c2 <= '9' )
+            {
+                tag = NUMERIC_TAGS[(c0 - '0') * 100 + (c1 - '0') * 10 + (c2 - '0')];
+            }
+            else
+            {
+                tag = raw.substring(pos, pos + 3);
+            }
+            append(tag, length, start);
+        }
+    }
+
+    /**
+     * Return the number of entries in the directory.
+     */
+    int size()
+    {
+        return count;
+    }
+
+    /**
+     * Return the tag of an entry, e.g., "245".
+     */
+    String tagAt(int i)
+    {
+        return tags[i];
+    }
+
+    /**
+     * Return the field length of an entry, including the field terminator.
+     */
+    int lengthAt(int i)
+    {
+        return lengths[i];
+    }
+
+    /**
+     * Return the starting character position of the field of an entry,
+     * relative to the base address of the record.
+     */
+    int startAt(int i)
+    {
+        return starts[i];
+    }
+
+    /**
+     * Return an enumeration of the directory entries, each created as it
+     * is returned.
      *
      */
     Enumeration elements()
     {
-        return data.elements();
+        return new Enumeration()
+        {
+            private int next = 0;
+
+            public boolean hasMoreElements()
+            {
+                return (next < count);
+            }
+
+            public Object nextElement()
+            {
+                if ( next >= count )
+                {
+                    throw new NoSuchElementException();
+                }
+                int i = next++;
+                return new MarcDirectoryEntry(tags[i], lengths[i], starts[i]);
+            }
+        };
+    }
+
+    /**
+     * Return the shared String for a numeric tag.
+     *
+     * @param tagint the tag value, 0 through 999
+     */
+    static String numericTag(int tagint)
+    {
+        return NUMERIC_TAGS[tagint];
+    }
+
+    /**
+     * Return the three character tag starting at the supplied offset,
+     * using the shared String when the tag is numeric. A non-numeric tag
+     * is trimmed, as <code>Field</code> trims it.
+     *
+     * @param buf the characters of a directory
+     * @param off the offset of the tag
+     */
+    static String tag(char[] buf, int off)
+    {
+        char c0 = buf[off];
+        char c1 = buf[off + 1];
+        char c2 = buf[off + 2];
+        if ( c0 >= '0' && c0 <= '9' && c1 >= '0' && c1 <= '9' && c2 >= '0' && c2 <= '9' )
+        {
+            return NUMERIC_TAGS[(c0 - '0') * 100 + (c1 - '0') * 10 + (c2 - '0')];
+        }
+        return new String(buf, off, 3).trim();
+    }
+
+    /**
+     * Return the three byte tag of a directory entry, using the shared
+     * String when the tag is numeric. A non-numeric tag is returned as it
+     * appears in the directory, untrimmed, as <code>parse</code> keeps it.
+     *
+     * @param buf the bytes of a record
+     * @param off the offset of the directory entry
+     */
+    static String entryTag(byte[] buf, int off)
+    {
+        int c0 = buf[off] & 0xFF;
+        int c1 = buf[off + 1] & 0xFF;
+        int c2 = buf[off + 2] & 0xFF;
+        if ( c0 >= '0' && c0 <= '9' && c1 >= '0' && c1 <= '9' && c2 >= '0' && c2 <= '9' )
+        {
+            return NUMERIC_TAGS[(c0 - '0') * 100 + (c1 - '0') * 10 + (c2 - '0')];
+        }
+        return new String(buf, off, 3, StandardCharsets.ISO_8859_1);
     }
 
     /**
@@ -94,16 +296,73 @@ public class MarcDirectory
      */
     String marcDump()
     {
-        StringBuffer sb = new StringBuffer();
-        Enumeration e = data.elements();
+        StringBuilder sb = new StringBuilder(count * 12 + 1);
+        appendTo(sb);
+        return sb.toString();
+    }
 
-        while( e.hasMoreElements() )
+    /**
+     * Append the representation of the directory, including the field
+     * terminator, to a buffer.
+     */
+    void appendTo(StringBuilder sb)
+    {
+        for ( int i = 0; i < count; i++ )
         {
-            sb.append( ((MarcDirectoryEntry)(e.nextElement())).marcDump() );
+            sb.append(tags[i]);
+            appendDigits(sb, lengths[i], 4);
+            appendDigits(sb, starts[i], 5);
         }
-
         sb.append( Marc.EOF );
+    }
 
-        return sb.toString();
+    /**
+     * Add an entry, growing the arrays as needed.
+     */
+    private void append(String tag, int length, int start)
+    {
+        if ( count == tags.length )
+        {
+            int n = count * 2;
+            tags = Arrays.copyOf(tags, n);
+            lengths = Arrays.copyOf(lengths, n);
+            starts = Arrays.copyOf(starts, n);
+        }
+        tags[count] = tag;
+        lengths[count] = length;
+        starts[count] = start;
+        count++;
+    }
+
+    /**
+     * Parse a run of ascii digits, returning -1 if any is not a digit.
+     */
+    private static int digits(String s, int off, int len)
+    {
+        int v = 0;
+        for ( int i = off; i < off + len; i++ )
+        {
+            char c = s.charAt(i);
+            if ( c < '0' || c > '9' )
+            {
+                return -1;
+            }
+            v = v * 10 + (c - '0');
+        }
+        return v;
+    }
+
+    /**
+     * Append a number as ascii digits, zero filled to the supplied width.
+     */
+    private static void appendDigits(StringBuilder sb, int value, int width)
+    {
+        int len = sb.length();
+        sb.setLength(len + width);
+        for ( int i = len + width - 1; i >= len; i-- )
+        {
+            sb.setCharAt(i, (char)('0' + value % 10));
+            value /= 10;
+        }
     }
 }
@@ -155,6 +155,18 @@ public class MarcFixedLengthField extends Field implements Comparable
      }
 
 
+    /**
+     * Append the ascii formatted form of this field to a buffer.
+     *
+     * @param sb the buffer to append to
+     */
+    void appendMarc(StringBuilder sb)
+    {
+        sb.append(((FixedLengthData)data).getChars());
+        sb.append(Marc.EOF);
+    }
+
+
     /**
      * Set field data
      *
@@ -184,6 +196,37 @@ public class MarcFixedLengthField extends Field implements Comparable
         return this;
     }
 
+    /**
+     * Reset this field to a new tag and data copied from a character array,
+     * reusing the data array when its length is unchanged.
+     *
+     * @param tag the field tag, already trimmed
+     * @param src the characters holding the field data
+     * @param off the offset of the field data
+     * @param len the length of the field data, without the field terminator
+     *
+     * @return this field
+     */
+    Field reset(String tag, char[] src, int off, int len)
+    {
+        this.tag = tag;
+        setTagint();
+        this.id = -1;
+
+        FixedLengthData fld = null;
+        if ( data instanceof FixedLengthData && ((FixedLengthData)data).length() == len )
+        {
+            fld = (FixedLengthData)data;
+        }
+        else
+        {
+            fld = new FixedLengthData(len);
+            this.data = fld;
+        }
+        fld.setPos(0, src, off, len);
+        return this;
+    }
+
     /**
      * Return length of field, including field
      * terminator
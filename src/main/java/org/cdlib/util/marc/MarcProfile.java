@@ -0,0 +1,585 @@
+package org.cdlib.util.marc;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Counts of the content of a set of binary marc records: record lengths,
+ * the coded leader positions, and for each tag the number of fields and
+ * of records holding the tag, the field lengths, and, for variable length
+ * fields, the indicator values and subfield codes.
+ *
+ * Records are profiled from their raw bytes, without building
+ * <code>MarcRecord</code> objects, into arrays of primitive counters. A
+ * profile is not thread safe; each thread profiles into its own, and the
+ * profiles are combined with <code>merge</code>.
+ *
+ * Lengths are counted in power of two ranges. Of the leader, the record
+ * length (00-04) and base address (12-16) are counted only as lengths.
+ * Indicators, subfield codes and leader values are counted by byte, and
+ * reported as ISO-8859-1 characters.
+ *
+ * @see MarcCorpusProfiler
+ */
+public class MarcProfile
+{
+    /**
+     * The number of length ranges: zero, then 1, 2-3, 4-7, ... 65536-131071.
+     */
+    private static final int LENGTH_RANGES = 18;
+
+    /**
+     * The leader positions counted.
+     */
+    private static final int[] LEADER_POSITIONS =
+        { 5, 6, 7, 8, 9, 10, 11, 17, 18, 19, 20, 21, 22, 23 };
+
+    //====================================================
+    //       PRIVATE VARIABLES
+    //====================================================
+    private long                    records       = 0;
+    private long                    malformed     = 0;
+    private final Lengths           recordLengths = new Lengths();
+    private final long[]            leader        = new long[24 * 256];
+    private final TagStats[]        numericTags   = new TagStats[1000];
+    private final Map<String, TagStats> otherTags = new HashMap<String, TagStats>();
+
+
+    //====================================================
+    //       CONSTRUCTORS
+    //====================================================
+
+    /**
+     * Create an empty profile.
+     */
+    public MarcProfile()
+    {
+    }
+
+
+    //====================================================
+    //       PUBLIC METHODS
+    //====================================================
+
+    /**
+     * Profile one binary marc record. A record whose leader or directory
+     * cannot be read is counted as malformed, keeping the counts made
+     * before the fault was found.
+     *
+     * @param buf the buffer holding the record
+     * @param off the offset of the record
+     * @param len the length of the record, including its terminator
+     */
+    public void add(byte[] buf, int off, int len)
+    {
+        records++;
+        recordLengths.add(len);
+
+        int end = off + len;
+        if ( len < 24 || buf[end - 1] != Marc.EOR )
+        {
+            malformed++;
+            return;
+        }
+
+        for ( int i = 0; i < LEADER_POSITIONS.length; i++ )
+        {
+            int p = LEADER_POSITIONS[i];
+            leader[p * 256 + (buf[off + p] & 0xFF)]++;
+        }
+
+        int base = digits(buf, off + 12, 5);
+        if ( base < 24 || base > len )
+        {
+            malformed++;
+            return;
+        }
+
+        int max = off + base - 1;
+        for ( int e = off + 24; e < max; e += 12 )
+        {
+            int fieldLength = (e + 12 <= end ? digits(buf, e + 3, 4) : -1);
+            int fieldStart = (fieldLength >= 0 ? digits(buf, e + 7, 5) : -1);
+            int dataStart = off + base + fieldStart;
+            int dataEnd = dataStart + fieldLength - 1;
+            if ( fieldStart < 0 || fieldLength < 1 || dataEnd >= end )
+            {
+                malformed++;
+                return;
+            }
+
+            TagStats stats = stats(buf, e);
+            stats.fields++;
+            if ( stats.lastRecord != records )
+            {
+                stats.lastRecord = records;
+                stats.records++;
+            }
+            stats.lengths.add(fieldLength);
+
+            if ( !isControlTag(buf, e) )
+            {
+                stats.addData(buf, dataStart, dataEnd);
+            }
+        }
+    }
+
+    /**
+     * Add the counts of another profile to this one.
+     *
+     * @param other the profile to add
+     */
+    public void merge(MarcProfile other)
+    {
+        records += other.records;
+        malformed += other.malformed;
+        recordLengths.merge(other.recordLengths);
+        for ( int i = 0; i < leader.length; i++ )
+        {
+            leader[i] += other.leader[i];
+        }
+        for ( int i = 0; i < numericTags.length; i++ )
+        {
+            if ( other.numericTags[i] != null )
+            {
+                if ( numericTags[i] == null )
+                {
+                    numericTags[i] = new TagStats();
+                }
+                numericTags[i].merge(other.numericTags[i]);
+            }
+        }
+        for ( Map.Entry<String, TagStats> entry : other.otherTags.entrySet() )
+        {
+            TagStats stats = otherTags.get(entry.getKey());
+            if ( stats == null )
+            {
+                stats = new TagStats();
+                otherTags.put(entry.getKey(), stats);
+            }
+            stats.merge(entry.getValue());
+        }
+    }
+
+    /**
+     * Return the number of records profiled, including malformed records.
+     */
+    public long getRecordCount()
+    {
+        return records;
+    }
+
+    /**
+     * Return the number of records found to be malformed.
+     */
+    public long getMalformedCount()
+    {
+        return malformed;
+    }
+
+    /**
+     * Return the number of fields with the supplied tag.
+     *
+     * @param tag the field tag, e.g., "245"
+     */
+    public long getFieldCount(String tag)
+    {
+        TagStats stats = stats(tag);
+        return (stats == null ? 0 : stats.fields);
+    }
+
+    /**
+     * Return the number of records holding at least one field with the
+     * supplied tag.
+     *
+     * @param tag the field tag, e.g., "245"
+     */
+    public long getRecordCount(String tag)
+    {
+        TagStats stats = stats(tag);
+        return (stats == null ? 0 : stats.records);
+    }
+
+    /**
+     * Return the number of subfields with the supplied code in the fields
+     * with the supplied tag.
+     *
+     * @param tag the field tag, e.g., "245"
+     * @param code the subfield code
+     */
+    public long getSubfieldCount(String tag, char code)
+    {
+        TagStats stats = stats(tag);
+        return (stats == null || stats.subfields == null || code > 255 ? 0 : stats.subfields[code]);
+    }
+
+    /**
+     * Return the number of fields with the supplied tag having the supplied
+     * value in an indicator.
+     *
+     * @param tag the field tag, e.g., "245"
+     * @param n the indicator number, 1 or 2
+     * @param c the indicator value
+     */
+    public long getIndicatorCount(String tag, int n, char c)
+    {
+        TagStats stats = stats(tag);
+        if ( stats == null || stats.indicators == null || c > 255 )
+        {
+            return 0;
+        }
+        if ( n < 1 || n > 2 )
+        {
+            throw new MarcParmException(this, "invalid indicator number: " + n);
+        }
+        return stats.indicators[(n - 1) * 256 + c];
+    }
+
+    /**
+     * Return the number of records having the supplied value at a leader
+     * position. Only the coded positions, 05-11 and 17-23, are counted.
+     *
+     * @param pos the leader position
+     * @param c the value
+     */
+    public long getLeaderCount(int pos, char c)
+    {
+        if ( pos < 0 || pos > 23 )
+        {
+            throw new MarcParmException(this, "invalid leader position: " + pos);
+        }
+        return (c > 255 ? 0 : leader[pos * 256 + c]);
+    }
+
+    /**
+     * Write the profile as a JSON report.
+     *
+     * @param out the writer to write to
+     *
+     * @exception IOException if the report cannot be written
+     */
+    public void writeJson(Writer out)
+        throws IOException
+    {
+        JsonGenerator json = new JsonFactory().createGenerator(out);
+        json.useDefaultPrettyPrinter();
+
+        json.writeStartObject();
+        json.writeNumberField("records", records);
+        json.writeNumberField("malformed", malformed);
+        json.writeFieldName("recordLength");
+        recordLengths.write(json);
+
+        json.writeObjectFieldStart("leader");
+        for ( int i = 0; i < LEADER_POSITIONS.length; i++ )
+        {
+            int p = LEADER_POSITIONS[i];
+            json.writeFieldName((p < 10 ? "0" : "") + p);
+            writeCounts(json, leader, p * 256);
+        }
+        json.writeEndObject();
+
+        TreeMap<String, TagStats> tags = new TreeMap<String, TagStats>(otherTags);
+        for ( int i = 0; i < numericTags.length; i++ )
+        {
+            if ( numericTags[i] != null )
+            {
+                tags.put(MarcDirectory.numericTag(i), numericTags[i]);
+            }
+        }
+        json.writeObjectFieldStart("tags");
+        Iterator<Map.Entry<String, TagStats>> it = tags.entrySet().iterator();
+        while ( it.hasNext() )
+        {
+            Map.Entry<String, TagStats> entry = it.next();
+            json.writeFieldName(entry.getKey());
+            entry.getValue().write(json);
+        }
+        json.writeEndObject();
+
+        json.writeEndObject();
+        json.flush();
+    }
+
+    /**
+     * Return the profile as a JSON report.
+     */
+    public String toJson()
+    {
+        StringWriter sw = new StringWriter();
+        try
+        {
+            writeJson(sw);
+        }
+        catch (IOException e)
+        {
+            throw new MarcIOException(this, e.getMessage());
+        }
+        return sw.toString();
+    }
+
+
+    //====================================================
+    //       PACKAGE METHODS
+    //====================================================
+
+    /**
+     * Count a record that could not be framed, and so was not profiled.
+     */
+    void addMalformed()
+    {
+        records++;
+        malformed++;
+    }
+
+
+    //====================================================
+    //       PRIVATE METHODS
+    //====================================================
+
+    /**
+     * Return the counters for the tag of a directory entry, creating them
+     * if the tag has not been seen.
+     */
+    private TagStats stats(byte[] buf, int e)
+    {
+        int c0 = buf[e] - '0';
+        int c1 = buf[e + 1] - '0';
+        int c2 = buf[e + 2] - '0';
+        if ( c0 >= 0 && c0 <= 9 && c1 >= 0 && c1 <= 9 && c2 >= 0 && c2 <= 9 )
+        {
+            int i = c0 * 100 + c1 * 10 + c2;
+            if ( numericTags[i] == null )
+            {
+                numericTags[i] = new TagStats();
+            }
+            return numericTags[i];
+        }
+
+        String tag = new String(buf, e, 3, StandardCharsets.ISO_8859_1);
+        TagStats stats = otherTags.get(tag);
+        if ( stats == null )
+        {
+            stats = new TagStats();
+            otherTags.put(tag, stats);
+        }
+        return stats;
+    }
+
+    /**
+     * Return the counters for a tag, or null if the tag has not been seen.
+     */
+    private TagStats stats(String tag)
+    {
+        if ( tag != null && tag.length() == 3 )
+        {
+            char c0 = tag.charAt(0);
+            char c1 = tag.charAt(1);
+            char c2 = tag.charAt(2);
+            if ( c0 >= '0' && c0 <= '9' && c1 >= '0' && c1 <= '9' && c2 >= '0' && c2 <= '9' )
+            {
+                return numericTags[(c0 - '0') * 100 + (c1 - '0') * 10 + (c2 - '0')];
+            }
+        }
+        return otherTags.get(tag);
+    }
+
+    /**
+     * Tests if the tag of a directory entry sorts before "010", which is
+     * how <code>MarcBaseRecord</code> tells a fixed length field.
+     */
+    private static boolean isControlTag(byte[] buf, int e)
+    {
+        int c0 = buf[e] & 0xFF;
+        int c1 = buf[e + 1] & 0xFF;
+        int c2 = buf[e + 2] & 0xFF;
+        return c0 < '0' || (c0 == '0' && (c1 < '1' || (c1 == '1' && c2 < '0')));
+    }
+
+    /**
+     * Parse a run of ascii digits, returning -1 if any is not a digit.
+     */
+    private static int digits(byte[] buf, int off, int len)
+    {
+        int v = 0;
+        for ( int i = off; i < off + len; i++ )
+        {
+            int d = buf[i] - '0';
+            if ( d < 0 || d > 9 )
+            {
+                return -1;
+            }
+            v = v * 10 + d;
+        }
+        return v;
+    }
+
+    /**
+     * Write the non-zero counts of 256 byte values as an object keyed by
+     * character.
+     */
+    private static void writeCounts(JsonGenerator json, long[] counts, int from)
+        throws IOException
+    {
+        json.writeStartObject();
+        for ( int c = 0; c < 256; c++ )
+        {
+            if ( counts[from + c] != 0 )
+            {
+                json.writeNumberField(MarcSubfield.code((char)c), counts[from + c]);
+            }
+        }
+        json.writeEndObject();
+    }
+
+
+    //====================================================
+    //       NESTED CLASSES
+    //====================================================
+
+    /**
+     * Counts of lengths, by power of two range.
+     */
+    private static final class Lengths
+    {
+        private final long[] ranges = new long[LENGTH_RANGES];
+        private long         count  = 0;
+        private long         total  = 0;
+        private int          min    = Integer.MAX_VALUE;
+        private int          max    = 0;
+
+        void add(int len)
+        {
+            ranges[Math.min(32 - Integer.numberOfLeadingZeros(len), LENGTH_RANGES - 1)]++;
+            count++;
+            total += len;
+            min = Math.min(min, len);
+            max = Math.max(max, len);
+        }
+
+        void merge(Lengths other)
+        {
+            for ( int i = 0; i < LENGTH_RANGES; i++ )
+            {
+                ranges[i] += other.ranges[i];
+            }
+            count += other.count;
+            total += other.total;
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+        }
+
+        void write(JsonGenerator json)
+            throws IOException
+        {
+            json.writeStartObject();
+            json.writeNumberField("min", (count == 0 ? 0 : min));
+            json.writeNumberField("max", max);
+            json.writeNumberField("mean", (count == 0 ? 0 : (double)total / count));
+            json.writeObjectFieldStart("ranges");
+            for ( int i = 0; i < LENGTH_RANGES; i++ )
+            {
+                if ( ranges[i] != 0 )
+                {
+                    int low = (i == 0 ? 0 : 1 << (i - 1));
+                    int high = (i == 0 ? 0 : (1 << i) - 1);
+                    json.writeNumberField(low + "-" + high, ranges[i]);
+                }
+            }
+            json.writeEndObject();
+            json.writeEndObject();
+        }
+    }
+
+    /**
+     * The counters for one tag. The indicator and subfield counters are
+     * created with the first variable length field.
+     */
+    private static final class TagStats
+    {
+        long          fields     = 0;
+        long          records    = 0;
+        long          lastRecord = 0;
+        final Lengths lengths    = new Lengths();
+        long[]        indicators = null;
+        long[]        subfields  = null;
+
+        /**
+         * Count the indicators and subfield codes of variable field data,
+         * not including the field terminator.
+         */
+        void addData(byte[] buf, int start, int end)
+        {
+            if ( indicators == null )
+            {
+                indicators = new long[2 * 256];
+                subfields = new long[256];
+            }
+            if ( end - start >= 2 )
+            {
+                indicators[buf[start] & 0xFF]++;
+                indicators[256 + (buf[start + 1] & 0xFF)]++;
+            }
+            for ( int i = start; i < end - 1; i++ )
+            {
+                if ( buf[i] == Marc.SF )
+                {
+                    subfields[buf[++i] & 0xFF]++;
+                }
+            }
+        }
+
+        void merge(TagStats other)
+        {
+            fields += other.fields;
+            records += other.records;
+            lengths.merge(other.lengths);
+            if ( other.indicators != null )
+            {
+                if ( indicators == null )
+                {
+                    indicators = new long[2 * 256];
+                    subfields = new long[256];
+                }
+                for ( int i = 0; i < indicators.length; i++ )
+                {
+                    indicators[i] += other.indicators[i];
+                }
+                for ( int i = 0; i < subfields.length; i++ )
+                {
+                    subfields[i] += other.subfields[i];
+                }
+            }
+        }
+
+        void write(JsonGenerator json)
+            throws IOException
+        {
+            json.writeStartObject();
+            json.writeNumberField("fields", fields);
+            json.writeNumberField("records", records);
+            json.writeFieldName("length");
+            lengths.write(json);
+            if ( indicators != null )
+            {
+                json.writeFieldName("indicator1");
+                writeCounts(json, indicators, 0);
+                json.writeFieldName("indicator2");
+                writeCounts(json, indicators, 256);
+                json.writeFieldName("subfields");
+                writeCounts(json, subfields, 0);
+            }
+            json.writeEndObject();
+        }
+    }
+
+}
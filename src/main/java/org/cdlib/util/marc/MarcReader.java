@@ -1,8 +1,10 @@
 package org.cdlib.util.marc;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -10,7 +12,8 @@ import org.cdlib.util.string.StringUtil;
 
 /**
  * A <code>Reader</code> class to used read a file of Marc records.
- * Wraps a <code>FileInputStream</code>.
+ * Wraps a <code>FileInputStream</code>. A gzip compressed file is
+ * decompressed as it is read.
  *
  * @author <a href="mailto:rmoon@library.berkeley.edu">Ralph Moon</a>
  * @author <a href="mailto:shawnm@splorkin.com">Shawn McGovern</a>
@@ -57,10 +60,14 @@ public class MarcReader
     private File            fileIn        = null;
     private String          fileName      = null;
     private FileInputStream fin           = null;
+    private InputStream     in            = null;
+    private boolean         compressed    = false;
     private StringBuffer    strbuf        = null;
     private int             currentCnt    = STARTINCNT;
     private int             lastInCnt     = STARTINCNT;
     private MarcRecord      currentRecord = null;
+    private boolean         useIndex      = false;
+    private MarcRecordIndex index         = null;
 
 
     //====================================================
@@ -86,6 +93,17 @@ public class MarcReader
     public MarcReader(FileInputStream infile)
     {
         fin = infile;
+        wrap(infile);
+    }
+
+    /**
+     * constructor for MarcReader
+     *
+     * @param infile - preset InputStream for input, which may be gzip compressed
+     */
+    public MarcReader(InputStream infile)
+    {
+        wrap(infile);
     }
 
     //====================================================
@@ -127,7 +145,11 @@ public class MarcReader
             return currentRecord;
         }
 
-        if ( lastInCnt > inCnt )
+        if ( inCnt != lastInCnt + 1 && seek(inCnt) )
+		{
+            log.debug("positioned by index before record #" + inCnt);
+        }
+        else if ( lastInCnt > inCnt )
 		{
             start();
         }
@@ -149,13 +171,12 @@ public class MarcReader
      */
     public MarcRecord next()
     {
-        if (fin == null)
+        if (in == null)
 		{
 			return null;
 		}
 
         strbuf = new StringBuffer();
-        byte[] bvalue = new byte[20];
         String svalue = null;
         char   cvalue = 0;
         int    reclen = 0;
@@ -163,10 +184,10 @@ public class MarcReader
         try
 		{
             // find 5 numeric bytes as the beginning length of the Marc record
-            for ( int i=0; i < fin.available(); i++ )
+            int ivalue = 0;
+            while ( strbuf.length() < 5 && (ivalue = in.read()) >= 0 )
 			{
-                fin.read(bvalue, 0, 1);
-                cvalue = (char)bvalue[0];
+                cvalue = (char)ivalue;
 
                 // is numeric character?
                 if ( Character.isDigit(cvalue) )
@@ -177,10 +198,6 @@ public class MarcReader
 				{
                     strbuf = new StringBuffer();
                 }
-                if ( strbuf.length() == 5 )
-				{
-					break;
-				}
             }
             if ( strbuf.length() < 5 )
 			{
@@ -190,15 +207,14 @@ public class MarcReader
 
             // read in rest of record
             reclen = new Integer(strbuf.toString()).intValue();
-            if ( reclen > (fin.available() + 5) )
+            byte[] buf = new byte[Math.max(0, reclen - 5)];
+            if ( readFully(buf) < buf.length )
 			{
                 close();
                 return null;
             }
 
-            byte[] buf = new byte[reclen];
-            fin.read(buf, 0, reclen-5);
-            String str = new String(buf, 0, reclen-5);
+            String str = new String(buf, 0, buf.length);
             strbuf.append(str);
             currentCnt++;
 
@@ -226,6 +242,31 @@ public class MarcReader
         }
     }
 
+    /**
+     * Tests if <code>getRecord</code> uses a record offset index to
+     * position the input stream.
+     */
+    public boolean isUseIndex()
+    {
+        return useIndex;
+    }
+
+    /**
+     * Set whether <code>getRecord</code> uses a record offset index to
+     * position the input stream directly at the requested record. The index
+     * is only available when this reader was opened by file name, and the
+     * file is not compressed. The index is loaded from, or built and saved
+     * to, a sidecar file. The default is false, so no file is written next
+     * to the input unless the caller asks for it.
+     *
+     * @param useIndex true to use the index
+     * @see MarcRecordIndex
+     */
+    public void setUseIndex(boolean useIndex)
+    {
+        this.useIndex = useIndex;
+    }
+
     public void start(String infile)
     {
         if ( StringUtil.isEmpty(infile) )
@@ -240,7 +281,7 @@ public class MarcReader
     public void start()
     {
         // file was just started
-        if ( (fin != null) && (currentCnt == STARTINCNT) )
+        if ( (in != null) && (currentCnt == STARTINCNT) )
 		{
 			return;
 		}
@@ -268,14 +309,100 @@ public class MarcReader
     {
         try
 		{
-            fin.close();
+            in.close();
         }
         catch (Exception e)
 		{
 		}
+        in = null;
         fin = null;
     }
 
+    /**
+     * Read the input stream, decompressing it if it is gzip compressed.
+     */
+    private void wrap(InputStream infile)
+    {
+        try
+		{
+            in = CompressedInput.open(infile);
+        }
+        catch (IOException e)
+		{
+            throw new MarcIOException(this, "Error reading input: " + e.getMessage());
+        }
+        compressed = CompressedInput.isCompressed(in);
+        if ( !compressed )
+		{
+            in = new BufferedInputStream(in);
+        }
+    }
+
+    /**
+     * Read until the buffer is full or the input ends.
+     *
+     * @return the number of bytes read
+     */
+    private int readFully(byte[] buf)
+        throws IOException
+    {
+        int got = 0;
+        while ( got < buf.length )
+		{
+            int n = in.read(buf, got, buf.length - got);
+            if ( n < 0 )
+			{
+				break;
+			}
+            got += n;
+        }
+        return got;
+    }
+
+    /**
+     * Position the input stream at the start of the requested record using
+     * the record offset index.
+     *
+     * @return true if the stream was positioned
+     */
+    private boolean seek(int inCnt)
+    {
+        if ( !useIndex || fileIn == null || compressed )
+		{
+			return false;
+		}
+
+        if ( index == null || !index.isCurrent() )
+		{
+            index = MarcRecordIndex.open(fileIn);
+        }
+
+        if ( inCnt >= index.size() )
+		{
+			return false;
+		}
+
+        if ( in == null )
+		{
+			open();
+		}
+
+        try
+		{
+            fin.getChannel().position(index.getOffset(inCnt));
+            // discard anything buffered from the old position
+            in = new BufferedInputStream(fin);
+        }
+        catch (IOException e)
+		{
+            throw new MarcIOException(this, "Error positioning file:" + fileIn);
+        }
+
+        currentCnt = inCnt - 1;
+        lastInCnt = inCnt - 1;
+        return true;
+    }
+
     private void init()
     {
         currentCnt = STARTINCNT;
@@ -293,6 +420,7 @@ public class MarcReader
 		{
                 throw new MarcIOException(this, "Error processing file:"+fileIn);
         }
+        wrap(fin);
     }
 
 }
@@ -798,11 +798,7 @@ public class MarcRecord extends MarcBaseRecord
             }
             else
             {
-                MarcSubfield subfld = ((MarcVblLengthField)field).firstSubfield(sfcode);
-                if (subfld != null)
-                {
-                    value = subfld.value();
-                }
+                value = ((MarcVblLengthField)field).firstSubfieldValue(sfcode);
             }
 		}
 
@@ -0,0 +1,341 @@
+package org.cdlib.util.marc;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A record number to byte offset index for a file of binary marc records.
+ *
+ * The index is built by a single framing scan of the marc file, which
+ * does not parse the records, and is kept in a sidecar file named by
+ * appending <code>.idx</code> to the marc file name. The sidecar records
+ * the size and modification time of the marc file it was built from, and
+ * is discarded and rebuilt when either no longer matches.
+ *
+ * The scan frames records the way <code>MarcStream</code> and
+ * <code>MarcReader</code> read them: a record starts at the next run of
+ * five digits, which give its length, and no end of record byte is
+ * checked. Record numbers start at zero and count every record framed,
+ * including records that fail to parse, so they agree with the counts
+ * those readers keep. A final record cut short by the end of the file is
+ * not indexed, and is reached by reading sequentially.
+ *
+ * <code>MarcChannelReader</code> frames records more strictly, so on a
+ * padded or damaged file its counts may differ from this index.
+ *
+ * @see MarcStream#getRecord(int)
+ * @see MarcReader#getRecord(int)
+ */
+public class MarcRecordIndex
+{
+	/**
+	 * log4j Logger for this class.
+	 */
+    private static Logger log = LoggerFactory.getLogger(MarcRecordIndex.class);
+
+    /**
+     * The suffix appended to the marc file name to name the index file.
+     */
+    public static final String SUFFIX = ".idx";
+
+    /**
+     * Identifies an index file: the ascii characters "MRCX".
+     */
+    private static final int MAGIC = 0x4D524358;
+
+    /**
+     * The index file format version.
+     */
+    private static final int FORMAT_VERSION = 2;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    //====================================================
+    //       PRIVATE VARIABLES
+    //====================================================
+    private File   marcFile     = null;
+    private long   fileSize     = 0;
+    private long   lastModified = 0;
+    private long[] offsets      = null;
+    private int    count        = 0;
+
+
+    //====================================================
+    //       CONSTRUCTORS
+    //====================================================
+
+    /**
+     * Instantiate a new index from the supplied offsets.
+     */
+    private MarcRecordIndex(File marcFile, long fileSize, long lastModified,
+                            long[] offsets, int count)
+    {
+        this.marcFile = marcFile;
+        this.fileSize = fileSize;
+        this.lastModified = lastModified;
+        this.offsets = offsets;
+        this.count = count;
+    }
+
+
+    //====================================================
+    //       PUBLIC METHODS
+    //====================================================
+
+    /**
+     * Return the index for the supplied marc file, loading it from the
+     * sidecar file when that is current, and otherwise building it and
+     * attempting to save it. A failure to save the index is logged, and the
+     * index is still returned.
+     *
+     * @param marcFile the marc file to index
+     * @return the index
+     *
+     * @exception MarcIOException if the marc file cannot be read
+     */
+    public static MarcRecordIndex open(File marcFile)
+    {
+        MarcRecordIndex index = load(marcFile);
+        if ( index == null )
+        {
+            index = build(marcFile);
+            index.save();
+        }
+        return index;
+    }
+
+    /**
+     * Load the index for the supplied marc file from its sidecar file.
+     *
+     * @param marcFile the indexed marc file
+     * @return the index, or null if there is no index file, it cannot be
+     *         read, or it does not match the current marc file
+     */
+    public static MarcRecordIndex load(File marcFile)
+    {
+        File idxFile = indexFile(marcFile);
+        if ( !idxFile.isFile() )
+        {
+            return null;
+        }
+
+        try (DataInputStream in = new DataInputStream(
+                 new BufferedInputStream(new FileInputStream(idxFile))))
+        {
+            if ( in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION )
+            {
+                log.warn("ignoring unrecognized index file: " + idxFile);
+                return null;
+            }
+
+            long size = in.readLong();
+            long modified = in.readLong();
+            if ( size != marcFile.length() || modified != marcFile.lastModified() )
+            {
+                log.debug("index file is stale: " + idxFile);
+                return null;
+            }
+
+            int cnt = in.readInt();
+            long[] offs = new long[cnt];
+            for ( int i = 0; i < cnt; i++ )
+            {
+                offs[i] = in.readLong();
+            }
+            return new MarcRecordIndex(marcFile, size, modified, offs, cnt);
+        }
+        catch (IOException e)
+        {
+            log.warn("unable to read index file: " + idxFile + " - " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Build the index for the supplied marc file by scanning it.
+     *
+     * @param marcFile the marc file to index
+     * @return the index
+     *
+     * @exception MarcIOException if the marc file cannot be read
+     */
+    public static MarcRecordIndex build(File marcFile)
+    {
+        // capture these first, so a file modified during the scan is found stale
+        long size = marcFile.length();
+        long modified = marcFile.lastModified();
+
+        long[] offs = new long[1024];
+        int cnt = 0;
+        try (InputStream in = new BufferedInputStream(new FileInputStream(marcFile), BUFFER_SIZE))
+        {
+            long pos = 0;
+            int digits = 0;
+            int reclen = 0;
+            int b;
+            while ( (b = in.read()) >= 0 )
+            {
+                pos++;
+                // find 5 numeric bytes as the beginning length of the record
+                if ( b < '0' || b > '9' )
+                {
+                    digits = 0;
+                    reclen = 0;
+                    continue;
+                }
+                reclen = reclen * 10 + (b - '0');
+                if ( ++digits < 5 )
+                {
+                    continue;
+                }
+
+                long rest = Math.max(0, reclen - 5);
+                if ( skipFully(in, rest) < rest )
+                {
+                    break;
+                }
+                if ( cnt == offs.length )
+                {
+                    offs = Arrays.copyOf(offs, cnt * 2);
+                }
+                offs[cnt++] = pos - 5;
+                pos += rest;
+                digits = 0;
+                reclen = 0;
+            }
+        }
+        catch (IOException e)
+        {
+            String msg = "Error processing file: " + marcFile;
+            log.error(msg, e);
+            throw new MarcIOException(msg);
+        }
+
+        log.debug("indexed " + cnt + " records in " + marcFile);
+        return new MarcRecordIndex(marcFile, size, modified, offs, cnt);
+    }
+
+    /**
+     * Save this index to its sidecar file. Failures are logged, not thrown,
+     * since the index can always be rebuilt.
+     *
+     * @return true if the index was saved
+     */
+    public boolean save()
+    {
+        File idxFile = indexFile(marcFile);
+        File tmpFile = new File(idxFile.getPath() + ".tmp");
+        try
+        {
+            try (DataOutputStream out = new DataOutputStream(
+                     new BufferedOutputStream(new FileOutputStream(tmpFile))))
+            {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeLong(fileSize);
+                out.writeLong(lastModified);
+                out.writeInt(count);
+                for ( int i = 0; i < count; i++ )
+                {
+                    out.writeLong(offsets[i]);
+                }
+            }
+            Files.move(tmpFile.toPath(), idxFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            return true;
+        }
+        catch (IOException e)
+        {
+            log.warn("unable to write index file: " + idxFile + " - " + e.getMessage());
+            tmpFile.delete();
+            return false;
+        }
+    }
+
+    /**
+     * Tests if this index still matches the size and modification time of
+     * the marc file.
+     */
+    public boolean isCurrent()
+    {
+        return fileSize == marcFile.length() && lastModified == marcFile.lastModified();
+    }
+
+    /**
+     * Return the number of records in the index.
+     */
+    public int size()
+    {
+        return count;
+    }
+
+    /**
+     * Return the byte offset of the requested record.
+     *
+     * @param recNum the record number (start 0)
+     * @return the byte offset of the record in the marc file
+     *
+     * @exception MarcParmException if the record number is not in the index
+     */
+    public long getOffset(int recNum)
+    {
+        if ( recNum < 0 || recNum >= count )
+        {
+            throw new MarcParmException(this, "Invalid record requested - record #: " + recNum
+                                        + " - index size: " + count);
+        }
+        return offsets[recNum];
+    }
+
+    /**
+     * Return the indexed marc file.
+     */
+    public File getMarcFile()
+    {
+        return marcFile;
+    }
+
+    /**
+     * Skip bytes of a stream, returning fewer only at the end of the stream.
+     */
+    private static long skipFully(InputStream in, long n)
+        throws IOException
+    {
+        long skipped = 0;
+        while ( skipped < n )
+        {
+            long k = in.skip(n - skipped);
+            if ( k <= 0 )
+            {
+                if ( in.read() < 0 )
+                {
+                    break;
+                }
+                k = 1;
+            }
+            skipped += k;
+        }
+        return skipped;
+    }
+
+    /**
+     * Return the sidecar index file for the supplied marc file.
+     */
+    public static File indexFile(File marcFile)
+    {
+        return new File(marcFile.getPath() + SUFFIX);
+    }
+
+}
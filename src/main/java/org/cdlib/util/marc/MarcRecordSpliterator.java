@@ -0,0 +1,425 @@
+package org.cdlib.util.marc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.cdlib.util.string.StringUtil;
+
+/**
+ * A <code>Spliterator</code> over the binary marc records in a region of a
+ * file, for use with sequential or parallel streams.
+ *
+ * The spliterator covers the records whose first byte lies within its
+ * region. It splits by choosing a byte offset near the middle of the region
+ * and moving forward to the next record boundary: the byte following an end
+ * of record terminator (0x1D), where a plausible record, with a numeric
+ * length and a terminator at the end of that length, begins. Each half then
+ * frames its records with its own <code>MarcChannelReader</code>, reading
+ * the shared <code>FileChannel</code> by position, so no half disturbs
+ * another.
+ *
+ * Records that cannot be framed or parsed are logged and skipped.
+ *
+ * <pre>
+ * try (Stream&lt;MarcRecord&gt; records = MarcRecordSpliterator.stream(file, true, false)) {
+ *     records.forEach(rec -&gt; ...);
+ * }
+ * </pre>
+ *
+ * @see MarcChannelReader
+ */
+public class MarcRecordSpliterator implements Spliterator<MarcRecord>
+{
+	/**
+	 * log4j Logger for this class.
+	 */
+    private static Logger log = LoggerFactory.getLogger(MarcRecordSpliterator.class);
+
+    /**
+     * The default size, in bytes, below which a region is not split.
+     */
+    public static final long DEFAULT_MIN_SPLIT_SIZE = 1024 * 1024;
+
+    /**
+     * Nominal record size, in bytes, used to estimate the number of records
+     * in a region.
+     */
+    private static final int NOMINAL_RECORD_SIZE = 1024;
+
+    /**
+     * The number of bytes scanned at a time when looking for a boundary.
+     */
+    private static final int SCAN_SIZE = 8 * 1024;
+
+    //====================================================
+    //       PRIVATE VARIABLES
+    //====================================================
+    private FileChannel       channel      = null;
+    private long              start        = 0;
+    private long              end          = 0;
+    private boolean           ordered      = true;
+    private boolean           lazy         = false;
+    private Charset           charset      = null;
+    private long              minSplitSize = DEFAULT_MIN_SPLIT_SIZE;
+    private MarcChannelReader reader       = null;
+    private boolean           done         = false;
+
+
+    //====================================================
+    //       CONSTRUCTORS
+    //====================================================
+
+    /**
+     * Instantiate a new spliterator over the records starting within a
+     * region of a file channel. The channel is read only by position, and
+     * is not closed by the spliterator.
+     *
+     * @param channel the file channel to read
+     * @param start the offset of the first record in the region
+     * @param end the offset just past the end of the region
+     * @param ordered true if the records are to be reported in file order
+     */
+    public MarcRecordSpliterator(FileChannel channel, long start, long end, boolean ordered)
+    {
+        if ( channel == null || start < 0 || end < start )
+        {
+            throw new MarcParmException(this, "Invalid region: " + start + " - " + end);
+        }
+        this.channel = channel;
+        this.start = start;
+        this.end = end;
+        this.ordered = ordered;
+    }
+
+
+    //====================================================
+    //       PUBLIC METHODS
+    //====================================================
+
+    /**
+     * Return a stream of the records in a marc file. The file is closed
+     * when the stream is closed.
+     *
+     * @param file the marc file to read
+     * @param parallel true for a parallel stream
+     * @param ordered true if the records are to be reported in file order
+     *
+     * @exception MarcIOException if the file cannot be opened
+     */
+    public static Stream<MarcRecord> stream(File file, boolean parallel, boolean ordered)
+    {
+        FileChannel channel = null;
+        long size = 0;
+        try
+        {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            size = channel.size();
+        }
+        catch (IOException e)
+        {
+            closeQuietly(channel);
+            String msg = "Error processing file: " + file;
+            log.error(msg, e);
+            throw new MarcIOException(msg);
+        }
+
+        final FileChannel fc = channel;
+        return StreamSupport.stream(new MarcRecordSpliterator(fc, 0, size, ordered), parallel)
+                            .onClose(() -> closeQuietly(fc));
+    }
+
+    /**
+     * Set whether records are built lazily. The setting is inherited by
+     * spliterators split from this one.
+     *
+     * @see MarcChannelReader#setLazy(boolean)
+     */
+    public void setLazy(boolean lazy)
+    {
+        this.lazy = lazy;
+    }
+
+    /**
+     * Set the character set used to decode field data. The setting is
+     * inherited by spliterators split from this one.
+     *
+     * @see MarcChannelReader#setCharset(Charset)
+     */
+    public void setCharset(Charset charset)
+    {
+        this.charset = charset;
+    }
+
+    /**
+     * Set the size, in bytes, below which a region is not split.
+     */
+    public void setMinSplitSize(long minSplitSize)
+    {
+        this.minSplitSize = Math.max(1, minSplitSize);
+    }
+
+    /**
+     * Advance to the next record in the region.
+     */
+    public boolean tryAdvance(Consumer<? super MarcRecord> action)
+    {
+        if ( done )
+        {
+            return false;
+        }
+
+        if ( reader == null )
+        {
+            reader = new MarcChannelReader(new PositionalChannel(channel, start), start);
+            reader.setLazy(lazy);
+            reader.setCharset(charset);
+        }
+
+        while ( true )
+        {
+            try
+            {
+                // frame first, so the record starting past the region is not built
+                int len = reader.skip();
+                if ( reader.getRecordOffset() >= end )
+                {
+                    done = true;
+                    return false;
+                }
+                MarcRecord rec = new MarcRecord();
+                reader.build(rec, len);
+                action.accept(rec);
+                return true;
+            }
+            catch (MarcEndOfFileException e)
+            {
+                done = true;
+                return false;
+            }
+            catch (MarcFormatException e)
+            {
+                if ( reader.getRecordOffset() >= end )
+                {
+                    done = true;
+                    return false;
+                }
+                log.warn("skipping malformed record at offset " + reader.getRecordOffset()
+                         + " - " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Split off the lower half of the region, if the region is large enough
+     * and has not yet been read from. The lower half is returned, as an
+     * ordered spliterator must return a prefix of its records.
+     */
+    public Spliterator<MarcRecord> trySplit()
+    {
+        if ( reader != null || done || end - start < minSplitSize * 2 )
+        {
+            return null;
+        }
+
+        long boundary = findBoundary(channel, start + (end - start) / 2, end);
+        if ( boundary <= start || boundary >= end )
+        {
+            return null;
+        }
+
+        MarcRecordSpliterator lower = new MarcRecordSpliterator(channel, start, boundary, ordered);
+        lower.lazy = lazy;
+        lower.charset = charset;
+        lower.minSplitSize = minSplitSize;
+        start = boundary;
+        return lower;
+    }
+
+    /**
+     * Estimate the number of records in the region from its size.
+     */
+    public long estimateSize()
+    {
+        return (done ? 0 : Math.max(1, (end - start) / NOMINAL_RECORD_SIZE));
+    }
+
+    public int characteristics()
+    {
+        return (ordered ? ORDERED : 0) | NONNULL;
+    }
+
+
+    //====================================================
+    //       PACKAGE METHODS
+    //====================================================
+
+    /**
+     * Find the first record boundary at or after the supplied offset.
+     *
+     * @param channel the file channel to read
+     * @param from the offset at which to start looking
+     * @param end the offset just past the end of the region
+     *
+     * @return the offset of the boundary, or -1 if there is none before the
+     *         end of the region
+     */
+    static long findBoundary(FileChannel channel, long from, long end)
+    {
+        ByteBuffer scan = ByteBuffer.allocate(SCAN_SIZE);
+        long pos = from - 1;
+
+        try
+        {
+            while ( pos < end )
+            {
+                scan.clear();
+                int n = channel.read(scan, pos);
+                if ( n <= 0 )
+                {
+                    return -1;
+                }
+
+                byte[] b = scan.array();
+                for ( int i = 0; i < n; i++ )
+                {
+                    if ( b[i] == Marc.EOR )
+                    {
+                        long candidate = pos + i + 1;
+                        if ( candidate >= end )
+                        {
+                            return -1;
+                        }
+                        if ( isRecordStart(channel, candidate) )
+                        {
+                            return candidate;
+                        }
+                    }
+                }
+                pos += n;
+            }
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+
+        return -1;
+    }
+
+
+    //====================================================
+    //       PRIVATE METHODS
+    //====================================================
+
+    /**
+     * Tests if a plausible record begins at the supplied offset, allowing
+     * for line ends and blanks between records.
+     */
+    private static boolean isRecordStart(FileChannel channel, long offset)
+        throws IOException
+    {
+        ByteBuffer head = ByteBuffer.allocate(16);
+        channel.read(head, offset);
+        byte[] b = head.array();
+        int lim = head.position();
+
+        int i = 0;
+        while ( i < lim && (b[i] == '\r' || b[i] == '\n' || b[i] == ' ') )
+        {
+            i++;
+        }
+        if ( lim - i < 5 )
+        {
+            return false;
+        }
+
+        int reclen = 0;
+        try
+        {
+            reclen = StringUtil.ascii2int(b, i, 5);
+        }
+        catch (NumberFormatException e)
+        {
+            return false;
+        }
+        if ( reclen < 24 )
+        {
+            return false;
+        }
+
+        ByteBuffer last = ByteBuffer.allocate(1);
+        return channel.read(last, offset + i + reclen - 1) == 1 && last.get(0) == Marc.EOR;
+    }
+
+    private static void closeQuietly(FileChannel channel)
+    {
+        if ( channel != null )
+        {
+            try
+            {
+                channel.close();
+            }
+            catch (IOException e)
+            {
+                log.debug("error closing channel - " + e.getMessage());
+            }
+        }
+    }
+
+
+    //====================================================
+    //       NESTED CLASSES
+    //====================================================
+
+    /**
+     * A channel reading a shared <code>FileChannel</code> by position, so
+     * any number of readers can share the file without sharing its position.
+     * Closing this channel does not close the file channel.
+     */
+    static final class PositionalChannel implements ReadableByteChannel
+    {
+        private final FileChannel channel;
+        private long              position;
+        private boolean           open = true;
+
+        PositionalChannel(FileChannel channel, long position)
+        {
+            this.channel = channel;
+            this.position = position;
+        }
+
+        public int read(ByteBuffer dst)
+            throws IOException
+        {
+            int n = channel.read(dst, position);
+            if ( n > 0 )
+            {
+                position += n;
+            }
+            return n;
+        }
+
+        public boolean isOpen()
+        {
+            return open && channel.isOpen();
+        }
+
+        public void close()
+        {
+            open = false;
+        }
+    }
+
+}
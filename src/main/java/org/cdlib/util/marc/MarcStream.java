@@ -2,7 +2,11 @@ package org.cdlib.util.marc;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -58,15 +62,31 @@ public class MarcStream implements MarcConstants
     //====================================================
     private static int STARTINCNT = -1;
 
+    /**
+     * The initial size of the read buffer, which grows to fit the longest
+     * record read.
+     */
+    private static final int READ_BUFFER_SIZE = 8 * 1024;
+
     private File              fileIn        = null;
     private String            fileName      = null;
     private FileInputStream   fin           = null;
     private InputStreamReader isr           = null;
-    private StringBuffer      strbuf        = null;
+    private RecordBuffer      readBuf       = null;
     private int               currentCnt    = STARTINCNT;
     private int               lastInCnt     = STARTINCNT;
     private MarcRecord        currentRecord = null;
     private int               fileOffset    = 0;
+    private boolean           useIndex      = false;
+    private boolean           compressed    = false;
+    private boolean           lazy          = false;
+    private boolean           recycle       = false;
+    private MarcRecordIndex   index         = null;
+    private int               readAhead     = 0;
+    private ReadAhead         producer      = null;
+    private ReadItem          lastItem      = null;
+    private StringBuffer      strbuf        = null;
+    private RuntimeException  aheadEnd      = null;
 
 
     //====================================================
@@ -117,11 +137,24 @@ public class MarcStream implements MarcConstants
 
     /**
      * Return the current string buffer. This will contain the last record
-     * read, whether or not that record could be parsed.
+     * read, whether or not that record could be parsed. The same buffer is
+     * returned until the next record is read.
      * @return the current string buffer
      */
     public StringBuffer getReadBuffer()
     {
+        // the buffer is only built when asked for, once per record
+        if ( strbuf == null )
+        {
+            if ( lastItem != null )
+            {
+                strbuf = new StringBuffer(lastItem.text);
+            }
+            else if ( readBuf != null )
+            {
+                strbuf = new StringBuffer(readBuf.length).append(readBuf.chars, 0, readBuf.length);
+            }
+        }
         return strbuf;
     }
 
@@ -155,7 +188,11 @@ public class MarcStream implements MarcConstants
             return currentRecord;
         }
 
-        if ( lastInCnt > inCnt )
+        if ( inCnt != lastInCnt + 1 && seek(inCnt) )
+        {
+            log.debug("positioned by index before record #" + inCnt);
+        }
+        else if ( lastInCnt > inCnt )
         {
             start();
         }
@@ -232,7 +269,11 @@ public class MarcStream implements MarcConstants
             return MARC_READ_SUCCESS;
         }
 
-        if ( lastInCnt > inCnt )
+        if ( inCnt != lastInCnt + 1 && seek(inCnt) )
+        {
+            log.debug("positioned by index before record #" + inCnt);
+        }
+        else if ( lastInCnt > inCnt )
         {
             start();
         }
@@ -289,80 +330,35 @@ public class MarcStream implements MarcConstants
 			throw new MarcInvalidStateException();
 		}
 
-        strbuf = new StringBuffer();
-        byte[] bvalue = new byte[20];
-        String svalue = null;
-        char cvalue = 0;
-        int reclen = 0;
+        if ( readAhead > 0 )
+        {
+            ReadItem item = nextItem();
+            currentRecord = item.record;
+            return item.record;
+        }
 
         try
         {
-            // find 5 numeric bytes as the beginning length of the Marc record
-            //TODO: this allows alphas to sprinkled in the length field -
-            // not what the framers intended! - no, actually it skips over
-            // until it finds a string of 5 digits - can this be right???
-            // MAYBE: fix it to inspect only the first 5 characters
-            int ivalue = -1;
-            for ( int i = 0; true; i++ )
-            {
-                ivalue = isr.read();
-
-                if ( ivalue == -1 )
-				{
-					break;
-				}
-
-                cvalue = (char)ivalue;
+            lastItem = null;
+            readRecord();
+            currentCnt++;
 
-                // is numeric character?
-                if ( Character.isDigit(cvalue) )
-                {
-                    strbuf.append(cvalue);
-                }
-                else
-                {
-                    log.debug("found non-digit - char = '" + cvalue + "'");
-                    strbuf = new StringBuffer();
-                }
-                if ( strbuf.length() == 5 )
-				{
-					break;
-				}
+            // build a marc record from input string
+            String inrec = new String(readBuf.chars, 0, readBuf.length);
+            if ( log.isDebugEnabled() )
+            {
+                log.debug("buffer = " + inrec);
             }
-
-            if ( strbuf.length() < 5 )
+            MarcRecord marc = null;
+            if ( lazy )
             {
-                // log an error if we are not at end of file,
-                // or we are at end of file, but found a partial record
-                if ( ivalue > -1 || strbuf.length() != 0 )
-                {
-                    log.debug("failed to find length field - buf len = " + strbuf.length());
-                }
-
-                close();
-                throw new MarcEndOfFileException();
+                marc = new MarcRecord();
+                marc.buildLazy(inrec, MarcBaseRecord.END_LIST);
             }
-
-            // read in rest of record
-            reclen = new Integer(strbuf.toString()).intValue();
-
-            char[] buf = new char[reclen];
-            ivalue = isr.read(buf, 0, reclen-5);
-            if ( ivalue == -1 )
+            else
             {
-                log.debug("found end of file");
-                close();
-                throw new MarcEndOfFileException();
+                marc = new MarcRecord(inrec);
             }
-
-            String str = new String(buf, 0, reclen-5);
-            strbuf.append(str);
-            currentCnt++;
-
-            // build a marc record from input string
-            String inrec = new String(strbuf);
-            log.debug("buffer = " + inrec);
-            MarcRecord marc = new MarcRecord(inrec);
             currentRecord = marc;
             return marc;
         }
@@ -429,81 +425,44 @@ public class MarcStream implements MarcConstants
 			throw new MarcInvalidStateException();
 		}
 
-        strbuf = new StringBuffer();
-        byte[] bvalue = new byte[20];
-        String svalue = null;
-        char cvalue = 0;
-        int reclen = 0;
-        int rc = -1;
-
-        try
+        if ( readAhead > 0 )
         {
-            // find 5 numeric bytes as the beginning length of the Marc record
-            //TODO: this allows alphas to sprinkled in the length field -
-            // not what the framers intended! - no, actually it skips over
-            // until it finds a string of 5 digits - can this be right???
-            // MAYBE: fix it to inspect only the first 5 characters
-            int ivalue = -1;
-            for ( int i = 0; true; i++ )
+            ReadItem item = nextItem();
+            if ( lazy )
             {
-                ivalue = isr.read();
-
-                if (ivalue == -1)
-				{
-					break;
-				}
-
-                cvalue = (char)ivalue;
-
-                // is numeric character?
-                if ( Character.isDigit(cvalue) )
-                {
-                    strbuf.append(cvalue);
-                }
-                else
-                {
-                    log.debug("found non-digit - char = '" + cvalue + "'");
-                    strbuf = new StringBuffer();
-                }
-                if ( strbuf.length() == 5 )
-				{
-					break;
-				}
+                marcRec.takeOver(item.record);
             }
-
-            if ( strbuf.length() < 5 )
+            else
             {
-                // log an error if we are not at end of file,
-                // or we are at end of file, but found a partial record
-                if ( ivalue > -1 || strbuf.length() != 0 )
-                {
-                    log.debug("failed to find length field - buf len = " + strbuf.length());
-                }
-
-                close();
-                throw new MarcEndOfFileException();
+                marcRec.build(item.record);
             }
+            currentRecord = marcRec;
+            return MARC_READ_SUCCESS;
+        }
 
-            // read in rest of record
-            reclen = new Integer(strbuf.toString()).intValue();
+        try
+        {
+            lastItem = null;
+            readRecord();
+            currentCnt++;
 
-            char[] buf = new char[reclen];
-            ivalue = isr.read(buf, 0, reclen-5);
-            if ( ivalue == -1 )
+            // build a marc record from the read buffer
+            if ( log.isDebugEnabled() )
             {
-                log.debug("found end of file");
-                close();
-                throw new MarcEndOfFileException();
+                log.debug("buffer = " + new String(readBuf.chars, 0, readBuf.length));
+            }
+            if ( lazy )
+            {
+                marcRec.buildLazy(new String(readBuf.chars, 0, readBuf.length), MarcBaseRecord.END_LIST);
+            }
+            else if ( recycle )
+            {
+                marcRec.rebuild(readBuf.chars, 0, readBuf.length, MarcBaseRecord.END_LIST);
+            }
+            else
+            {
+                marcRec.build(new String(readBuf.chars, 0, readBuf.length));
             }
-
-            String str = new String(buf, 0, reclen-5);
-            strbuf.append(str);
-            currentCnt++;
-
-            // build a marc record from input string
-            String inrec = new String(strbuf);
-            log.debug("buffer = " + inrec);
-            marcRec.build(inrec);
             currentRecord = marcRec;
             return MARC_READ_SUCCESS;
         }
@@ -554,6 +513,122 @@ public class MarcStream implements MarcConstants
     }
 
 
+    /**
+     * Tests if records are built lazily.
+     */
+    public boolean isLazy()
+    {
+        return lazy;
+    }
+
+
+    /**
+     * Set whether records are built lazily, creating their fields only as
+     * they are requested. The default is false.
+     *
+     * @param lazy true to build records lazily
+     * @see MarcBaseRecord#buildLazy(String, int)
+     */
+    public void setLazy(boolean lazy)
+    {
+        this.lazy = lazy;
+    }
+
+
+    /**
+     * Tests if <code>next(MarcRecord)</code> recycles the fields of the
+     * record it is passed.
+     */
+    public boolean isRecycle()
+    {
+        return recycle;
+    }
+
+
+    /**
+     * Set whether <code>next(MarcRecord)</code> rebuilds the record it is
+     * passed in place, reusing its field and subfield objects, rather than
+     * creating new ones for every record. Fields obtained from the record
+     * are overwritten by the next read, so this suits loops that finish
+     * with each record before reading another. Lazy building, when set,
+     * takes precedence. The default is false.
+     *
+     * @param recycle true to recycle the record's fields
+     * @see MarcBaseRecord#rebuild(char[], int, int, int)
+     */
+    public void setRecycle(boolean recycle)
+    {
+        this.recycle = recycle;
+    }
+
+
+    /**
+     * Tests if <code>getRecord</code> uses a record offset index to
+     * position the stream.
+     */
+    public boolean isUseIndex()
+    {
+        return useIndex;
+    }
+
+
+    /**
+     * Set whether <code>getRecord</code> uses a record offset index to
+     * position the stream directly at the requested record, rather than
+     * reading forward from the current record or the start of the file.
+     * The index is loaded from, or built and saved to, a sidecar file on
+     * the first request that is not for the next record. The index is not
+     * used for gzip compressed files. The default is false, so no file is
+     * written next to the input unless the caller asks for it.
+     *
+     * @param useIndex true to use the index
+     * @see MarcRecordIndex
+     */
+    public void setUseIndex(boolean useIndex)
+    {
+        this.useIndex = useIndex;
+    }
+
+
+    /**
+     * Return the number of records read ahead, or zero if records are read
+     * on the caller's thread.
+     */
+    public int getReadAhead()
+    {
+        return readAhead;
+    }
+
+
+    /**
+     * Set the number of records read ahead. When greater than zero, records
+     * are read and built by a background thread, which stays up to that
+     * many records ahead of the caller, so reading overlaps the caller's
+     * work on each record. Errors are reported by <code>next</code> in the
+     * order they occur, as they would be without reading ahead. Repositioning
+     * or closing the stream stops the thread and discards the records read
+     * ahead. <code>next(MarcRecord)</code> takes over the fields of the
+     * record read ahead, so recycling does not apply. The default is zero.
+     *
+     * @param depth the number of records to read ahead, or zero
+     *
+     * @exception MarcParmException if the depth is negative
+     * @exception MarcInvalidStateException if records are being read ahead
+     */
+    public void setReadAhead(int depth)
+    {
+        if ( depth < 0 )
+        {
+            throw new MarcParmException(this, "Invalid read ahead depth: " + depth);
+        }
+        if ( producer != null )
+        {
+            throw new MarcInvalidStateException(this, "Records are being read ahead");
+        }
+        readAhead = depth;
+    }
+
+
     /**
      * Creates a new <code>File</code> object using the path specified
      * and opens that file for input.
@@ -608,14 +683,8 @@ public class MarcStream implements MarcConstants
      */
     public void close()
     {
-        try
-        {
-            isr.close();
-        }
-        catch (Exception e)
-        {
-        }
-        fin = null;
+        stopReadAhead();
+        closeReader();
     }
 
 
@@ -630,16 +699,20 @@ public class MarcStream implements MarcConstants
 
 
     /**
-     * Open the input stream using the iso-8859-1 code page.
+     * Open the input stream using the iso-8859-1 code page. A gzip
+     * compressed file is decompressed as it is read.
      */
     public void open()
     {
+        stopReadAhead();
         init();
         try
         {
             fin = new FileInputStream(fileIn);
-            //isr = new InputStreamReader(fin, "UTF8");
-            isr = new InputStreamReader(fin, "iso-8859-1");
+            InputStream in = CompressedInput.open(fin);
+            compressed = CompressedInput.isCompressed(in);
+            //isr = new InputStreamReader(in, "UTF8");
+            isr = new InputStreamReader(in, "iso-8859-1");
         }
         catch (Exception e)
         {
@@ -649,4 +722,387 @@ public class MarcStream implements MarcConstants
         }
     }
 
+
+    //====================================================
+    //       PRIVATE METHODS
+    //====================================================
+
+    /**
+     * Close the input stream.
+     */
+    private void closeReader()
+    {
+        try
+        {
+            isr.close();
+        }
+        catch (Exception e)
+        {
+        }
+        fin = null;
+    }
+
+    /**
+     * Take the next record read ahead, starting the read ahead thread if it
+     * is not running, and count it. The end of file, once reached, is
+     * reported to every later call.
+     *
+     * @exception MarcEndOfFileException if no more Marc records
+     * @exception MarcFormatException if the next record is malformed
+     * @exception MarcIOException if the file cannot be read
+     */
+    private ReadItem nextItem()
+    {
+        if ( aheadEnd != null )
+        {
+            throw aheadEnd;
+        }
+
+        if ( producer == null )
+        {
+            producer = new ReadAhead(readAhead, lazy);
+            Thread t = new Thread(producer, "MarcStream read ahead - " + fileIn);
+            t.setDaemon(true);
+            producer.thread = t;
+            t.start();
+        }
+
+        ReadItem item = null;
+        try
+        {
+            item = producer.queue.take();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new MarcIOException(this, "Interrupted waiting for record");
+        }
+
+        if ( item.fatal != null )
+        {
+            if ( item.fatal instanceof MarcEndOfFileException )
+            {
+                closeReader();
+            }
+            aheadEnd = item.fatal;
+            throw aheadEnd;
+        }
+
+        lastItem = item;
+        strbuf = null;
+        currentCnt++;
+        if ( item.error != null )
+        {
+            throw item.error;
+        }
+        return item;
+    }
+
+    /**
+     * Stop the read ahead thread, if it is running, and discard the records
+     * it has read. Returns once the thread no longer uses the input stream.
+     */
+    private void stopReadAhead()
+    {
+        ReadAhead p = producer;
+        if ( p == null )
+        {
+            return;
+        }
+
+        producer = null;
+        lastItem = null;
+        aheadEnd = null;
+        p.stopped = true;
+        p.thread.interrupt();
+        p.queue.clear();
+        boolean interrupted = false;
+        while ( p.thread.isAlive() )
+        {
+            try
+            {
+                p.thread.join();
+            }
+            catch (InterruptedException e)
+            {
+                interrupted = true;
+            }
+        }
+        if ( interrupted )
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Read the next record into the read buffer, closing the input stream
+     * at the end of the file.
+     *
+     * @exception MarcEndOfFileException if no more Marc records
+     */
+    private void readRecord()
+        throws java.io.IOException
+    {
+        if ( readBuf == null )
+        {
+            readBuf = new RecordBuffer();
+        }
+        strbuf = null;
+        try
+        {
+            readRecord(readBuf);
+        }
+        catch (MarcEndOfFileException e)
+        {
+            closeReader();
+            throw e;
+        }
+    }
+
+    /**
+     * Read the next record into a buffer, which is reused from one record
+     * to the next, and grown as needed. The record starts at the first run
+     * of five digits, which give the record length. Only the input stream
+     * and the buffer are changed, so the read ahead thread reads with its
+     * own buffer while the consumer uses this stream's state.
+     *
+     * @param rb the buffer to read into
+     *
+     * @exception MarcEndOfFileException if no more Marc records
+     */
+    private void readRecord(RecordBuffer rb)
+        throws java.io.IOException
+    {
+        char[] buf = rb.chars;
+        int len = 0;
+        rb.length = 0;
+
+        // find 5 numeric bytes as the beginning length of the Marc record
+        //TODO: this allows alphas to sprinkled in the length field -
+        // not what the framers intended! - no, actually it skips over
+        // until it finds a string of 5 digits - can this be right???
+        // MAYBE: fix it to inspect only the first 5 characters
+        int ivalue = -1;
+        while ( len < 5 )
+        {
+            ivalue = isr.read();
+
+            if ( ivalue == -1 )
+            {
+                break;
+            }
+
+            char cvalue = (char)ivalue;
+
+            // is numeric character?
+            if ( Character.isDigit(cvalue) )
+            {
+                buf[len++] = cvalue;
+            }
+            else
+            {
+                log.debug("found non-digit - char = '" + cvalue + "'");
+                len = 0;
+            }
+        }
+
+        if ( len < 5 )
+        {
+            // log an error if we are not at end of file,
+            // or we are at end of file, but found a partial record
+            if ( ivalue > -1 || len != 0 )
+            {
+                log.debug("failed to find length field - buf len = " + len);
+            }
+
+            rb.length = len;
+            throw new MarcEndOfFileException();
+        }
+
+        // read in rest of record
+        int reclen = StringUtil.ascii2int(buf, 0, 5);
+        if ( reclen > buf.length )
+        {
+            buf = Arrays.copyOf(buf, Math.max(reclen, buf.length * 2));
+            rb.chars = buf;
+        }
+
+        int rest = Math.max(0, reclen - 5);
+        int got = isr.read(buf, 5, rest);
+        if ( got == -1 )
+        {
+            log.debug("found end of file");
+            rb.length = len;
+            throw new MarcEndOfFileException();
+        }
+
+        // the reader may return less than was asked for
+        while ( got < rest )
+        {
+            int n = isr.read(buf, 5 + got, rest - got);
+            if ( n == -1 )
+            {
+                break;
+            }
+            got += n;
+        }
+        rb.length = 5 + got;
+    }
+
+    /**
+     * Position the input stream at the start of the requested record, using
+     * the record offset index, and set the counters so the next record read
+     * is the one requested.
+     *
+     * @param inCnt the record number (start 0)
+     * @return true if the stream was positioned, false if the index is not
+     *         in use, the file is compressed, or the index does not contain
+     *         the record
+     */
+    private boolean seek(int inCnt)
+    {
+        if ( !useIndex || fileIn == null || compressed )
+        {
+            return false;
+        }
+
+        if ( index == null || !index.isCurrent() )
+        {
+            index = MarcRecordIndex.open(fileIn);
+        }
+
+        if ( inCnt >= index.size() )
+        {
+            return false;
+        }
+
+        stopReadAhead();
+        if ( fin == null )
+        {
+            open();
+        }
+
+        try
+        {
+            fin.getChannel().position(index.getOffset(inCnt));
+            // discard anything the reader has buffered from the old position
+            isr = new InputStreamReader(fin, "iso-8859-1");
+        }
+        catch (java.io.IOException e)
+        {
+            String msg = new String("Error positioning file: " + fileIn);
+            log.error(msg, e);
+            throw new MarcIOException(this, msg);
+        }
+
+        currentCnt = inCnt - 1;
+        lastInCnt = inCnt - 1;
+        return true;
+    }
+
+
+    //====================================================
+    //       NESTED CLASSES
+    //====================================================
+
+    /**
+     * A record read ahead, with its text, or the error reading it.
+     */
+    private static final class ReadItem
+    {
+        MarcRecord       record = null;
+        String           text   = null;
+        RuntimeException error  = null;
+        RuntimeException fatal  = null;
+    }
+
+    /**
+     * The characters of a record, in a buffer reused from one record to the
+     * next.
+     */
+    private static final class RecordBuffer
+    {
+        char[] chars  = new char[READ_BUFFER_SIZE];
+        int    length = 0;
+    }
+
+    /**
+     * Reads and builds records into a bounded queue, until the end of the
+     * file, an error that ends reading, or it is stopped. A malformed
+     * record is queued as an error, and reading continues.
+     */
+    private final class ReadAhead implements Runnable
+    {
+        final BlockingQueue<ReadItem> queue;
+        final boolean                 lazyBuild;
+        final RecordBuffer            buffer  = new RecordBuffer();
+        Thread                        thread  = null;
+        volatile boolean              stopped = false;
+
+        ReadAhead(int depth, boolean lazyBuild)
+        {
+            this.queue = new ArrayBlockingQueue<ReadItem>(depth);
+            this.lazyBuild = lazyBuild;
+        }
+
+        public void run()
+        {
+            while ( !stopped )
+            {
+                ReadItem item = new ReadItem();
+                try
+                {
+                    readRecord(buffer);
+                    item.text = new String(buffer.chars, 0, buffer.length);
+                    item.record = new MarcRecord();
+                    if ( lazyBuild )
+                    {
+                        item.record.buildLazy(item.text, MarcBaseRecord.END_LIST);
+                    }
+                    else
+                    {
+                        item.record.build(item.text);
+                    }
+                }
+                catch (MarcEndOfFileException e)
+                {
+                    item.fatal = e;
+                }
+                catch (MarcFormatException e)
+                {
+                    if ( log.isDebugEnabled() )
+                    {
+                        log.error("MarcFormatException - " + e.getMessage(), e);
+                    }
+                    item.record = null;
+                    item.error = e;
+                }
+                catch (java.io.IOException e)
+                {
+                    log.error("IOException - " + e.getMessage());
+                    item.fatal = new MarcIOException(e.getMessage());
+                }
+                catch (RuntimeException e)
+                {
+                    log.error(e.getClass().getName() + " - " + e.getMessage());
+                    item.fatal = e;
+                }
+
+                try
+                {
+                    queue.put(item);
+                }
+                catch (InterruptedException e)
+                {
+                    return;
+                }
+
+                if ( item.fatal != null )
+                {
+                    return;
+                }
+            }
+        }
+    }
+
 }
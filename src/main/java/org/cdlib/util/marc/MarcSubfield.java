@@ -59,6 +59,22 @@ public class MarcSubfield extends Field implements Comparable
 	 */
     public static final String EOL = System.getProperty("line.separator");
 
+    /**
+     * Shared single character strings for the Latin-1 subfield codes, used
+     * when a subfield is reset.
+     *
+     * @see #code(char)
+     */
+    private static final String[] CODES = new String[256];
+
+    static
+    {
+        for ( int i = 0; i < CODES.length; i++ )
+        {
+            CODES[i] = String.valueOf((char)i);
+        }
+    }
+
     //====================================================
     //       CONSTRUCTORS
     //====================================================
@@ -210,6 +226,31 @@ public class MarcSubfield extends Field implements Comparable
         return this;
     }
 
+    /**
+     * Return a single character string, shared for Latin-1 characters.
+     */
+    static String code(char c)
+    {
+        return (c < CODES.length ? CODES[c] : String.valueOf(c));
+    }
+
+    /**
+     * Reset this subfield to a new subfield code and value.
+     *
+     * @param code the subfield code
+     * @param value the subfield contents, already trimmed if need be
+     *
+     * @return this subfield
+     */
+    MarcSubfield reset(char code, String value)
+    {
+        this.tag = code(code);
+        this.tagint = -1;
+        this.id = -1;
+        this.data = value;
+        return this;
+    }
+
     /**
      * Set field data
      *
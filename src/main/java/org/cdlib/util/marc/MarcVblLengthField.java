@@ -1,7 +1,8 @@
 package org.cdlib.util.marc;
 
+import java.nio.CharBuffer;
+import java.util.Arrays;
 import java.util.Enumeration;
-import java.util.StringTokenizer;
 import java.util.TreeMap;
 import java.util.Vector;
 
@@ -15,6 +16,13 @@ import org.cdlib.util.string.StringUtil;
 /**
  * Class that implements a MARC variable length field.
  *
+ * A field built by <code>setField</code> holds its subfields in compact
+ * form, as the characters of the field data and the bounds of each
+ * subfield value, and creates <code>MarcSubfield</code> objects and value
+ * strings only as they are asked for. The subfields are expanded into a
+ * <code>Vector</code> of <code>MarcSubfield</code> objects the first time
+ * the field is changed, or the live subfields are requested through
+ * <code>subfields()</code>.
  *
  * @author <a href="mailto:rmoon@library.berkeley.edu">Ralph Moon</a>
  * @author <a href="mailto:shawnm@splorkin.com">Shawn McGovern</a>
@@ -59,13 +67,25 @@ public class MarcVblLengthField extends Field
 	 */
     private FixedLengthData indicators;
 
+	/**
+	 * The subfields in compact form: the characters of the field data, the
+	 * code of each subfield, and the start and end of each subfield value.
+	 * Null when the subfields are held in the data <code>Vector</code>.
+	 * While they are compact the data <code>Vector</code> is empty, or is
+	 * null until the subfields are first expanded.
+	 */
+    private char[] packed;
+    private char[] codes;
+    private int[]  bounds;
+    private int    packedCount;
+
 
     /**
      * Create an uninitialized field
      */
     public MarcVblLengthField()
     {
-        super("", new Vector(15, 15));
+        super("", null);
         indicators = new FixedLengthData(2);
     }
 
@@ -76,7 +96,7 @@ public class MarcVblLengthField extends Field
      */
     public MarcVblLengthField(String tag)
     {
-        super(tag, new Vector(15, 15));
+        super(tag, null);
         indicators = new FixedLengthData(2);
     }
 
@@ -90,7 +110,7 @@ public class MarcVblLengthField extends Field
                               FixedLengthData indicators,
                               Vector subfields)
     {
-        super(tag, (subfields == null ? new Vector(15, 15) : subfields));
+        super(tag, subfields);
         this.indicators = indicators;
     }
 
@@ -104,7 +124,7 @@ public class MarcVblLengthField extends Field
                               String indicators,
                               Vector subfields)
     {
-        super(tag, (subfields == null ? new Vector(15, 15) : subfields));
+        super(tag, subfields);
         this.indicators = new FixedLengthData(2);
         try {
             setIndicators(indicators);
@@ -149,7 +169,7 @@ public class MarcVblLengthField extends Field
      */
     public final void addSubfield(MarcSubfield sf)
     {
-        ((Vector)data).addElement(sf);
+        subfieldVector().addElement(sf);
     }
 
     /**
@@ -159,7 +179,7 @@ public class MarcVblLengthField extends Field
     {
         if ((indata == null) || (tag == null)) return null;
         MarcSubfield sf = new MarcSubfield(tag, indata, (getTagint() > 99));
-        ((Vector)data).addElement(sf);
+        subfieldVector().addElement(sf);
         return sf;
     }
 
@@ -181,7 +201,7 @@ public class MarcVblLengthField extends Field
             {
                 if ( MarcSubfield.exists(subfields[i]) )
                 {
-                    if ( ((Vector)data).add(subfields[i]) )
+                    if ( subfieldVector().add(subfields[i]) )
                     {
                         cnt++;
                     }
@@ -290,7 +310,14 @@ public class MarcVblLengthField extends Field
      */
     public void clearSubfields()
     {
-        ((Vector)data).removeAllElements();
+        packed = null;
+        codes = null;
+        bounds = null;
+        packedCount = 0;
+        if ( data != null )
+        {
+            ((Vector)data).removeAllElements();
+        }
     }
 
     /**
@@ -340,6 +367,14 @@ public class MarcVblLengthField extends Field
       return indicators.dump();
     }
 
+    /**
+     * Return the object that holds the indicators.
+     */
+    final FixedLengthData indicatorData()
+    {
+        return indicators;
+    }
+
     /**
      * Build a new field containing the subfields in codes
      *
@@ -365,11 +400,19 @@ public class MarcVblLengthField extends Field
     {
         int len = 2;    // Indicators
 
-        Enumeration e = ((Vector)data).elements();
+        if ( packed != null )
+        {
+            for ( int i = 0; i < packedCount; i++ )
+            {
+                len += bounds[2 * i + 1] - bounds[2 * i] + 2;
+            }
+            return len + 1; // End of field marker
+        }
 
-        while( e.hasMoreElements() )
+        int max = subfieldCount();
+        for ( int i = 0; i < max; i++ )
         {
-            len += ((MarcSubfield)(e.nextElement())).length();
+            len += ((MarcSubfield)((Vector)data).elementAt(i)).length();
         }
         return len + 1; // End of field marker
     }
@@ -385,6 +428,40 @@ public class MarcVblLengthField extends Field
         return sb.toString();
     }
 
+    /**
+     * Append the ascii formatted form of this field to a buffer. Unlike
+     * <code>marcDump()</code>, subfields that would take the field past
+     * the maximum field length are not dropped.
+     *
+     * @param sb the buffer to append to
+     */
+    void appendMarc(StringBuilder sb)
+    {
+        sb.append(indicators.getChars());
+        if ( packed != null )
+        {
+            for ( int i = 0; i < packedCount; i++ )
+            {
+                int start = bounds[2 * i];
+                sb.append(Marc.SF);
+                sb.append(codes[i]);
+                sb.append(packed, start, bounds[2 * i + 1] - start);
+            }
+            sb.append(Marc.EOF);
+            return;
+        }
+
+        int max = subfieldCount();
+        for ( int i = 0; i < max; i++ )
+        {
+            MarcSubfield sf = (MarcSubfield)((Vector)data).elementAt(i);
+            sb.append(Marc.SF);
+            sb.append(sf.tag);
+            sb.append((String)sf.data);
+        }
+        sb.append(Marc.EOF);
+    }
+
     /**
      * Set field data
      *
@@ -403,10 +480,62 @@ public class MarcVblLengthField extends Field
         this.tag = tag;
         setTagint();
 
-        StringTokenizer t = new StringTokenizer(data, Marc.SFStr);
+        // split the non-empty subfield delimited tokens, as StringTokenizer would
+        char[] src = data.toCharArray();
+        int end = src.length;
+        int[] b = new int[16];
+        char[] c = new char[8];
+        int count = 0;
+        int tokenCount = 0;
+        int indStart = 0;
+        int indEnd = 0;
+        boolean trim = (getTagint() > 99);
+        int i = 0;
+        while ( i < end )
+        {
+            if ( src[i] == Marc.SF )
+            {
+                i++;
+                continue;
+            }
 
-		int tokenCount = t.countTokens();
+            int start = i;
+            while ( i < end && src[i] != Marc.SF )
+            {
+                i++;
+            }
 
+            if ( ++tokenCount == 1 )
+            {
+                indStart = start;
+                indEnd = i;
+                continue;
+            }
+
+            int vStart = start + 1;
+            int vEnd = i;
+            if ( trim )
+            {
+                while ( vStart < vEnd && StringUtil.isWhiteSpace(src[vStart]) )
+                {
+                    vStart++;
+                }
+                while ( vEnd > vStart && StringUtil.isWhiteSpace(src[vEnd - 1]) )
+                {
+                    vEnd--;
+                }
+            }
+
+            if ( count == c.length )
+            {
+                c = Arrays.copyOf(c, count * 2);
+                b = Arrays.copyOf(b, count * 4);
+            }
+            c[count] = src[start];
+            b[2 * count] = vStart;
+            b[2 * count + 1] = vEnd;
+            count++;
+        }
 
 		if ( log.isDebugEnabled() )
 		{
@@ -418,26 +547,19 @@ public class MarcVblLengthField extends Field
 			throw new MarcFormatException(this, "No subfields found");
 		}
 
-        try {
-            setIndicators( t.nextToken() );
-        }
-        catch (MarcFormatException e) {
-            log.warn(e.toString() + " tag=" + tag + " tokenCount=" + tokenCount + " data=" + data);
+        if ( indEnd - indStart == 2 )
+        {
+            indicators.setPos(0, src, indStart, 2);
         }
-
-        while( t.hasMoreTokens() )
+        else
         {
-            String s = t.nextToken();
-            if ( log.isDebugEnabled() )
-            {
-                log.debug("Raw SF = '" + s + "' hex SF = '" + HexUtils.hexPrint(s) + "'");
-            }
-
-            addSubfield( new MarcSubfield(s.charAt(0),                // subfield code
-                                          s.substring(1, s.length()), // subfield contents
-                                          (getTagint() > 99)          // trim contents?
-                                          ));
+            log.warn("Indicator size invalid tag=" + tag + " tokenCount=" + tokenCount + " data=" + data);
         }
+
+        packed = src;
+        codes = (c.length == count ? c : Arrays.copyOf(c, count));
+        bounds = (b.length == 2 * count ? b : Arrays.copyOf(b, 2 * count));
+        packedCount = count;
         return this;
     }
 
@@ -460,6 +582,108 @@ public class MarcVblLengthField extends Field
         return setField(tag, replaceField);
     }
 
+    /**
+     * Reset this field to a new tag, and the indicators and subfields held
+     * in a character array, as <code>setField</code> does, but without
+     * creating intermediate strings, and taking subfield objects from the
+     * supplied pool. The subfields this field held are returned to the pool.
+     *
+     * @param tag the field tag, already trimmed
+     * @param src the characters holding the field data
+     * @param off the offset of the field data
+     * @param len the length of the field data, without the field terminator
+     * @param pool the pool from which to take and to which to return subfields
+     *
+     * @return this field
+     *
+     * @exception MarcFormatException if no subfields are found
+     */
+    Field reset(String tag, char[] src, int off, int len, FieldPool pool)
+        throws MarcFormatException
+    {
+        pool.releaseSubfields(this);
+        this.tag = tag;
+        setTagint();
+        this.id = -1;
+        if ( indicators == null )
+        {
+            indicators = new FixedLengthData(2);
+        }
+        indicators.setPos(0, 1, ' ');
+
+        // count the non-empty subfield delimited tokens, as StringTokenizer would
+        int end = off + len;
+        int tokenCount = 0;
+        boolean inToken = false;
+        for ( int i = off; i < end; i++ )
+        {
+            if ( src[i] == Marc.SF )
+            {
+                inToken = false;
+            }
+            else if ( !inToken )
+            {
+                inToken = true;
+                tokenCount++;
+            }
+        }
+
+        if ( tokenCount < 2 )
+        {
+            throw new MarcFormatException(this, "No subfields found");
+        }
+
+        boolean trim = (getTagint() > 99);
+        boolean first = true;
+        int i = off;
+        while ( i < end )
+        {
+            if ( src[i] == Marc.SF )
+            {
+                i++;
+                continue;
+            }
+
+            int start = i;
+            while ( i < end && src[i] != Marc.SF )
+            {
+                i++;
+            }
+
+            if ( first )
+            {
+                first = false;
+                if ( i - start == 2 )
+                {
+                    indicators.setPos(0, src, start, 2);
+                }
+                else
+                {
+                    log.warn("Indicator size invalid tag=" + tag + " tokenCount=" + tokenCount
+                             + " data=" + new String(src, off, len));
+                }
+                continue;
+            }
+
+            int vStart = start + 1;
+            int vEnd = i;
+            if ( trim )
+            {
+                while ( vStart < vEnd && StringUtil.isWhiteSpace(src[vStart]) )
+                {
+                    vStart++;
+                }
+                while ( vEnd > vStart && StringUtil.isWhiteSpace(src[vEnd - 1]) )
+                {
+                    vEnd--;
+                }
+            }
+
+            addSubfield(pool.subfield().reset(src[start], new String(src, vStart, vEnd - vStart)));
+        }
+        return this;
+    }
+
     /**
      * Set nth indicator to c
      * @param n Indicator number (1 or 2)
@@ -519,7 +743,8 @@ public class MarcVblLengthField extends Field
 
 
     /**
-     * Return the first instance of the specified subfield.
+     * Return the first instance of the specified subfield. Compact subfields
+     * are first expanded, so the subfield returned is part of the field.
      *
      * @param sfcode the subfield code to select
      *
@@ -571,6 +796,12 @@ public class MarcVblLengthField extends Field
         }
 
         // Return first match
+        if ( packed != null )
+        {
+            int i = packedIndex(sfcode.charAt(0), 0);
+            return (i < 0 ? null : packedValue(i));
+        }
+
         MarcSubfield sf = firstSubfield(sfcode);
         String value = null;
         if (sf != null)
@@ -583,6 +814,8 @@ public class MarcVblLengthField extends Field
 
     /**
      * Return a <code>Vector</code> of all subfields matching the specified tag.
+     * Compact subfields are first expanded, so the subfields returned are
+     * part of the field.
      *
      * @param tag A single character string representing the subfield tag
      * @return The <code>Vector</code> of subfields. The vector will be empty
@@ -624,20 +857,23 @@ public class MarcVblLengthField extends Field
      */
     public Vector subfields()
     {
-        return ((((Vector)data).size() > 0) ? (Vector)data : new Vector (0));
+        Vector v = subfieldVector();
+        return ((v.size() > 0) ? v : new Vector (0));
     }
 
     /**
      * Return all the subfields of this field in a MarcSubfield array.
+     * Compact subfields are first expanded, so the subfields returned are
+     * part of the field.
      *
      * @return a MarcSubfield array containing this fields subfields.
      */
     public MarcSubfield[] getSubfields()
     {
         MarcSubfield[] sf = new MarcSubfield[0];
-        if (data != null )
+        if ( subfieldCount() > 0 )
         {
-            sf = (MarcSubfield[])((Vector)data).toArray(sf);
+            sf = (MarcSubfield[])subfieldVector().toArray(sf);
         }
 
         return sf;
@@ -652,7 +888,7 @@ public class MarcVblLengthField extends Field
      */
     public void translateValues(TranslateTable tt)
     {
-        Enumeration enu = ((Vector)data).elements();
+        Enumeration enu = subfieldVector().elements();
         while ( enu.hasMoreElements() )
         {
             ((MarcSubfield)enu.nextElement()).translateValue(tt);
@@ -715,12 +951,28 @@ public class MarcVblLengthField extends Field
         sb.append('\t');
         sb.append('[');
 
-        Enumeration e = ((Vector)data).elements();
-
-        while( e.hasMoreElements() )
+        if ( packed != null )
         {
-            sb.append(((MarcSubfield)(e.nextElement())).toString());
-            sb.append(' ');
+            for ( int i = 0; i < packedCount; i++ )
+            {
+                int start = bounds[2 * i];
+                sb.append(MarcSubfield.EOL);
+                sb.append("   -$");
+                sb.append(codes[i]);
+                sb.append(' ');
+                sb.append(packed, start, bounds[2 * i + 1] - start);
+                sb.append(' ');
+            }
+        }
+        else if ( data != null )
+        {
+            Enumeration e = ((Vector)data).elements();
+
+            while( e.hasMoreElements() )
+            {
+                sb.append(((MarcSubfield)(e.nextElement())).toString());
+                sb.append(' ');
+            }
         }
         sb.append (']');
         return sb.toString();
@@ -735,13 +987,28 @@ public class MarcVblLengthField extends Field
         StringBuffer sb = new StringBuffer(500);
         sb.append(indicators.dump());
 
-        Enumeration e = ((Vector)data).elements();
-
-        while( e.hasMoreElements() )
+        if ( packed != null )
+        {
+            for ( int i = 0; i < packedCount; i++ )
+            {
+                int start = bounds[2 * i];
+                int len = bounds[2 * i + 1] - start;
+                if ((sb.length() + len + 2) > 9999) continue;
+                sb.append(Marc.SF);
+                sb.append(codes[i]);
+                sb.append(packed, start, len);
+            }
+        }
+        else if ( data != null )
         {
-            subfield = ((MarcSubfield)(e.nextElement())).marcDump();
-            if ((sb.length() + subfield.length()) > 9999) continue;
-            sb.append(subfield);
+            Enumeration e = ((Vector)data).elements();
+
+            while( e.hasMoreElements() )
+            {
+                subfield = ((MarcSubfield)(e.nextElement())).marcDump();
+                if ((sb.length() + subfield.length()) > 9999) continue;
+                sb.append(subfield);
+            }
         }
         return sb.toString();
     }
@@ -757,14 +1024,21 @@ public class MarcVblLengthField extends Field
     public TreeMap getSubFieldCountMap()
     {
         TreeMap sfCountMap = new TreeMap();
-        int max = ((Vector)data).size();
+        for ( int i = 0; i < packedCount; i++ )
+        {
+            String sfCode = MarcSubfield.code(codes[i]);
+			Integer sfcCount = (Integer)sfCountMap.get(sfCode);
+			sfCountMap.put(sfCode, Integer.valueOf(sfcCount == null ? 1 : sfcCount.intValue() + 1));
+        }
+
+        int max = (packed != null || data == null ? 0 : ((Vector)data).size());
 
         for ( int i = 0; i < max; i++ )
         {
             String sfCode = ((Field)((Vector)data).elementAt(i)).getTag();
 			Integer sfcCount = (Integer)sfCountMap.get(sfCode);
 			int newCount = (sfcCount == null ? 1 : sfcCount.intValue() + 1);
-			sfCountMap.put(sfCode, new Integer(newCount));
+			sfCountMap.put(sfCode, Integer.valueOf(newCount));
         }
 
         return sfCountMap;
@@ -895,4 +1169,137 @@ public class MarcVblLengthField extends Field
         return compareTo((MarcVblLengthField) o);
     }
 
+
+    /**
+     * Return the number of subfields. Unlike <code>subfields()</code>,
+     * this does not expand compact subfields.
+     *
+     * @return the number of subfields in this field
+     */
+    public final int subfieldCount()
+    {
+        if ( packed != null )
+        {
+            return packedCount;
+        }
+        return (data == null ? 0 : ((Vector)data).size());
+    }
+
+    /**
+     * Return the code of the nth subfield, without expanding compact
+     * subfields.
+     *
+     * @param n the index of the subfield, from zero
+     *
+     * @return the subfield code
+     */
+    public final char subfieldCode(int n)
+    {
+        if ( packed != null )
+        {
+            return codes[n];
+        }
+        return ((MarcSubfield)((Vector)data).elementAt(n)).tag.charAt(0);
+    }
+
+    /**
+     * Return the value of the nth subfield, without expanding compact
+     * subfields.
+     *
+     * @param n the index of the subfield, from zero
+     *
+     * @return the subfield value
+     */
+    public final String subfieldValue(int n)
+    {
+        if ( packed != null )
+        {
+            return packedValue(n);
+        }
+        return (String)((MarcSubfield)((Vector)data).elementAt(n)).data;
+    }
+
+
+    //====================================================
+    //       PACKAGE METHODS
+    //====================================================
+
+    /**
+     * Return the subfield <code>Vector</code>, first expanding compact
+     * subfields into <code>MarcSubfield</code> objects.
+     */
+    final Vector subfieldVector()
+    {
+        if ( data == null )
+        {
+            data = new Vector(Math.max(packedCount, 15), 15);
+        }
+        if ( packed != null )
+        {
+            Vector v = (Vector)data;
+            v.ensureCapacity(packedCount);
+            for ( int i = 0; i < packedCount; i++ )
+            {
+                v.addElement(packedSubfield(i));
+            }
+            packed = null;
+            codes = null;
+            bounds = null;
+            packedCount = 0;
+        }
+        return (Vector)data;
+    }
+
+    /**
+     * Return the characters of the value of the nth subfield, without
+     * creating a string when the subfields are compact.
+     */
+    final CharSequence subfieldChars(int n)
+    {
+        if ( packed != null )
+        {
+            int start = bounds[2 * n];
+            return CharBuffer.wrap(packed, start, bounds[2 * n + 1] - start);
+        }
+        return (String)((MarcSubfield)((Vector)data).elementAt(n)).data;
+    }
+
+
+    //====================================================
+    //       PRIVATE METHODS
+    //====================================================
+
+    /**
+     * Return the index of the first compact subfield, at or after the
+     * supplied index, with the supplied code, or -1 if there is none.
+     */
+    private int packedIndex(char code, int from)
+    {
+        for ( int i = from; i < packedCount; i++ )
+        {
+            if ( codes[i] == code )
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Return the value of the nth compact subfield.
+     */
+    private String packedValue(int n)
+    {
+        int start = bounds[2 * n];
+        return new String(packed, start, bounds[2 * n + 1] - start);
+    }
+
+    /**
+     * Create a subfield object for the nth compact subfield.
+     */
+    private MarcSubfield packedSubfield(int n)
+    {
+        return new MarcSubfield(codes[n], packedValue(n), false);
+    }
+
 }
@@ -0,0 +1,726 @@
+package org.cdlib.util.marc;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.cdlib.util.string.StringUtil;
+
+/**
+ * An IO class used to write binary marc records to a
+ * <code>WritableByteChannel</code>.
+ *
+ * Each record is encoded straight from its fields into a reusable byte
+ * buffer, without first building the record as a <code>String</code> as
+ * <code>MarcBaseRecord.marcDump()</code> does. The field lengths and
+ * offsets in the directory, and the record length and base address in the
+ * leader, are counted in bytes of the output encoding, as the standard
+ * defines them, so records with multi-byte UTF-8 characters are written
+ * correctly. The leader is otherwise copied from the record, which is not
+ * changed by being written.
+ *
+ * Encoded records are collected into batches of about 256K, which are
+ * written to the channel as they fill. With write-behind, full batches are
+ * handed to a background thread for writing while the next batch is
+ * filled. An error from the background thread is reported by the next
+ * call to <code>write</code>, <code>flush</code>, or <code>close</code>.
+ *
+ * A writer is not thread safe; records must be written from one thread.
+ *
+ * @see MarcChannelReader
+ */
+public class MarcWriter implements MarcConstants, Closeable, Flushable
+{
+	/**
+	 * log4j Logger for this class.
+	 */
+    private static Logger log = LoggerFactory.getLogger(MarcWriter.class);
+
+    /**
+     * The size of a batch of records written to the channel at once.
+     */
+    private static final int BATCH_SIZE = 256 * 1024;
+
+    /**
+     * The number of batch buffers used with write-behind: one being filled,
+     * one being written, and one queued.
+     */
+    private static final int BEHIND_BUFFERS = 3;
+
+    /**
+     * The largest record length that can be expressed in a marc leader.
+     */
+    private static final int MAX_RECORD_LENGTH = 99999;
+
+    /**
+     * The largest field length that can be expressed in a directory entry.
+     */
+    private static final int MAX_FIELD_LENGTH = 9999;
+
+    //====================================================
+    //       PRIVATE VARIABLES
+    //====================================================
+    private WritableByteChannel channel     = null;
+    private String              name        = null;
+    private Charset             charset     = null;
+    private byte[]              rec         = new byte[16 * 1024];
+    private int[]               starts      = new int[64];
+    private ByteBuffer          batch       = null;
+    private WriteBehind         behind      = null;
+    private int                 recordCnt   = 0;
+    private long                byteCnt     = 0;
+
+
+    //====================================================
+    //       CONSTRUCTORS
+    //====================================================
+
+    /**
+     * Instantiate a new MarcWriter object, replacing the named file.
+     *
+     * @param outfile - string containing name of marc file to be output
+     */
+    public MarcWriter(String outfile)
+        throws MarcIOException
+    {
+        if ( StringUtil.isEmpty(outfile) )
+        {
+            throw new MarcIOException(this, "No file name provided");
+        }
+        open(new File(outfile), false);
+    }
+
+    /**
+     * Instantiate a new MarcWriter object, replacing the supplied file.
+     *
+     * @param fileObj - File object defining marc file to be output
+     */
+    public MarcWriter(File fileObj)
+        throws MarcIOException
+    {
+        this(fileObj, false);
+    }
+
+    /**
+     * Instantiate a new MarcWriter object, replacing the supplied file, and
+     * optionally writing batches from a background thread.
+     *
+     * @param fileObj - File object defining marc file to be output
+     * @param writeBehind - true to write batches from a background thread
+     */
+    public MarcWriter(File fileObj, boolean writeBehind)
+        throws MarcIOException
+    {
+        if ( fileObj == null )
+        {
+            throw new MarcIOException("MarcWriter - no File object provided on constructor");
+        }
+        open(fileObj, writeBehind);
+    }
+
+    /**
+     * Instantiate a new MarcWriter object writing to the supplied channel.
+     * The channel is closed when this writer is closed.
+     *
+     * @param channel - the channel to write marc records to
+     */
+    public MarcWriter(WritableByteChannel channel)
+        throws MarcIOException
+    {
+        this(channel, false);
+    }
+
+    /**
+     * Instantiate a new MarcWriter object writing to the supplied channel,
+     * and optionally writing batches from a background thread. The channel
+     * is closed when this writer is closed.
+     *
+     * @param channel - the channel to write marc records to
+     * @param writeBehind - true to write batches from a background thread
+     */
+    public MarcWriter(WritableByteChannel channel, boolean writeBehind)
+        throws MarcIOException
+    {
+        if ( channel == null )
+        {
+            throw new MarcIOException("MarcWriter - no channel provided on constructor");
+        }
+        this.name = channel.toString();
+        init(channel, writeBehind);
+    }
+
+    /**
+     * Instantiate a new MarcWriter object writing to the supplied stream.
+     * The stream is closed when this writer is closed.
+     *
+     * @param out - the stream to write marc records to
+     */
+    public MarcWriter(OutputStream out)
+        throws MarcIOException
+    {
+        if ( out == null )
+        {
+            throw new MarcIOException("MarcWriter - no OutputStream provided on constructor");
+        }
+        this.name = out.toString();
+        init(Channels.newChannel(out), false);
+    }
+
+
+    //====================================================
+    //       PUBLIC METHODS
+    //====================================================
+
+    /**
+     * Return the number of records written.
+     */
+    public int getRecordCount()
+    {
+        return recordCnt;
+    }
+
+    /**
+     * Return the number of bytes written, including any still held in the
+     * current batch.
+     */
+    public long getByteCount()
+    {
+        return byteCnt;
+    }
+
+    /**
+     * Return the character set used to encode field data, or null if the
+     * character set is chosen from leader position 09 of each record.
+     */
+    public Charset getCharset()
+    {
+        return charset;
+    }
+
+    /**
+     * Set the character set used to encode field data. When null, which is
+     * the default, UTF-8 is used for records with an 'a' in leader position 09,
+     * and ISO-8859-1 for all others.
+     *
+     * @param charset the character set to use, or null
+     */
+    public void setCharset(Charset charset)
+    {
+        this.charset = charset;
+    }
+
+    /**
+     * Tests if batches are written from a background thread.
+     */
+    public boolean isWriteBehind()
+    {
+        return behind != null;
+    }
+
+    /**
+     * Write a record.
+     *
+     * @param record the record to write
+     *
+     * @return the length in bytes of the record written
+     *
+     * @exception MarcSizeException if a field or the record is too long to be
+     *            described by the directory or leader
+     * @exception MarcFormatException if the record has a field whose tag is
+     *            not three characters, or a leader that is not 24 characters
+     * @exception MarcIOException if the record could not be written
+     */
+    public int write(MarcBaseRecord record)
+        throws MarcIOException
+    {
+        ensureOpen();
+
+        MarcLeader leader = record.getLeader();
+        char[] ldr = (leader == null ? null : leader.getChars());
+        if ( ldr == null || ldr.length != 24 )
+        {
+            throw new MarcFormatException(record, "leader is not 24 characters");
+        }
+
+        Charset cs = charset;
+        if ( cs == null )
+        {
+            cs = (ldr[9] == 'a' ? StandardCharsets.UTF_8 : StandardCharsets.ISO_8859_1);
+        }
+
+        // the directory size is known, so the fields are placed first, and
+        // the leader and directory filled in once their lengths are known
+        int max = record.getFieldCount();
+        int base = 24 + 12 * max + 1;
+        if ( starts.length < max + 1 )
+        {
+            starts = new int[max + 1];
+        }
+        ensure(base);
+
+        int len = base;
+        for ( int i = 0; i < max; i++ )
+        {
+            Field f = record.fieldAt(i);
+            if ( f.tag == null || f.tag.length() != 3 )
+            {
+                throw new MarcFormatException(f, "invalid tag: '" + f.tag + "'");
+            }
+            starts[i] = len;
+            len = putField(f, len, cs);
+            if ( len - starts[i] > MAX_FIELD_LENGTH )
+            {
+                throw new MarcSizeException(f, "Field length exceeds maximum:"
+                                            + (len - starts[i]) + " - tag=" + f.tag);
+            }
+        }
+        starts[max] = len;
+
+        ensure(len + 1);
+        rec[len++] = (byte)Marc.EOR;
+        if ( len > MAX_RECORD_LENGTH )
+        {
+            throw new MarcSizeException(record, "Record length exceeds maximum:" + len);
+        }
+
+        for ( int i = 0; i < 24; i++ )
+        {
+            rec[i] = (byte)ldr[i];
+        }
+        putDigits(0, len, 5);
+        putDigits(12, base, 5);
+
+        int entry = 24;
+        for ( int i = 0; i < max; i++ )
+        {
+            String tag = record.fieldAt(i).tag;
+            rec[entry]     = (byte)tag.charAt(0);
+            rec[entry + 1] = (byte)tag.charAt(1);
+            rec[entry + 2] = (byte)tag.charAt(2);
+            putDigits(entry + 3, starts[i + 1] - starts[i], 4);
+            putDigits(entry + 7, starts[i] - base, 5);
+            entry += 12;
+        }
+        rec[entry] = (byte)Marc.EOF;
+
+        if ( len > batch.remaining() )
+        {
+            writeBatch();
+        }
+        batch.put(rec, 0, len);
+        recordCnt++;
+        byteCnt += len;
+        return len;
+    }
+
+    /**
+     * Write any records held in the current batch to the channel, and with
+     * write-behind, wait until the background thread has written them.
+     *
+     * @exception MarcIOException if the records could not be written
+     */
+    public void flush()
+        throws MarcIOException
+    {
+        ensureOpen();
+        if ( batch.position() > 0 )
+        {
+            writeBatch();
+        }
+        if ( behind != null )
+        {
+            behind.await();
+        }
+    }
+
+    /**
+     * Write any records held, and close the channel.
+     *
+     * @exception MarcIOException if the records could not be written
+     */
+    public void close()
+        throws MarcIOException
+    {
+        if ( channel == null )
+        {
+            return;
+        }
+
+        try
+        {
+            flush();
+        }
+        finally
+        {
+            if ( behind != null )
+            {
+                behind.stop();
+                behind = null;
+            }
+            try
+            {
+                channel.close();
+            }
+            catch (IOException e)
+            {
+                log.debug("error closing " + name + " - " + e.getMessage());
+            }
+            channel = null;
+        }
+    }
+
+
+    //====================================================
+    //       PRIVATE METHODS
+    //====================================================
+
+    /**
+     * Open a file channel on the supplied file, replacing any contents.
+     */
+    private void open(File fileObj, boolean writeBehind)
+    {
+        name = fileObj.getPath();
+        try
+        {
+            init(FileChannel.open(fileObj.toPath(), StandardOpenOption.CREATE,
+                                  StandardOpenOption.TRUNCATE_EXISTING,
+                                  StandardOpenOption.WRITE), writeBehind);
+        }
+        catch (IOException e)
+        {
+            String msg = "Error opening file: " + fileObj;
+            log.error(msg, e);
+            throw new MarcIOException(this, msg);
+        }
+    }
+
+    /**
+     * Initialize the batch buffer for a newly opened channel.
+     */
+    private void init(WritableByteChannel ch, boolean writeBehind)
+    {
+        channel = ch;
+        batch = ByteBuffer.allocate(BATCH_SIZE);
+        if ( writeBehind )
+        {
+            behind = new WriteBehind();
+        }
+    }
+
+    private void ensureOpen()
+    {
+        if ( channel == null )
+        {
+            throw new MarcIOException(this, "MarcWriter is closed: " + name);
+        }
+    }
+
+    /**
+     * Write the current batch, or with write-behind, pass it to the
+     * background thread and take another buffer to fill.
+     */
+    private void writeBatch()
+    {
+        batch.flip();
+        if ( behind != null )
+        {
+            batch = behind.submit(batch);
+            return;
+        }
+
+        try
+        {
+            while ( batch.hasRemaining() )
+            {
+                channel.write(batch);
+            }
+        }
+        catch (IOException e)
+        {
+            String msg = "Error writing to " + name;
+            log.error(msg, e);
+            throw new MarcIOException(this, msg + " - " + e.getMessage());
+        }
+        batch.clear();
+    }
+
+    /**
+     * Encode a field, with its terminator, into the record buffer.
+     *
+     * @return the position following the field
+     */
+    private int putField(Field f, int pos, Charset cs)
+    {
+        if ( f instanceof MarcVblLengthField )
+        {
+            MarcVblLengthField vbl = (MarcVblLengthField)f;
+            pos = put(CharBuffer.wrap(vbl.indicatorData().getChars()), pos, cs);
+            int max = vbl.subfieldCount();
+            for ( int i = 0; i < max; i++ )
+            {
+                ensure(pos + 1);
+                rec[pos++] = (byte)Marc.SF;
+                pos = put(MarcSubfield.code(vbl.subfieldCode(i)), pos, cs);
+                pos = put(vbl.subfieldChars(i), pos, cs);
+            }
+        }
+        else if ( f instanceof MarcFixedLengthField && f.data instanceof FixedLengthData )
+        {
+            pos = put(CharBuffer.wrap(((FixedLengthData)f.data).getChars()), pos, cs);
+        }
+        else
+        {
+            // marcDump includes the terminator
+            return put(f.marcDump(), pos, cs);
+        }
+
+        ensure(pos + 1);
+        rec[pos++] = (byte)Marc.EOF;
+        return pos;
+    }
+
+    /**
+     * Encode characters into the record buffer. UTF-8 and ISO-8859-1 are
+     * encoded in place; characters they cannot represent are replaced with
+     * '?', as <code>String.getBytes</code> would.
+     *
+     * @return the position following the encoded characters
+     */
+    private int put(CharSequence s, int pos, Charset cs)
+    {
+        int n = s.length();
+        if ( cs == StandardCharsets.UTF_8 )
+        {
+            ensure(pos + 3 * n);
+            for ( int i = 0; i < n; i++ )
+            {
+                char c = s.charAt(i);
+                if ( c < 0x80 )
+                {
+                    rec[pos++] = (byte)c;
+                }
+                else if ( c < 0x800 )
+                {
+                    rec[pos++] = (byte)(0xC0 | (c >> 6));
+                    rec[pos++] = (byte)(0x80 | (c & 0x3F));
+                }
+                else if ( Character.isHighSurrogate(c) && i + 1 < n
+                          && Character.isLowSurrogate(s.charAt(i + 1)) )
+                {
+                    int cp = Character.toCodePoint(c, s.charAt(++i));
+                    rec[pos++] = (byte)(0xF0 | (cp >> 18));
+                    rec[pos++] = (byte)(0x80 | ((cp >> 12) & 0x3F));
+                    rec[pos++] = (byte)(0x80 | ((cp >> 6) & 0x3F));
+                    rec[pos++] = (byte)(0x80 | (cp & 0x3F));
+                }
+                else if ( Character.isSurrogate(c) )
+                {
+                    rec[pos++] = (byte)'?';
+                }
+                else
+                {
+                    rec[pos++] = (byte)(0xE0 | (c >> 12));
+                    rec[pos++] = (byte)(0x80 | ((c >> 6) & 0x3F));
+                    rec[pos++] = (byte)(0x80 | (c & 0x3F));
+                }
+            }
+            return pos;
+        }
+
+        if ( cs == StandardCharsets.ISO_8859_1 )
+        {
+            ensure(pos + n);
+            for ( int i = 0; i < n; i++ )
+            {
+                char c = s.charAt(i);
+                rec[pos++] = (c <= 0xFF ? (byte)c : (byte)'?');
+            }
+            return pos;
+        }
+
+        byte[] b = s.toString().getBytes(cs);
+        ensure(pos + b.length);
+        System.arraycopy(b, 0, rec, pos, b.length);
+        return pos + b.length;
+    }
+
+    /**
+     * Write a number as ascii digits, zero filled to the supplied width.
+     */
+    private void putDigits(int pos, int value, int width)
+    {
+        for ( int i = pos + width - 1; i >= pos; i-- )
+        {
+            rec[i] = (byte)('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    /**
+     * Grow the record buffer to hold at least the supplied number of bytes.
+     */
+    private void ensure(int capacity)
+    {
+        if ( capacity > rec.length )
+        {
+            byte[] b = new byte[Math.max(capacity, rec.length * 2)];
+            System.arraycopy(rec, 0, b, 0, rec.length);
+            rec = b;
+        }
+    }
+
+
+    /**
+     * Writes full batches to the channel from a background thread. Buffers
+     * pass to the thread through one queue and return through another, so
+     * at most <code>BEHIND_BUFFERS</code> batches are ever allocated.
+     */
+    private final class WriteBehind implements Runnable
+    {
+        private final ByteBuffer                      stop    = ByteBuffer.allocate(0);
+        private final ArrayBlockingQueue<ByteBuffer>  full    = new ArrayBlockingQueue<ByteBuffer>(BEHIND_BUFFERS);
+        private final ArrayBlockingQueue<ByteBuffer>  free    = new ArrayBlockingQueue<ByteBuffer>(BEHIND_BUFFERS);
+        private final Thread                          thread;
+        private int                                   pending = 0;
+        private volatile IOException                  failure = null;
+
+        WriteBehind()
+        {
+            for ( int i = 1; i < BEHIND_BUFFERS; i++ )
+            {
+                free.add(ByteBuffer.allocate(BATCH_SIZE));
+            }
+            thread = new Thread(this, "MarcWriter " + name);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        /**
+         * Queue a flipped buffer for writing, and return an empty one.
+         */
+        ByteBuffer submit(ByteBuffer b)
+        {
+            synchronized ( this )
+            {
+                check();
+                pending++;
+            }
+            try
+            {
+                full.put(b);
+                return free.take();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new MarcIOException(MarcWriter.this, "interrupted writing to " + name);
+            }
+        }
+
+        /**
+         * Wait until every queued buffer has been written.
+         */
+        synchronized void await()
+        {
+            try
+            {
+                while ( pending > 0 && failure == null )
+                {
+                    wait();
+                }
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new MarcIOException(MarcWriter.this, "interrupted writing to " + name);
+            }
+            check();
+        }
+
+        /**
+         * Stop the thread once it has written the buffers already queued.
+         */
+        void stop()
+        {
+            try
+            {
+                full.put(stop);
+                thread.join();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        public void run()
+        {
+            while ( true )
+            {
+                ByteBuffer b = null;
+                try
+                {
+                    b = full.take();
+                }
+                catch (InterruptedException e)
+                {
+                    return;
+                }
+                if ( b == stop )
+                {
+                    return;
+                }
+
+                IOException err = null;
+                try
+                {
+                    // after a failure, buffers are only returned
+                    while ( failure == null && b.hasRemaining() )
+                    {
+                        channel.write(b);
+                    }
+                }
+                catch (IOException e)
+                {
+                    log.error("Error writing to " + name, e);
+                    err = e;
+                }
+                b.clear();
+                free.add(b);
+
+                synchronized ( this )
+                {
+                    if ( failure == null )
+                    {
+                        failure = err;
+                    }
+                    pending--;
+                    notifyAll();
+                }
+            }
+        }
+
+        private void check()
+        {
+            if ( failure != null )
+            {
+                throw new MarcIOException(MarcWriter.this, "Error writing to " + name
+                                          + " - " + failure.getMessage());
+            }
+        }
+    }
+
+}
@@ -0,0 +1,340 @@
+package org.cdlib.util.marc;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An IO class used to write marc records as a MARC 21 XML (MARCXML)
+ * collection to an <code>OutputStream</code>.
+ *
+ * Records are written as they are supplied through a single
+ * <code>XMLStreamWriter</code>, which escapes markup characters, so a
+ * collection of any size is written in constant memory, without building
+ * any record or document as a <code>String</code>. The output is UTF-8, in
+ * the <code>http://www.loc.gov/MARC21/slim</code> namespace, and may be read
+ * by any MARCXML reader, such as the marc4j reader used by
+ * <code>org.cdlib.util.marc2</code>.
+ *
+ * Characters that XML 1.0 does not allow, such as the escape characters of
+ * MARC-8 records, cannot be written even as character references, and are
+ * replaced with '?'.
+ *
+ * This is unrelated to the older <code>marcfile</code> format produced by
+ * <code>MarcToXML</code> and <code>MarcBaseRecord.buildMarcXML()</code>.
+ *
+ * A writer is not thread safe; records must be written from one thread.
+ *
+ * @see MarcWriter
+ */
+public class MarcXmlWriter implements Closeable, Flushable
+{
+	/**
+	 * log4j Logger for this class.
+	 */
+    private static Logger log = LoggerFactory.getLogger(MarcXmlWriter.class);
+
+    /**
+     * The MARCXML namespace.
+     */
+    public static final String MARCXML_NS = "http://www.loc.gov/MARC21/slim";
+
+    /**
+     * The factory for stream writers, which is thread safe once configured.
+     */
+    private static final XMLOutputFactory FACTORY = XMLOutputFactory.newInstance();
+
+    //====================================================
+    //       PRIVATE VARIABLES
+    //====================================================
+    private XMLStreamWriter writer    = null;
+    private OutputStream    out       = null;
+    private char[]          text      = new char[256];
+    private int             recordCnt = 0;
+
+
+    //====================================================
+    //       CONSTRUCTORS
+    //====================================================
+
+    /**
+     * Instantiate a new MarcXmlWriter object, and start the collection. The
+     * stream is closed when this writer is closed.
+     *
+     * @param out - the stream to write the collection to
+     */
+    public MarcXmlWriter(OutputStream out)
+        throws MarcIOException
+    {
+        if ( out == null )
+        {
+            throw new MarcIOException("MarcXmlWriter - no OutputStream provided on constructor");
+        }
+        if ( !(out instanceof BufferedOutputStream) )
+        {
+            out = new BufferedOutputStream(out, 64 * 1024);
+        }
+        this.out = out;
+
+        try
+        {
+            writer = FACTORY.createXMLStreamWriter(out, "UTF-8");
+            writer.writeStartDocument("UTF-8", "1.0");
+            writer.writeCharacters("\n");
+            writer.setDefaultNamespace(MARCXML_NS);
+            writer.writeStartElement(MARCXML_NS, "collection");
+            writer.writeDefaultNamespace(MARCXML_NS);
+        }
+        catch (XMLStreamException e)
+        {
+            throw failed(e);
+        }
+    }
+
+
+    //====================================================
+    //       PUBLIC METHODS
+    //====================================================
+
+    /**
+     * Return the number of records written.
+     */
+    public int getRecordCount()
+    {
+        return recordCnt;
+    }
+
+    /**
+     * Write a record to the collection.
+     *
+     * @param record the record to write
+     *
+     * @exception MarcIOException if the record could not be written
+     */
+    public void write(MarcBaseRecord record)
+        throws MarcIOException
+    {
+        ensureOpen();
+        try
+        {
+            writer.writeCharacters("\n");
+            writer.writeStartElement(MARCXML_NS, "record");
+
+            MarcLeader leader = record.getLeader();
+            if ( leader != null )
+            {
+                writer.writeStartElement(MARCXML_NS, "leader");
+                writeText(leader.getChars());
+                writer.writeEndElement();
+            }
+
+            int max = record.getFieldCount();
+            for ( int i = 0; i < max; i++ )
+            {
+                writeField(record.fieldAt(i));
+            }
+
+            writer.writeEndElement();
+            recordCnt++;
+        }
+        catch (XMLStreamException e)
+        {
+            throw failed(e);
+        }
+    }
+
+    /**
+     * Write any buffered output to the stream.
+     *
+     * @exception MarcIOException if the output could not be written
+     */
+    public void flush()
+        throws MarcIOException
+    {
+        ensureOpen();
+        try
+        {
+            writer.flush();
+            out.flush();
+        }
+        catch (XMLStreamException e)
+        {
+            throw failed(e);
+        }
+        catch (IOException e)
+        {
+            throw failed(e);
+        }
+    }
+
+    /**
+     * End the collection, and close the stream.
+     *
+     * @exception MarcIOException if the output could not be written
+     */
+    public void close()
+        throws MarcIOException
+    {
+        if ( writer == null )
+        {
+            return;
+        }
+
+        try
+        {
+            writer.writeCharacters("\n");
+            writer.writeEndElement();
+            writer.writeEndDocument();
+            writer.writeCharacters("\n");
+            writer.close();
+            out.close();
+        }
+        catch (XMLStreamException e)
+        {
+            throw failed(e);
+        }
+        catch (IOException e)
+        {
+            throw failed(e);
+        }
+        finally
+        {
+            writer = null;
+            out = null;
+        }
+    }
+
+
+    //====================================================
+    //       PRIVATE METHODS
+    //====================================================
+
+    private void ensureOpen()
+    {
+        if ( writer == null )
+        {
+            throw new MarcIOException(this, "MarcXmlWriter is closed");
+        }
+    }
+
+    private MarcIOException failed(Exception e)
+    {
+        String msg = "Error writing MARCXML";
+        log.error(msg, e);
+        return new MarcIOException(this, msg + " - " + e.getMessage());
+    }
+
+    /**
+     * Write a control field, or a data field and its subfields.
+     */
+    private void writeField(Field f)
+        throws XMLStreamException
+    {
+        if ( f instanceof MarcVblLengthField )
+        {
+            MarcVblLengthField vbl = (MarcVblLengthField)f;
+            char[] ind = vbl.indicatorData().getChars();
+            writer.writeStartElement(MARCXML_NS, "datafield");
+            writer.writeAttribute("tag", f.tag());
+            writer.writeAttribute("ind1", MarcSubfield.code(legal(ind[0])));
+            writer.writeAttribute("ind2", MarcSubfield.code(legal(ind[1])));
+
+            int max = vbl.subfieldCount();
+            for ( int i = 0; i < max; i++ )
+            {
+                writer.writeStartElement(MARCXML_NS, "subfield");
+                writer.writeAttribute("code", MarcSubfield.code(vbl.subfieldCode(i)));
+                writeText(vbl.subfieldValue(i));
+                writer.writeEndElement();
+            }
+            writer.writeEndElement();
+        }
+        else
+        {
+            writer.writeStartElement(MARCXML_NS, "controlfield");
+            writer.writeAttribute("tag", f.tag());
+            if ( f.data instanceof FixedLengthData )
+            {
+                writeText(((FixedLengthData)f.data).getChars());
+            }
+            else
+            {
+                writeText(f.value());
+            }
+            writer.writeEndElement();
+        }
+    }
+
+    private void writeText(char[] chars)
+        throws XMLStreamException
+    {
+        int n = chars.length;
+        for ( int i = 0; i < n; i++ )
+        {
+            if ( legal(chars[i]) != chars[i] )
+            {
+                writeText(new String(chars));
+                return;
+            }
+        }
+        writer.writeCharacters(chars, 0, n);
+    }
+
+    /**
+     * Write element text. The writer escapes markup; characters XML does not
+     * allow are replaced in a scratch buffer.
+     */
+    private void writeText(String s)
+        throws XMLStreamException
+    {
+        if ( s == null )
+        {
+            return;
+        }
+
+        int n = s.length();
+        int i = 0;
+        while ( i < n && legal(s.charAt(i)) == s.charAt(i) )
+        {
+            i++;
+        }
+        if ( i == n )
+        {
+            writer.writeCharacters(s);
+            return;
+        }
+
+        if ( text.length < n )
+        {
+            text = new char[Math.max(n, text.length * 2)];
+        }
+        s.getChars(0, n, text, 0);
+        for ( ; i < n; i++ )
+        {
+            text[i] = legal(text[i]);
+        }
+        writer.writeCharacters(text, 0, n);
+    }
+
+    /**
+     * Return the character, or '?' if XML 1.0 does not allow it.
+     */
+    private static char legal(char c)
+    {
+        if ( c >= 0x20 )
+        {
+            return (c == 0xFFFE || c == 0xFFFF ? '?' : c);
+        }
+        return (c == '\t' || c == '\n' || c == '\r' ? c : '?');
+    }
+
+}
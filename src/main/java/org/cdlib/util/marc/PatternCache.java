@@ -0,0 +1,115 @@
+package org.cdlib.util.marc;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.apache.regexp.RE;
+import org.cdlib.cache.Cache;
+
+/**
+ * A bounded, shared cache of compiled regular expressions, used by the
+ * field selection methods of <code>MarcBaseRecord</code>, which are
+ * typically called over and over with the same few expressions.
+ *
+ * @see MarcBaseRecord#selectFields(String, String, int)
+ */
+final class PatternCache
+{
+    //====================================================
+    //       PRIVATE VARIABLES
+    //====================================================
+
+    /**
+     * The number of compiled expressions kept.
+     */
+    private static final int CACHE_SIZE = 128;
+
+    private static final Map<String, Pattern> cache =
+        Collections.synchronizedMap(new Cache<String, Pattern>(CACHE_SIZE));
+
+
+    //====================================================
+    //       CONSTRUCTORS
+    //====================================================
+
+    private PatternCache()
+    {
+    }
+
+
+    //====================================================
+    //       PACKAGE METHODS
+    //====================================================
+
+    /**
+     * Return the compiled form of a regular expression, compiling it if it
+     * is not in the cache.
+     *
+     * @param regex the regular expression
+     * @param flags the <code>java.util.regex.Pattern</code> match flags
+     *
+     * @return the compiled expression
+     *
+     * @exception MarcParmException if the expression is not valid
+     */
+    static Pattern compile(String regex, int flags)
+    {
+        String key = (flags == 0 ? regex : flags + ":" + regex);
+        Pattern p = cache.get(key);
+        if ( p == null )
+        {
+            try
+            {
+                p = Pattern.compile(regex, flags);
+            }
+            catch (PatternSyntaxException e)
+            {
+                throw new MarcParmException("invalid regular expression: " + e.getMessage());
+            }
+            cache.put(key, p);
+        }
+        return p;
+    }
+
+    /**
+     * Tests if a jakarta-regexp expression uses a POSIX character class,
+     * such as <code>[:alpha:]</code>. <code>java.util.regex</code> accepts
+     * these but reads them as a plain set of characters, so they must still
+     * be matched by jakarta-regexp.
+     *
+     * @param regex the regular expression, or null
+     */
+    static boolean hasPosixClass(String regex)
+    {
+        return regex != null && regex.indexOf("[:") >= 0;
+    }
+
+    /**
+     * Convert jakarta-regexp match flags to the equivalent
+     * <code>java.util.regex.Pattern</code> flags.
+     *
+     * @param matchFlags a combination of the <code>RE.MATCH_</code> flags
+     *
+     * @return the equivalent <code>Pattern</code> flags
+     */
+    static int patternFlags(int matchFlags)
+    {
+        int flags = 0;
+        if ( (matchFlags & RE.MATCH_CASEINDEPENDENT) != 0 )
+        {
+            flags |= Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE;
+        }
+        if ( (matchFlags & RE.MATCH_MULTILINE) != 0 )
+        {
+            flags |= Pattern.MULTILINE;
+        }
+        if ( (matchFlags & RE.MATCH_SINGLELINE) != 0 )
+        {
+            flags |= Pattern.DOTALL;
+        }
+        return flags;
+    }
+
+}
@@ -0,0 +1,274 @@
+package org.cdlib.util.marc2;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.cdlib.util.marc.Field;
+import org.cdlib.util.marc.MarcBaseRecord;
+import org.cdlib.util.marc.MarcFieldList;
+import org.cdlib.util.marc.MarcVblLengthField;
+import org.marc4j.marc.ControlField;
+import org.marc4j.marc.DataField;
+import org.marc4j.marc.Record;
+import org.marc4j.marc.Subfield;
+
+/*
+ * An immutable set of field paths, compiled once, that extracts values from records of either MARC
+ * model, org.cdlib.util.marc or marc4j, in a single pass over each record's fields.
+ *
+ * A path is a tag selector, optionally followed by '$' and the subfield codes to extract:
+ *
+ * "245$ab" - subfields a and b of 245 fields
+ * "6xx$a" - subfield a of fields 600 to 699; an 'x' (or 'X') matches any digit in its position
+ * "920-955$z" - subfield z of fields 920 to 955, inclusive
+ * "650" - every subfield of 650 fields
+ * "001" - the value of control fields, for which subfield codes are ignored
+ *
+ * extract returns a list of values for each path, in the order the paths were given. The values of
+ * each path are in record order: by field, then by subfield within the field. Null values are
+ * skipped; other values are returned as stored.
+ *
+ * Paths are parsed when the plan is compiled. Extraction looks each field up by its numeric tag in a
+ * table of the paths it can match, so its cost depends on the number of fields, not the number of
+ * paths. Fields with non-numeric tags are not matched.
+ */
+public final class ExtractionPlan {
+
+  private static final int TAG_COUNT = 1000;
+  private static final int CODE_COUNT = 128;
+  private static final int[] NO_PATHS = new int[0];
+
+  private final List<String> paths;
+
+  /*
+   * The indexes of the paths matching each numeric tag.
+   */
+  private final int[][] pathsByTag;
+
+  /*
+   * The subfield codes selected by each path, or null for every subfield.
+   */
+  private final boolean[][] codes;
+
+  private ExtractionPlan(List<String> paths, int[][] pathsByTag, boolean[][] codes) {
+    this.paths = paths;
+    this.pathsByTag = pathsByTag;
+    this.codes = codes;
+  }
+
+  /*
+   * Compiles the paths into a plan.
+   *
+   * Throws IllegalArgumentException if a path is malformed.
+   */
+  public static ExtractionPlan compile(String... paths) {
+    if (paths == null) {
+      throw new NullPointerException("paths cannot be null");
+    }
+    int count = paths.length;
+    boolean[][] tags = new boolean[count][];
+    boolean[][] codes = new boolean[count][];
+    for (int p = 0; p < count; p++) {
+      String path = paths[p];
+      if (path == null || path.isEmpty()) {
+        throw new IllegalArgumentException("Path cannot be empty.");
+      }
+      int dollar = path.indexOf('$');
+      String selector = dollar < 0 ? path : path.substring(0, dollar);
+      tags[p] = parseTags(path, selector);
+      if (dollar >= 0) {
+        codes[p] = parseCodes(path, path.substring(dollar + 1));
+      }
+    }
+
+    int[][] pathsByTag = new int[TAG_COUNT][];
+    int[] matches = new int[count];
+    for (int tag = 0; tag < TAG_COUNT; tag++) {
+      int n = 0;
+      for (int p = 0; p < count; p++) {
+        if (tags[p][tag]) {
+          matches[n++] = p;
+        }
+      }
+      pathsByTag[tag] = n == 0 ? NO_PATHS : Arrays.copyOf(matches, n);
+    }
+    return new ExtractionPlan(Collections.unmodifiableList(new ArrayList<>(Arrays.asList(paths))),
+        pathsByTag, codes);
+  }
+
+  /*
+   * Returns the paths of this plan, in order.
+   */
+  public List<String> paths() {
+    return paths;
+  }
+
+  /*
+   * Extracts the values of every path from a record of the org.cdlib.util.marc model.
+   */
+  public List<List<String>> extract(MarcBaseRecord record) {
+    List<List<String>> result = newResult();
+    MarcFieldList fields = record.getFields();
+    int max = fields.size();
+    for (int i = 0; i < max; i++) {
+      Field field = fields.elementAt(i);
+      int[] matching = matching(field.getTagint());
+      if (matching.length == 0) {
+        continue;
+      }
+      if (field instanceof MarcVblLengthField) {
+        MarcVblLengthField vbl = (MarcVblLengthField) field;
+        int count = vbl.subfieldCount();
+        for (int p : matching) {
+          List<String> values = result.get(p);
+          for (int n = 0; n < count; n++) {
+            if (selects(p, vbl.subfieldCode(n))) {
+              add(values, vbl.subfieldValue(n));
+            }
+          }
+        }
+      } else {
+        String value = field.value();
+        for (int p : matching) {
+          add(result.get(p), value);
+        }
+      }
+    }
+    return result;
+  }
+
+  /*
+   * Extracts the values of every path from a marc4j record.
+   */
+  public List<List<String>> extract(Record record) {
+    List<List<String>> result = newResult();
+    for (ControlField field : record.getControlFields()) {
+      int[] matching = matching(tagint(field.getTag()));
+      for (int p : matching) {
+        add(result.get(p), field.getData());
+      }
+    }
+    for (DataField field : record.getDataFields()) {
+      int[] matching = matching(tagint(field.getTag()));
+      if (matching.length == 0) {
+        continue;
+      }
+      List<Subfield> subfields = field.getSubfields();
+      for (int p : matching) {
+        List<String> values = result.get(p);
+        for (Subfield sf : subfields) {
+          if (selects(p, sf.getCode())) {
+            add(values, sf.getData());
+          }
+        }
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public String toString() {
+    return "ExtractionPlan" + paths;
+  }
+
+  private List<List<String>> newResult() {
+    int count = paths.size();
+    List<List<String>> result = new ArrayList<>(count);
+    for (int p = 0; p < count; p++) {
+      result.add(new ArrayList<>(2));
+    }
+    return result;
+  }
+
+  private int[] matching(int tag) {
+    return tag < 0 || tag >= TAG_COUNT ? NO_PATHS : pathsByTag[tag];
+  }
+
+  private boolean selects(int path, char code) {
+    boolean[] selected = codes[path];
+    return selected == null || (code < CODE_COUNT && selected[code]);
+  }
+
+  private static void add(List<String> values, String value) {
+    if (value != null) {
+      values.add(value);
+    }
+  }
+
+  /*
+   * Returns the numeric value of a three digit tag, or -1.
+   */
+  private static int tagint(String tag) {
+    if (tag == null || tag.length() != 3) {
+      return -1;
+    }
+    int value = 0;
+    for (int i = 0; i < 3; i++) {
+      char c = tag.charAt(i);
+      if (c < '0' || c > '9') {
+        return -1;
+      }
+      value = value * 10 + (c - '0');
+    }
+    return value;
+  }
+
+  /*
+   * Returns the tags matched by a selector: a tag, a tag with 'x' wildcards, or a range of tags.
+   */
+  private static boolean[] parseTags(String path, String selector) {
+    boolean[] tags = new boolean[TAG_COUNT];
+    int dash = selector.indexOf('-');
+    if (dash >= 0) {
+      int start = tagint(selector.substring(0, dash));
+      int end = tagint(selector.substring(dash + 1));
+      if (start < 0 || end < start) {
+        throw new IllegalArgumentException("Invalid tag range in path " + path);
+      }
+      Arrays.fill(tags, start, end + 1, true);
+      return tags;
+    }
+
+    if (selector.length() != 3) {
+      throw new IllegalArgumentException("Invalid tag in path " + path);
+    }
+    for (int i = 0; i < 3; i++) {
+      char c = selector.charAt(i);
+      if ((c < '0' || c > '9') && c != 'x' && c != 'X') {
+        throw new IllegalArgumentException("Invalid tag in path " + path);
+      }
+    }
+    for (int tag = 0; tag < TAG_COUNT; tag++) {
+      tags[tag] = matches(selector, tag);
+    }
+    return tags;
+  }
+
+  private static boolean matches(String selector, int tag) {
+    int divisor = 100;
+    for (int i = 0; i < 3; i++, divisor /= 10) {
+      char c = selector.charAt(i);
+      if (c != 'x' && c != 'X' && c - '0' != (tag / divisor) % 10) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean[] parseCodes(String path, String list) {
+    if (list.isEmpty()) {
+      throw new IllegalArgumentException("No subfield codes in path " + path);
+    }
+    boolean[] codes = new boolean[CODE_COUNT];
+    for (int i = 0; i < list.length(); i++) {
+      char c = list.charAt(i);
+      if (c >= CODE_COUNT || Character.isWhitespace(c)) {
+        throw new IllegalArgumentException("Invalid subfield code in path " + path);
+      }
+      codes[c] = true;
+    }
+    return codes;
+  }
+
+}
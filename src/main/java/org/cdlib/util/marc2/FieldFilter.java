@@ -1,11 +1,12 @@
 package org.cdlib.util.marc2;
 
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 import java.util.function.Predicate;
-import java.util.stream.Collectors;
 import org.cdlib.util.DeserializationException;
+import org.cdlib.util.marc.MarcBaseRecord;
 import org.marc4j.MarcException;
 import org.marc4j.marc.DataField;
 import org.marc4j.marc.Record;
@@ -19,6 +20,7 @@ import org.marc4j.marc.Record;
 public class FieldFilter {
 
   private Record record;
+  private TagIndex index;
 
   public FieldFilter(Record rec) {
     record = rec;
@@ -32,6 +34,46 @@ public class FieldFilter {
     }
   }
 
+  /*
+   * Creates a filter for a binary (ISO 2709) MARC record, without a MarcXML round trip.
+   */
+  public static FieldFilter fromMarc(byte[] marc) throws DeserializationException {
+    try {
+      return new FieldFilter(MarcRecordHelper.asRecord(marc));
+    } catch (MarcException e) {
+      throw new DeserializationException("Failure to parse binary marc record", e);
+    }
+  }
+
+  /*
+   * Creates a filter for a MarcXML document in UTF-8 bytes, without decoding it to a String first.
+   */
+  public static FieldFilter fromMarcXml(byte[] marcXml) throws DeserializationException {
+    try {
+      return new FieldFilter(MarcXmlParser.parse(marcXml));
+    } catch (MarcException e) {
+      throw new DeserializationException("Failure to parse marcXml", e);
+    }
+  }
+
+  /*
+   * Creates a filter for a MarcXML document read from a UTF-8 stream.
+   */
+  public static FieldFilter fromMarcXml(InputStream marcXml) throws DeserializationException {
+    try {
+      return new FieldFilter(MarcXmlParser.parse(marcXml));
+    } catch (MarcException e) {
+      throw new DeserializationException("Failure to parse marcXml", e);
+    }
+  }
+
+  /*
+   * Creates a filter for a record of the org.cdlib.util.marc model, without a MarcXML round trip.
+   */
+  public static FieldFilter fromMarcRecord(MarcBaseRecord marcRecord) {
+    return new FieldFilter(MarcRecordHelper.asRecord(marcRecord));
+  }
+
   /*
    * Provides a List of cdlib MarcDataFields based on tag without other conditions.
    */
@@ -43,15 +85,14 @@ public class FieldFilter {
    * Provides a List of cdlib MarcDataFields based on tag.
    */
   public Optional<List<MarcDataField>> marcDataFields(String tag, Predicate<MarcDataField> condition) {
-    List<DataField> dataFields = record.getDataFields()
-                                       .stream()
-                                       .filter(df -> df.getTag().equals(tag))
-                                       .collect(Collectors.toList());
-    List<MarcDataField> marcDataFields = new ArrayList<>();
-    dataFields.forEach(df -> marcDataFields.add(new MarcDataField(df)));
-    List<MarcDataField> result = marcDataFields.stream()
-                                               .filter(condition)
-                                               .collect(Collectors.toList());
+    List<DataField> dataFields = index().dataFields(tag);
+    List<MarcDataField> result = new ArrayList<>(dataFields.size());
+    for (DataField df : dataFields) {
+      MarcDataField marcDataField = new MarcDataField(df);
+      if (condition.test(marcDataField)) {
+        result.add(marcDataField);
+      }
+    }
     return Optional.of(result);
   }
 
@@ -66,4 +107,16 @@ public class FieldFilter {
                       .orElse(false);
     };
   }
+
+  /*
+   * Returns the tag index of the record, building it on first use.
+   */
+  private TagIndex index() {
+    TagIndex result = index;
+    if (result == null) {
+      result = new TagIndex(record);
+      index = result;
+    }
+    return result;
+  }
 }
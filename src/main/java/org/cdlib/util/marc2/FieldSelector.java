@@ -0,0 +1,463 @@
+package org.cdlib.util.marc2;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import org.cdlib.util.DeserializationException;
+
+/*
+ * Selects data fields from binary (ISO 2709) or MarcXML input while it is parsed, so that only the
+ * fields a caller wants are turned into MarcDataFields.
+ *
+ * Tags are registered with an optional Condition. Fields with other tags are skipped without
+ * reading their subfields. Each field with a registered tag is tested in raw form, its subfields
+ * still bytes in the record or text from the XML parser, and only the fields that pass are
+ * materialized, in record order.
+ *
+ * FieldSelector selector = new FieldSelector().select("852", hasSubfieldMatching('5', "CU"));
+ * List<MarcDataField> fields = selector.fromMarc(bytes);
+ *
+ * Register every tag before sharing a selector between threads; selecting is then thread safe.
+ */
+public final class FieldSelector {
+
+  private static final int TAG_COUNT = 1000;
+  private static final int FIRST_DATA_TAG = 10;
+  private static final byte FIELD_TERMINATOR = 0x1E;
+  private static final byte SUBFIELD_DELIMITER = 0x1F;
+  private static final int LEADER_LENGTH = 24;
+  private static final int ENTRY_LENGTH = 12;
+
+  private static final String[] TAGS = new String[TAG_COUNT];
+
+  static {
+    for (int i = 0; i < TAG_COUNT; i++) {
+      TAGS[i] = String.format("%03d", i);
+    }
+  }
+
+  private static final Condition ANY = field -> true;
+
+  /*
+   * A test of a field in raw form. The field passed is reused for the next field, so it must not be
+   * kept.
+   */
+  public interface Condition {
+
+    boolean test(RawField field);
+
+    default Condition and(Condition other) {
+      return field -> test(field) && other.test(field);
+    }
+
+    default Condition or(Condition other) {
+      return field -> test(field) || other.test(field);
+    }
+
+    default Condition negate() {
+      return field -> !test(field);
+    }
+  }
+
+  private final Condition[] conditions = new Condition[TAG_COUNT];
+
+  /*
+   * Selects every field with the tag.
+   */
+  public FieldSelector select(String tag) {
+    return select(tag, ANY);
+  }
+
+  /*
+   * Selects the fields with the tag that pass the condition. A tag registered more than once selects
+   * the fields passing any of its conditions.
+   */
+  public FieldSelector select(String tag, Condition condition) {
+    if (condition == null) {
+      throw new NullPointerException("condition cannot be null");
+    }
+    int tagint = tagint(tag);
+    if (tagint < FIRST_DATA_TAG) {
+      throw new IllegalArgumentException("Tag " + tag + " is not a data field tag.");
+    }
+    Condition current = conditions[tagint];
+    conditions[tagint] = current == null ? condition : current.or(condition);
+    return this;
+  }
+
+  /*
+   * Passes fields whose first subfield with the code has exactly the value, as
+   * FieldFilter.hasSubfieldMatching does.
+   */
+  public static Condition hasSubfieldMatching(char code, String value) {
+    return field -> {
+      int i = field.indexOf(code);
+      return i >= 0 && field.valueEquals(i, value);
+    };
+  }
+
+  /*
+   * Passes fields with at least one subfield with the code.
+   */
+  public static Condition hasSubfield(char code) {
+    return field -> field.indexOf(code) >= 0;
+  }
+
+  /*
+   * Passes fields whose indicator, 1 or 2, has the value.
+   */
+  public static Condition hasIndicator(int n, char value) {
+    if (n != 1 && n != 2) {
+      throw new IllegalArgumentException("Indicator " + n + " must be 1 or 2.");
+    }
+    return field -> (n == 1 ? field.indicator1() : field.indicator2()) == value;
+  }
+
+  /*
+   * Returns the selected fields of a binary (ISO 2709) record. The record is read as ISO-8859-1
+   * unless leader position 9 is 'a', in which case it is read as UTF-8.
+   */
+  public List<MarcDataField> fromMarc(byte[] marc) throws DeserializationException {
+    if (marc.length < LEADER_LENGTH) {
+      throw new DeserializationException("Binary marc record is shorter than its leader", null);
+    }
+    int base = digits(marc, 12, 5);
+    if (base < LEADER_LENGTH || base > marc.length) {
+      throw new DeserializationException("Invalid base address in binary marc record", null);
+    }
+
+    RawField raw = new RawField();
+    raw.charset = marc[9] == 'a' ? StandardCharsets.UTF_8 : StandardCharsets.ISO_8859_1;
+    List<MarcDataField> result = new ArrayList<>();
+    for (int d = LEADER_LENGTH; d + ENTRY_LENGTH < base && marc[d] != FIELD_TERMINATOR;
+        d += ENTRY_LENGTH) {
+      int tag = digits(marc, d, 3);
+      if (tag < FIRST_DATA_TAG || conditions[tag] == null) {
+        continue;
+      }
+      int length = digits(marc, d + 3, 4);
+      int start = digits(marc, d + 7, 5);
+      if (length < 0 || start < 0 || base + start + length > marc.length) {
+        throw new DeserializationException("Invalid directory entry in binary marc record", null);
+      }
+      raw.parse(TAGS[tag], marc, base + start, base + start + length);
+      if (conditions[tag].test(raw)) {
+        result.add(raw.materialize());
+      }
+    }
+    return result;
+  }
+
+  /*
+   * Returns the selected fields of the last record of a MarcXML document, as MarcXmlParser would
+   * parse it.
+   */
+  public List<MarcDataField> fromMarcXml(byte[] marcXml) throws DeserializationException {
+    return fromMarcXml(new ByteArrayInputStream(marcXml));
+  }
+
+  /*
+   * Returns the selected fields of the last record of a MarcXML document, as MarcXmlParser would
+   * parse it. The stream is read to its end but not closed.
+   */
+  public List<MarcDataField> fromMarcXml(InputStream in) throws DeserializationException {
+    List<MarcDataField> result = new ArrayList<>();
+    try {
+      XMLStreamReader reader = MarcXmlRecords.createReader(in);
+      try {
+        while (findRecord(reader)) {
+          result.clear();
+          readRecord(reader, result);
+        }
+      } finally {
+        reader.close();
+      }
+    } catch (XMLStreamException e) {
+      throw new DeserializationException("Failure to parse marcXml: " + e.getMessage(), e);
+    }
+    return result;
+  }
+
+  private static boolean findRecord(XMLStreamReader reader) throws XMLStreamException {
+    while (reader.hasNext()) {
+      if (reader.next() == XMLStreamConstants.START_ELEMENT && "record".equals(reader.getLocalName())
+          && MarcXmlRecords.isMarcXml(reader.getNamespaceURI())) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /*
+   * Reads the content of a record element, testing the data fields with registered tags.
+   */
+  private void readRecord(XMLStreamReader reader, List<MarcDataField> result)
+      throws XMLStreamException {
+    RawField raw = new RawField();
+    int depth = 1;
+    while (depth > 0) {
+      int event = reader.next();
+      if (event == XMLStreamConstants.END_ELEMENT) {
+        depth--;
+      } else if (event == XMLStreamConstants.START_ELEMENT) {
+        if ("subfield".equals(reader.getLocalName())) {
+          throw new XMLStreamException("subfield outside of a datafield", reader.getLocation());
+        }
+        int tag = "datafield".equals(reader.getLocalName())
+            ? tagint(reader.getAttributeValue(null, "tag")) : -1;
+        if (tag < FIRST_DATA_TAG || conditions[tag] == null) {
+          skipElement(reader);
+          continue;
+        }
+        raw.start(TAGS[tag], firstChar(reader.getAttributeValue(null, "ind1")),
+            firstChar(reader.getAttributeValue(null, "ind2")));
+        readSubfields(reader, raw);
+        if (conditions[tag].test(raw)) {
+          result.add(raw.materialize());
+        }
+      } else if (event == XMLStreamConstants.END_DOCUMENT) {
+        throw new XMLStreamException("Unexpected end of MarcXML record", reader.getLocation());
+      }
+    }
+  }
+
+  /*
+   * Reads the subfields of a datafield element, up to its end tag.
+   */
+  private static void readSubfields(XMLStreamReader reader, RawField raw)
+      throws XMLStreamException {
+    while (true) {
+      int event = reader.next();
+      if (event == XMLStreamConstants.END_ELEMENT) {
+        return;
+      }
+      if (event == XMLStreamConstants.START_ELEMENT) {
+        if ("subfield".equals(reader.getLocalName())) {
+          char code = firstChar(reader.getAttributeValue(null, "code"));
+          raw.addValue(code, reader.getElementText());
+        } else {
+          skipElement(reader);
+        }
+      } else if (event == XMLStreamConstants.END_DOCUMENT) {
+        throw new XMLStreamException("Unexpected end of MarcXML record", reader.getLocation());
+      }
+    }
+  }
+
+  /*
+   * Skips to the end tag of the element the reader is positioned on.
+   */
+  private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+    int depth = 1;
+    while (depth > 0) {
+      int event = reader.next();
+      if (event == XMLStreamConstants.START_ELEMENT) {
+        depth++;
+      } else if (event == XMLStreamConstants.END_ELEMENT) {
+        depth--;
+      } else if (event == XMLStreamConstants.END_DOCUMENT) {
+        throw new XMLStreamException("Unexpected end of MarcXML record", reader.getLocation());
+      }
+    }
+  }
+
+  private static int tagint(String tag) {
+    if (tag == null || tag.length() != 3) {
+      return -1;
+    }
+    int value = 0;
+    for (int i = 0; i < 3; i++) {
+      char c = tag.charAt(i);
+      if (c < '0' || c > '9') {
+        return -1;
+      }
+      value = value * 10 + (c - '0');
+    }
+    return value;
+  }
+
+  /*
+   * Returns the value of a run of ASCII digits, or -1 if any byte is not a digit.
+   */
+  private static int digits(byte[] b, int off, int len) {
+    int value = 0;
+    for (int i = off; i < off + len; i++) {
+      if (b[i] < '0' || b[i] > '9') {
+        return -1;
+      }
+      value = value * 10 + (b[i] - '0');
+    }
+    return value;
+  }
+
+  private static char firstChar(String value) {
+    return value == null || value.isEmpty() ? ' ' : value.charAt(0);
+  }
+
+  /*
+   * A data field in raw form: the subfield values are either ranges of the record bytes, decoded
+   * only when asked for, or the text read from MarcXML.
+   */
+  public static final class RawField {
+
+    private String tag;
+    private char ind1;
+    private char ind2;
+    private int count;
+    private char[] codes = new char[16];
+    private int[] starts = new int[16];
+    private int[] ends = new int[16];
+    private String[] values = new String[16];
+    private byte[] data;
+    private Charset charset;
+
+    RawField() {
+    }
+
+    public String tag() {
+      return tag;
+    }
+
+    public char indicator1() {
+      return ind1;
+    }
+
+    public char indicator2() {
+      return ind2;
+    }
+
+    public int subfieldCount() {
+      return count;
+    }
+
+    public char code(int i) {
+      return codes[i];
+    }
+
+    /*
+     * Returns the index of the first subfield with the code, or -1.
+     */
+    public int indexOf(char code) {
+      for (int i = 0; i < count; i++) {
+        if (codes[i] == code) {
+          return i;
+        }
+      }
+      return -1;
+    }
+
+    /*
+     * Returns the value of a subfield, decoding it if it is still in raw form.
+     */
+    public String value(int i) {
+      if (values[i] == null) {
+        values[i] = new String(data, starts[i], ends[i] - starts[i], charset);
+      }
+      return values[i];
+    }
+
+    /*
+     * Tests if the value of a subfield equals the string. ISO-8859-1 values, and UTF-8 values
+     * compared with ASCII strings, are compared without decoding.
+     */
+    public boolean valueEquals(int i, String s) {
+      if (values[i] != null) {
+        return values[i].equals(s);
+      }
+      if (charset != StandardCharsets.ISO_8859_1 && !isAscii(s)) {
+        return value(i).equals(s);
+      }
+      int len = ends[i] - starts[i];
+      if (len != s.length()) {
+        return false;
+      }
+      for (int k = 0; k < len; k++) {
+        if ((data[starts[i] + k] & 0xFF) != s.charAt(k)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    void start(String tag, char ind1, char ind2) {
+      this.tag = tag;
+      this.ind1 = ind1;
+      this.ind2 = ind2;
+      Arrays.fill(values, 0, count, null);
+      count = 0;
+    }
+
+    void addValue(char code, String value) {
+      ensureCapacity();
+      codes[count] = code;
+      values[count] = value;
+      count++;
+    }
+
+    /*
+     * Reads the indicators and subfield ranges of a binary data field.
+     */
+    void parse(String tag, byte[] data, int off, int end) {
+      this.data = data;
+      if (end > off && data[end - 1] == FIELD_TERMINATOR) {
+        end--;
+      }
+      start(tag, off < end ? (char) (data[off] & 0xFF) : ' ',
+          off + 1 < end ? (char) (data[off + 1] & 0xFF) : ' ');
+      int pos = off + 2;
+      while (pos < end && data[pos] != SUBFIELD_DELIMITER) {
+        pos++;
+      }
+      while (pos + 1 < end) {
+        int from = pos + 2;
+        int to = from;
+        while (to < end && data[to] != SUBFIELD_DELIMITER) {
+          to++;
+        }
+        ensureCapacity();
+        codes[count] = (char) (data[pos + 1] & 0xFF);
+        starts[count] = from;
+        ends[count] = to;
+        count++;
+        pos = to;
+      }
+    }
+
+    MarcDataField materialize() {
+      Map<Character, List<String>> subfields = new LinkedHashMap<>();
+      for (int i = 0; i < count; i++) {
+        subfields.computeIfAbsent(codes[i], code -> new ArrayList<>(2)).add(value(i));
+      }
+      return new MarcDataField(tag, new SubFields(subfields), new char[] {ind1, ind2});
+    }
+
+    private void ensureCapacity() {
+      if (count == codes.length) {
+        int size = count * 2;
+        codes = Arrays.copyOf(codes, size);
+        starts = Arrays.copyOf(starts, size);
+        ends = Arrays.copyOf(ends, size);
+        values = Arrays.copyOf(values, size);
+      }
+    }
+
+    private static boolean isAscii(String s) {
+      for (int i = 0; i < s.length(); i++) {
+        if (s.charAt(i) >= 0x80) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+}
@@ -7,9 +7,15 @@ import java.util.List;
 import java.util.Optional;
 import java.util.stream.Collectors;
 import org.cdlib.util.DeserializationException;
+import org.cdlib.util.marc.Field;
+import org.cdlib.util.marc.MarcBaseRecord;
+import org.cdlib.util.marc.MarcFieldList;
+import org.cdlib.util.marc.MarcVblLengthField;
 import org.marc4j.MarcException;
-import org.marc4j.MarcXmlReader;
+import org.marc4j.MarcStreamReader;
+import org.marc4j.marc.ControlField;
 import org.marc4j.marc.DataField;
+import org.marc4j.marc.MarcFactory;
 import org.marc4j.marc.Record;
 import org.marc4j.marc.Subfield;
 
@@ -26,6 +32,9 @@ import org.marc4j.marc.Subfield;
  * interface could be extracted potentially that would work with another underlying MARC parser
  * implementation.
  * 
+ * Fields are looked up through a tag index built on first use, so the record should not be
+ * modified once it is wrapped.
+ * 
  * The methods generally return Optional<T>, which is empty if the MARC record lacks the field or
  * subfield specified, but will throw IllegalArgumentException if the arguments are invalid (such as
  * negative integer indexes, or empty tag or subfield names.
@@ -33,7 +42,10 @@ import org.marc4j.marc.Subfield;
  */
 public class MarcRecordHelper {
 
+  private static final MarcFactory FACTORY = MarcFactory.newInstance();
+
   private Record record;
+  private TagIndex index;
 
   public MarcRecordHelper(Record rec) {
     record = rec;
@@ -47,16 +59,93 @@ public class MarcRecordHelper {
     }
   }
 
+  /*
+   * Creates a helper for a binary (ISO 2709) MARC record, without a MarcXML round trip.
+   */
+  public static MarcRecordHelper fromMarc(byte[] marc) throws DeserializationException {
+    try {
+      return new MarcRecordHelper(asRecord(marc));
+    } catch (MarcException e) {
+      throw new DeserializationException("Failure to parse binary marc record", e);
+    }
+  }
+
+  /*
+   * Creates a helper for a record of the org.cdlib.util.marc model, without a MarcXML round trip.
+   */
+  public static MarcRecordHelper fromMarcRecord(MarcBaseRecord marcRecord) {
+    return new MarcRecordHelper(asRecord(marcRecord));
+  }
+
+  /*
+   * Creates a helper for a MarcXML document in UTF-8 bytes, without decoding it to a String first.
+   */
+  public static MarcRecordHelper fromMarcXml(byte[] marcXml) throws DeserializationException {
+    try {
+      return new MarcRecordHelper(MarcXmlParser.parse(marcXml));
+    } catch (MarcException e) {
+      throw new DeserializationException("Failure to parse marcXml", e);
+    }
+  }
+
+  /*
+   * Creates a helper for a MarcXML document read from a UTF-8 stream.
+   */
+  public static MarcRecordHelper fromMarcXml(InputStream marcXml) throws DeserializationException {
+    try {
+      return new MarcRecordHelper(MarcXmlParser.parse(marcXml));
+    } catch (MarcException e) {
+      throw new DeserializationException("Failure to parse marcXml", e);
+    }
+  }
+
+  /*
+   * Parses MarcXML, returning the last record of the document, or null if there is none.
+   */
   public static Record asRecord(String marcXml) {
+    return MarcXmlParser.parse(marcXml);
+  }
+
+  /*
+   * Parses binary (ISO 2709) MARC with the marc4j MarcStreamReader, returning the last record, or
+   * null if there is none. The data is read as ISO-8859-1 unless leader position 9 is 'a', in which
+   * case it is read as UTF-8.
+   */
+  public static Record asRecord(byte[] marc) {
     Record marcRecord = null;
-    InputStream is = new ByteArrayInputStream(marcXml.getBytes());
-    MarcXmlReader reader = new MarcXmlReader(is);
+    MarcStreamReader reader = new MarcStreamReader(new ByteArrayInputStream(marc));
     while (reader.hasNext()) {
       marcRecord = reader.next();
     }
     return marcRecord;
   }
 
+  /*
+   * Copies a record of the org.cdlib.util.marc model into a marc4j Record. Variable length fields
+   * become data fields and all other fields control fields, in record order.
+   */
+  public static Record asRecord(MarcBaseRecord marcRecord) {
+    Record result = FACTORY.newRecord(marcRecord.getLeaderValue());
+    MarcFieldList fields = marcRecord.getFields();
+    int max = fields.size();
+    for (int i = 0; i < max; i++) {
+      Field field = fields.elementAt(i);
+      if (field instanceof MarcVblLengthField) {
+        MarcVblLengthField vbl = (MarcVblLengthField) field;
+        String ind = vbl.indicators();
+        DataField dataField = FACTORY.newDataField(vbl.tag(), ind.charAt(0), ind.charAt(1));
+        int count = vbl.subfieldCount();
+        for (int n = 0; n < count; n++) {
+          dataField.addSubfield(FACTORY.newSubfield(vbl.subfieldCode(n), vbl.subfieldValue(n)));
+        }
+        result.addVariableField(dataField);
+      } else {
+        result.addVariableField(FACTORY.newControlField(field.tag(), field.value()));
+      }
+    }
+    return result;
+  }
+
   /*
    * Optionally returns the character at the specified index of the specified MARC control field.
    * 
@@ -105,19 +194,15 @@ public class MarcRecordHelper {
       throw new IllegalArgumentException("Tag cannot be empty.");
     }
 
-    return record.getControlFields()
-                 .stream()
-                 .filter(cf -> cf.getTag().contentEquals(tag))
-                 .findFirst()
-                 .map(cf -> cf.getData());
+    List<ControlField> controlFields = index().controlFields(tag);
+    if (controlFields.isEmpty()) {
+      return Optional.empty();
+    }
+    return Optional.ofNullable(controlFields.get(0).getData());
   }
 
   public Optional<List<char[]>> indicators(String tag) {
-    List<DataField> dataFields = record.getDataFields()
-                                       .stream()
-                                       .filter(df -> df.getTag().equals(tag))
-                                       .collect(Collectors.toList());
-    List<char[]> indicators = dataFields
+    List<char[]> indicators = index().dataFields(tag)
                                         .stream()
                                         .map(MarcRecordHelper::indicators)
                                         .collect(Collectors.toList());
@@ -159,11 +244,11 @@ public class MarcRecordHelper {
     if (tag == null) {
       throw new NullPointerException("tag cannot be null");
     }
-    Optional<DataField> datafield = record.getDataFields()
-                                          .stream()
-                                          .filter(df -> df.getTag().equals(tag))
-                                          .findFirst();
-    return datafield.map(df -> new SubFields(df));
+    List<DataField> dataFields = index().dataFields(tag);
+    if (dataFields.isEmpty()) {
+      return Optional.empty();
+    }
+    return Optional.of(new SubFields(dataFields.get(0)));
   }
 
   /*
@@ -175,14 +260,10 @@ public class MarcRecordHelper {
       throw new IllegalArgumentException("tag cannot be empty");
     }
     Optional<List<String>> valuesOpt = subfieldVals(tag, subfieldCode);
-    if (!valuesOpt.isPresent()) {
-      return Optional.empty();
-    }
-    List<String> values = subfieldVals(tag, subfieldCode).get();
-    if (values.isEmpty()) {
+    if (!valuesOpt.isPresent() || valuesOpt.get().isEmpty()) {
       return Optional.empty();
     }
-    return Optional.ofNullable(values.get(0));
+    return Optional.ofNullable(valuesOpt.get().get(0));
   }
 
   /*
@@ -196,10 +277,7 @@ public class MarcRecordHelper {
     if (tag == null) {
       throw new NullPointerException("tag cannot be null");
     }
-    List<DataField> dataFields = record.getDataFields()
-                                       .stream()
-                                       .filter(df -> df.getTag().equals(tag))
-                                       .collect(Collectors.toList());
+    List<DataField> dataFields = index().dataFields(tag);
 
     List<Subfield> subfields = new ArrayList<>();
     for (char subfieldCode : subfieldCodes) {
@@ -219,4 +297,16 @@ public class MarcRecordHelper {
     return Optional.of(fieldValues);
   }
 
+  /*
+   * Returns the tag index of the record, building it on first use.
+   */
+  private TagIndex index() {
+    TagIndex result = index;
+    if (result == null) {
+      result = new TagIndex(record);
+      index = result;
+    }
+    return result;
+  }
+
 }
@@ -0,0 +1,181 @@
+package org.cdlib.util.marc2;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+import org.marc4j.MarcException;
+import org.marc4j.marc.Record;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/*
+ * Parses MarcXML documents into marc4j Records with a SAX parser kept per thread, so parsing a
+ * record does not look up a parser factory or create a parser.
+ *
+ * Bytes and streams are read as UTF-8, the encoding MarcXML requires, whatever the platform
+ * default. Strings are parsed as characters, without being encoded first.
+ *
+ * Each method returns the last record of the document, or null if there is none; earlier records
+ * are not kept. To read every record of a collection, use MarcXmlRecords, which builds each record
+ * the same way. Malformed XML, or a subfield outside of a datafield, raises a marc4j MarcException.
+ */
+public final class MarcXmlParser {
+
+  private static final SAXParserFactory PARSER_FACTORY = newParserFactory();
+
+  private static final ThreadLocal<SAXParser> PARSER = ThreadLocal.withInitial(MarcXmlParser::newParser);
+
+  private MarcXmlParser() {
+  }
+
+  public static Record parse(String marcXml) {
+    return parse(new InputSource(new StringReader(marcXml)));
+  }
+
+  public static Record parse(byte[] marcXml) {
+    return parse(new ByteArrayInputStream(marcXml));
+  }
+
+  /*
+   * Parses a MarcXML stream, which is read to its end but not closed.
+   */
+  public static Record parse(InputStream marcXml) {
+    InputSource source = new InputSource(marcXml);
+    source.setEncoding(StandardCharsets.UTF_8.name());
+    return parse(source);
+  }
+
+  private static Record parse(InputSource source) {
+    SAXParser parser = PARSER.get();
+    Handler handler = new Handler();
+    try {
+      parser.parse(source, handler);
+    } catch (SAXException | IOException e) {
+      throw new MarcException("Failure to parse MarcXML: " + e.getMessage(), e);
+    } finally {
+      parser.reset();
+    }
+    return handler.last;
+  }
+
+  private static SAXParserFactory newParserFactory() {
+    SAXParserFactory factory = SAXParserFactory.newInstance();
+    factory.setNamespaceAware(true);
+    factory.setValidating(false);
+    setFeature(factory, "http://xml.org/sax/features/external-general-entities", false);
+    setFeature(factory, "http://xml.org/sax/features/external-parameter-entities", false);
+    setFeature(factory, "http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+    return factory;
+  }
+
+  private static void setFeature(SAXParserFactory factory, String feature, boolean value) {
+    try {
+      factory.setFeature(feature, value);
+    } catch (ParserConfigurationException | SAXException e) {
+      // the parser does not support the feature
+    }
+  }
+
+  private static SAXParser newParser() {
+    try {
+      synchronized (PARSER_FACTORY) {
+        return PARSER_FACTORY.newSAXParser();
+      }
+    } catch (ParserConfigurationException | SAXException e) {
+      throw new IllegalStateException("Unable to create a SAX parser", e);
+    }
+  }
+
+  /*
+   * Builds a Record from the events of each MarcXML record element, keeping the last.
+   */
+  private static final class Handler extends DefaultHandler {
+
+    private final StringBuilder text = new StringBuilder();
+    private Record last;
+    private MarcXmlRecordBuilder builder;
+    private String tag;
+    private String code;
+    private boolean collecting;
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes atts) {
+      String name = localName.isEmpty() ? qName : localName;
+      if (builder == null) {
+        if ("record".equals(name) && MarcXmlRecords.isMarcXml(uri)) {
+          builder = new MarcXmlRecordBuilder();
+        }
+        return;
+      }
+      switch (name) {
+        case "leader":
+          collect();
+          break;
+        case "controlfield":
+          tag = atts.getValue("tag");
+          collect();
+          break;
+        case "datafield":
+          builder.startDataField(atts.getValue("tag"), atts.getValue("ind1"), atts.getValue("ind2"));
+          break;
+        case "subfield":
+          code = atts.getValue("code");
+          collect();
+          break;
+        default:
+          break;
+      }
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName) {
+      if (builder == null) {
+        return;
+      }
+      String name = localName.isEmpty() ? qName : localName;
+      switch (name) {
+        case "leader":
+          builder.leader(text.toString());
+          break;
+        case "controlfield":
+          builder.controlField(tag, text.toString());
+          break;
+        case "datafield":
+          builder.endDataField();
+          break;
+        case "subfield":
+          builder.subfield(code, text.toString());
+          break;
+        case "record":
+          if (MarcXmlRecords.isMarcXml(uri)) {
+            last = builder.build();
+            builder = null;
+          }
+          break;
+        default:
+          break;
+      }
+      collecting = false;
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) {
+      if (collecting) {
+        text.append(ch, start, length);
+      }
+    }
+
+    private void collect() {
+      text.setLength(0);
+      collecting = true;
+    }
+  }
+
+}
@@ -0,0 +1,55 @@
+package org.cdlib.util.marc2;
+
+import org.marc4j.MarcException;
+import org.marc4j.marc.DataField;
+import org.marc4j.marc.MarcFactory;
+import org.marc4j.marc.Record;
+
+/*
+ * Assembles a marc4j Record from the elements of one MarcXML record element, in document order.
+ * MarcXmlParser feeds it from SAX events and MarcXmlRecords from a StAX reader, so both build the
+ * same Record from the same XML, and reject the same malformed records.
+ */
+final class MarcXmlRecordBuilder {
+
+  private static final MarcFactory FACTORY = MarcFactory.newInstance();
+
+  private final Record record = FACTORY.newRecord();
+  private DataField dataField;
+
+  void leader(String text) {
+    record.setLeader(FACTORY.newLeader(text));
+  }
+
+  void controlField(String tag, String text) {
+    record.addVariableField(FACTORY.newControlField(tag, text));
+  }
+
+  void startDataField(String tag, String ind1, String ind2) {
+    dataField = FACTORY.newDataField(tag, firstChar(ind1), firstChar(ind2));
+    record.addVariableField(dataField);
+  }
+
+  void endDataField() {
+    dataField = null;
+  }
+
+  /*
+   * Adds a subfield to the data field being built. A subfield outside of a datafield element raises
+   * a marc4j MarcException.
+   */
+  void subfield(String code, String text) {
+    if (dataField == null) {
+      throw new MarcException("Failure to parse MarcXML: subfield outside of a datafield");
+    }
+    dataField.addSubfield(FACTORY.newSubfield(firstChar(code), text));
+  }
+
+  Record build() {
+    return record;
+  }
+
+  private static char firstChar(String value) {
+    return value == null || value.isEmpty() ? ' ' : value.charAt(0);
+  }
+}
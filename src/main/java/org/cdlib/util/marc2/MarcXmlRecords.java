@@ -0,0 +1,264 @@
+package org.cdlib.util.marc2;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import org.marc4j.MarcException;
+import org.marc4j.marc.Record;
+
+/*
+ * Reads the records of a MarcXML file one at a time, so a collection of any size is read in
+ * constant memory.
+ *
+ * The file is read with a StAX pull parser on the calling thread. Only the record being read is
+ * held in memory. Records may be wrapped in other XML, such as an OAI-PMH response. Any record
+ * element in the MarcXML namespace, or in no namespace, is read. Records are built as
+ * MarcXmlParser builds them. Malformed XML, or a subfield outside of a datafield, raises a marc4j
+ * MarcException.
+ *
+ * Records can be taken one at a time through the Iterator methods, or as a Stream of Records,
+ * MarcRecordHelpers or FieldFilters. forEachParallel hands records to a pool of threads while
+ * keeping a bounded number in flight.
+ *
+ * Closing this object closes the input stream.
+ */
+public class MarcXmlRecords implements Iterator<Record>, Closeable {
+
+  public static final String MARCXML_NS = "http://www.loc.gov/MARC21/slim";
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private static final XMLInputFactory XML_INPUT = newInputFactory();
+
+  private final InputStream in;
+  private final XMLStreamReader reader;
+  private Record next;
+  private boolean done;
+
+  public MarcXmlRecords(InputStream in) {
+    this.in = in;
+    try {
+      this.reader = createReader(in);
+    } catch (XMLStreamException e) {
+      throw new MarcException("Failure to open MarcXML input", e);
+    }
+  }
+
+  /*
+   * Opens a MarcXML file for reading.
+   */
+  public static MarcXmlRecords open(Path path) throws IOException {
+    return new MarcXmlRecords(new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE));
+  }
+
+  @Override
+  public boolean hasNext() {
+    if (next == null && !done) {
+      next = readNext();
+      done = (next == null);
+    }
+    return next != null;
+  }
+
+  @Override
+  public Record next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    Record result = next;
+    next = null;
+    return result;
+  }
+
+  /*
+   * Returns the remaining records as a sequential Stream. Closing the stream closes this object.
+   */
+  public Stream<Record> records() {
+    return StreamSupport.stream(
+        Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                        .onClose(this::closeUnchecked);
+  }
+
+  /*
+   * Returns the remaining records as a sequential Stream of MarcRecordHelpers.
+   */
+  public Stream<MarcRecordHelper> helpers() {
+    return records().map(MarcRecordHelper::new);
+  }
+
+  /*
+   * Returns the remaining records as a sequential Stream of FieldFilters.
+   */
+  public Stream<FieldFilter> filters() {
+    return records().map(FieldFilter::new);
+  }
+
+  /*
+   * Reads the remaining records on this thread and passes a MarcRecordHelper for each to the action
+   * on a pool of threads, in no particular order. At most two records per thread are in flight, so
+   * memory stays bounded however fast the file is read.
+   *
+   * Returns when every record has been handled. If the action throws, no more records are read,
+   * and the first exception is rethrown once the records in flight have finished.
+   */
+  public void forEachParallel(int threads, Consumer<? super MarcRecordHelper> action) {
+    if (threads < 1) {
+      throw new IllegalArgumentException("Thread count " + threads + " must be positive.");
+    }
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    Semaphore inFlight = new Semaphore(threads * 2);
+    AtomicReference<Throwable> failure = new AtomicReference<>();
+    try {
+      while (failure.get() == null && hasNext()) {
+        MarcRecordHelper helper = new MarcRecordHelper(next());
+        inFlight.acquire();
+        pool.execute(() -> {
+          try {
+            action.accept(helper);
+          } catch (Throwable t) {
+            failure.compareAndSet(null, t);
+          } finally {
+            inFlight.release();
+          }
+        });
+      }
+      pool.shutdown();
+      pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted reading MarcXML records", e);
+    } finally {
+      pool.shutdownNow();
+    }
+
+    Throwable t = failure.get();
+    if (t instanceof RuntimeException) {
+      throw (RuntimeException) t;
+    }
+    if (t instanceof Error) {
+      throw (Error) t;
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    done = true;
+    next = null;
+    try {
+      reader.close();
+    } catch (XMLStreamException e) {
+      // the input stream is closed below in any case
+    }
+    in.close();
+  }
+
+  private void closeUnchecked() {
+    try {
+      close();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /*
+   * Reads up to and including the next MarcXML record element, or returns null at the end of the
+   * input.
+   */
+  private Record readNext() {
+    try {
+      while (reader.hasNext()) {
+        if (reader.next() == XMLStreamConstants.START_ELEMENT && "record".equals(reader.getLocalName())
+            && isMarcXml(reader.getNamespaceURI())) {
+          return readRecord();
+        }
+      }
+      return null;
+    } catch (XMLStreamException e) {
+      throw new MarcException("Failure to parse MarcXML: " + e.getMessage(), e);
+    }
+  }
+
+  /*
+   * Reads the content of a record element, the reader being positioned on its start tag.
+   */
+  private Record readRecord() throws XMLStreamException {
+    MarcXmlRecordBuilder builder = new MarcXmlRecordBuilder();
+    int depth = 1;
+    while (depth > 0) {
+      int event = reader.next();
+      if (event == XMLStreamConstants.END_ELEMENT) {
+        if ("datafield".equals(reader.getLocalName())) {
+          builder.endDataField();
+        }
+        depth--;
+      } else if (event == XMLStreamConstants.START_ELEMENT) {
+        switch (reader.getLocalName()) {
+          case "leader":
+            builder.leader(reader.getElementText());
+            break;
+          case "controlfield":
+            String tag = reader.getAttributeValue(null, "tag");
+            builder.controlField(tag, reader.getElementText());
+            break;
+          case "datafield":
+            builder.startDataField(reader.getAttributeValue(null, "tag"),
+                reader.getAttributeValue(null, "ind1"), reader.getAttributeValue(null, "ind2"));
+            depth++;
+            break;
+          case "subfield":
+            String code = reader.getAttributeValue(null, "code");
+            builder.subfield(code, reader.getElementText());
+            break;
+          default:
+            depth++;
+            break;
+        }
+      } else if (event == XMLStreamConstants.END_DOCUMENT) {
+        throw new XMLStreamException("Unexpected end of MarcXML record", reader.getLocation());
+      }
+    }
+    return builder.build();
+  }
+
+  static boolean isMarcXml(String namespace) {
+    return namespace == null || namespace.isEmpty() || MARCXML_NS.equals(namespace);
+  }
+
+  private static XMLInputFactory newInputFactory() {
+    XMLInputFactory factory = XMLInputFactory.newInstance();
+    factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+    return factory;
+  }
+
+  /*
+   * Creates a reader from the shared factory, which is not guaranteed to be thread safe.
+   */
+  static XMLStreamReader createReader(InputStream in) throws XMLStreamException {
+    synchronized (XML_INPUT) {
+      return XML_INPUT.createXMLStreamReader(in);
+    }
+  }
+
+}
@@ -1,54 +1,129 @@
 package org.cdlib.util.marc2;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.Set;
-import java.util.stream.Collectors;
 import org.cdlib.util.JSON;
 import org.marc4j.marc.DataField;
 import org.marc4j.marc.Subfield;
 
 /*
  * All subfields of an instance of a field.
- * 
+ *
  * Each subfield code is mapped to a list of String to capture values for repeating subfields.
- * 
+ *
+ * The values are held in a single array grouped by code, in the order each code first appears, with
+ * the values of each code in field order. A request for one code returns a read-only view of its
+ * group rather than a copy.
+ *
  */
 public class SubFields {
 
-  private Map<Character, List<String>> subfields = new HashMap<>();
+  private static final int ASCII = 128;
+
+  private char[] codes;
+  private int[] bounds;
+  private String[] values;
 
   public SubFields(Map<Character, List<String>> subfields) {
-    this.subfields = subfields;
+    codes = new char[subfields.size()];
+    bounds = new int[codes.length + 1];
+    int count = 0;
+    int total = 0;
+    for (Map.Entry<Character, List<String>> entry : subfields.entrySet()) {
+      if (entry.getValue() != null) {
+        codes[count++] = entry.getKey();
+        total += entry.getValue().size();
+        bounds[count] = total;
+      }
+    }
+    codes = Arrays.copyOf(codes, count);
+    bounds = Arrays.copyOf(bounds, count + 1);
+    values = new String[total];
+    for (int i = 0; i < count; i++) {
+      List<String> vals = subfields.get(codes[i]);
+      for (int j = 0; j < vals.size(); j++) {
+        values[bounds[i] + j] = vals.get(j);
+      }
+    }
   }
 
   public SubFields(DataField dataField) {
     List<Subfield> sourceSubfields = dataField.getSubfields();
-    Set<Character> codes = new HashSet<>();
-    sourceSubfields.forEach(sf -> codes.add(sf.getCode()));
-    for (char code : codes) {
-      List<String> vals = sourceSubfields
-                                         .stream()
-                                         .filter(sf -> sf.getCode() == code)
-                                         .map(sf -> sf.getData())
-                                         .collect(Collectors.toList());
-      subfields.put(code, vals);
+    int n = sourceSubfields.size();
+    char[] distinct = new char[n];
+    int[] counts = new int[n];
+    int[] group = new int[n];
+    // group of each ASCII code plus one, and of any other code in a map
+    int[] slots = new int[ASCII];
+    Map<Character, Integer> otherSlots = null;
+    int count = 0;
+    for (int i = 0; i < n; i++) {
+      char code = sourceSubfields.get(i).getCode();
+      int g;
+      if (code < ASCII) {
+        g = slots[code] - 1;
+        if (g < 0) {
+          g = count;
+          slots[code] = g + 1;
+          distinct[count++] = code;
+        }
+      } else {
+        if (otherSlots == null) {
+          otherSlots = new HashMap<>();
+        }
+        Integer slot = otherSlots.get(code);
+        if (slot == null) {
+          g = count;
+          otherSlots.put(code, g);
+          distinct[count++] = code;
+        } else {
+          g = slot;
+        }
+      }
+      counts[g]++;
+      group[i] = g;
+    }
+
+    codes = Arrays.copyOf(distinct, count);
+    bounds = new int[count + 1];
+    for (int g = 0; g < count; g++) {
+      bounds[g + 1] = bounds[g] + counts[g];
+      counts[g] = bounds[g];
+    }
+    values = new String[n];
+    for (int i = 0; i < n; i++) {
+      values[counts[group[i]]++] = sourceSubfields.get(i).getData();
     }
   }
 
   /*
    * Return a list of all values for a list of subfields. The subfields can be repeating or
    * non-repeating.
+   *
+   * For a single subfield code the list is a read-only view; otherwise it is a new list.
    */
   public Optional<List<String>> get(char... keys) {
+    if (keys.length == 1) {
+      int g = group(keys[0]);
+      if (g < 0 || bounds[g] == bounds[g + 1]) {
+        return Optional.empty();
+      }
+      return Optional.of(Collections.unmodifiableList(
+          Arrays.asList(values).subList(bounds[g], bounds[g + 1])));
+    }
+
     ArrayList<String> mergedList = new ArrayList<>();
     for (char c : keys) {
-      if (subfields.get(c) != null) {
-        mergedList.addAll(subfields.get(c));
+      int g = group(c);
+      if (g >= 0) {
+        for (int i = bounds[g]; i < bounds[g + 1]; i++) {
+          mergedList.add(values[i]);
+        }
       }
     }
     if (mergedList.isEmpty()) {
@@ -59,7 +134,23 @@ public class SubFields {
 
   @Override
   public String toString() {
+    Map<Character, List<String>> subfields = new HashMap<>();
+    for (int g = 0; g < codes.length; g++) {
+      subfields.put(codes[g], Arrays.asList(values).subList(bounds[g], bounds[g + 1]));
+    }
     return JSON.serialize(subfields);
   }
 
+  /*
+   * Returns the group holding the values of a subfield code, or -1 if there is none.
+   */
+  private int group(char code) {
+    for (int g = 0; g < codes.length; g++) {
+      if (codes[g] == code) {
+        return g;
+      }
+    }
+    return -1;
+  }
+
 }
@@ -0,0 +1,55 @@
+package org.cdlib.util.marc2;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.marc4j.marc.ControlField;
+import org.marc4j.marc.DataField;
+import org.marc4j.marc.Record;
+import org.marc4j.marc.VariableField;
+
+/*
+ * An immutable index of the fields of a Marc4J record by tag, so each lookup by tag reads only the
+ * fields with that tag rather than scanning the whole record.
+ *
+ * Fields are kept in record order. The index is a snapshot: fields added to or removed from the
+ * record after it is built are not seen.
+ */
+final class TagIndex {
+
+  private final Map<String, List<ControlField>> controlFields;
+  private final Map<String, List<DataField>> dataFields;
+
+  TagIndex(Record record) {
+    controlFields = group(record.getControlFields());
+    dataFields = group(record.getDataFields());
+  }
+
+  /*
+   * Returns the control fields with the tag, or an empty list.
+   */
+  List<ControlField> controlFields(String tag) {
+    List<ControlField> fields = controlFields.get(tag);
+    return fields == null ? Collections.<ControlField>emptyList() : fields;
+  }
+
+  /*
+   * Returns the data fields with the tag, or an empty list.
+   */
+  List<DataField> dataFields(String tag) {
+    List<DataField> fields = dataFields.get(tag);
+    return fields == null ? Collections.<DataField>emptyList() : fields;
+  }
+
+  private static <T extends VariableField> Map<String, List<T>> group(List<T> fields) {
+    Map<String, List<T>> index = new HashMap<>();
+    for (T field : fields) {
+      index.computeIfAbsent(field.getTag(), tag -> new ArrayList<>(2)).add(field);
+    }
+    index.replaceAll((tag, list) -> Collections.unmodifiableList(list));
+    return Collections.unmodifiableMap(index);
+  }
+
+}
@@ -580,6 +580,51 @@ public class StringUtil
     }
 
 
+    /**
+     * Convert a slice of a byte array of ascii digits to an <code>int</code>.
+     * This is the raw byte counterpart of <code>ascii2int(char[],int,int)</code>,
+     * used when parsing binary marc data without first decoding it to characters.
+     *
+     * @param source The bytes to convert
+     * @param start The index at which to start
+     * @param len The number of bytes to process
+     * @exception NumberFormatException When any of the bytes processed
+     * is not an ascii digit ('\u0030' - 'u0039').
+     * @exception IllegalArgumentException When any of the following are true:<br>
+     * 1. The source array is null<br>
+     * 2. The start index is less that zero<br>
+     * 3. The start index plus the number of bytes to process exceeds
+     *    the length of the source array.<br>
+     * @see #ascii2int(char[],int,int)
+     */
+    public static int ascii2int(byte[] source, int start, int len)
+    {
+        int iRet = 0;
+        int max = start + len;
+
+        if ( source == null || start < 0 || source.length < max )
+        {
+            throw new IllegalArgumentException();
+        }
+
+        for ( int i = start; i < max; i++ )
+        {
+            byte b = source[i];
+
+            if ( b < 0x30 || b > 0x39 )
+            {
+                throw new NumberFormatException();
+            }
+            else
+            {
+                iRet = iRet * 10 + (b & 0x0F);
+            }
+        }
+
+        return iRet;
+    }
+
+
     /**
      * Convert an ascii digit to an <code>int</code>.
      *
@@ -854,23 +899,39 @@ public class StringUtil
         
         /* Modified : 12/12/2011 pjd 
          * replace with new code */  
-    	String str = null; 
-    	String leadingWS = "^\\s+";
-		String trailingWS = "\\s+$";
-		
-		if (s != null) {
-
-			Pattern replace = Pattern.compile(leadingWS);
-			Matcher match = replace.matcher(s);
-			str = match.replaceAll("");
-			replace = Pattern.compile(trailingWS);
-			match = replace.matcher(str);
-			str = match.replaceAll("");
-		} 
-
-		return str;
+        /* Modified : scan for the \s characters directly rather than
+         * compiling two patterns on every call */
+        if ( s == null )
+        {
+            return null;
+        }
 
-        
+        int start = 0;
+        int end = s.length();
+        while ( start < end && isWhiteSpace(s.charAt(start)) )
+        {
+            start++;
+        }
+        while ( end > start && isWhiteSpace(s.charAt(end - 1)) )
+        {
+            end--;
+        }
+
+        return ((start == 0 && end == s.length()) ? s : s.substring(start, end));
+    }
+
+    /**
+     * Tests if a character is whitespace as the regular expression class
+     * <code>\s</code> defines it: space, tab, newline, vertical tab,
+     * form feed, or carriage return.
+     *
+     * @param c the character to test
+     * @return true if the character is whitespace
+     * @see #trimWhiteSpace(String)
+     */
+    public static boolean isWhiteSpace(char c)
+    {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
     }
 
     /*
@@ -0,0 +1,111 @@
+package org.cdlib.util.marc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.cdlib.util.marc.MarcTestRecords.SF;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import org.junit.Test;
+
+public class CompiledTranslateTableTest {
+
+  /**
+   * The Latin-1 to MARC-8 superscript and subscript table of TranslateTable.main.
+   */
+  static final String[][] SCRIPTS = {
+      {"\\xAF", "\u001Bb0\u001Bs"}, {"\\x91", "\u001Bb1\u001Bs"}, {"\\x92", "\u001Bb2\u001Bs"},
+      {"\\x93", "\u001Bb3\u001Bs"}, {"\\x94", "\u001Bb4\u001Bs"}, {"\\x95", "\u001Bb5\u001Bs"},
+      {"\\xC0", "\u001Bp0\u001Bs"}, {"\\xC1", "\u001Bp1\u001Bs"}, {"\\xC2", "\u001Bp2\u001Bs"},
+      {"\\xFC", "\u001Bp+\u001Bs"}, {"\\x7F", "\u001Bp)\u001Bs"}, {"\\xFD", "\u001Bga\u001Bs"},
+      {"\\xFF", "\u001Bgc\u001Bs"}};
+
+  /**
+   * Random strings mixing plain text with the characters the tables translate.
+   */
+  static String[] samples(int n) {
+    Random rnd = new Random(11);
+    String chars = "abc xyz.,¯\u0091\u0092ÀÂü\u007Fýÿ--&";
+    String[] result = new String[n];
+    for (int i = 0; i < n; i++) {
+      StringBuilder sb = new StringBuilder();
+      int len = rnd.nextInt(40);
+      for (int j = 0; j < len; j++) {
+        sb.append(chars.charAt(rnd.nextInt(chars.length())));
+      }
+      result[i] = sb.toString();
+    }
+    return result;
+  }
+
+  @Test
+  public void independentRules_matchTranslateTable() {
+    String[][] table = new String[SCRIPTS.length + 3][];
+    System.arraycopy(SCRIPTS, 0, table, 0, SCRIPTS.length);
+    table[SCRIPTS.length] = new String[] {"--", "—"};
+    table[SCRIPTS.length + 1] = new String[] {"x[yz]+", "XY"};
+    table[SCRIPTS.length + 2] = new String[] {"&", "and"};
+
+    TranslateTable old = new TranslateTable(table);
+    CompiledTranslateTable compiled = new CompiledTranslateTable(table);
+    for (String s : samples(500)) {
+      assertEquals(old.applyAll(s), compiled.applyAll(s));
+    }
+  }
+
+  @Test
+  public void rules_applyInTableOrder() {
+    CompiledTranslateTable tt = new CompiledTranslateTable(new String[][] {
+        {"a", "b"}, {"b", "c"}, {"c", "a"}, {"\\.", "!"}, {"!!", "?"}});
+    assertEquals("aaa?", tt.applyAll("abc.."));
+    assertEquals("plain", tt.applyAll("plain"));
+    String unchanged = "xyz";
+    assertSame(unchanged, tt.applyAll(unchanged));
+  }
+
+  @Test
+  public void literal_recognizesEscapes() {
+    assertEquals("¯", CompiledTranslateTable.literal("\\xAF"));
+    assertEquals("—", CompiledTranslateTable.literal("\\u2014"));
+    assertEquals("a.b\\", CompiledTranslateTable.literal("a\\.b\\\\"));
+    assertNull(CompiledTranslateTable.literal("a.b"));
+    assertNull(CompiledTranslateTable.literal("\\d"));
+    assertNull(CompiledTranslateTable.literal("\\xZZ"));
+    assertNull(CompiledTranslateTable.literal("[a]"));
+  }
+
+  @Test
+  public void substitutions_areLiteral() {
+    CompiledTranslateTable tt = new CompiledTranslateTable(new String[][] {
+        {"(a+)", "$1\\"}, {"q", "$0"}});
+    assertEquals("$1\\b$0", tt.applyAll("aab" + "q"));
+  }
+
+  @Test
+  public void posixClasses_matchTranslateTable() {
+    String[][] table = {{"[:digit:]+", "#"}, {"[:upper:]", "*"}};
+    TranslateTable old = new TranslateTable(table);
+    CompiledTranslateTable compiled = new CompiledTranslateTable(table);
+    for (String s : new String[] {"Vol. 12: part 3", "upper: case", "plain"}) {
+      assertEquals(old.applyAll(s), compiled.applyAll(s));
+    }
+    assertEquals("*ol. #: part #", compiled.applyAll("Vol. 12: part 3"));
+  }
+
+  @Test
+  public void badExpression_failsToBuild() {
+    assertFalse(new CompiledTranslateTable().makeMap(new String[][] {{"a(", "b"}}));
+  }
+
+  @Test
+  public void record_translatesSubfields() {
+    byte[] raw = MarcTestRecords.record(StandardCharsets.ISO_8859_1,
+        new String[] {"001", "ocm1"},
+        new String[] {"245", "10" + SF + "aHÀ2O" + SF + "cx¯"});
+    MarcRecord rec = new MarcRecord(new String(raw, StandardCharsets.ISO_8859_1));
+    rec.translateVblFields(new CompiledTranslateTable(SCRIPTS));
+    assertEquals("H\u001Bp0\u001Bs2O", rec.getFirstValue("245", "a"));
+    assertEquals("x\u001Bb0\u001Bs", rec.getFirstValue("245", "c"));
+  }
+}
@@ -0,0 +1,219 @@
+package org.cdlib.util.marc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CompressedInputTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private File corpus(int count) throws Exception {
+    byte[][] records = new byte[count][];
+    for (int i = 0; i < count; i++) {
+      records[i] = MarcTestRecords.bib(StandardCharsets.ISO_8859_1, i, "Title " + i);
+    }
+    return MarcTestRecords.write(tmp.newFile("plain.mrc").toPath(), records).toFile();
+  }
+
+  private File write(String name, byte[] content) throws IOException {
+    File file = tmp.newFile(name);
+    Files.write(file.toPath(), content);
+    return file;
+  }
+
+  private static byte[] gzip(byte[] data, int from, int to) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    GZIPOutputStream gz = new GZIPOutputStream(out);
+    gz.write(data, from, to - from);
+    gz.close();
+    return out.toByteArray();
+  }
+
+  /**
+   * Compress data as block gzip, in blocks of the supplied size, ending with the empty block
+   * bgzip writes.
+   */
+  static byte[] bgzf(byte[] data, int blockSize) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (int from = 0; from < data.length; from += blockSize) {
+      bgzfBlock(out, data, from, Math.min(data.length, from + blockSize));
+    }
+    bgzfBlock(out, data, 0, 0);
+    return out.toByteArray();
+  }
+
+  private static void bgzfBlock(ByteArrayOutputStream out, byte[] data, int from, int to) {
+    Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    deflater.setInput(data, from, to - from);
+    deflater.finish();
+    byte[] cdata = new byte[to - from + 1024];
+    int clen = 0;
+    while (!deflater.finished()) {
+      clen += deflater.deflate(cdata, clen, cdata.length - clen);
+    }
+    deflater.end();
+    CRC32 crc = new CRC32();
+    crc.update(data, from, to - from);
+
+    int size = 18 + clen + 8;
+    out.write(0x1f);
+    out.write(0x8b);
+    out.write(8);
+    out.write(4);
+    le(out, 0, 4);
+    out.write(0);
+    out.write(0xff);
+    le(out, 6, 2);
+    out.write('B');
+    out.write('C');
+    le(out, 2, 2);
+    le(out, size - 1, 2);
+    out.write(cdata, 0, clen);
+    le(out, (int) crc.getValue(), 4);
+    le(out, to - from, 4);
+  }
+
+  private static void le(ByteArrayOutputStream out, int value, int bytes) {
+    for (int i = 0; i < bytes; i++) {
+      out.write((value >>> (8 * i)) & 0xff);
+    }
+  }
+
+  private static List<String> readAll(MarcStream in) {
+    List<String> result = new ArrayList<String>();
+    try {
+      while (true) {
+        result.add(in.next().marcDump());
+      }
+    } catch (MarcEndOfFileException e) {
+      return result;
+    }
+  }
+
+  private static List<String> readAll(MarcReader in) {
+    List<String> result = new ArrayList<String>();
+    for (MarcRecord rec = in.next(); rec != null; rec = in.next()) {
+      result.add(rec.marcDump());
+    }
+    return result;
+  }
+
+  private static List<String> readAll(MarcChannelReader in) {
+    List<String> result = new ArrayList<String>();
+    try {
+      while (true) {
+        result.add(in.next().marcDump());
+      }
+    } catch (MarcEndOfFileException e) {
+      return result;
+    }
+  }
+
+  @Test
+  public void marcStream_readsGzipFile() throws Exception {
+    File plain = corpus(40);
+    byte[] data = Files.readAllBytes(plain.toPath());
+    File gz = write("records.mrc.gz", gzip(data, 0, data.length));
+
+    List<String> expected = readAll(new MarcStream(plain));
+    assertEquals(40, expected.size());
+    assertEquals(expected, readAll(new MarcStream(gz)));
+  }
+
+  @Test
+  public void marcReader_readsMultiMemberGzip() throws Exception {
+    File plain = corpus(25);
+    byte[] data = Files.readAllBytes(plain.toPath());
+    ByteArrayOutputStream members = new ByteArrayOutputStream();
+    members.write(gzip(data, 0, 1000));
+    members.write(gzip(data, 1000, data.length));
+    File gz = write("members.mrc.gz", members.toByteArray());
+
+    List<String> expected = readAll(new MarcReader(plain.getPath()));
+    assertEquals(25, expected.size());
+    assertEquals(expected, readAll(new MarcReader(gz.getPath())));
+    assertEquals(expected, readAll(new MarcReader(new ByteArrayInputStream(members.toByteArray()))));
+  }
+
+  @Test
+  public void blockGzip_isReadInOrder() throws Exception {
+    File plain = corpus(200);
+    byte[] data = Files.readAllBytes(plain.toPath());
+    byte[] compressed = bgzf(data, 700);
+    File gz = write("blocks.mrc.gz", compressed);
+
+    InputStream in = CompressedInput.open(new ByteArrayInputStream(compressed));
+    assertTrue(in instanceof BlockGzipInputStream);
+    in.close();
+
+    List<String> expected = readAll(new MarcChannelReader(plain));
+    assertEquals(200, expected.size());
+    assertEquals(expected, readAll(new MarcChannelReader(gz)));
+    assertEquals(expected, readAll(new MarcStream(gz)));
+    assertEquals(expected, readAll(new MarcReader(gz.getPath())));
+  }
+
+  @Test
+  public void compressedFile_isReadWithoutIndex() throws Exception {
+    File plain = corpus(30);
+    byte[] data = Files.readAllBytes(plain.toPath());
+    File gz = write("seek.mrc.gz", bgzf(data, 4096));
+
+    MarcStream expected = new MarcStream(plain);
+    MarcStream actual = new MarcStream(gz);
+    actual.setUseIndex(true);
+    for (int n : new int[] {0, 12, 3, 29, 7}) {
+      assertEquals(expected.getRecord(n).marcDump(), actual.getRecord(n).marcDump());
+    }
+    expected.close();
+    actual.close();
+    assertFalse(new File(gz.getPath() + ".idx").exists());
+  }
+
+  @Test
+  public void corruptBlock_isReported() throws Exception {
+    byte[] data = Files.readAllBytes(corpus(10).toPath());
+    byte[] compressed = bgzf(data, 512);
+    int firstBlock = ((compressed[16] & 0xff) | ((compressed[17] & 0xff) << 8)) + 1;
+    compressed[firstBlock - 8] ^= 0x55;
+
+    InputStream in = CompressedInput.open(new ByteArrayInputStream(compressed));
+    try {
+      while (in.read() >= 0) {
+        // read to the end
+      }
+      fail("expected IOException");
+    } catch (IOException e) {
+      assertEquals("Block gzip member CRC mismatch", e.getMessage());
+    }
+    in.close();
+  }
+
+  @Test
+  public void plainInput_isUnchanged() throws Exception {
+    File plain = corpus(2);
+    assertFalse(CompressedInput.isGzip(plain));
+    MarcReader reader = new MarcReader(new ByteArrayInputStream(Files.readAllBytes(plain.toPath())));
+    assertEquals(2, readAll(reader).size());
+    assertNull(reader.next());
+  }
+}
@@ -0,0 +1,119 @@
+package org.cdlib.util.marc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.cdlib.util.marc.MarcTestRecords.SF;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Test;
+
+public class FieldListTest {
+
+  private static MarcFieldList list(int n) {
+    MarcFieldList list = new MarcFieldList();
+    for (int i = 0; i < n; i++) {
+      list.addField("650", " 0" + SF + "aSubject " + i + ".", null);
+    }
+    return list;
+  }
+
+  @Test
+  public void nestedLoops_doNotShareCursor() {
+    MarcFieldList list = list(4);
+    int pairs = 0;
+    for (Field outer : list) {
+      for (Field inner : list) {
+        pairs++;
+      }
+    }
+    assertEquals(16, pairs);
+
+    assertEquals(16, list.stream().mapToLong(f -> list.stream().count()).sum());
+  }
+
+  @Test
+  public void selfEnumeration_stillWorks() {
+    MarcFieldList list = list(3);
+    int i = 0;
+    while (list.hasMoreElements()) {
+      assertSame(list.elementAt(i++), list.nextElement());
+    }
+    assertEquals(3, i);
+    try {
+      list.nextElement();
+      fail("expected NoSuchElementException");
+    } catch (NoSuchElementException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void elements_rewindsSelfEnumeration() {
+    MarcFieldList list = list(3);
+    while (list.hasMoreElements()) {
+      list.nextElement();
+    }
+    assertSame(list, list.elements());
+    int i = 0;
+    while (list.hasMoreElements()) {
+      assertSame(list.elementAt(i++), list.nextElement());
+    }
+    assertEquals(3, i);
+  }
+
+  @Test
+  public void iterator_doesNotMoveSelfEnumeration() {
+    MarcFieldList list = list(3);
+    list.elements();
+    list.nextElement();
+    assertSame(list.elementAt(0), list.iterator().next());
+    assertSame(list.elementAt(1), list.nextElement());
+  }
+
+  @Test
+  public void toVector_isBackingVector() {
+    MarcFieldList list = list(2);
+    Vector v = list.toVector();
+    assertSame(v, list.toVector());
+    v.removeElementAt(0);
+    assertEquals(1, list.size());
+    list.removeElementAt(0);
+    assertTrue(v.isEmpty());
+  }
+
+  @Test
+  public void sharedList_iteratedByManyThreads() throws Exception {
+    final MarcFieldList list = list(200);
+    ExecutorService pool = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<Integer>> results = new ArrayList<>();
+      for (int t = 0; t < 8; t++) {
+        results.add(pool.submit(new Callable<Integer>() {
+          public Integer call() {
+            int count = 0;
+            for (int pass = 0; pass < 50; pass++) {
+              count += (int) list.stream().count();
+              for (Field f : list) {
+                count++;
+              }
+            }
+            return count;
+          }
+        }));
+      }
+      for (Future<Integer> r : results) {
+        assertEquals(Integer.valueOf(200 * 2 * 50), r.get());
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+}
@@ -0,0 +1,104 @@
+package org.cdlib.util.marc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.cdlib.util.marc.MarcTestRecords.SF;
+import static org.cdlib.util.string.StringUtil.ascii2int;
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+
+public class MarcBaseRecordLazyTest {
+
+  // directory deliberately out of tag order
+  private static final byte[] RAW = MarcTestRecords.record(StandardCharsets.ISO_8859_1,
+      new String[] {"001", "ocm12345"},
+      new String[] {"245", "10" + SF + "aTitle /" + SF + "cAuthor."},
+      new String[] {"035", "  " + SF + "a(OCoLC)12345"},
+      new String[] {"650", " 0" + SF + "aFirst subject."},
+      new String[] {"100", "1 " + SF + "aAuthor."},
+      new String[] {"650", " 0" + SF + "aSecond subject."});
+
+  private static final String RAW_STRING = new String(RAW, StandardCharsets.ISO_8859_1);
+
+  private MarcRecord lazy(int order) {
+    MarcRecord rec = new MarcRecord();
+    rec.buildLazy(RAW_STRING, order);
+    return rec;
+  }
+
+  private MarcRecord eager(int order) {
+    MarcRecord rec = new MarcRecord();
+    rec.build(RAW_STRING, order);
+    return rec;
+  }
+
+  @Test
+  public void lookups_doNotMaterialize() {
+    MarcRecord rec = lazy(MarcBaseRecord.END_LIST);
+    assertTrue(rec.isLazy());
+    assertEquals("ocm12345", rec.getFirstValue("001", null));
+    assertEquals("(OCoLC)12345", rec.getFirstValue("035", "a"));
+    assertEquals(2, rec.allFields("6xx").size());
+    assertEquals(1, rec.allFields(100, 199).size());
+    assertNull(rec.getFirstField("999"));
+    assertEquals(6, rec.getFieldCount());
+    assertEquals(2, rec.getFieldCountMap().get("650"));
+    assertTrue(rec.isLazy());
+  }
+
+  @Test
+  public void materializedRecord_matchesEagerBuild() {
+    for (int order : new int[] {MarcBaseRecord.END_LIST, MarcBaseRecord.TAG_ORDER,
+        MarcBaseRecord.MARC_TAG_ORDER}) {
+      MarcRecord lazy = lazy(order);
+      MarcRecord eager = eager(order);
+      assertEquals(eager.getFields(0, 999).toString(), lazy.getFields(0, 999).toString());
+      assertTrue(lazy.isLazy());
+      assertEquals(eager.marcDump(), lazy.marcDump());
+      assertFalse(lazy.isLazy());
+      assertEquals(eager.toString(), lazy.toString());
+    }
+  }
+
+  @Test
+  public void fieldsReturnedLazily_areTheRecordsFields() {
+    MarcRecord rec = lazy(MarcBaseRecord.END_LIST);
+    Field f = rec.getFirstField("650");
+    assertSame(f, rec.getFirstField(650));
+    assertEquals(1, rec.deleteFields(rec.allFields("100")));
+    assertFalse(rec.isLazy());
+    assertSame(f, rec.getFirstField("650"));
+    assertEquals(5, rec.getFieldCount());
+  }
+
+  @Test
+  public void addingField_continuesFieldIds() {
+    MarcRecord rec = lazy(MarcBaseRecord.END_LIST);
+    Field added = rec.setField("500", "  " + SF + "aNote.", String.valueOf(SF), MarcBaseRecord.END_LIST);
+    assertEquals(6, added.getId());
+    assertEquals(7, rec.getFieldCount());
+  }
+
+  @Test
+  public void bytes_decodeUtf8() {
+    String title = "Ｔｉｔｌｅ — ʻĀina";
+    byte[] raw = MarcTestRecords.bib(StandardCharsets.UTF_8, 1, title);
+    MarcRecord rec = new MarcRecord();
+    rec.buildLazy(raw, 0, raw.length, null, MarcBaseRecord.END_LIST);
+    assertEquals(title, rec.getFirstValue("245", "a"));
+    assertTrue(rec.isLazy());
+  }
+
+  @Test(expected = MarcFormatException.class)
+  public void missingFieldTerminator_throws() {
+    byte[] raw = RAW.clone();
+    int base = ascii2int(raw, 12, 5);
+    int firstEnd = base + ascii2int(raw, 24 + 3, 4) - 1;
+    raw[firstEnd] = 'x';
+    new MarcRecord().buildLazy(raw, 0, raw.length, null, MarcBaseRecord.END_LIST);
+  }
+
+}
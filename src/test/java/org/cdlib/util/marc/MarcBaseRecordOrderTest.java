@@ -0,0 +1,103 @@
+package org.cdlib.util.marc;
+
+import static org.junit.Assert.assertEquals;
+import static org.cdlib.util.marc.MarcTestRecords.SF;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import org.junit.Test;
+
+public class MarcBaseRecordOrderTest {
+
+  private static final int[] ORDERS = {MarcBaseRecord.END_LIST, MarcBaseRecord.TAG_ORDER,
+      MarcBaseRecord.MARC_TAG_ORDER};
+
+  private static final String DELIM = String.valueOf(SF);
+
+  private static final String[] TAGS = {"001", "005", "008", "020", "035", "100", "245", "260",
+      "300", "500", "505", "600", "650", "651", "700", "710", "856", "920", "955", "CAT"};
+
+  /**
+   * Fields with tags in a random order, each with distinct data so that a change in the order of
+   * fields with the same tag shows.
+   */
+  private static String[][] shuffled(Random rnd, int n) {
+    String[][] fields = new String[n][];
+    for (int i = 0; i < n; i++) {
+      String tag = TAGS[rnd.nextInt(TAGS.length)];
+      String data = (tag.compareTo("010") < 0 ? "control " + i : "  " + SF + "afield " + i);
+      fields[i] = new String[] {tag, data};
+    }
+    return fields;
+  }
+
+  /**
+   * The record that adding each field in turn with setField produces.
+   */
+  private static MarcRecord oneAtATime(String[][] fields, int order) {
+    MarcRecord rec = new MarcRecord();
+    for (String[] f : fields) {
+      rec.setField(f[0], f[1], DELIM, order);
+    }
+    return rec;
+  }
+
+  private static String tags(MarcRecord rec) {
+    StringBuilder sb = new StringBuilder();
+    for (Object o : rec.getFields().toVector()) {
+      Field f = (Field) o;
+      sb.append(f.tag()).append('/').append(f.getId()).append(' ');
+    }
+    return sb.toString();
+  }
+
+  @Test
+  public void build_matchesOneFieldAtATime() {
+    Random rnd = new Random(42);
+    for (int n : new int[] {0, 1, 2, 7, 60, 300}) {
+      String[][] fields = shuffled(rnd, n);
+      String raw = new String(MarcTestRecords.record(StandardCharsets.ISO_8859_1, fields),
+          StandardCharsets.ISO_8859_1);
+      char[] chars = raw.toCharArray();
+      for (int order : ORDERS) {
+        MarcRecord expected = oneAtATime(fields, order);
+
+        MarcRecord built = new MarcRecord();
+        built.build(raw, order);
+        assertEquals(tags(expected), tags(built));
+        assertEquals(expected.marcDump(), built.marcDump());
+
+        MarcRecord rebuilt = new MarcRecord();
+        rebuilt.rebuild(chars, 0, chars.length, order);
+        assertEquals(expected.marcDump(), rebuilt.marcDump());
+
+        MarcRecord lazy = new MarcRecord();
+        lazy.buildLazy(raw, order);
+        assertEquals(expected.marcDump(), lazy.marcDump());
+      }
+    }
+  }
+
+  @Test
+  public void setFields_matchesOneFieldAtATime() {
+    Random rnd = new Random(7);
+    for (int order : ORDERS) {
+      for (int existingOrder : ORDERS) {
+        String[][] existing = shuffled(rnd, 40);
+        String[][] added = shuffled(rnd, 40);
+        MarcRecord expected = oneAtATime(existing, existingOrder);
+        MarcRecord rec = oneAtATime(existing, existingOrder);
+        for (String[] f : added) {
+          expected.setField(f[0], f[1], DELIM, order);
+        }
+
+        MarcFieldList list = new MarcFieldList();
+        for (String[] f : added) {
+          list.addField(f[0], f[1], DELIM);
+        }
+        rec.setFields(list, order);
+        assertEquals(tags(expected), tags(rec));
+        assertEquals(expected.marcDump(), rec.marcDump());
+      }
+    }
+  }
+}
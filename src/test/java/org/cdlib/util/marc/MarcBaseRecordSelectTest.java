@@ -0,0 +1,110 @@
+package org.cdlib.util.marc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.cdlib.util.marc.MarcTestRecords.SF;
+import java.nio.charset.StandardCharsets;
+import java.util.Vector;
+import java.util.regex.Pattern;
+import org.apache.regexp.RE;
+import org.junit.Test;
+
+public class MarcBaseRecordSelectTest {
+
+  private static MarcRecord record() {
+    byte[] raw = MarcTestRecords.record(StandardCharsets.ISO_8859_1,
+        new String[] {"001", "ocm00012345"},
+        new String[] {"008", "850101s1985    nyu           000 0 eng d"},
+        new String[] {"245", "10" + SF + "aThe history of Rome /" + SF + "cby Someone."},
+        new String[] {"305", "  " + SF + "a300 p."},
+        new String[] {"315", "  " + SF + "aMonthly"},
+        new String[] {"650", " 0" + SF + "aRome" + SF + "xHistory."},
+        new String[] {"651", " 0" + SF + "aItaly" + SF + "xHISTORY"});
+    return new MarcRecord(new String(raw, StandardCharsets.ISO_8859_1));
+  }
+
+  /**
+   * Select fields with jakarta-regexp alone.
+   */
+  private static Vector jakarta(MarcRecord rec, String tag, String data, int flags)
+      throws Exception {
+    RE tagExp = (tag == null ? null : new RE(tag));
+    RE dataExp = (data == null ? null : new RE(data, flags));
+    Vector result = new Vector();
+    for (Object o : rec.getFields().toVector()) {
+      Field f = (Field) o;
+      if ((tagExp == null || tagExp.match(f.tag()))
+          && (dataExp == null || dataExp.match(f.marcDump()))) {
+        result.add(f);
+      }
+    }
+    return result;
+  }
+
+  @Test
+  public void getRegExp_matchesJakartaRegexp() throws Exception {
+    MarcRecord rec = record();
+    String[][] cases = {{"3\\d5", null}, {null, "history"}, {"6..", "History"},
+        {null, "^ 0" + SF + "a"}, {null, SF + "x[A-Z]+$"}, {"00", "1985"}, {"9", null},
+        {null, "Rome /" + SF + "c"}, {"2", "\u001E$"}};
+    for (String[] c : cases) {
+      for (int flags : new int[] {RE.MATCH_NORMAL, RE.MATCH_CASEINDEPENDENT}) {
+        assertEquals(c[0] + " " + c[1], jakarta(rec, c[0], c[1], flags),
+            rec.getRegExp(c[0], c[1], flags).toVector());
+      }
+    }
+    assertEquals(7, rec.getRegExp(null, "").size());
+  }
+
+  @Test
+  public void getRegExp_posixClassesUseJakartaRegexp() throws Exception {
+    MarcRecord rec = record();
+    String[][] cases = {{"[:digit:]5", null}, {null, SF + "x[:upper:][:upper:]"},
+        {"6..", "[:alpha:]ome"}, {null, ":"}};
+    for (String[] c : cases) {
+      assertEquals(c[0] + " " + c[1], jakarta(rec, c[0], c[1], RE.MATCH_NORMAL),
+          rec.getRegExp(c[0], c[1]).toVector());
+    }
+    // java.util.regex would read [:upper:] as a set of the characters in "upper" and ":"
+    assertEquals(1, rec.getRegExp(null, SF + "x[:upper:][:upper:]").size());
+  }
+
+  @Test
+  public void getRegExp_expressionsJavaRejectsUseJakartaRegexp() throws Exception {
+    MarcRecord rec = record();
+    // java.util.regex rejects the unknown escape \i, jakarta-regexp reads it as a plain "i"
+    String[][] cases = {{"6\\i", null}, {null, "H\\istory"}, {"6..", "\\Italy"}};
+    for (String[] c : cases) {
+      assertEquals(c[0] + " " + c[1], jakarta(rec, c[0], c[1], RE.MATCH_NORMAL),
+          rec.getRegExp(c[0], c[1]).toVector());
+    }
+    assertEquals(1, rec.getRegExp(null, "H\\istory").size());
+    assertEquals(3, rec.getRegExp(null, "H\\istory", RE.MATCH_CASEINDEPENDENT).size());
+  }
+
+  @Test
+  public void selectFields_usesPatternFlags() {
+    MarcRecord rec = record();
+    assertEquals(1, rec.selectFields("65.", "History", 0).size());
+    assertEquals(2, rec.selectFields("65.", "history", Pattern.CASE_INSENSITIVE).size());
+    assertEquals(2, rec.selectFields(Pattern.compile("^3"), null).size());
+  }
+
+  @Test
+  public void patterns_areCached() {
+    assertSame(PatternCache.compile("6[0-9]{2}", 0), PatternCache.compile("6[0-9]{2}", 0));
+    assertEquals(Pattern.CASE_INSENSITIVE,
+        PatternCache.compile("abc", Pattern.CASE_INSENSITIVE).flags());
+  }
+
+  @Test
+  public void invalidExpression_throwsParmException() {
+    try {
+      record().getRegExp("6(", null);
+      fail("expected MarcParmException");
+    } catch (MarcParmException e) {
+      // expected
+    }
+  }
+}
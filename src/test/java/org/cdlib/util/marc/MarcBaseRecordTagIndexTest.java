@@ -0,0 +1,187 @@
+package org.cdlib.util.marc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.cdlib.util.marc.MarcTestRecords.SF;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Vector;
+import org.junit.Test;
+
+public class MarcBaseRecordTagIndexTest {
+
+  private static final String DELIM = String.valueOf(SF);
+
+  /**
+   * A record large enough to be indexed, with repeated 650 and 9xx fields.
+   */
+  private static MarcRecord bigRecord() {
+    List<String[]> fields = new ArrayList<>();
+    fields.add(new String[] {"001", "ocm1"});
+    fields.add(new String[] {"008", "850101s1985    nyu           000 0 eng d"});
+    fields.add(new String[] {"245", "10" + SF + "aTitle."});
+    for (int i = 0; i < 20; i++) {
+      fields.add(new String[] {"650", " 0" + SF + "aSubject " + i + "."});
+    }
+    for (int i = 0; i < 30; i++) {
+      fields.add(new String[] {String.valueOf(920 + i % 3), "  " + SF + "zLocal " + i});
+    }
+    byte[] raw = MarcTestRecords.record(StandardCharsets.ISO_8859_1,
+        fields.toArray(new String[fields.size()][]));
+    return new MarcRecord(new String(raw, StandardCharsets.ISO_8859_1));
+  }
+
+  /**
+   * The fields in a range of tags, found by scanning every field.
+   */
+  private static Vector scan(MarcRecord rec, int start, int end) {
+    Vector all = rec.getFields().toVector();
+    Vector result = new Vector();
+    for (Object o : all) {
+      Field f = (Field) o;
+      if (f.getTagint() >= start && f.getTagint() <= end) {
+        result.add(f);
+      }
+    }
+    return result;
+  }
+
+  private static void assertLookups(MarcRecord rec) {
+    int[][] ranges = {{0, 9}, {245, 245}, {600, 699}, {650, 650}, {920, 955}, {921, 921},
+        {0, 999}, {700, 799}};
+    for (int[] r : ranges) {
+      Vector expected = scan(rec, r[0], r[1]);
+      assertEquals(expected, rec.getFields(r[0], r[1]).toVector());
+      String start = MarcTestRecords.pad(r[0], 3);
+      String end = MarcTestRecords.pad(r[1], 3);
+      assertEquals(expected, rec.getFields(start, end).toVector());
+      Field first = (expected.isEmpty() ? null : (Field) expected.get(0));
+      if (r[0] == r[1]) {
+        assertSame(first, rec.getFirstField(r[0]));
+        assertSame(first, rec.getFirstField(start));
+      }
+    }
+  }
+
+  @Test
+  public void lookups_matchScan() {
+    MarcRecord rec = bigRecord();
+    assertLookups(rec);
+    assertEquals(20, rec.getValues("650", "a").size());
+    assertEquals(30, rec.getValues("920-955", "z").size());
+    assertNull(rec.getFirstField("ABC"));
+    assertNull(rec.getFirstField("999"));
+  }
+
+  @Test
+  public void index_followsAddedFields() {
+    for (int order : new int[] {MarcBaseRecord.END_LIST, MarcBaseRecord.TAG_ORDER,
+        MarcBaseRecord.MARC_TAG_ORDER}) {
+      MarcRecord rec = bigRecord();
+      assertLookups(rec);
+      rec.setField("650", " 0" + SF + "aAdded subject.", DELIM, order);
+      rec.setField("100", "1 " + SF + "aAuthor.", DELIM, order);
+      rec.setField("921", "  " + SF + "zAdded local", DELIM, order);
+      rec.setField("500", "  " + SF + "aNote.", DELIM, order);
+      assertLookups(rec);
+      assertEquals("Added subject.", lastSubfield(rec, 650).value());
+    }
+  }
+
+  private static MarcSubfield lastSubfield(MarcRecord rec, int tag) {
+    MarcVblLengthField f = (MarcVblLengthField) rec.getFields(tag, tag).toVector().lastElement();
+    return f.firstSubfield("a");
+  }
+
+  @Test
+  public void index_followsDeletedAndReplacedFields() {
+    MarcRecord rec = bigRecord();
+    assertLookups(rec);
+
+    MarcFieldList subjects = rec.getFields(650, 650);
+    MarcFieldList some = new MarcFieldList();
+    some.addElement(subjects.elementAt(0));
+    some.addElement(subjects.elementAt(5));
+    assertEquals(2, rec.deleteFields(some));
+    assertLookups(rec);
+
+    assertEquals(10, rec.deleteFields("920", "920"));
+    assertLookups(rec);
+
+    MarcVblLengthField title = (MarcVblLengthField) rec.getFirstField(245);
+    MarcVblLengthField newTitle = new MarcVblLengthField("245", "00" + SF + "aNew title.");
+    newTitle.setId(title.getId());
+    MarcFieldList replace = new MarcFieldList();
+    replace.addElement(newTitle);
+    rec.replaceFields(replace, MarcBaseRecord.END_LIST);
+    assertSame(newTitle, rec.getFirstField("245"));
+    assertLookups(rec);
+  }
+
+  @Test
+  public void outOfOrderRecord_fallsBackToScan() {
+    MarcRecord rec = bigRecord();
+    rec.setField("100", "1 " + SF + "aAuthor at end.", DELIM, MarcBaseRecord.END_LIST);
+    rec.setField("650", " 0" + SF + "aSubject at end.", DELIM, MarcBaseRecord.END_LIST);
+    assertLookups(rec);
+    rec.setField("245", "00" + SF + "aInserted title.", DELIM, MarcBaseRecord.TAG_ORDER);
+    assertLookups(rec);
+  }
+
+  @Test
+  public void alphaTags_areFound() {
+    MarcRecord rec = bigRecord();
+    assertLookups(rec);
+    Field local = rec.setField("CAT", "  " + SF + "aCataloger", DELIM, MarcBaseRecord.END_LIST);
+    assertSame(local, rec.getFirstField("cat"));
+    assertEquals(1, rec.getFields("C", "D").size());
+    assertLookups(rec);
+    rec.deleteFields(rec.allFields("CAT"));
+    assertNull(rec.getFirstField("CAT"));
+    assertLookups(rec);
+  }
+
+  @Test
+  public void retaggedFields_areFoundUnderNewTag() {
+    MarcRecord rec = bigRecord();
+    assertLookups(rec);
+    Field subject = rec.getFields(650, 650).elementAt(3);
+    subject.setTag("651");
+    assertSame(subject, rec.getFirstField(651));
+    assertEquals(19, rec.getFields("650", "650").size());
+    assertLookups(rec);
+
+    MarcVblLengthField title = (MarcVblLengthField) rec.getFirstField(245);
+    title.setField("246", "3 " + SF + "aOther title.");
+    assertNull(rec.getFirstField("245"));
+    assertSame(title, rec.getFirstField("246"));
+    assertLookups(rec);
+  }
+
+  @Test
+  public void fieldInTwoRecords_isFoundInBothAfterRetag() {
+    MarcRecord rec = bigRecord();
+    MarcRecord other = bigRecord();
+    Field local = rec.getFirstField(921);
+    other.setField(local, MarcBaseRecord.END_LIST);
+    assertLookups(rec);
+    assertLookups(other);
+    local.setTag("935");
+    assertSame(local, rec.getFirstField(935));
+    assertSame(local, other.getFirstField(935));
+    assertLookups(rec);
+    assertLookups(other);
+  }
+
+  @Test
+  public void sharedFields_shareIndex() {
+    MarcRecord rec = bigRecord();
+    MarcRecord copy = new MarcRecord(rec);
+    assertLookups(copy);
+    rec.deleteFields("650", "650");
+    assertNull(copy.getFirstField(650));
+    assertLookups(copy);
+  }
+}
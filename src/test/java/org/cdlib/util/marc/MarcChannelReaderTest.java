@@ -0,0 +1,142 @@
+package org.cdlib.util.marc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.cdlib.util.marc.MarcTestRecords.bib;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MarcChannelReaderTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private File file(byte[]... records) throws Exception {
+    return MarcTestRecords.write(tmp.newFile().toPath(), records).toFile();
+  }
+
+  @Test
+  public void next_readsAllRecords() throws Exception {
+    byte[] first = bib(StandardCharsets.ISO_8859_1, 1, "First title /");
+    byte[] second = bib(StandardCharsets.ISO_8859_1, 2, "Second title /");
+    try (MarcChannelReader reader = new MarcChannelReader(file(first, second))) {
+      MarcRecord rec = reader.next();
+      assertEquals("ocm00000001", rec.getFirstValue("001", null));
+      assertEquals("First title /", rec.getFirstValue("245", "a"));
+      assertEquals(0, reader.getCurrentCnt());
+      assertEquals(0, reader.getRecordOffset());
+
+      rec = reader.next();
+      assertEquals("Second title /", rec.getFirstValue("245", "a"));
+      assertEquals(1, reader.getCurrentCnt());
+      assertEquals(first.length, reader.getRecordOffset());
+      try {
+        reader.next();
+        fail("expected end of file");
+      } catch (MarcEndOfFileException e) {
+        // expected
+      }
+    }
+  }
+
+  @Test
+  public void next_decodesUtf8ByByteLength() throws Exception {
+    String title = "Café à la ćwięta 中文 /";
+    byte[] rec = bib(StandardCharsets.UTF_8, 1, title);
+    try (MarcChannelReader reader = new MarcChannelReader(file(rec, rec))) {
+      assertEquals(title, reader.next().getFirstValue("245", "a"));
+      MarcRecord second = reader.next();
+      assertEquals(title, second.getFirstValue("245", "a"));
+      assertEquals("Subject 1", second.getFirstValue("650", "a"));
+    }
+  }
+
+  @Test
+  public void next_populatesSuppliedRecord() throws Exception {
+    try (MarcChannelReader reader = new MarcChannelReader(
+        file(bib(StandardCharsets.ISO_8859_1, 1, "One"), bib(StandardCharsets.ISO_8859_1, 2, "Two")))) {
+      MarcRecord rec = new MarcRecord();
+      assertEquals(MarcConstants.MARC_READ_SUCCESS, reader.next(rec));
+      assertEquals("One", rec.getFirstValue("245", "a"));
+      reader.next(rec);
+      assertEquals("Two", rec.getFirstValue("245", "a"));
+      assertEquals(4, rec.getFieldCount());
+    }
+  }
+
+  @Test
+  public void next_skipsMalformedRecord() throws Exception {
+    byte[] bad = bib(StandardCharsets.ISO_8859_1, 2, "Bad");
+    // leader length short of the real terminator
+    byte[] wrongLength = MarcTestRecords.pad(bad.length - 10, 5).getBytes(StandardCharsets.US_ASCII);
+    System.arraycopy(wrongLength, 0, bad, 0, 5);
+    byte[] good = bib(StandardCharsets.ISO_8859_1, 3, "Good");
+    try (MarcChannelReader reader = new MarcChannelReader(
+        file(bib(StandardCharsets.ISO_8859_1, 1, "One"), bad, good))) {
+      reader.next();
+      try {
+        reader.next();
+        fail("expected format exception");
+      } catch (MarcFormatException e) {
+        // expected
+      }
+      assertEquals("Good", reader.next().getFirstValue("245", "a"));
+      assertEquals(2, reader.getCurrentCnt());
+    }
+  }
+
+  @Test
+  public void next_skipsRecordWithLengthPastEndOfFile() throws Exception {
+    byte[] bad = bib(StandardCharsets.ISO_8859_1, 2, "Bad");
+    // leader length beyond the end of the file
+    System.arraycopy("99999".getBytes(StandardCharsets.US_ASCII), 0, bad, 0, 5);
+    try (MarcChannelReader reader = new MarcChannelReader(file(bib(StandardCharsets.ISO_8859_1,
+        1, "One"), bad, bib(StandardCharsets.ISO_8859_1, 3, "Three"),
+        bib(StandardCharsets.ISO_8859_1, 4, "Four")))) {
+      reader.next();
+      try {
+        reader.next();
+        fail("expected format exception");
+      } catch (MarcFormatException e) {
+        // expected
+      }
+      assertEquals("Three", reader.next().getFirstValue("245", "a"));
+      assertEquals("Four", reader.next().getFirstValue("245", "a"));
+      assertEquals(3, reader.getCurrentCnt());
+      try {
+        reader.next();
+        fail("expected end of file");
+      } catch (MarcEndOfFileException e) {
+        // expected
+      }
+    }
+  }
+
+  @Test
+  public void next_readsRecordsAcrossBufferRefills() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    StringBuilder longTitle = new StringBuilder();
+    for (int i = 0; i < 800; i++) {
+      longTitle.append("long title ");
+    }
+    int count = 500;
+    for (int i = 0; i < count; i++) {
+      String title = (i % 50 == 0) ? longTitle.toString() : "Title " + i;
+      byte[] rec = bib(StandardCharsets.UTF_8, i, title);
+      out.write(rec, 0, rec.length);
+      out.write('\n');
+    }
+    try (MarcChannelReader reader = new MarcChannelReader(file(out.toByteArray()))) {
+      for (int i = 0; i < count; i++) {
+        MarcRecord rec = reader.next();
+        assertEquals("Subject " + i, rec.getFirstValue("650", "a"));
+      }
+      assertEquals(count - 1, reader.getCurrentCnt());
+    }
+  }
+
+}
@@ -0,0 +1,247 @@
+package org.cdlib.util.marc;
+
+import static org.cdlib.util.marc.MarcTestRecords.SF;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MarcColumnStoreTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private static final int COUNT = 40;
+
+  /**
+   * Records with a unique 035, and a holding in 852 for every record but each fifth, a second for
+   * each third. Each record from the tenth has a 500 note holding its title.
+   */
+  private static byte[][] records(Charset cs, String... titles) {
+    byte[][] records = new byte[COUNT][];
+    for (int i = 0; i < COUNT; i++) {
+      List<String[]> fields = new ArrayList<String[]>();
+      fields.add(new String[] {"001", "ocm" + i});
+      fields.add(new String[] {"008", "990101s1999    cau           000 0 " + (i % 2 == 0 ? "eng" : "fre") + " d"});
+      fields.add(new String[] {"035", "  " + SF + "a(OCoLC)" + (1000 + i)});
+      if (i >= 10) {
+        fields.add(new String[] {"500", "  " + SF + "a" + titles[i % titles.length]});
+      }
+      if (i % 5 != 0) {
+        fields.add(new String[] {"852", "0 " + SF + "bMAIN" + SF + "hQA" + i});
+      }
+      if (i % 3 == 0) {
+        fields.add(new String[] {"852", "0 " + SF + "bLAW" + SF + "bANNEX"});
+      }
+      records[i] = MarcTestRecords.record(cs, fields.toArray(new String[0][]));
+    }
+    return records;
+  }
+
+  private File corpus(int bad) throws Exception {
+    byte[][] records = records(StandardCharsets.ISO_8859_1, "Notes");
+    if (bad >= 0) {
+      records[bad][24 + 3] = 'x';
+    }
+    return MarcTestRecords.write(tmp.newFile().toPath(), records).toFile();
+  }
+
+  /**
+   * Reads records as UTF-8, which MarcStream, reading them as ISO-8859-1, does not.
+   */
+  private static final class Utf8Stream extends MarcStream {
+    private final byte[][] records;
+    private int next = 0;
+
+    Utf8Stream(File file, byte[][] records) {
+      super(file);
+      this.records = records;
+    }
+
+    @Override
+    public int next(MarcRecord rec) {
+      if (next == records.length) {
+        throw new MarcEndOfFileException();
+      }
+      byte[] raw = records[next++];
+      rec.build(raw, 0, raw.length, null, MarcBaseRecord.END_LIST);
+      return MARC_READ_SUCCESS;
+    }
+  }
+
+  private static List<String> expected852b(int i) {
+    List<String> values = new ArrayList<String>();
+    if (i % 5 != 0) {
+      values.add("MAIN");
+    }
+    if (i % 3 == 0) {
+      values.addAll(Arrays.asList("LAW", "ANNEX"));
+    }
+    return values;
+  }
+
+  @Test
+  public void export_scansSelectedColumns() throws Exception {
+    File dir = tmp.newFolder();
+    MarcColumnExporter exporter = new MarcColumnExporter(dir);
+    exporter.addColumn("008/35-37");
+    exporter.addColumn("035$a");
+    exporter.addColumn("852$b");
+    exporter.addColumn("LDR/6");
+    assertEquals(COUNT, exporter.export(corpus(-1)));
+
+    MarcColumnStore store = MarcColumnStore.open(dir);
+    assertEquals(COUNT, store.getRecordCount());
+    assertEquals(Arrays.asList("008/35-37", "035$a", "852$b", "LDR/06"), store.getColumnNames());
+    assertTrue(store.getColumn("852$b").isDictionaryEncoded());
+    assertEquals(3, store.getColumn("852$b").getDictionarySize());
+    assertFalse(store.getColumn("035$a").isDictionaryEncoded());
+
+    MarcColumnStore.Scan scan = store.scan("852$b", "008/35-37", "035$a", "LDR/06");
+    int n = 0;
+    while (scan.next()) {
+      assertEquals(n, scan.getRecord());
+      assertEquals(expected852b(n), scan.getValues(0));
+      assertEquals(expected852b(n).size(), scan.getValueCount(0));
+      assertEquals(Collections.singletonList(n % 2 == 0 ? "eng" : "fre"), scan.getValues(1));
+      assertEquals(Collections.singletonList("(OCoLC)" + (1000 + n)), scan.getValues(2));
+      assertEquals(Collections.singletonList("a"), scan.getValues(3));
+      n++;
+    }
+    assertEquals(COUNT, n);
+    assertFalse(scan.next());
+  }
+
+  @Test
+  public void export_everyTag() throws Exception {
+    File dir = tmp.newFolder();
+    assertEquals(COUNT, new MarcColumnExporter(dir).export(corpus(-1)));
+
+    MarcColumnStore store = MarcColumnStore.open(dir);
+    assertEquals(Arrays.asList("001", "008", "035$a", "500$a", "852$b", "852$h", "LDR"),
+        store.getColumnNames());
+    assertTrue(store.hasColumn("008/35-37"));
+    assertFalse(store.hasColumn("245$a"));
+    assertEquals(COUNT - 10, store.getColumn("500$a").getValueCount());
+    assertEquals(10, store.getColumn("500$a").getRecord(0));
+    MarcColumnStore.Scan leader = store.scan("LDR/06");
+    assertTrue(leader.next());
+    assertEquals(Collections.singletonList("a"), leader.getValues(0));
+
+    MarcColumnStore.Scan scan = store.scan("008/35-37", "852$h");
+    while (scan.next()) {
+      int i = scan.getRecord();
+      assertEquals(Collections.singletonList(i % 2 == 0 ? "eng" : "fre"), scan.getValues(0));
+      assertEquals(i % 5 != 0 ? Collections.singletonList("QA" + i) : Collections.emptyList(),
+          scan.getValues(1));
+    }
+
+    MarcColumn column = store.getColumn("852$b");
+    assertEquals(expected852b(9), column.getValues(9));
+    assertEquals(column.firstIndex(10), column.firstIndex(11));
+    assertEquals("ocm7", store.getColumn("001").getValues(7).get(0));
+  }
+
+  @Test
+  public void export_keepsNonLatin1Values() throws Exception {
+    File dir = tmp.newFolder();
+    byte[][] records = records(StandardCharsets.UTF_8, "東京", "大阪", "Kraków");
+    MarcStream in = new Utf8Stream(MarcTestRecords.write(tmp.newFile().toPath(), records).toFile(),
+        records);
+    try {
+      assertEquals(COUNT, new MarcColumnExporter(dir).export(in));
+    } finally {
+      in.close();
+    }
+
+    MarcColumn column = MarcColumnStore.open(dir).getColumn("500$a");
+    assertTrue(column.isDictionaryEncoded());
+    assertEquals(3, column.getDictionarySize());
+    assertEquals(Collections.singletonList("大阪"), column.getValues(10));
+    assertEquals(Collections.singletonList("Kraków"), column.getValues(11));
+    assertEquals(Collections.singletonList("東京"), column.getValues(12));
+  }
+
+  @Test
+  public void export_failureLeavesNoStore() throws Exception {
+    File dir = tmp.newFolder();
+    new MarcColumnExporter(dir).export(corpus(-1));
+    MarcColumnStore.open(dir);
+
+    MarcColumnExporter exporter = new MarcColumnExporter(dir);
+    exporter.addColumn("001");
+    exporter.addColumn("035$a");
+    exporter.setMaxColumnSize(4 * (MarcColumn.HEADER_INTS + 2 * COUNT + 1) + 7 * COUNT);
+    try {
+      exporter.export(corpus(-1));
+      fail("expected MarcSizeException");
+    } catch (MarcSizeException e) {
+      // expected, 035$a is too large
+    }
+    assertFalse(new File(dir, MarcColumnStore.MANIFEST).exists());
+    assertEquals(0, dir.listFiles((d, name) -> name.endsWith(".tmp")).length);
+    try {
+      MarcColumnStore.open(dir);
+      fail("expected MarcIOException");
+    } catch (MarcIOException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void export_skipsMalformedRecords() throws Exception {
+    File dir = tmp.newFolder();
+    MarcColumnExporter exporter = new MarcColumnExporter(dir);
+    exporter.addColumn("001");
+    assertEquals(COUNT - 1, exporter.export(corpus(4)));
+    assertEquals(1, exporter.getMalformedCount());
+
+    MarcColumn column = MarcColumnStore.open(dir).getColumn("001");
+    assertEquals("ocm3", column.getValue(3));
+    assertEquals("ocm5", column.getValue(4));
+  }
+
+  @Test
+  public void dictionary_isLimited() throws Exception {
+    File dir = tmp.newFolder();
+    MarcColumnExporter exporter = new MarcColumnExporter(dir);
+    exporter.addColumn("852$b");
+    exporter.setMaxDictionarySize(2);
+    exporter.export(corpus(-1));
+    MarcColumn column = MarcColumnStore.open(dir).getColumn("852$b");
+    assertFalse(column.isDictionaryEncoded());
+    assertEquals(expected852b(3), column.getValues(3));
+  }
+
+  @Test(expected = MarcParmException.class)
+  public void scan_unknownColumn() throws Exception {
+    File dir = tmp.newFolder();
+    MarcColumnExporter exporter = new MarcColumnExporter(dir);
+    exporter.addColumn("001");
+    exporter.export(corpus(-1));
+    MarcColumnStore.open(dir).scan("852$b");
+  }
+
+  @Test
+  public void addColumn_rejectsMalformedNames() {
+    MarcColumnExporter exporter = new MarcColumnExporter(tmp.getRoot());
+    for (String name : new String[] {"", "85", "852$", "852$ab", "008/", "008/10-07", "LDR$a", "8 2"}) {
+      try {
+        exporter.addColumn(name);
+        throw new AssertionError("expected MarcParmException for '" + name + "'");
+      } catch (MarcParmException e) {
+        // expected
+      }
+    }
+  }
+}
@@ -0,0 +1,89 @@
+package org.cdlib.util.marc;
+
+import static org.junit.Assert.assertEquals;
+import static org.cdlib.util.marc.MarcTestRecords.SF;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MarcCorpusProfilerTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private File corpus(String name, int count) throws Exception {
+    byte[][] records = new byte[count][];
+    for (int i = 0; i < count; i++) {
+      records[i] = MarcTestRecords.bib(StandardCharsets.ISO_8859_1, i, "Title " + i);
+    }
+    return MarcTestRecords.write(tmp.newFile(name).toPath(), records).toFile();
+  }
+
+  @Test
+  public void profile_countsRecordContent() {
+    byte[] raw = MarcTestRecords.record(StandardCharsets.ISO_8859_1,
+        new String[] {"001", "ocm1"},
+        new String[] {"245", "10" + SF + "aTitle" + SF + "bmore" + SF + "cby Someone."},
+        new String[] {"650", " 0" + SF + "aRome" + SF + "xHistory."},
+        new String[] {"650", " 7" + SF + "aItaly" + SF + "2fast"});
+    MarcProfile profile = new MarcProfile();
+    profile.add(raw, 0, raw.length);
+
+    assertEquals(1, profile.getRecordCount());
+    assertEquals(0, profile.getMalformedCount());
+    assertEquals(2, profile.getFieldCount("650"));
+    assertEquals(1, profile.getRecordCount("650"));
+    assertEquals(2, profile.getSubfieldCount("650", 'a'));
+    assertEquals(1, profile.getSubfieldCount("245", 'b'));
+    assertEquals(0, profile.getSubfieldCount("001", 'a'));
+    assertEquals(2, profile.getIndicatorCount("650", 1, ' '));
+    assertEquals(1, profile.getIndicatorCount("650", 2, '7'));
+    assertEquals(1, profile.getLeaderCount(6, (char) raw[6]));
+    assertEquals(0, profile.getFieldCount("999"));
+  }
+
+  @Test
+  public void profile_countsMalformedRecords() {
+    byte[] raw = MarcTestRecords.bib(StandardCharsets.ISO_8859_1, 1, "Title");
+    MarcProfile profile = new MarcProfile();
+    byte[] bad = Arrays.copyOf(raw, raw.length);
+    bad[24 + 3] = 'x';
+    profile.add(bad, 0, bad.length);
+    profile.add(raw, 0, raw.length - 1);
+    assertEquals(2, profile.getRecordCount());
+    assertEquals(2, profile.getMalformedCount());
+  }
+
+  @Test
+  public void parallelProfile_matchesSingleThread() throws Exception {
+    File first = corpus("first.mrc", 400);
+    File second = corpus("second.mrc", 150);
+
+    MarcCorpusProfiler single = new MarcCorpusProfiler();
+    single.setThreads(1);
+    MarcCorpusProfiler parallel = new MarcCorpusProfiler();
+    parallel.setThreads(3);
+    parallel.setMinRegionSize(2048);
+
+    MarcProfile expected = single.profile(first, second);
+    MarcProfile actual = parallel.profile(first, second);
+    assertEquals(550, actual.getRecordCount());
+    assertEquals(550, actual.getRecordCount("245"));
+    assertEquals(expected.toJson(), actual.toJson());
+  }
+
+  @Test
+  public void report_isJson() throws Exception {
+    MarcProfile profile = new MarcCorpusProfiler().profile(corpus("report.mrc", 10));
+    JsonNode report = new ObjectMapper().readTree(profile.toJson());
+    assertEquals(10, report.get("records").asLong());
+    assertEquals(10, report.get("tags").get("650").get("subfields").get("x").asLong());
+    assertEquals(10, report.get("tags").get("245").get("indicator1").get("1").asLong());
+    assertEquals(10, report.get("leader").get("06").get("a").asLong());
+  }
+}
@@ -0,0 +1,74 @@
+package org.cdlib.util.marc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.cdlib.util.marc.MarcTestRecords.SF;
+import java.nio.charset.StandardCharsets;
+import java.util.Enumeration;
+import org.junit.Test;
+
+public class MarcDirectoryTest {
+
+  @Test
+  public void parse_decodesEntries() {
+    String raw = "xx" + "001001300000" + "245002500013" + "A01000500038";
+    MarcDirectory dir = new MarcDirectory(1);
+    dir.parse(raw, 2, 2 + 36);
+    assertEquals(3, dir.size());
+    assertSame(MarcDirectory.numericTag(1), dir.tagAt(0));
+    assertEquals(13, dir.lengthAt(0));
+    assertEquals(0, dir.startAt(0));
+    assertEquals("245", dir.tagAt(1));
+    assertEquals(25, dir.lengthAt(1));
+    assertEquals(13, dir.startAt(1));
+    assertEquals("A01", dir.tagAt(2));
+    assertEquals(raw.substring(2, 38) + Marc.EOF, dir.marcDump());
+
+    Enumeration e = dir.elements();
+    MarcDirectoryEntry entry = (MarcDirectoryEntry) e.nextElement();
+    assertEquals("001", entry.fieldTag());
+    assertEquals(13, entry.fieldLength());
+  }
+
+  @Test
+  public void parse_rejectsInvalidEntries() {
+    for (String raw : new String[] {"2450025000x3", "245002+00013", "24500250001"}) {
+      try {
+        new MarcDirectory().parse(raw, 0, 12);
+        fail("expected MarcFormatException for " + raw);
+      } catch (MarcFormatException e) {
+        // expected
+      }
+    }
+  }
+
+  @Test
+  public void addEntry_validates() {
+    MarcDirectory dir = new MarcDirectory();
+    dir.addEntry("245", 9999, 99999);
+    assertEquals("245999999999" + Marc.EOF, dir.marcDump());
+    String[][] bad = {{"24", "1", "0"}, {"245", "10000", "0"}, {"245", "1", "100000"}};
+    for (String[] b : bad) {
+      try {
+        dir.addEntry(b[0], Integer.parseInt(b[1]), Integer.parseInt(b[2]));
+        fail("expected MarcFormatException");
+      } catch (MarcFormatException e) {
+        // expected
+      }
+    }
+  }
+
+  @Test
+  public void marcDump_roundTripsRecord() {
+    byte[] raw = MarcTestRecords.record(StandardCharsets.ISO_8859_1,
+        new String[] {"001", "ocm00012345"},
+        new String[] {"008", "850101s1985    nyu           000 0 eng d"},
+        new String[] {"245", "10" + SF + "aThe history of Rome /" + SF + "cby Someone."},
+        new String[] {"650", " 0" + SF + "aRome" + SF + "xHistory."});
+    String marc = new String(raw, StandardCharsets.ISO_8859_1);
+    MarcRecord rec = new MarcRecord(marc);
+    assertEquals(marc, rec.marcDump());
+    assertEquals(marc, new MarcRecord(rec.marcDump()).marcDump());
+  }
+}
@@ -0,0 +1,128 @@
+package org.cdlib.util.marc;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.stream.Stream;
+import org.slf4j.LoggerFactory;
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+
+/**
+ * Throughput comparison of {@link MarcStream} and {@link MarcChannelReader}. Not run as part of the
+ * test suite.
+ *
+ * <pre>
+ * java org.cdlib.util.marc.MarcReadBenchmark [marc file] [passes]
+ * </pre>
+ *
+ * Without a file argument a file of synthetic ISO-8859-1 records is generated.
+ */
+public class MarcReadBenchmark {
+
+  public static void main(String[] args) throws Exception {
+    ((Logger) LoggerFactory.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME)).setLevel(Level.WARN);
+
+    File file;
+    if (args.length > 0) {
+      file = new File(args[0]);
+    } else {
+      file = File.createTempFile("marc-bench", ".mrc");
+      file.deleteOnExit();
+      generate(file, 100000);
+    }
+    int passes = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+    System.out.println("file: " + file + " (" + file.length() / 1024 + " KB)");
+
+    for (int pass = 0; pass < passes; pass++) {
+      long t0 = System.nanoTime();
+      int streamCount = readStream(file, false);
+      long t1 = System.nanoTime();
+      int channelCount = readChannel(file);
+      long t2 = System.nanoTime();
+      int lazyCount = readLazy(file);
+      long t3 = System.nanoTime();
+      long parallelCount = readParallel(file);
+      long t4 = System.nanoTime();
+      int recycleCount = readStream(file, true);
+      long t5 = System.nanoTime();
+      System.out.printf("pass %d: MarcStream %d recs %.1f MB/s  MarcChannelReader %d recs %.1f MB/s"
+          + "  lazy 001/035 %d recs %.1f MB/s  parallel stream %d recs %.1f MB/s"
+          + "  MarcStream recycle %d recs %.1f MB/s%n",
+          pass, streamCount, mbPerSec(file, t1 - t0), channelCount, mbPerSec(file, t2 - t1),
+          lazyCount, mbPerSec(file, t3 - t2), parallelCount, mbPerSec(file, t4 - t3),
+          recycleCount, mbPerSec(file, t5 - t4));
+    }
+  }
+
+  static int readStream(File file, boolean recycle) throws Exception {
+    MarcStream in = new MarcStream(file);
+    in.setRecycle(recycle);
+    MarcRecord rec = new MarcRecord();
+    int count = 0;
+    try {
+      while (true) {
+        in.next(rec);
+        count++;
+      }
+    } catch (MarcEndOfFileException e) {
+      // done
+    } finally {
+      in.close();
+    }
+    return count;
+  }
+
+  static int readChannel(File file) throws Exception {
+    int count = 0;
+    try (MarcChannelReader in = new MarcChannelReader(file)) {
+      MarcRecord rec = new MarcRecord();
+      while (true) {
+        in.next(rec);
+        count++;
+      }
+    } catch (MarcEndOfFileException e) {
+      // done
+    }
+    return count;
+  }
+
+  static int readLazy(File file) throws Exception {
+    int count = 0;
+    try (MarcChannelReader in = new MarcChannelReader(file)) {
+      in.setLazy(true);
+      MarcRecord rec = new MarcRecord();
+      while (true) {
+        in.next(rec);
+        rec.getFirstValue("001", null);
+        rec.getFirstField("035");
+        count++;
+      }
+    } catch (MarcEndOfFileException e) {
+      // done
+    }
+    return count;
+  }
+
+  static long readParallel(File file) {
+    try (Stream<MarcRecord> records = MarcRecordSpliterator.stream(file, true, false)) {
+      return records.count();
+    }
+  }
+
+  static void generate(File file, int count) throws Exception {
+    try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+      for (int i = 0; i < count; i++) {
+        out.write(MarcTestRecords.bib(StandardCharsets.ISO_8859_1, i,
+            "A moderately long title for record number " + i + " : with a subtitle /"));
+      }
+    }
+  }
+
+  private static double mbPerSec(File file, long nanos) {
+    return (file.length() / (1024.0 * 1024.0)) / (nanos / 1e9);
+  }
+
+}
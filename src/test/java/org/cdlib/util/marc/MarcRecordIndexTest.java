@@ -0,0 +1,166 @@
+package org.cdlib.util.marc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.cdlib.util.marc.MarcTestRecords.bib;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.StandardCharsets;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MarcRecordIndexTest {
+
+  private static final int COUNT = 50;
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private File marcFile;
+  private long[] expectedOffsets = new long[COUNT];
+
+  @Before
+  public void init() throws Exception {
+    byte[][] records = new byte[COUNT][];
+    long offset = 0;
+    for (int i = 0; i < COUNT; i++) {
+      records[i] = bib(StandardCharsets.ISO_8859_1, i, "Title " + i);
+      expectedOffsets[i] = offset;
+      offset += records[i].length;
+    }
+    marcFile = MarcTestRecords.write(tmp.newFile("test.mrc").toPath(), records).toFile();
+  }
+
+  @Test
+  public void build_recordsEveryOffset() {
+    MarcRecordIndex index = MarcRecordIndex.build(marcFile);
+    assertEquals(COUNT, index.size());
+    for (int i = 0; i < COUNT; i++) {
+      assertEquals(expectedOffsets[i], index.getOffset(i));
+    }
+  }
+
+  @Test
+  public void open_savesAndReloadsSidecar() {
+    assertNull(MarcRecordIndex.load(marcFile));
+    MarcRecordIndex.open(marcFile);
+    assertTrue(MarcRecordIndex.indexFile(marcFile).isFile());
+
+    MarcRecordIndex loaded = MarcRecordIndex.load(marcFile);
+    assertNotNull(loaded);
+    assertEquals(COUNT, loaded.size());
+    assertEquals(expectedOffsets[COUNT - 1], loaded.getOffset(COUNT - 1));
+  }
+
+  @Test
+  public void load_rejectsStaleIndex() throws Exception {
+    MarcRecordIndex index = MarcRecordIndex.open(marcFile);
+    try (FileOutputStream out = new FileOutputStream(marcFile, true)) {
+      out.write(bib(StandardCharsets.ISO_8859_1, COUNT, "Appended"));
+    }
+    assertFalse(index.isCurrent());
+    assertNull(MarcRecordIndex.load(marcFile));
+    assertEquals(COUNT + 1, MarcRecordIndex.open(marcFile).size());
+  }
+
+  @Test(expected = MarcParmException.class)
+  public void getOffset_outOfRange() {
+    MarcRecordIndex.build(marcFile).getOffset(COUNT);
+  }
+
+  @Test
+  public void marcStreamGetRecord_seeksByIndex() throws Exception {
+    MarcStream stream = new MarcStream(marcFile);
+    stream.setUseIndex(true);
+    try {
+      for (int n : new int[] {40, 3, 3, 4, 49, 0, 25}) {
+        assertEquals("Title " + n, stream.getRecord(n).getFirstValue("245", "a"));
+        assertEquals(n, stream.getCurrentCnt());
+      }
+      MarcRecord rec = new MarcRecord();
+      stream.getRecord(17, rec);
+      assertEquals("Title 17", rec.getFirstValue("245", "a"));
+    } finally {
+      stream.close();
+    }
+    assertTrue(MarcRecordIndex.indexFile(marcFile).isFile());
+  }
+
+  @Test
+  public void marcReaderGetRecord_seeksByIndex() {
+    MarcReader reader = new MarcReader(marcFile.getPath());
+    reader.setUseIndex(true);
+    for (int n : new int[] {30, 2, 31, 10}) {
+      assertEquals("Title " + n, reader.getRecord(n).getFirstValue("245", "a"));
+    }
+    assertTrue(MarcRecordIndex.indexFile(marcFile).isFile());
+  }
+
+  @Test
+  public void getRecord_writesNoIndexByDefault() throws Exception {
+    MarcStream stream = new MarcStream(marcFile);
+    try {
+      assertEquals("Title 30", stream.getRecord(30).getFirstValue("245", "a"));
+      assertEquals("Title 2", stream.getRecord(2).getFirstValue("245", "a"));
+    } finally {
+      stream.close();
+    }
+    MarcReader reader = new MarcReader(marcFile.getPath());
+    assertEquals("Title 31", reader.getRecord(31).getFirstValue("245", "a"));
+    assertEquals("Title 10", reader.getRecord(10).getFirstValue("245", "a"));
+    assertFalse(MarcRecordIndex.indexFile(marcFile).exists());
+    assertEquals(1, tmp.getRoot().list().length);
+  }
+
+  @Test
+  public void paddedFile_seeksToSequentialRecord() throws Exception {
+    byte[] filler = "--\r\n".getBytes(StandardCharsets.ISO_8859_1);
+    byte[][] records = new byte[2 * COUNT][];
+    for (int i = 0; i < COUNT; i++) {
+      records[2 * i] = bib(StandardCharsets.ISO_8859_1, i, "Title " + i);
+      records[2 * i + 1] = filler;
+    }
+    // a record without its end of record byte
+    records[20] = java.util.Arrays.copyOf(records[20], records[20].length);
+    records[20][records[20].length - 1] = ' ';
+    File padded = MarcTestRecords.write(tmp.newFile("padded.mrc").toPath(), records).toFile();
+
+    MarcRecordIndex index = MarcRecordIndex.build(padded);
+    assertEquals(COUNT, index.size());
+    MarcStream sequential = new MarcStream(padded);
+    MarcStream seeking = new MarcStream(padded);
+    seeking.setUseIndex(true);
+    try {
+      String[] expected = new String[COUNT];
+      for (int n = 0; n < COUNT; n++) {
+        expected[n] = title(sequential, -1);
+      }
+      assertEquals("Title 9", expected[9]);
+      assertEquals(null, expected[10]);
+      for (int n = COUNT - 1; n >= 0; n--) {
+        assertEquals(expected[n], title(seeking, n));
+      }
+    } finally {
+      sequential.close();
+      seeking.close();
+    }
+  }
+
+  /**
+   * Read the next or a numbered record, returning its title, or null if it is malformed.
+   */
+  private static String title(MarcStream stream, int n) throws Exception {
+    try {
+      MarcRecord rec = n < 0 ? stream.next() : stream.getRecord(n);
+      return rec == null ? null : rec.getFirstValue("245", "a");
+    } catch (MarcFormatException e) {
+      return null;
+    }
+  }
+
+}
@@ -0,0 +1,142 @@
+package org.cdlib.util.marc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.cdlib.util.marc.MarcTestRecords.SF;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MarcRecordReuseTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private static final byte[] FIRST = MarcTestRecords.record(StandardCharsets.ISO_8859_1,
+      new String[] {"001", "ocm12345"},
+      new String[] {"008", "850101s1985    nyu           000 0 eng d"},
+      new String[] {"245", "10" + SF + "a  Title /  " + SF + "cAuthor."},
+      new String[] {"650", " 0" + SF + "aFirst subject." + SF + "xHistory."},
+      new String[] {"090", "ab" + SF + SF + "aPS3545"});
+
+  private static final byte[] SECOND = MarcTestRecords.record(StandardCharsets.ISO_8859_1,
+      new String[] {"001", "ocm6"},
+      new String[] {"650", " 0" + SF + "aOther subject."},
+      new String[] {"245", "00" + SF + "aShort."});
+
+  private static char[] chars(byte[] raw) {
+    return new String(raw, StandardCharsets.ISO_8859_1).toCharArray();
+  }
+
+  private static MarcRecord built(byte[] raw, int order) {
+    MarcRecord rec = new MarcRecord();
+    rec.build(new String(raw, StandardCharsets.ISO_8859_1), order);
+    return rec;
+  }
+
+  @Test
+  public void rebuild_matchesBuild() {
+    for (int order : new int[] {MarcBaseRecord.END_LIST, MarcBaseRecord.TAG_ORDER,
+        MarcBaseRecord.MARC_TAG_ORDER}) {
+      MarcRecord rec = new MarcRecord();
+      for (byte[] raw : new byte[][] {FIRST, SECOND, FIRST}) {
+        MarcRecord expected = built(raw, order);
+        assertEquals(MarcConstants.MARC_REC_CLEAN, rec.rebuild(chars(raw), 0, raw.length, order));
+        assertEquals(expected.toString(), rec.toString());
+        assertEquals(expected.marcDump(), rec.marcDump());
+        assertEquals(expected.getFieldCount(), rec.getFieldCount());
+      }
+    }
+  }
+
+  @Test
+  public void rebuild_recyclesFieldObjects() {
+    MarcRecord rec = new MarcRecord();
+    rec.rebuild(chars(FIRST), 0, FIRST.length, MarcBaseRecord.END_LIST);
+    Set<Object> previous = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+    previous.addAll(rec.getFields().toVector());
+
+    rec.rebuild(chars(FIRST), 0, FIRST.length, MarcBaseRecord.END_LIST);
+    for (Object f : rec.getFields().toVector()) {
+      assertTrue(previous.contains(f));
+    }
+    assertEquals("First subject.", rec.getFirstSubfield("650", "a").value());
+    assertEquals("Title /", rec.getFirstSubfield("245", "a").value());
+  }
+
+  @Test
+  public void rebuild_readsFromOffset() {
+    char[] buf = new char[FIRST.length + 10];
+    System.arraycopy(chars(FIRST), 0, buf, 7, FIRST.length);
+    MarcRecord rec = new MarcRecord();
+    rec.rebuild(buf, 7, FIRST.length, MarcBaseRecord.END_LIST);
+    assertEquals(built(FIRST, MarcBaseRecord.END_LIST).marcDump(), rec.marcDump());
+  }
+
+  @Test
+  public void rebuild_rejectsBadRecord() {
+    char[] raw = chars(FIRST);
+    raw[raw.length - 1] = 'x';
+    MarcRecord rec = new MarcRecord();
+    rec.rebuild(chars(SECOND), 0, SECOND.length, MarcBaseRecord.END_LIST);
+    try {
+      rec.rebuild(raw, 0, raw.length, MarcBaseRecord.END_LIST);
+      fail("expected MarcFormatException");
+    } catch (MarcFormatException e) {
+      assertEquals(0, rec.getFieldCount());
+    }
+    rec.rebuild(chars(SECOND), 0, SECOND.length, MarcBaseRecord.END_LIST);
+    assertEquals(built(SECOND, MarcBaseRecord.END_LIST).marcDump(), rec.marcDump());
+  }
+
+  @Test
+  public void recyclingStream_readsSameRecords() throws Exception {
+    File file = MarcTestRecords.write(tmp.newFile("reuse.mrc").toPath(),
+        FIRST, SECOND, MarcTestRecords.bib(StandardCharsets.ISO_8859_1, 3, "Third title")).toFile();
+
+    MarcStream plain = new MarcStream(file);
+    MarcStream recycling = new MarcStream(file);
+    recycling.setRecycle(true);
+    MarcRecord rec = new MarcRecord();
+    for (int i = 0; i < 3; i++) {
+      MarcRecord expected = plain.next();
+      assertEquals(MarcConstants.MARC_READ_SUCCESS, recycling.next(rec));
+      assertEquals(expected.marcDump(), rec.marcDump());
+      assertEquals(plain.getReadBuffer().toString(), recycling.getReadBuffer().toString());
+    }
+    try {
+      recycling.next(rec);
+      fail("expected MarcEndOfFileException");
+    } catch (MarcEndOfFileException e) {
+      // expected
+    }
+    plain.close();
+  }
+
+  @Test
+  public void readBuffer_isKeptUntilNextRecord() throws Exception {
+    File file = MarcTestRecords.write(tmp.newFile("buffer.mrc").toPath(), FIRST, SECOND).toFile();
+    MarcStream stream = new MarcStream(file);
+    stream.setRecycle(true);
+    MarcRecord rec = new MarcRecord();
+    stream.next(rec);
+    StringBuffer buffer = stream.getReadBuffer();
+    assertEquals(new String(FIRST, StandardCharsets.ISO_8859_1), buffer.toString());
+    buffer.setLength(5);
+    assertSame(buffer, stream.getReadBuffer());
+    assertEquals(5, stream.getReadBuffer().length());
+
+    stream.next(rec);
+    assertNotSame(buffer, stream.getReadBuffer());
+    assertEquals(new String(SECOND, StandardCharsets.ISO_8859_1), stream.getReadBuffer().toString());
+    stream.close();
+  }
+}
@@ -0,0 +1,98 @@
+package org.cdlib.util.marc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.cdlib.util.marc.MarcTestRecords.bib;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MarcRecordSpliteratorTest {
+
+  private static final int COUNT = 2000;
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private File marcFile;
+  private List<String> expectedIds = new ArrayList<>();
+
+  @Before
+  public void init() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (int i = 0; i < COUNT; i++) {
+      byte[] rec = bib(StandardCharsets.UTF_8, i, "Title " + i + (i % 7 == 0 ? " – ünïcödé" : ""));
+      out.write(rec, 0, rec.length);
+      if (i % 10 == 0) {
+        out.write('\n');
+      }
+      expectedIds.add("ocm" + MarcTestRecords.pad(i, 8));
+    }
+    marcFile = MarcTestRecords.write(tmp.newFile().toPath(), out.toByteArray()).toFile();
+  }
+
+  private Stream<MarcRecord> stream(FileChannel channel, boolean ordered) throws Exception {
+    MarcRecordSpliterator split = new MarcRecordSpliterator(channel, 0, channel.size(), ordered);
+    split.setMinSplitSize(4096);
+    return StreamSupport.stream(split, true);
+  }
+
+  @Test
+  public void sequentialStream_readsAllRecords() {
+    try (Stream<MarcRecord> records = MarcRecordSpliterator.stream(marcFile, false, true)) {
+      assertEquals(expectedIds, records.map(r -> r.getFirstValue("001", null))
+                                       .collect(Collectors.toList()));
+    }
+  }
+
+  @Test
+  public void parallelOrderedStream_keepsFileOrder() throws Exception {
+    try (FileChannel channel = FileChannel.open(marcFile.toPath(), StandardOpenOption.READ)) {
+      assertEquals(expectedIds, stream(channel, true).map(r -> r.getFirstValue("001", null))
+                                                     .collect(Collectors.toList()));
+    }
+  }
+
+  @Test
+  public void parallelUnorderedStream_readsEachRecordOnce() throws Exception {
+    try (FileChannel channel = FileChannel.open(marcFile.toPath(), StandardOpenOption.READ)) {
+      List<String> ids = stream(channel, false).map(r -> r.getFirstValue("001", null))
+                                               .collect(Collectors.toList());
+      assertEquals(COUNT, ids.size());
+      assertEquals(new HashSet<>(expectedIds), new HashSet<>(ids));
+    }
+  }
+
+  @Test
+  public void trySplit_splitsAtRecordBoundaries() throws Exception {
+    try (FileChannel channel = FileChannel.open(marcFile.toPath(), StandardOpenOption.READ)) {
+      MarcRecordSpliterator upper = new MarcRecordSpliterator(channel, 0, channel.size(), true);
+      upper.setMinSplitSize(1024);
+      Spliterator<MarcRecord> lower = upper.trySplit();
+      assertNotNull(lower);
+      Set<String> ids = new HashSet<>();
+      lower.forEachRemaining(r -> assertTrue(ids.add(r.getFirstValue("001", null))));
+      int lowerCount = ids.size();
+      upper.forEachRemaining(r -> assertTrue(ids.add(r.getFirstValue("001", null))));
+      assertTrue(lowerCount > 0 && lowerCount < COUNT);
+      assertTrue(ids.contains(expectedIds.get(0)));
+      assertEquals(COUNT, ids.size());
+    }
+  }
+
+}
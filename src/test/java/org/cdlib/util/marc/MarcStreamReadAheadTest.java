@@ -0,0 +1,192 @@
+package org.cdlib.util.marc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MarcStreamReadAheadTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private File corpus(int count, int bad) throws Exception {
+    byte[][] records = new byte[count][];
+    for (int i = 0; i < count; i++) {
+      records[i] = MarcTestRecords.bib(StandardCharsets.ISO_8859_1, i, "Title " + i);
+    }
+    records[bad][24 + 3] = 'x';
+    return MarcTestRecords.write(tmp.newFile().toPath(), records).toFile();
+  }
+
+  /**
+   * Read every record, noting each malformed record as null.
+   */
+  private static List<String> readAll(MarcStream in) {
+    List<String> result = new ArrayList<String>();
+    while (true) {
+      try {
+        result.add(in.next().marcDump());
+        assertEquals(result.size() - 1, in.getCurrentCnt());
+      } catch (MarcEndOfFileException e) {
+        return result;
+      } catch (MarcFormatException e) {
+        result.add(null);
+        assertEquals(result.size() - 1, in.getCurrentCnt());
+        assertEquals('x', in.getReadBuffer().charAt(24 + 3));
+      }
+    }
+  }
+
+  @Test
+  public void readAhead_returnsSameRecordsAndErrors() throws Exception {
+    File file = corpus(50, 6);
+    MarcStream ahead = new MarcStream(file);
+    ahead.setReadAhead(4);
+    List<String> expected = readAll(new MarcStream(file));
+    assertEquals(50, expected.size());
+    assertEquals(expected, readAll(ahead));
+
+    try {
+      ahead.next();
+      fail("expected MarcEndOfFileException");
+    } catch (MarcEndOfFileException e) {
+      // expected
+    }
+    ahead.close();
+  }
+
+  @Test
+  public void readAhead_fillsCallerRecords() throws Exception {
+    File file = corpus(10, 9);
+    MarcStream plain = new MarcStream(file);
+    MarcStream ahead = new MarcStream(file);
+    ahead.setReadAhead(2);
+    MarcRecord rec = new MarcRecord();
+    for (int i = 0; i < 9; i++) {
+      assertEquals(MarcConstants.MARC_READ_SUCCESS, ahead.next(rec));
+      assertEquals(plain.next().marcDump(), rec.marcDump());
+      assertEquals(plain.getReadBuffer().toString(), ahead.getReadBuffer().toString());
+    }
+    ahead.close();
+    plain.close();
+  }
+
+  @Test
+  public void readAhead_handsOverLazyRecords() throws Exception {
+    File file = corpus(10, 9);
+    MarcStream plain = new MarcStream(file);
+    MarcStream ahead = new MarcStream(file);
+    ahead.setLazy(true);
+    ahead.setReadAhead(2);
+    MarcRecord rec = new MarcRecord();
+    for (int i = 0; i < 9; i++) {
+      assertEquals(MarcConstants.MARC_READ_SUCCESS, ahead.next(rec));
+      assertTrue(rec.isLazy());
+      assertEquals(plain.next().getFirstValue("245", "a"), rec.getFirstValue("245", "a"));
+      assertEquals(plain.getReadBuffer().toString(), rec.marcDump());
+    }
+    ahead.close();
+    plain.close();
+  }
+
+  @Test
+  public void readAhead_toEndOfFile_leavesReadBufferAlone() throws Exception {
+    File file = corpus(5, 4);
+    MarcStream plain = new MarcStream(file);
+    MarcStream ahead = new MarcStream(file);
+    ahead.setReadAhead(8);
+    String first = ahead.next().marcDump();
+    for (int wait = 0; wait < 500 && readAheadRunning(file); wait++) {
+      Thread.sleep(10);
+    }
+    assertFalse(readAheadRunning(file));
+    assertEquals(plain.next().marcDump(), first);
+    assertEquals(plain.getReadBuffer().toString(), ahead.getReadBuffer().toString());
+    for (int i = 1; i < 4; i++) {
+      assertEquals(plain.next().marcDump(), ahead.next().marcDump());
+    }
+    try {
+      ahead.next();
+      fail("expected MarcFormatException");
+    } catch (MarcFormatException e) {
+      // expected
+    }
+    try {
+      ahead.next();
+      fail("expected MarcEndOfFileException");
+    } catch (MarcEndOfFileException e) {
+      // expected
+    }
+
+    ahead.start();
+    assertEquals(first, ahead.next().marcDump());
+    ahead.close();
+    plain.close();
+  }
+
+  private static boolean readAheadRunning(File file) {
+    for (Thread t : Thread.getAllStackTraces().keySet()) {
+      if (t.getName().equals("MarcStream read ahead - " + file)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Test
+  public void close_stopsReadAheadThread() throws Exception {
+    File file = corpus(200, 0);
+    MarcStream ahead = new MarcStream(file);
+    ahead.setReadAhead(1);
+    try {
+      ahead.next();
+      fail("expected MarcFormatException");
+    } catch (MarcFormatException e) {
+      // expected
+    }
+    ahead.next();
+    try {
+      ahead.setReadAhead(8);
+      fail("expected MarcInvalidStateException");
+    } catch (MarcInvalidStateException e) {
+      // expected
+    }
+    ahead.close();
+    for (Thread t : Thread.getAllStackTraces().keySet()) {
+      assertFalse(t.getName().startsWith("MarcStream read ahead - " + file));
+    }
+  }
+
+  @Test
+  public void getRecord_repositionsReadAhead() throws Exception {
+    File file = corpus(30, 29);
+    MarcStream plain = new MarcStream(file);
+    MarcStream ahead = new MarcStream(file);
+    ahead.setReadAhead(3);
+    ahead.setUseIndex(true);
+    for (int n : new int[] {0, 1, 2, 20, 5, 6, 25, 3}) {
+      assertEquals(plain.getRecord(n).marcDump(), ahead.getRecord(n).marcDump());
+      assertEquals(n, ahead.getCurrentCnt());
+    }
+    ahead.close();
+    plain.close();
+  }
+
+  @Test
+  public void negativeDepth_isRejected() throws Exception {
+    try {
+      new MarcStream(corpus(1, 0)).setReadAhead(-1);
+      fail("expected MarcParmException");
+    } catch (MarcParmException e) {
+      // expected
+    }
+  }
+}
@@ -0,0 +1,79 @@
+package org.cdlib.util.marc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Builds binary (ISO 2709) marc records for tests, with the directory lengths and offsets counted in
+ * bytes of the chosen encoding.
+ */
+public class MarcTestRecords {
+
+  public static final char SF = '\u001F';
+
+  /**
+   * Build a record. Each field is a {tag, data} pair; variable field data holds the indicators
+   * followed by subfields delimited with {@link #SF}.
+   */
+  public static byte[] record(Charset cs, String[]... fields) {
+    ByteArrayOutputStream dir = new ByteArrayOutputStream();
+    ByteArrayOutputStream data = new ByteArrayOutputStream();
+    for (String[] field : fields) {
+      byte[] bytes = field[1].getBytes(cs);
+      String entry = field[0] + pad(bytes.length + 1, 4) + pad(data.size(), 5);
+      dir.write(entry.getBytes(StandardCharsets.US_ASCII), 0, 12);
+      data.write(bytes, 0, bytes.length);
+      data.write(Marc.EOF);
+    }
+    dir.write(Marc.EOF);
+    data.write(Marc.EOR);
+
+    int base = 24 + dir.size();
+    int len = base + data.size();
+    char coding = StandardCharsets.UTF_8.equals(cs) ? 'a' : ' ';
+    String leader = pad(len, 5) + "nam " + coding + "22" + pad(base, 5) + " a 4500";
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream(len);
+    out.write(leader.getBytes(StandardCharsets.US_ASCII), 0, 24);
+    out.write(dir.toByteArray(), 0, dir.size());
+    out.write(data.toByteArray(), 0, data.size());
+    return out.toByteArray();
+  }
+
+  /**
+   * Build a simple bibliographic record with a control number and a title.
+   */
+  public static byte[] bib(Charset cs, int id, String title) {
+    return record(cs,
+        new String[] {"001", "ocm" + pad(id, 8)},
+        new String[] {"008", "990101s1999    cau           000 0 eng d"},
+        new String[] {"245", "10" + SF + "a" + title + SF + "cby Someone."},
+        new String[] {"650", " 0" + SF + "aSubject " + id + SF + "xHistory."});
+  }
+
+  /**
+   * Write records to a file, one after another.
+   */
+  public static Path write(Path file, byte[]... records) throws IOException {
+    try (OutputStream out = Files.newOutputStream(file)) {
+      for (byte[] rec : records) {
+        out.write(rec);
+      }
+    }
+    return file;
+  }
+
+  static String pad(int value, int width) {
+    String s = Integer.toString(value);
+    while (s.length() < width) {
+      s = "0" + s;
+    }
+    return s;
+  }
+
+}
@@ -0,0 +1,160 @@
+package org.cdlib.util.marc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.cdlib.util.marc.MarcTestRecords.SF;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Vector;
+import org.cdlib.util.marc2.ExtractionPlan;
+import org.cdlib.util.marc2.MarcRecordHelper;
+import org.junit.Test;
+import org.marc4j.marc.DataField;
+
+public class MarcVblLengthFieldTest {
+
+  private static final String DATA = "10" + SF + "a The history of Rome / " + SF + SF + "bpart one"
+      + SF + "cby Someone." + SF + "a again";
+
+  /**
+   * The same field, built from subfield objects rather than parsed.
+   */
+  private static MarcVblLengthField expanded() {
+    Vector v = new Vector();
+    v.add(new MarcSubfield('a', "The history of Rome /", false));
+    v.add(new MarcSubfield('b', "part one", false));
+    v.add(new MarcSubfield('c', "by Someone.", false));
+    v.add(new MarcSubfield('a', "again", false));
+    return new MarcVblLengthField("245", "10", v);
+  }
+
+  @Test
+  public void compactField_readsLikeExpandedField() {
+    MarcVblLengthField f = new MarcVblLengthField("245", DATA);
+    MarcVblLengthField e = expanded();
+    assertEquals(e.marcDump(), f.marcDump());
+    assertEquals(e.value(), f.value());
+    assertEquals(e.toString(), f.toString());
+    assertEquals(e.length(), f.length());
+    assertEquals(e.getSubFieldCountMap(), f.getSubFieldCountMap());
+    assertEquals(0, e.compareTo(f));
+    assertEquals("10", f.indicators());
+    assertEquals("The history of Rome /", f.firstSubfieldValue("a"));
+    assertNull(f.firstSubfieldValue("z"));
+    assertEquals("by Someone.", f.firstSubfield("c").value());
+    assertEquals(2, f.subfield("a").size());
+    assertEquals("again", ((MarcSubfield) f.subfield("a").get(1)).value());
+    assertEquals(4, f.getSubfields().length);
+    assertEquals(4, f.subfieldCount());
+    assertEquals('b', f.subfieldCode(1));
+    assertEquals("part one", f.subfieldChars(1).toString());
+
+    StringBuilder sb = new StringBuilder();
+    f.appendMarc(sb);
+    assertEquals(e.marcDump(), sb.toString());
+  }
+
+  @Test
+  public void compactField_allocatesNoSubfieldVectorUntilExpanded() {
+    MarcVblLengthField f = new MarcVblLengthField("245", DATA);
+    f.value();
+    f.marcDump();
+    f.toString();
+    f.length();
+    f.getSubFieldCountMap();
+    f.appendMarc(new StringBuilder());
+    assertEquals("again", f.subfieldValue(f.subfieldCount() - 1));
+    assertEquals('c', f.subfieldCode(2));
+    assertNull(f.data);
+    assertEquals(4, f.subfields().size());
+    assertNotNull(f.data);
+
+    MarcVblLengthField empty = new MarcVblLengthField("245");
+    assertNull(empty.data);
+    assertEquals(0, empty.subfieldCount());
+    assertEquals(0, empty.getSubfields().length);
+    assertEquals(3, empty.length());
+    assertEquals("  ", empty.value());
+    empty.clearSubfields();
+    new FieldPool().releaseSubfields(empty);
+    assertNull(empty.data);
+  }
+
+  @Test
+  public void marc2Conversions_leaveSubfieldsCompact() {
+    MarcRecord rec = new MarcRecord(new String(MarcTestRecords.record(StandardCharsets.ISO_8859_1,
+        new String[] {"001", "ocm00042"},
+        new String[] {"245", DATA}), StandardCharsets.ISO_8859_1));
+    MarcVblLengthField f = (MarcVblLengthField) rec.getFirstField("245");
+    DataField converted = (DataField) MarcRecordHelper.asRecord(rec).getVariableField("245");
+    assertEquals(4, converted.getSubfields().size());
+    assertEquals("part one", converted.getSubfields().get(1).getData());
+    assertEquals(Arrays.asList(Arrays.asList("The history of Rome /", "again")),
+        ExtractionPlan.compile("245$a").extract(rec));
+    assertNull(f.data);
+  }
+
+  @Test
+  public void controlRangeTags_areNotTrimmed() {
+    MarcVblLengthField f = new MarcVblLengthField("010", "  " + SF + "a  85012345 ");
+    assertEquals("  85012345 ", f.firstSubfieldValue("a"));
+  }
+
+  @Test
+  public void changes_expandSubfields() {
+    MarcVblLengthField f = new MarcVblLengthField("245", DATA);
+    Vector live = f.subfields();
+    assertEquals(4, live.size());
+    assertSame(live, f.subfields());
+    assertSame(live.get(0), f.firstSubfield("a"));
+
+    f.addSubfield("d", "added");
+    assertEquals("added", f.firstSubfieldValue("d"));
+    assertEquals(expanded().marcDump().replace("" + Marc.EOF, SF + "dadded" + Marc.EOF),
+        f.marcDump());
+
+    f.clearSubfields();
+    assertEquals(0, f.subfieldCount());
+  }
+
+  @Test
+  public void returnedSubfields_editTheField() {
+    MarcRecord rec = new MarcRecord(new String(MarcTestRecords.record(StandardCharsets.ISO_8859_1,
+        new String[] {"001", "ocm1"}, new String[] {"245", DATA}), StandardCharsets.ISO_8859_1));
+    TranslateTable upper = new TranslateTable(new String[][] {{"o", "O"}});
+
+    rec.getFirstSubfield("245", "c").translateValue(upper);
+    assertEquals("by SOmeOne.", rec.getFirstValue("245", "c"));
+
+    MarcVblLengthField f = (MarcVblLengthField) rec.getFirstField("245");
+    f.getSubfields()[1].setTag("n");
+    ((MarcSubfield) f.subfield("a").get(1)).translateValue(upper);
+    assertEquals("part one", f.firstSubfieldValue("n"));
+    assertEquals("10" + SF + "aThe history of Rome /" + SF + "npart one" + SF + "cby SOmeOne."
+        + SF + "aagain" + Marc.EOF, f.marcDump());
+    assertSame(f.firstSubfield("a"), f.getSubfields()[0]);
+  }
+
+  @Test
+  public void setField_replacesCompactSubfields() {
+    MarcVblLengthField f = new MarcVblLengthField("245", DATA);
+    f.setField("246", "3 " + SF + "aOther");
+    assertEquals("246", f.tag());
+    assertEquals("3 ", f.indicators());
+    assertEquals(1, f.getSubfields().length);
+    assertEquals("Other", f.firstSubfieldValue("a"));
+  }
+
+  @Test
+  public void setField_requiresSubfields() {
+    try {
+      new MarcVblLengthField("245", "10");
+      fail("expected MarcFormatException");
+    } catch (MarcFormatException e) {
+      // expected
+    }
+  }
+}
@@ -0,0 +1,110 @@
+package org.cdlib.util.marc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.cdlib.util.marc.MarcTestRecords.SF;
+import static org.cdlib.util.marc.MarcTestRecords.bib;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MarcWriterTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private static MarcRecord parse(byte[] raw) {
+    MarcRecord rec = new MarcRecord();
+    rec.build(raw, 0, raw.length, null, MarcBaseRecord.END_LIST);
+    return rec;
+  }
+
+  private static byte[] written(MarcRecord rec) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (MarcWriter writer = new MarcWriter(out)) {
+      writer.write(rec);
+    }
+    return out.toByteArray();
+  }
+
+  @Test
+  public void write_reproducesRecordBytes() {
+    byte[] latin = bib(StandardCharsets.ISO_8859_1, 1, "Café /");
+    assertArrayEquals(latin, written(parse(latin)));
+
+    byte[] utf8 = bib(StandardCharsets.UTF_8, 2, "Café 中文 𝄞 /");
+    assertArrayEquals(utf8, written(parse(utf8)));
+  }
+
+  @Test
+  public void write_matchesMarcDump() {
+    byte[] raw = bib(StandardCharsets.ISO_8859_1, 3, "Title /");
+    MarcRecord rec = parse(raw);
+    rec.setField("500", "  " + SF + "aAdded note.", String.valueOf(SF), MarcBaseRecord.TAG_ORDER);
+    byte[] bytes = written(rec);
+    assertArrayEquals(rec.marcDump().getBytes(StandardCharsets.ISO_8859_1), bytes);
+  }
+
+  @Test
+  public void write_countsFieldLengthInBytes() {
+    StringBuilder title = new StringBuilder();
+    for (int i = 0; i < 4000; i++) {
+      title.append('中');
+    }
+    MarcRecord rec = parse(bib(StandardCharsets.UTF_8, 1, "Title /"));
+    rec.setField("500", "  " + SF + "a" + title, String.valueOf(SF), MarcBaseRecord.END_LIST);
+    try {
+      written(rec);
+      fail("expected MarcSizeException");
+    } catch (MarcSizeException e) {
+      // 4000 characters, but 12000 bytes
+    }
+  }
+
+  @Test
+  public void writeBehind_writesAllRecords() throws Exception {
+    File file = tmp.newFile("out.mrc");
+    byte[][] records = new byte[3000][];
+    long total = 0;
+    try (MarcWriter writer = new MarcWriter(file, true)) {
+      for (int i = 0; i < records.length; i++) {
+        records[i] = bib(StandardCharsets.UTF_8, i, "Title é " + i + " /");
+        total += writer.write(parse(records[i]));
+      }
+      assertEquals(records.length, writer.getRecordCount());
+      assertEquals(total, writer.getByteCount());
+      writer.flush();
+      assertEquals(total, Files.size(file.toPath()));
+    }
+
+    try (MarcChannelReader reader = new MarcChannelReader(file)) {
+      for (int i = 0; i < records.length; i++) {
+        assertEquals(parse(records[i]).marcDump(), reader.next().marcDump());
+      }
+      try {
+        reader.next();
+        fail("expected end of file");
+      } catch (MarcEndOfFileException e) {
+        // expected
+      }
+    }
+  }
+
+  @Test
+  public void write_afterClose_fails() {
+    MarcWriter writer = new MarcWriter(new ByteArrayOutputStream());
+    writer.close();
+    writer.close();
+    try {
+      writer.write(parse(bib(StandardCharsets.ISO_8859_1, 1, "Title")));
+      fail("expected MarcIOException");
+    } catch (MarcIOException e) {
+      // expected
+    }
+  }
+}
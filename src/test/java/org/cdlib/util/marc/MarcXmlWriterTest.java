@@ -0,0 +1,94 @@
+package org.cdlib.util.marc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+import static org.cdlib.util.marc.MarcTestRecords.SF;
+import static org.cdlib.util.marc.MarcTestRecords.bib;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import org.junit.Test;
+import org.marc4j.MarcXmlReader;
+import org.marc4j.marc.DataField;
+import org.marc4j.marc.Record;
+
+public class MarcXmlWriterTest {
+
+  private static MarcRecord parse(byte[] raw) {
+    MarcRecord rec = new MarcRecord();
+    rec.build(raw, 0, raw.length, null, MarcBaseRecord.END_LIST);
+    return rec;
+  }
+
+  private static MarcXmlReader reader(ByteArrayOutputStream out) {
+    return new MarcXmlReader(new ByteArrayInputStream(out.toByteArray()));
+  }
+
+  @Test
+  public void write_isReadableMarcXml() {
+    MarcRecord first = parse(bib(StandardCharsets.UTF_8, 1, "Café <&> \"quoted\" 中文 /"));
+    MarcRecord second = parse(bib(StandardCharsets.ISO_8859_1, 2, "Second title /"));
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (MarcXmlWriter writer = new MarcXmlWriter(out)) {
+      writer.write(first);
+      writer.write(second);
+      assertEquals(2, writer.getRecordCount());
+    }
+
+    MarcXmlReader reader = reader(out);
+    for (MarcRecord expected : new MarcRecord[] {first, second}) {
+      Record rec = reader.next();
+      assertEquals(expected.getLeaderValue(), rec.getLeader().marshal());
+      assertEquals(expected.getFirstValue("001", null), rec.getControlNumber());
+      assertEquals(expected.getFirstValue("008", null),
+          rec.getVariableField("008").toString().substring(4));
+      List<DataField> fields = rec.getDataFields();
+      assertEquals(2, fields.size());
+      DataField title = (DataField) rec.getVariableField("245");
+      assertEquals('1', title.getIndicator1());
+      assertEquals('0', title.getIndicator2());
+      assertEquals(expected.getFirstValue("245", "a"), title.getSubfield('a').getData());
+      assertEquals("by Someone.", title.getSubfield('c').getData());
+      DataField subject = (DataField) rec.getVariableField("650");
+      assertEquals(' ', subject.getIndicator1());
+      assertEquals(expected.getFirstValue("650", "x"), subject.getSubfield('x').getData());
+    }
+    assertFalse(reader.hasNext());
+  }
+
+  @Test
+  public void write_replacesCharactersXmlDisallows() {
+    MarcRecord rec = parse(bib(StandardCharsets.ISO_8859_1, 3, "Title /"));
+    rec.setField("500", "  " + SF + "aEsc\u001B(Bnote.", String.valueOf(SF),
+        MarcBaseRecord.END_LIST);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (MarcXmlWriter writer = new MarcXmlWriter(out)) {
+      writer.write(rec);
+    }
+    DataField note = (DataField) reader(out).next().getVariableField("500");
+    assertEquals("Esc?(Bnote.", note.getSubfield('a').getData());
+  }
+
+  @Test
+  public void emptyCollection_isWellFormed() {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new MarcXmlWriter(out).close();
+    assertFalse(reader(out).hasNext());
+  }
+
+  @Test
+  public void write_afterClose_fails() {
+    MarcXmlWriter writer = new MarcXmlWriter(new ByteArrayOutputStream());
+    writer.close();
+    try {
+      writer.write(parse(bib(StandardCharsets.ISO_8859_1, 1, "Title")));
+      fail("expected MarcIOException");
+    } catch (MarcIOException e) {
+      // expected
+    }
+  }
+}
@@ -0,0 +1,57 @@
+package org.cdlib.util.marc;
+
+import org.slf4j.LoggerFactory;
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+
+/**
+ * Throughput comparison of {@link TranslateTable} and {@link CompiledTranslateTable} on the
+ * superscript and subscript table, with a literal and a pattern rule added. Not run as part of the
+ * test suite.
+ *
+ * <pre>
+ * java org.cdlib.util.marc.TranslateTableBenchmark [passes]
+ * </pre>
+ */
+public class TranslateTableBenchmark {
+
+  public static void main(String[] args) {
+    ((Logger) LoggerFactory.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME)).setLevel(Level.WARN);
+    int passes = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+
+    String[][] table = new String[CompiledTranslateTableTest.SCRIPTS.length + 2][];
+    System.arraycopy(CompiledTranslateTableTest.SCRIPTS, 0, table, 0,
+        CompiledTranslateTableTest.SCRIPTS.length);
+    table[table.length - 2] = new String[] {"--", "—"};
+    table[table.length - 1] = new String[] {"  +", " "};
+
+    TranslateTable old = new TranslateTable(table);
+    TranslateTable compiled = new CompiledTranslateTable(table);
+    String[] values = CompiledTranslateTableTest.samples(10000);
+
+    for (int pass = 0; pass < passes; pass++) {
+      long t0 = System.nanoTime();
+      long oldLen = run(old, values);
+      long t1 = System.nanoTime();
+      long newLen = run(compiled, values);
+      long t2 = System.nanoTime();
+      System.out.printf("pass %d: TranslateTable %.0f values/ms  CompiledTranslateTable %.0f values/ms"
+          + "  (%d/%d chars)%n", pass, perMs(values.length * 10, t1 - t0),
+          perMs(values.length * 10, t2 - t1), oldLen, newLen);
+    }
+  }
+
+  private static long run(TranslateTable tt, String[] values) {
+    long len = 0;
+    for (int i = 0; i < 10; i++) {
+      for (String v : values) {
+        len += tt.applyAll(v).length();
+      }
+    }
+    return len;
+  }
+
+  private static double perMs(int count, long nanos) {
+    return count / (nanos / 1e6);
+  }
+}
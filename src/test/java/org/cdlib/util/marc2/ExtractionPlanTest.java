@@ -0,0 +1,89 @@
+package org.cdlib.util.marc2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.cdlib.util.marc.MarcTestRecords.SF;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.cdlib.util.FileUtil;
+import org.cdlib.util.marc.MarcRecord;
+import org.cdlib.util.marc.MarcTestRecords;
+import org.junit.Test;
+import org.marc4j.marc.Record;
+
+public class ExtractionPlanTest {
+
+  private static final byte[] MARC = MarcTestRecords.record(StandardCharsets.ISO_8859_1,
+      new String[] {"001", "ocm00042"},
+      new String[] {"008", "890210s1988    nyu           000 0 eng d"},
+      new String[] {"245", "14" + SF + "aThe title :" + SF + "bsubtitle /" + SF + "cby Someone."},
+      new String[] {"600", "10" + SF + "aSomeone," + SF + "d1900-"},
+      new String[] {"650", " 0" + SF + "aRome" + SF + "xHistory." + SF + "aAntiquities."},
+      new String[] {"651", " 7" + SF + "aItaly" + SF + "2fast"},
+      new String[] {"920", "  " + SF + "zfirst"},
+      new String[] {"956", "  " + SF + "znot in range"},
+      new String[] {"955", "  " + SF + "alast" + SF + "zsecond"});
+
+  private static final ExtractionPlan PLAN =
+      ExtractionPlan.compile("245$ab", "6xx$a", "920-955$z", "001", "650", "65X$2", "100$a");
+
+  private static final List<List<String>> EXPECTED = Arrays.asList(
+      Arrays.asList("The title :", "subtitle /"),
+      Arrays.asList("Someone,", "Rome", "Antiquities.", "Italy"),
+      Arrays.asList("first", "second"),
+      Arrays.asList("ocm00042"),
+      Arrays.asList("Rome", "History.", "Antiquities."),
+      Arrays.asList("fast"),
+      Collections.<String>emptyList());
+
+  @Test
+  public void extract_legacyRecord() {
+    MarcRecord record = new MarcRecord(new String(MARC, StandardCharsets.ISO_8859_1));
+    assertEquals(EXPECTED, PLAN.extract(record));
+  }
+
+  @Test
+  public void extract_marc4jRecord() {
+    assertEquals(EXPECTED, PLAN.extract(MarcRecordHelper.asRecord(MARC)));
+  }
+
+  @Test
+  public void extract_matchesGetValues() {
+    MarcRecord record = new MarcRecord(new String(MARC, StandardCharsets.ISO_8859_1));
+    List<String> values = new ArrayList<>();
+    for (Object value : record.getValues("6xx", "a")) {
+      values.add((String) value);
+    }
+    assertEquals(values, PLAN.extract(record).get(1));
+  }
+
+  @Test
+  public void extract_sampleRecord() {
+    Record record = MarcRecordHelper.asRecord(FileUtil.read("bib/isbn9781847171481.xml"));
+    MarcRecordHelper helper = new MarcRecordHelper(record);
+    List<List<String>> result = ExtractionPlan.compile("040$d", "100$q").extract(record);
+    assertEquals(helper.subfieldVals("040", 'd').get(), result.get(0));
+    assertEquals(helper.subfieldVals("100", 'q').get().size(), result.get(1).size());
+  }
+
+  @Test
+  public void compile_rejectsMalformedPaths() {
+    for (String path : new String[] {"", "24", "2456", "24a$a", "955-920$a", "245$", "abc-def"}) {
+      try {
+        ExtractionPlan.compile(path);
+        fail("expected IllegalArgumentException for '" + path + "'");
+      } catch (IllegalArgumentException e) {
+        // expected
+      }
+    }
+  }
+
+  @Test
+  public void paths_keepOrder() {
+    assertEquals(Arrays.asList("245$ab", "6xx$a", "920-955$z", "001", "650", "65X$2", "100$a"),
+        PLAN.paths());
+  }
+}
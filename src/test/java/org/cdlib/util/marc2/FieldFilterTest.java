@@ -3,11 +3,14 @@ package org.cdlib.util.marc2;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.cdlib.util.marc2.FieldFilter.*;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Optional;
 import java.util.function.Predicate;
 import org.cdlib.util.DeserializationException;
 import org.cdlib.util.FileUtil;
+import org.cdlib.util.marc.MarcRecord;
+import org.cdlib.util.marc.MarcTestRecords;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -93,4 +96,15 @@ public class FieldFilterTest {
     assertTrue(resultList.isEmpty());
   }
 
+  @Test
+  public void fromMarc_matchesFromMarcRecord() throws DeserializationException {
+    byte[] marc = MarcTestRecords.bib(StandardCharsets.ISO_8859_1, 7, "Title 7");
+    FieldFilter binary = FieldFilter.fromMarc(marc);
+    FieldFilter legacy =
+        FieldFilter.fromMarcRecord(new MarcRecord(new String(marc, StandardCharsets.ISO_8859_1)));
+    List<MarcDataField> expected = binary.marcDataFields("245").get();
+    List<MarcDataField> actual = legacy.marcDataFields("245").get();
+    assertEquals(1, actual.size());
+    assertEquals(expected.get(0).getSubFields().get('a'), actual.get(0).getSubFields().get('a'));
+  }
 }
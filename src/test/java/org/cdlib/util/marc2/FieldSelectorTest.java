@@ -0,0 +1,108 @@
+package org.cdlib.util.marc2;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.cdlib.util.marc.MarcTestRecords.SF;
+import static org.cdlib.util.marc2.FieldSelector.hasIndicator;
+import static org.cdlib.util.marc2.FieldSelector.hasSubfield;
+import static org.cdlib.util.marc2.FieldSelector.hasSubfieldMatching;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import org.cdlib.util.DeserializationException;
+import org.cdlib.util.marc.MarcRecord;
+import org.cdlib.util.marc.MarcTestRecords;
+import org.cdlib.util.marc.MarcXmlWriter;
+import org.junit.Test;
+
+public class FieldSelectorTest {
+
+  private static final byte[] MARC = MarcTestRecords.record(StandardCharsets.ISO_8859_1,
+      new String[] {"001", "ocm00042"},
+      new String[] {"245", "10" + SF + "aThe title"},
+      new String[] {"852", "0 " + SF + "5CLU" + SF + "hQA76"},
+      new String[] {"852", "01" + SF + "5CU" + SF + "hQA77" + SF + "hcopy 2" + SF + "5other"},
+      new String[] {"852", "0 " + SF + "hQA78"},
+      new String[] {"900", "  " + SF + "5CU"},
+      new String[] {"852", "8 " + SF + "5CU" + SF + "hQA79"});
+
+  private static String dump(List<MarcDataField> fields) {
+    StringBuilder sb = new StringBuilder();
+    for (MarcDataField f : fields) {
+      sb.append(f.getTag()).append(f.getIndicators()).append(f.getSubFields()).append('\n');
+    }
+    return sb.toString();
+  }
+
+  private static byte[] toXml(byte[] marc) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    MarcXmlWriter writer = new MarcXmlWriter(out);
+    writer.write(new MarcRecord(new String(marc, StandardCharsets.ISO_8859_1)));
+    writer.close();
+    return out.toByteArray();
+  }
+
+  @Test
+  public void fromMarc_matchesFieldFilter() throws DeserializationException {
+    List<MarcDataField> expected = FieldFilter.fromMarc(MARC)
+        .marcDataFields("852", FieldFilter.hasSubfieldMatching('5', "CU")).get();
+    List<MarcDataField> actual =
+        new FieldSelector().select("852", hasSubfieldMatching('5', "CU")).fromMarc(MARC);
+    assertEquals(2, actual.size());
+    assertEquals(dump(expected), dump(actual));
+    assertEquals("copy 2", actual.get(0).getSubFields().get('h').get().get(1));
+    assertArrayEquals(new char[] {'0', '1'}, actual.get(0).getIndicators());
+  }
+
+  @Test
+  public void fromMarcXml_matchesFromMarc() throws DeserializationException {
+    FieldSelector selector = new FieldSelector()
+        .select("852", hasSubfieldMatching('5', "CU").and(hasIndicator(1, '0')))
+        .select("245");
+    List<MarcDataField> binary = selector.fromMarc(MARC);
+    assertEquals(2, binary.size());
+    assertEquals("245", binary.get(0).getTag());
+    assertEquals(dump(binary), dump(selector.fromMarcXml(toXml(MARC))));
+  }
+
+  @Test
+  public void select_combinesConditionsForATag() throws DeserializationException {
+    FieldSelector selector = new FieldSelector()
+        .select("852", hasIndicator(1, '8'))
+        .select("852", hasSubfield('h').and(hasSubfield('5').negate()));
+    List<MarcDataField> fields = selector.fromMarc(MARC);
+    assertEquals(2, fields.size());
+    assertEquals("QA78", fields.get(0).getSubFields().get('h').get().get(0));
+    assertEquals("QA79", fields.get(1).getSubFields().get('h').get().get(0));
+  }
+
+  @Test
+  public void utf8Values_areCompared() throws DeserializationException {
+    byte[] marc = MarcTestRecords.record(StandardCharsets.UTF_8,
+        new String[] {"852", "0 " + SF + "5Zürich" + SF + "hA1"},
+        new String[] {"852", "0 " + SF + "5CU" + SF + "hA2"});
+    marc[9] = 'a';
+    assertEquals("A1", new FieldSelector().select("852", hasSubfieldMatching('5', "Zürich"))
+        .fromMarc(marc).get(0).getSubFields().get('h').get().get(0));
+    assertEquals("A2", new FieldSelector().select("852", hasSubfieldMatching('5', "CU"))
+        .fromMarc(marc).get(0).getSubFields().get('h').get().get(0));
+  }
+
+  @Test
+  public void unregisteredTags_areSkipped() throws DeserializationException {
+    assertTrue(new FieldSelector().select("650").fromMarc(MARC).isEmpty());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void controlFieldTag_isRejected() {
+    new FieldSelector().select("001");
+  }
+
+  @Test(expected = DeserializationException.class)
+  public void malformedRecord_throwsException() throws DeserializationException {
+    byte[] marc = MARC.clone();
+    marc[12] = 'x';
+    new FieldSelector().select("852").fromMarc(marc);
+  }
+}
@@ -1,14 +1,22 @@
 package org.cdlib.util.marc2;
 
 import static org.junit.Assert.*;
+import static org.cdlib.util.marc.MarcTestRecords.SF;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
 import org.cdlib.util.DeserializationException;
 import org.cdlib.util.FileUtil;
+import org.cdlib.util.marc.MarcRecord;
+import org.cdlib.util.marc.MarcTestRecords;
 import org.cdlib.util.marc2.MarcRecordHelper;
 import org.junit.Before;
 import org.junit.Test;
+import org.marc4j.MarcStreamWriter;
+import org.marc4j.marc.Record;
 
 public class MarcHelperTest {
 
@@ -269,5 +277,70 @@ public class MarcHelperTest {
     assertTrue(Character.isWhitespace(result[1]));
   }
 
+  @Test
+  public void fromMarc_matchesMarcXml() throws Exception {
+    Record fromXml = MarcRecordHelper.asRecord(FileUtil.read("bib/isbn9781847171481.xml"));
+    fromXml.getLeader().setCharCodingScheme('a');
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    MarcStreamWriter writer = new MarcStreamWriter(out, "UTF-8");
+    writer.write(fromXml);
+    writer.close();
+
+    MarcRecordHelper binary = MarcRecordHelper.fromMarc(out.toByteArray());
+    assertEquals(fromXml.getVariableFields().toString(),
+        MarcRecordHelper.asRecord(out.toByteArray()).getVariableFields().toString());
+    assertEquals(marcHelper.subfieldVals("020", 'a', 'q'), binary.subfieldVals("020", 'a', 'q'));
+    assertEquals(marcHelper.subfieldVal("245", 'a'), binary.subfieldVal("245", 'a'));
+    assertEquals(marcHelper.controlFieldVal("008"), binary.controlFieldVal("008"));
+  }
+
+  @Test(expected = DeserializationException.class)
+  public void fromMarcMalformed_throwsException() throws DeserializationException {
+    byte[] marc = MarcTestRecords.bib(StandardCharsets.ISO_8859_1, 1, "Title");
+    marc[0] = 'x';
+    MarcRecordHelper.fromMarc(marc);
+  }
+
+  @Test
+  public void fromMarcRecord_matchesBinary() throws DeserializationException {
+    byte[] marc = MarcTestRecords.record(StandardCharsets.ISO_8859_1,
+        new String[] {"001", "ocm00042"},
+        new String[] {"008", "890210s1988    nyu           000 0 eng d"},
+        new String[] {"245", "14" + SF + "aThe title :" + SF + "bsubtitle /" + SF + "cby Someone."},
+        new String[] {"650", " 0" + SF + "aRome" + SF + "xHistory."},
+        new String[] {"650", " 7" + SF + "aItaly" + SF + "2fast"});
+    MarcRecord legacy = new MarcRecord(new String(marc, StandardCharsets.ISO_8859_1));
+
+    Record converted = MarcRecordHelper.asRecord(legacy);
+    assertEquals(MarcRecordHelper.asRecord(marc).getVariableFields().toString(),
+        converted.getVariableFields().toString());
+    assertEquals(legacy.getLeaderValue(), converted.getLeader().marshal());
+
+    MarcRecordHelper helper = MarcRecordHelper.fromMarcRecord(legacy);
+    assertEquals("ocm00042", helper.controlFieldVal("001").get());
+    assertEquals('4', helper.indicators("245").get().get(0)[1]);
+    assertEquals(2, helper.subfieldVals("650", 'a').get().size());
+    assertEquals("fast", helper.subfieldVal("650", '2').get());
+  }
+
+  @Test
+  public void repeatedFields_keepRecordOrder() throws DeserializationException {
+    byte[] marc = MarcTestRecords.record(StandardCharsets.ISO_8859_1,
+        new String[] {"001", "ocm1"},
+        new String[] {"007", "first"},
+        new String[] {"007", "second"},
+        new String[] {"650", " 0" + SF + "aRome" + SF + "xHistory."},
+        new String[] {"245", "10" + SF + "aTitle"},
+        new String[] {"650", " 7" + SF + "aItaly" + SF + "xArt."});
+    MarcRecordHelper helper = MarcRecordHelper.fromMarc(marc);
+    assertEquals("first", helper.controlFieldVal("007").get());
+    assertEquals(Arrays.asList("Rome", "Italy", "History.", "Art."),
+        helper.subfieldVals("650", 'a', 'x').get());
+    assertEquals(2, helper.indicators("650").get().size());
+    assertEquals('7', helper.indicators("650").get().get(1)[1]);
+    assertEquals("Rome", helper.subFields("650").get().get('a').get().get(0));
+    assertFalse(helper.subFields("651").isPresent());
+    assertFalse(helper.controlFieldVal("003").isPresent());
+  }
 
 }
@@ -0,0 +1,67 @@
+package org.cdlib.util.marc2;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import org.cdlib.util.marc.MarcRecord;
+import org.cdlib.util.marc.MarcTestRecords;
+import org.cdlib.util.marc.MarcXmlWriter;
+import org.slf4j.LoggerFactory;
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+
+/**
+ * Compares building a {@link MarcRecordHelper} through a MarcXML round trip with the direct binary
+ * and legacy-model factories. Not run as part of the test suite.
+ *
+ * <pre>
+ * java org.cdlib.util.marc2.MarcRecordHelperBenchmark [records] [passes]
+ * </pre>
+ */
+public class MarcRecordHelperBenchmark {
+
+  public static void main(String[] args) throws Exception {
+    ((Logger) LoggerFactory.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME)).setLevel(Level.WARN);
+
+    int count = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+    int passes = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+    byte[][] binary = new byte[count][];
+    MarcRecord[] legacy = new MarcRecord[count];
+    for (int i = 0; i < count; i++) {
+      binary[i] = MarcTestRecords.bib(StandardCharsets.ISO_8859_1, i,
+          "A moderately long title for record number " + i + " : with a subtitle /");
+      legacy[i] = new MarcRecord(new String(binary[i], StandardCharsets.ISO_8859_1));
+    }
+
+    for (int pass = 0; pass < passes; pass++) {
+      long check = 0;
+      long t0 = System.nanoTime();
+      for (int i = 0; i < count; i++) {
+        check += new MarcRecordHelper(toXml(legacy[i])).subfieldVal("245", 'a').get().length();
+      }
+      long t1 = System.nanoTime();
+      for (int i = 0; i < count; i++) {
+        check += MarcRecordHelper.fromMarc(binary[i]).subfieldVal("245", 'a').get().length();
+      }
+      long t2 = System.nanoTime();
+      for (int i = 0; i < count; i++) {
+        check += MarcRecordHelper.fromMarcRecord(legacy[i]).subfieldVal("245", 'a').get().length();
+      }
+      long t3 = System.nanoTime();
+      System.out.printf("pass %d: MarcXML round trip %.0f recs/s  fromMarc %.0f recs/s"
+          + "  fromMarcRecord %.0f recs/s  (%d)%n",
+          pass, perSec(count, t1 - t0), perSec(count, t2 - t1), perSec(count, t3 - t2), check);
+    }
+  }
+
+  static String toXml(MarcRecord rec) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    MarcXmlWriter writer = new MarcXmlWriter(out);
+    writer.write(rec);
+    writer.close();
+    return new String(out.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  static double perSec(int count, long nanos) {
+    return count * 1e9 / nanos;
+  }
+}
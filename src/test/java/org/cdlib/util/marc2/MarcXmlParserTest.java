@@ -0,0 +1,161 @@
+package org.cdlib.util.marc2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.cdlib.util.DeserializationException;
+import org.cdlib.util.FileUtil;
+import org.junit.Test;
+import org.marc4j.MarcException;
+import org.marc4j.MarcXmlReader;
+import org.marc4j.marc.Record;
+
+public class MarcXmlParserTest {
+
+  private static final String[] SAMPLES = {
+      "bib/isbn9781847171481.xml", "bib/issn01406736.xml", "bib/issn19399170.xml"};
+
+  private static final String UNICODE = "<record xmlns=\"http://www.loc.gov/MARC21/slim\">"
+      + "<leader>00000cam a2200000 a 4500</leader>"
+      + "<controlfield tag=\"001\">ocm00042</controlfield>"
+      + "<datafield tag=\"245\" ind1=\"1\" ind2=\"0\">"
+      + "<subfield code=\"a\">Zürich &amp; Kraków</subfield></datafield></record>";
+
+  private static Record marc4j(String xml) {
+    MarcXmlReader reader = new MarcXmlReader(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+    Record record = null;
+    while (reader.hasNext()) {
+      record = reader.next();
+    }
+    return record;
+  }
+
+  @Test
+  public void parse_matchesMarcXmlReader() {
+    for (String sample : SAMPLES) {
+      String xml = FileUtil.read(sample);
+      String expected = marc4j(xml).toString();
+      assertEquals(sample, expected, MarcXmlParser.parse(xml).toString());
+      assertEquals(sample, expected, MarcXmlParser.parse(xml.getBytes(StandardCharsets.UTF_8)).toString());
+    }
+  }
+
+  @Test
+  public void parse_readsBytesAsUtf8() throws DeserializationException {
+    byte[] bytes = UNICODE.getBytes(StandardCharsets.UTF_8);
+    Record record = MarcXmlParser.parse(new ByteArrayInputStream(bytes));
+    assertEquals("Zürich & Kraków", new MarcRecordHelper(record).subfieldVal("245", 'a').get());
+    assertEquals("Zürich & Kraków", MarcRecordHelper.fromMarcXml(bytes).subfieldVal("245", 'a').get());
+    assertEquals(1, FieldFilter.fromMarcXml(bytes).marcDataFields("245").get().size());
+  }
+
+  @Test
+  public void parse_keepsLastRecord() {
+    String collection = "<collection xmlns=\"http://www.loc.gov/MARC21/slim\">"
+        + "<record><controlfield tag=\"001\">first</controlfield></record>"
+        + "<record><controlfield tag=\"001\">second</controlfield></record></collection>";
+    assertEquals("second", new MarcRecordHelper(MarcXmlParser.parse(collection)).controlFieldVal("001").get());
+    assertNull(MarcXmlParser.parse("<collection xmlns=\"http://www.loc.gov/MARC21/slim\"/>"));
+  }
+
+  @Test
+  public void everyReader_takesTheSameRecordOfACollection() throws Exception {
+    String collection = "<collection xmlns=\"http://www.loc.gov/MARC21/slim\">"
+        + "<record><controlfield tag=\"001\">first</controlfield>"
+        + "<datafield tag=\"852\" ind1=\"0\" ind2=\" \"><subfield code=\"h\">QA1</subfield></datafield>"
+        + "</record><record><controlfield tag=\"001\">second</controlfield>"
+        + "<datafield tag=\"852\" ind1=\"0\" ind2=\" \"><subfield code=\"h\">QA2</subfield></datafield>"
+        + "</record></collection>";
+    byte[] bytes = collection.getBytes(StandardCharsets.UTF_8);
+    Record parsed = MarcXmlParser.parse(bytes);
+    Record streamed = null;
+    try (MarcXmlRecords records = new MarcXmlRecords(new ByteArrayInputStream(bytes))) {
+      while (records.hasNext()) {
+        streamed = records.next();
+      }
+    }
+    assertEquals(streamed.toString(), parsed.toString());
+    assertEquals("second", new MarcRecordHelper(parsed).controlFieldVal("001").get());
+    List<MarcDataField> selected = new FieldSelector().select("852").fromMarcXml(bytes);
+    assertEquals(1, selected.size());
+    assertEquals("QA2", selected.get(0).getSubFields().get('h').get().get(0));
+  }
+
+  @Test
+  public void subfieldOutsideDatafield_isRejectedByEveryReader() {
+    String xml = "<record xmlns=\"http://www.loc.gov/MARC21/slim\">"
+        + "<controlfield tag=\"001\">ocm00042</controlfield>"
+        + "<datafield tag=\"245\" ind1=\"1\" ind2=\"0\"><subfield code=\"a\">Title</subfield></datafield>"
+        + "<subfield code=\"a\">stray</subfield></record>";
+    byte[] bytes = xml.getBytes(StandardCharsets.UTF_8);
+    try {
+      MarcXmlParser.parse(bytes);
+      fail("expected MarcException");
+    } catch (MarcException e) {
+      // expected
+    }
+    try {
+      new MarcXmlRecords(new ByteArrayInputStream(bytes)).next();
+      fail("expected MarcException");
+    } catch (MarcException e) {
+      // expected
+    }
+    try {
+      new FieldSelector().select("245").fromMarcXml(bytes);
+      fail("expected DeserializationException");
+    } catch (DeserializationException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void parse_isThreadSafe() throws Exception {
+    List<String> xml = new ArrayList<>();
+    List<String> expected = new ArrayList<>();
+    for (String sample : SAMPLES) {
+      xml.add(FileUtil.read(sample));
+      expected.add(marc4j(xml.get(xml.size() - 1)).toString());
+    }
+    ExecutorService pool = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int t = 0; t < 4; t++) {
+        futures.add(pool.submit(() -> {
+          for (int i = 0; i < 50; i++) {
+            int n = i % xml.size();
+            assertEquals(expected.get(n), MarcXmlParser.parse(xml.get(n).getBytes(StandardCharsets.UTF_8)).toString());
+          }
+          return null;
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  @Test
+  public void parse_recoversAfterMalformedXml() {
+    try {
+      MarcXmlParser.parse("<record><leader>oops</record>");
+      fail("expected MarcException");
+    } catch (MarcException e) {
+      // expected
+    }
+    assertEquals("ocm00042", new MarcRecordHelper(MarcXmlParser.parse(UNICODE)).controlFieldVal("001").get());
+  }
+
+  @Test(expected = DeserializationException.class)
+  public void fromMarcXml_malformedXml() throws DeserializationException {
+    MarcRecordHelper.fromMarcXml("<record><leader>".getBytes(StandardCharsets.UTF_8));
+  }
+}
@@ -0,0 +1,121 @@
+package org.cdlib.util.marc2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.cdlib.util.FileUtil;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.marc4j.MarcException;
+import org.marc4j.marc.Record;
+
+public class MarcXmlRecordsTest {
+
+  private static final String[] SAMPLES =
+      {"bib/isbn9781847171481.xml", "bib/issn01406736.xml", "bib/issn19399170.xml"};
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private static String body(String sample) {
+    String xml = FileUtil.read(sample);
+    return xml.substring(xml.indexOf("<record"));
+  }
+
+  private Path collection(int copies) throws Exception {
+    StringBuilder sb = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+    sb.append("<collection xmlns=\"http://www.loc.gov/MARC21/slim\">\n");
+    for (int i = 0; i < copies; i++) {
+      String record = body(SAMPLES[i % SAMPLES.length]);
+      sb.append(record.replace(" xmlns=\"" + MarcXmlRecords.MARCXML_NS + "\"", ""));
+    }
+    sb.append("</collection>\n");
+    Path path = tmp.newFile().toPath();
+    Files.write(path, sb.toString().getBytes(StandardCharsets.UTF_8));
+    return path;
+  }
+
+  private static String dump(Record record) {
+    return record.getLeader().marshal() + record.getVariableFields();
+  }
+
+  @Test
+  public void iterator_readsEveryRecordInOrder() throws Exception {
+    List<String> expected = new ArrayList<>();
+    for (String sample : SAMPLES) {
+      expected.add(dump(MarcRecordHelper.asRecord(FileUtil.read(sample))));
+    }
+    try (MarcXmlRecords records = MarcXmlRecords.open(collection(7))) {
+      for (int i = 0; i < 7; i++) {
+        assertEquals(expected.get(i % 3), dump(records.next()));
+      }
+      assertFalse(records.hasNext());
+    }
+  }
+
+  @Test
+  public void helpers_streamViews() throws Exception {
+    try (Stream<MarcRecordHelper> helpers = MarcXmlRecords.open(collection(6)).helpers()) {
+      List<String> ids = helpers.map(h -> h.controlFieldVal("001").get()).collect(Collectors.toList());
+      assertEquals(6, ids.size());
+      assertEquals(ids.get(0), ids.get(3));
+    }
+    try (Stream<FieldFilter> filters = MarcXmlRecords.open(collection(3)).filters()) {
+      assertEquals(3, filters.filter(f -> !f.marcDataFields("245").get().isEmpty()).count());
+    }
+  }
+
+  @Test
+  public void oaiPmhWrapper_isSkipped() throws Exception {
+    String xml = "<OAI-PMH xmlns=\"http://www.openarchives.org/OAI/2.0/\"><ListRecords>"
+        + "<record><header><identifier>oai:1</identifier></header><metadata>"
+        + body(SAMPLES[1])
+        + "</metadata></record></ListRecords></OAI-PMH>";
+    MarcXmlRecords records =
+        new MarcXmlRecords(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+    assertEquals(dump(MarcRecordHelper.asRecord(FileUtil.read(SAMPLES[1]))), dump(records.next()));
+    assertFalse(records.hasNext());
+    records.close();
+  }
+
+  @Test
+  public void forEachParallel_handlesEveryRecord() throws Exception {
+    AtomicInteger count = new AtomicInteger();
+    try (MarcXmlRecords records = MarcXmlRecords.open(collection(50))) {
+      records.forEachParallel(3, h -> {
+        if (h.subfieldVal("245", 'a').isPresent()) {
+          count.incrementAndGet();
+        }
+      });
+    }
+    assertEquals(50, count.get());
+  }
+
+  @Test
+  public void forEachParallel_rethrowsFailure() throws Exception {
+    try (MarcXmlRecords records = MarcXmlRecords.open(collection(20))) {
+      records.forEachParallel(2, h -> {
+        throw new IllegalStateException("boom");
+      });
+      fail("expected IllegalStateException");
+    } catch (IllegalStateException e) {
+      assertEquals("boom", e.getMessage());
+    }
+  }
+
+  @Test(expected = MarcException.class)
+  public void malformedXml_throwsMarcException() {
+    String xml = "<collection xmlns=\"http://www.loc.gov/MARC21/slim\"><record><leader>x</lead>";
+    new MarcXmlRecords(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8))).next();
+  }
+}
@@ -0,0 +1,80 @@
+package org.cdlib.util.marc2;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.cdlib.util.FileUtil;
+import org.marc4j.marc.DataField;
+import org.marc4j.marc.Record;
+import org.marc4j.marc.Subfield;
+
+/**
+ * Compares {@link SubFields} grouping with the earlier per-code grouping, over the data fields of
+ * the sample records in src/test/resources/bib. Not run as part of the test suite.
+ *
+ * <pre>
+ * java org.cdlib.util.marc2.SubFieldsBenchmark [iterations] [passes]
+ * </pre>
+ */
+public class SubFieldsBenchmark {
+
+  private static final String[] SAMPLES =
+      {"bib/isbn9781847171481.xml", "bib/issn01406736.xml", "bib/issn19399170.xml"};
+
+  public static void main(String[] args) throws Exception {
+    int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+    int passes = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+    List<DataField> fields = new ArrayList<>();
+    for (String sample : SAMPLES) {
+      Record record = MarcRecordHelper.asRecord(FileUtil.read(sample));
+      fields.addAll(record.getDataFields());
+    }
+    System.out.println("data fields: " + fields.size());
+
+    for (int pass = 0; pass < passes; pass++) {
+      long check = 0;
+      long t0 = System.nanoTime();
+      for (int n = 0; n < iterations; n++) {
+        for (DataField df : fields) {
+          List<String> values = perCode(df).get('a');
+          check += values == null ? 0 : new ArrayList<>(values).size();
+        }
+      }
+      long t1 = System.nanoTime();
+      for (int n = 0; n < iterations; n++) {
+        for (DataField df : fields) {
+          SubFields subfields = new SubFields(df);
+          check += subfields.get('a').map(List::size).orElse(0);
+        }
+      }
+      long t2 = System.nanoTime();
+      long count = (long) iterations * fields.size();
+      System.out.printf("pass %d: per-code grouping %.0f ns/field  single-pass %.0f ns/field  (%d)%n",
+          pass, (double) (t1 - t0) / count, (double) (t2 - t1) / count, check);
+    }
+  }
+
+  /*
+   * The grouping SubFields(DataField) used to do: collect the distinct codes, then stream the
+   * subfields once per code.
+   */
+  static Map<Character, List<String>> perCode(DataField dataField) {
+    Map<Character, List<String>> subfields = new HashMap<>();
+    List<Subfield> sourceSubfields = dataField.getSubfields();
+    Set<Character> codes = new HashSet<>();
+    sourceSubfields.forEach(sf -> codes.add(sf.getCode()));
+    for (char code : codes) {
+      List<String> vals = sourceSubfields.stream()
+                                         .filter(sf -> sf.getCode() == code)
+                                         .map(sf -> sf.getData())
+                                         .collect(Collectors.toList());
+      subfields.put(code, vals);
+    }
+    return subfields;
+  }
+}
@@ -4,9 +4,15 @@ import org.marc4j.marc.DataField;
 import org.marc4j.marc.Subfield;
 import org.marc4j.marc.impl.SubfieldImpl;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
 import static org.mockito.Mockito.*;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import org.junit.*;
 
 public class SubFieldsTest {
@@ -45,4 +51,57 @@ public class SubFieldsTest {
     assertEquals("Non repeating", result.get(2));
   }
 
+  @Test
+  public void get_groupsInterleavedCodes() {
+    Subfield sub3 = new SubfieldImpl('a');
+    sub3.setData("Third of repeating");
+    marc4jSubfields.add(sub3);
+    SubFields subfields = new SubFields(mockDataField);
+    assertEquals(Arrays.asList("First of repeating", "Second of repeating", "Third of repeating"),
+        subfields.get('a').get());
+    assertEquals(Arrays.asList("Non repeating", "First of repeating", "Second of repeating",
+        "Third of repeating", "Non repeating"), subfields.get('b', 'a', 'b').get());
+    assertFalse(subfields.get('z').isPresent());
+    assertFalse(subfields.get('y', 'z').isPresent());
+  }
+
+  @Test
+  public void get_groupsNonAsciiCodes() {
+    for (char code : new char[] {'\u00e9', '\u00e9', '\u0101', 'a'}) {
+      Subfield sub = new SubfieldImpl(code);
+      sub.setData("Code " + code);
+      marc4jSubfields.add(sub);
+    }
+    SubFields subfields = new SubFields(mockDataField);
+    assertEquals(Arrays.asList("Code \u00e9", "Code \u00e9"), subfields.get('\u00e9').get());
+    assertEquals(Collections.singletonList("Code \u0101"), subfields.get('\u0101').get());
+    assertEquals(Arrays.asList("First of repeating", "Second of repeating", "Code a"),
+        subfields.get('a').get());
+  }
+
+  @Test
+  public void get_singleCodeIsReadOnly() {
+    List<String> values = new SubFields(mockDataField).get('a').get();
+    try {
+      values.set(0, "changed");
+      fail("expected UnsupportedOperationException");
+    } catch (UnsupportedOperationException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void mapConstructor_matchesDataField() {
+    Map<Character, List<String>> map = new LinkedHashMap<>();
+    map.put('a', Arrays.asList("First of repeating", "Second of repeating"));
+    map.put('b', Collections.singletonList("Non repeating"));
+    map.put('c', Collections.<String>emptyList());
+    SubFields fromMap = new SubFields(map);
+    SubFields fromField = new SubFields(mockDataField);
+    assertEquals(fromField.get('a', 'b'), fromMap.get('a', 'b'));
+    assertFalse(fromMap.get('c').isPresent());
+    assertEquals("{\"a\":[\"First of repeating\",\"Second of repeating\"],"
+        + "\"b\":[\"Non repeating\"],\"c\":[]}", fromMap.toString());
+  }
+
 }